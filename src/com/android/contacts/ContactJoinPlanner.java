@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.provider.ContactsContract.AggregationExceptions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Picks the {@link AggregationExceptions#TYPE_KEEP_TOGETHER} exceptions needed to join raw
+ * contacts into one contact.
+ *
+ * <p>The provider stores one exception per unordered pair of raw contacts, and aggregates raw
+ * contacts connected by keep together exceptions into the same contact. Linking every raw
+ * contact to the first one (a star) is thus enough, instead of one exception per pair. The
+ * only pairs that need their own exception are those currently kept separate, since a keep
+ * separate exception within the set would split it again.</p>
+ */
+/* package */ final class ContactJoinPlanner {
+
+    private ContactJoinPlanner() {
+    }
+
+    /**
+     * Returns the pairs of raw contacts to keep together.
+     *
+     * @param rawContactIds the raw contacts to join.
+     * @param keepSeparatePairs the pairs of raw contacts with a keep separate exception. Pairs
+     *         not made of two of rawContactIds are ignored.
+     */
+    public static List<long[]> getKeepTogetherPairs(long[] rawContactIds,
+            Collection<long[]> keepSeparatePairs) {
+        final ArrayList<long[]> pairs = new ArrayList<>();
+        if (rawContactIds.length < 2) {
+            return pairs;
+        }
+        final HashSet<Long> members = new HashSet<>();
+        for (long id : rawContactIds) {
+            members.add(id);
+        }
+        final long hub = rawContactIds[0];
+        final HashSet<String> added = new HashSet<>();
+        for (long id : rawContactIds) {
+            addPair(pairs, added, hub, id);
+        }
+        for (long[] pair : keepSeparatePairs) {
+            if (members.contains(pair[0]) && members.contains(pair[1])) {
+                addPair(pairs, added, pair[0], pair[1]);
+            }
+        }
+        return pairs;
+    }
+
+    private static void addPair(List<long[]> pairs, HashSet<String> added, long id1, long id2) {
+        if (id1 == id2) {
+            return;
+        }
+        final long low = Math.min(id1, id2);
+        final long high = Math.max(id1, id2);
+        if (added.add(low + "," + high)) {
+            pairs.add(new long[] { low, high });
+        }
+    }
+}
@@ -16,7 +16,6 @@
 
 package com.android.contacts;
 
-import android.app.ActivityManager;
 import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.ContentUris;
@@ -33,7 +32,6 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
-import android.media.ThumbnailUtils;
 import android.net.TrafficStats;
 import android.net.Uri;
 import android.net.Uri.Builder;
@@ -41,6 +39,7 @@ import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Contacts.Photo;
@@ -51,13 +50,21 @@ import androidx.core.graphics.drawable.RoundedBitmapDrawableFactory;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.LruCache;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import com.android.contacts.lettertiles.LetterTileCache;
 import com.android.contacts.lettertiles.LetterTileDrawable;
+import com.android.contacts.util.BitmapPool;
 import com.android.contacts.util.BitmapUtil;
+import com.android.contacts.util.MetricsRegistry;
+import com.android.contacts.util.MetricsRegistry.Counter;
+import com.android.contacts.util.MetricsRegistry.Histogram;
 import com.android.contacts.util.PermissionsUtil;
+import com.android.contacts.util.PhotoCachePolicy;
+import com.android.contacts.util.PhotoDiskCache;
 import com.android.contacts.util.TrafficStatsTags;
 import com.android.contacts.util.UriUtils;
 import com.android.contactsbind.util.UserAgentGenerator;
@@ -67,17 +74,31 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -383,6 +404,12 @@ public abstract class ContactPhotoManager implements ComponentCallbacks2 {
      * background and the type of letter is decided based on the contact's details.
      */
     private static class LetterTileDefaultImageProvider extends DefaultImageProvider {
+        /** Size of {@link #sTileCache}: a screenful of list tiles at high densities. */
+        private static final int TILE_CACHE_SIZE = 2 * 1024 * 1024;
+
+        /** Tiles rendered for the letter tile avatars, shared by all of them. */
+        private static final LetterTileCache sTileCache = new LetterTileCache(TILE_CACHE_SIZE);
+
         @Override
         public void applyDefaultImage(ImageView view, int extent, boolean darkTheme,
                 DefaultImageRequest defaultImageRequest) {
@@ -394,6 +421,7 @@ public abstract class ContactPhotoManager implements ComponentCallbacks2 {
         public static Drawable getDefaultImageForContact(Resources resources,
                 DefaultImageRequest defaultImageRequest) {
             final LetterTileDrawable drawable = new LetterTileDrawable(resources);
+            drawable.setTileCache(sTileCache);
             if (defaultImageRequest != null) {
                 // If the contact identifier is null or empty, fallback to the
                 // displayName. In that case, use {@code null} for the contact's
@@ -413,6 +441,11 @@ public abstract class ContactPhotoManager implements ComponentCallbacks2 {
             }
             return drawable;
         }
+
+        /** Trims the cache of rendered tiles to the given fraction of its size. */
+        static void trimTileCache(float fraction) {
+            sTileCache.trimToSize((int) (sTileCache.maxSize() * fraction));
+        }
     }
 
     private static class BlankDefaultImageProvider extends DefaultImageProvider {
@@ -564,6 +597,22 @@ public abstract class ContactPhotoManager implements ComponentCallbacks2 {
      */
     public abstract void preloadPhotosInBackground();
 
+    /**
+     * Fetches the given thumbnails in the background because they are likely to be shown soon,
+     * e.g. because the list that contains them is being scrolled towards them. Thumbnails are
+     * fetched in the given order. Each call replaces the previous one: thumbnails of an earlier
+     * call that have not been fetched yet are dropped unless they are requested again.
+     */
+    public void prefetchThumbnails(Collection<Long> photoIds) {
+    }
+
+    /**
+     * Prints the state of the caches and the counters and latencies of photo loading, for
+     * dumpsys and debugging.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+    }
+
     // ComponentCallbacks2
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
@@ -582,6 +631,21 @@ public abstract class ContactPhotoManager implements ComponentCallbacks2 {
 
 class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     private static final String LOADER_THREAD_NAME = "ContactPhotoLoader";
+    private static final String DECODER_THREAD_NAME = "ContactPhotoDecoder";
+    private static final String FETCHER_THREAD_NAME = "ContactPhotoFetcher";
+    private static final String DISK_WRITER_THREAD_NAME = "ContactPhotoDiskWriter";
+
+    /** Upper bound for the number of decode threads picked automatically. */
+    private static final int MAX_DECODE_THREADS = 4;
+
+    /** How long idle decode threads are kept around. */
+    private static final int DECODE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    /** Maximum number of URI based photos fetched at the same time. */
+    private static final int MAX_FETCH_THREADS = 4;
+
+    /** Maximum number of URI based photos fetched at the same time from one authority. */
+    private static final int MAX_FETCHES_PER_AUTHORITY = 2;
 
     private static final int FADE_TRANSITION_DURATION = 200;
 
@@ -599,7 +663,13 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
-    private static final String[] COLUMNS = new String[] { Photo._ID, Photo.PHOTO };
+    private static final String[] COLUMNS =
+            new String[] { Photo._ID, Photo.PHOTO, Data.DATA_VERSION };
+
+    private static final String[] VERSION_COLUMNS = new String[] { Photo._ID, Data.DATA_VERSION };
+
+    /** Name of the directory inside the app's cache directory that holds {@link #mDiskCache}. */
+    private static final String DISK_CACHE_DIRECTORY = "contact_photos";
 
     /**
      * Placeholder object used to indicate that a bitmap for a given key could not
@@ -657,6 +727,35 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
      */
     private final LruCache<Object, Bitmap> mBitmapCache;
 
+    /**
+     * Persistent cache for photo bytes that backs {@link #mBitmapHolderCache}, so that the
+     * photos don't have to be read from the provider again after the process is restarted.
+     * Thumbnails are versioned with {@link Data#DATA_VERSION}, which the provider bumps whenever
+     * the photo changes. Only accessed from the loader thread.
+     */
+    private final PhotoDiskCache mDiskCache;
+
+    /**
+     * Bitmaps that are no longer used, to be reused when decoding other photos. Fed by
+     * {@link #mBitmapCache} evictions.
+     */
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * Bumped when {@link #mBitmapPool} is cleared, so that the bitmaps released before, which
+     * are put into the pool a few frames later, are dropped instead.
+     */
+    private final AtomicInteger mBitmapPoolGeneration = new AtomicInteger();
+
+    /**
+     * Bitmaps decoded by {@link #inflateBitmap} that may be recycled into {@link #mBitmapPool}
+     * once they are neither in {@link #mBitmapCache} nor shown by an image view. Bitmaps that
+     * are handed to us from outside, through {@link #cacheBitmap(Uri, Bitmap, byte[])}, are
+     * never recycled.
+     */
+    private final WeakHashMap<Bitmap, PoolableBitmapState> mPoolableBitmaps =
+            new WeakHashMap<Bitmap, PoolableBitmapState>();
+
     /**
      * A map from ImageView to the corresponding photo ID or uri, encapsulated in a request.
      * The request may swapped out before the photo loading request is started.
@@ -664,6 +763,105 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     private final ConcurrentHashMap<ImageView, Request> mPendingRequests =
             new ConcurrentHashMap<ImageView, Request>();
 
+    /**
+     * Number of views in {@link #mPendingRequests} that wait for each photo key. All views
+     * waiting for the same photo share a single fetch and decode, and the loader abandons a
+     * fetch or decode once no view waits for its photo anymore. Only modified on the UI thread,
+     * together with {@link #mPendingRequests}.
+     */
+    private final ConcurrentHashMap<Object, Integer> mWaiterCounts =
+            new ConcurrentHashMap<Object, Integer>();
+
+    /** Counters and latencies of the loading pipeline, printed by {@link #dump}. */
+    private final MetricsRegistry mMetrics = new MetricsRegistry("ContactPhotoManager");
+
+    /** Requests for photos whose bytes were in {@link #mBitmapHolderCache}. */
+    private final Counter mHolderCacheHits = mMetrics.counter("holder cache hits");
+    private final Counter mHolderCacheMisses = mMetrics.counter("holder cache misses");
+
+    /** Requests for cached photos whose decoded bitmap was still around. */
+    private final Counter mBitmapHits = mMetrics.counter("bitmap hits");
+    private final Counter mBitmapMisses = mMetrics.counter("bitmap misses");
+
+    private final Counter mDiskCacheHits = mMetrics.counter("disk cache hits");
+    private final Counter mDiskCacheMisses = mMetrics.counter("disk cache misses");
+
+    /** Number of requests that joined a load already requested by another view. */
+    private final Counter mCoalescedRequestCount = mMetrics.counter("coalesced requests");
+
+    /** Number of fetches and decodes abandoned because no view waited for them anymore. */
+    private final Counter mAbandonedLoadCount = mMetrics.counter("abandoned loads");
+
+    private final Histogram mThumbnailQueryLatency = mMetrics.histogram("thumbnail query");
+    private final Histogram mDiskCacheLatency = mMetrics.histogram("disk cache lookup");
+    private final Histogram mUriFetchLatency = mMetrics.histogram("uri fetch");
+    private final Histogram mDecodeLatency = mMetrics.histogram("decode");
+
+    /**
+     * Decodes the photos fetched by the loader thread, so that the loader thread can go on
+     * fetching the next photos and decoding is spread across the available cores.
+     */
+    private final ThreadPoolExecutor mDecodeExecutor;
+
+    /**
+     * Fetches URI based photos for the loader thread, so that photos from a slow directory or
+     * server don't hold up photos from other sources.
+     */
+    private final ThreadPoolExecutor mFetchExecutor;
+
+    /**
+     * Writes photos to {@link #mDiskCache}, so that the loader thread and the fetch threads
+     * don't wait for the disk. A single thread, so that writes of the same photo don't race.
+     */
+    private final ThreadPoolExecutor mDiskWriteExecutor;
+
+    /**
+     * Data versions of the thumbnails read from the provider since the contacts last changed,
+     * by photo id. The entries of {@link #mDiskCache} are checked against these without
+     * querying the versions again. Replaced by {@link #refreshCache()}.
+     */
+    private volatile ConcurrentHashMap<Long, Long> mPhotoVersions =
+            new ConcurrentHashMap<Long, Long>();
+
+    /**
+     * Decodes submitted to {@link #mDecodeExecutor} in the order in which their photos were
+     * fetched. Decoded photos are published to {@link #mBitmapHolderCache} strictly in this
+     * order, even if a later decode completes first.
+     */
+    private final ArrayDeque<DecodeTask> mDecodeQueue = new ArrayDeque<DecodeTask>();
+
+    /**
+     * Keys of photos that have been fetched but are not yet published. The loader thread must
+     * not fetch these again.
+     */
+    private final Set<Object> mDecodingKeys =
+            Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /**
+     * Keys of URI based photos queued or being fetched on {@link #mFetchExecutor}. The loader
+     * thread doesn't wait for the fetches, and must not start them again.
+     */
+    private final Set<Object> mFetchingKeys =
+            Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /** Number of photos the loader thread is about to fetch in its current cycle. */
+    private final AtomicInteger mFetchQueueDepth = new AtomicInteger();
+
+    /** Highest value of {@link #mFetchQueueDepth} seen so far. */
+    private final AtomicInteger mMaxFetchQueueDepth = new AtomicInteger();
+
+    /** Number of photos waiting to be decoded or being decoded. */
+    private final AtomicInteger mDecodeQueueDepth = new AtomicInteger();
+
+    /** Highest value of {@link #mDecodeQueueDepth} seen so far. */
+    private final AtomicInteger mMaxDecodeQueueDepth = new AtomicInteger();
+
+    /**
+     * Thumbnails requested through {@link #prefetchThumbnails}. Replaced as a whole on each
+     * request, which cancels the prefetching of the ids that are not part of the new request.
+     */
+    private volatile Set<Long> mPrefetchPhotoIds = Collections.emptySet();
+
     /**
      * Handler for messages sent to the UI thread.
      */
@@ -685,11 +883,8 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
      */
     private boolean mPaused;
 
-    /** Cache size for {@link #mBitmapHolderCache} for devices with "large" RAM. */
-    private static final int HOLDER_CACHE_SIZE = 2000000;
-
-    /** Cache size for {@link #mBitmapCache} for devices with "large" RAM. */
-    private static final int BITMAP_CACHE_SIZE = 36864 * 48; // 1728K
+    /** Sizes of the caches, and how far to trim them under memory pressure. */
+    private final PhotoCachePolicy mCachePolicy;
 
     /** Height/width of a thumbnail image */
     private static int mThumbnailSize;
@@ -708,12 +903,12 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     public ContactPhotoManagerImpl(Context context) {
         mContext = context;
 
-        final ActivityManager am = ((ActivityManager) context.getSystemService(
-                Context.ACTIVITY_SERVICE));
+        mThumbnailSize = context.getResources().getDimensionPixelSize(
+                R.dimen.contact_browser_list_item_photo_size);
 
-        final float cacheSizeAdjustment = (am.isLowRamDevice()) ? 0.5f : 1.0f;
+        mCachePolicy = PhotoCachePolicy.create(context, mThumbnailSize);
 
-        final int bitmapCacheSize = (int) (cacheSizeAdjustment * BITMAP_CACHE_SIZE);
+        final int bitmapCacheSize = mCachePolicy.getBitmapCacheSize();
         mBitmapCache = new LruCache<Object, Bitmap>(bitmapCacheSize) {
             @Override protected int sizeOf(Object key, Bitmap value) {
                 return value.getByteCount();
@@ -721,10 +916,14 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
             @Override protected void entryRemoved(
                     boolean evicted, Object key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    onBitmapRemovedFromCache(oldValue);
+                }
                 if (DEBUG) dumpStats();
             }
         };
-        final int holderCacheSize = (int) (cacheSizeAdjustment * HOLDER_CACHE_SIZE);
+        mBitmapPool = new BitmapPool(mCachePolicy.getBitmapPoolSize());
+        final int holderCacheSize = mCachePolicy.getHolderCacheSize();
         mBitmapHolderCache = new LruCache<Object, BitmapHolder>(holderCacheSize) {
             @Override protected int sizeOf(Object key, BitmapHolder value) {
                 return value.bytes != null ? value.bytes.length : 0;
@@ -736,14 +935,40 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             }
         };
         mBitmapHolderCacheRedZoneBytes = (int) (holderCacheSize * 0.75);
-        Log.i(TAG, "Cache adj: " + cacheSizeAdjustment);
+        mDiskCache = new PhotoDiskCache(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY),
+                mCachePolicy.getDiskCacheSize());
         if (DEBUG) {
+            Log.d(TAG, "Cache policy: " + mCachePolicy);
             Log.d(TAG, "Cache size: " + btk(mBitmapHolderCache.maxSize())
                     + " + " + btk(mBitmapCache.maxSize()));
         }
 
-        mThumbnailSize = context.getResources().getDimensionPixelSize(
-                R.dimen.contact_browser_list_item_photo_size);
+        int decodeThreads = context.getResources().getInteger(
+                R.integer.config_contact_photo_decode_threads);
+        if (decodeThreads <= 0) {
+            // Leave one core for the UI thread.
+            decodeThreads = Math.max(1, Math.min(MAX_DECODE_THREADS,
+                    Runtime.getRuntime().availableProcessors() - 1));
+        }
+        mDecodeExecutor = new ThreadPoolExecutor(decodeThreads, decodeThreads,
+                DECODE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(DECODER_THREAD_NAME));
+        mDecodeExecutor.allowCoreThreadTimeOut(true);
+
+        mFetchExecutor = new ThreadPoolExecutor(MAX_FETCH_THREADS, MAX_FETCH_THREADS,
+                DECODE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(FETCHER_THREAD_NAME));
+        mFetchExecutor.allowCoreThreadTimeOut(true);
+
+        mDiskWriteExecutor = new ThreadPoolExecutor(1, 1,
+                DECODE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(DISK_WRITER_THREAD_NAME));
+        mDiskWriteExecutor.allowCoreThreadTimeOut(true);
+
+        registerGauges();
 
         // Get a user agent string to use for URI photo requests.
         mUserAgent = UserAgentGenerator.getUserAgent(context);
@@ -752,6 +977,73 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         }
     }
 
+    private void registerGauges() {
+        mMetrics.registerGauge("holder cache bytes", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mBitmapHolderCache.size();
+            }
+        });
+        mMetrics.registerGauge("bitmap cache bytes", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mBitmapCache.size();
+            }
+        });
+        mMetrics.registerGauge("bitmap pool bytes", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mBitmapPool.size();
+            }
+        });
+        mMetrics.registerGauge("pending requests", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mPendingRequests.size();
+            }
+        });
+        mMetrics.registerGauge("fetch queue depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mFetchQueueDepth.get();
+            }
+        });
+        mMetrics.registerGauge("max fetch queue depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mMaxFetchQueueDepth.get();
+            }
+        });
+        mMetrics.registerGauge("decode queue depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mDecodeQueueDepth.get();
+            }
+        });
+        mMetrics.registerGauge("max decode queue depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return mMaxDecodeQueueDepth.get();
+            }
+        });
+    }
+
+    @Override
+    public void dump(String prefix, PrintWriter writer) {
+        mMetrics.dump(writer, prefix);
+        final String innerPrefix = prefix + "  ";
+        writer.println(innerPrefix + "holder hit rate: "
+                + MetricsRegistry.percent(mHolderCacheHits, mHolderCacheMisses) + "%");
+        writer.println(innerPrefix + "bitmap hit rate: "
+                + MetricsRegistry.percent(mBitmapHits, mBitmapMisses) + "%");
+        writer.println(innerPrefix + "disk cache hit rate: "
+                + MetricsRegistry.percent(mDiskCacheHits, mDiskCacheMisses) + "%");
+        writer.println(innerPrefix + "policy: " + mCachePolicy);
+        writer.println(innerPrefix + "holder cache: " + mBitmapHolderCache);
+        writer.println(innerPrefix + "pool: " + mBitmapPool);
+        writer.println(innerPrefix + "decode threads: " + mDecodeExecutor.getMaximumPoolSize());
+    }
+
     /** Converts bytes to K bytes, rounding up.  Used only for debug log. */
     private static String btk(int bytes) {
         return ((bytes + 1023) / 1024) + "K";
@@ -776,7 +1068,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
                 if (h.bytes != null) {
                     rawBytes += h.bytes.length;
                 }
-                Bitmap b = h.bitmapRef != null ? h.bitmapRef.get() : null;
+                Bitmap b = getSoftBitmap(h);
                 if (b != null) {
                     numBitmaps++;
                     bitmapBytes += b.getByteCount();
@@ -803,30 +1095,78 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
                     + ", avg: " + btk(safeDiv(bitmapBytes, numBitmaps)));
             // We don't get from L2 cache, so L2 stats is meaningless.
         }
+
+        Log.d(TAG, "Pool: " + mBitmapPool);
+
+        Log.d(TAG, "Requests: pending=" + mPendingRequests.size() + " for "
+                + mWaiterCounts.size() + " photos, coalesced=" + mCoalescedRequestCount.get()
+                + ", abandoned=" + mAbandonedLoadCount.get());
+
+        Log.d(TAG, "Queues: fetch=" + mFetchQueueDepth.get()
+                + " (max " + mMaxFetchQueueDepth.get() + "), decode=" + mDecodeQueueDepth.get()
+                + " (max " + mMaxDecodeQueueDepth.get() + "), decode threads: "
+                + mDecodeExecutor.getMaximumPoolSize());
     }
 
     @Override
     public void onTrimMemory(int level) {
         if (DEBUG) Log.d(TAG, "onTrimMemory: " + level);
-        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+        final float holderFraction = mCachePolicy.getHolderCacheTrimFraction(level);
+        final float bitmapFraction = mCachePolicy.getBitmapCacheTrimFraction(level);
+        if (holderFraction <= 0f && bitmapFraction <= 0f) {
             // Clear the caches.  Note all pending requests will be removed too.
             clear();
+            LetterTileDefaultImageProvider.trimTileCache(0f);
+            return;
+        }
+        if (bitmapFraction < 1f) {
+            mBitmapCache.trimToSize((int) (mBitmapCache.maxSize() * bitmapFraction));
+            clearBitmapPool();
+            LetterTileDefaultImageProvider.trimTileCache(bitmapFraction);
+            if (bitmapFraction <= 0f) {
+                // Let go of the decoded bitmaps that are only softly referenced. They can be
+                // decoded again from the bytes, which we keep.
+                synchronized (mPoolableBitmaps) {
+                    for (BitmapHolder holder : mBitmapHolderCache.snapshot().values()) {
+                        holder.bitmap = null;
+                        holder.bitmapRef = null;
+                    }
+                }
+            }
+        }
+        if (holderFraction < 1f) {
+            mBitmapHolderCache.trimToSize((int) (mBitmapHolderCache.maxSize() * holderFraction));
         }
     }
 
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
     @Override
     public void preloadPhotosInBackground() {
         ensureLoaderThread();
         mLoaderThread.requestPreloading();
     }
 
+    @Override
+    public void prefetchThumbnails(Collection<Long> photoIds) {
+        mPrefetchPhotoIds = new LinkedHashSet<Long>(photoIds);
+        if (!photoIds.isEmpty()) {
+            ensureLoaderThread();
+            mLoaderThread.requestPrefetching();
+        }
+    }
+
     @Override
     public void loadThumbnail(ImageView view, long photoId, boolean darkTheme, boolean isCircular,
             DefaultImageRequest defaultImageRequest, DefaultImageProvider defaultProvider) {
         if (photoId == 0) {
             // No photo is needed
+            setViewBitmap(view, null);
             defaultProvider.applyDefaultImage(view, -1, darkTheme, defaultImageRequest);
-            mPendingRequests.remove(view);
+            removePendingRequest(view);
         } else {
             if (DEBUG) Log.d(TAG, "loadPhoto request: " + photoId);
             loadPhotoByIdOrUri(view, Request.createFromThumbnailId(photoId, darkTheme, isCircular,
@@ -840,9 +1180,10 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             DefaultImageProvider defaultProvider) {
         if (photoUri == null) {
             // No photo is needed
+            setViewBitmap(view, null);
             defaultProvider.applyDefaultImage(view, requestedExtent, darkTheme,
                     defaultImageRequest);
-            mPendingRequests.remove(view);
+            removePendingRequest(view);
         } else {
             if (DEBUG) Log.d(TAG, "loadPhoto request: " + photoUri);
             if (isDefaultImageUri(photoUri)) {
@@ -859,15 +1200,16 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             boolean darkTheme, boolean isCircular, DefaultImageProvider defaultProvider) {
         DefaultImageRequest request = getDefaultImageRequestFromUri(uri);
         request.isCircular = isCircular;
+        setViewBitmap(view, null);
         defaultProvider.applyDefaultImage(view, requestedExtent, darkTheme, request);
     }
 
     private void loadPhotoByIdOrUri(ImageView view, Request request) {
         boolean loaded = loadCachedPhoto(view, request, false);
         if (loaded) {
-            mPendingRequests.remove(view);
+            removePendingRequest(view);
         } else {
-            mPendingRequests.put(view, request);
+            putPendingRequest(view, request);
             if (!mPaused) {
                 // Send a request to start loading photos
                 requestLoading();
@@ -877,8 +1219,50 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
     @Override
     public void removePhoto(ImageView view) {
+        setViewBitmap(view, null);
         view.setImageDrawable(null);
-        mPendingRequests.remove(view);
+        removePendingRequest(view);
+    }
+
+    private void putPendingRequest(ImageView view, Request request) {
+        final Request previous = mPendingRequests.put(view, request);
+        if (previous != null) {
+            removeWaiter(previous.getKey());
+        }
+        final Object key = request.getKey();
+        final Integer count = mWaiterCounts.get(key);
+        if (count != null) {
+            mCoalescedRequestCount.increment();
+        }
+        mWaiterCounts.put(key, count == null ? 1 : count + 1);
+    }
+
+    private void removePendingRequest(ImageView view) {
+        final Request previous = mPendingRequests.remove(view);
+        if (previous != null) {
+            removeWaiter(previous.getKey());
+        }
+    }
+
+    private void clearPendingRequests() {
+        mPendingRequests.clear();
+        mWaiterCounts.clear();
+    }
+
+    private void removeWaiter(Object key) {
+        final Integer count = mWaiterCounts.get(key);
+        if (count == null || count <= 1) {
+            mWaiterCounts.remove(key);
+        } else {
+            mWaiterCounts.put(key, count - 1);
+        }
+    }
+
+    /**
+     * Returns true if a view is still waiting for the photo with the given key.
+     */
+    private boolean hasWaiters(Object key) {
+        return mWaiterCounts.containsKey(key);
     }
 
 
@@ -889,15 +1273,17 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     @Override
     public void cancelPendingRequests(View fragmentRootView) {
         if (fragmentRootView == null) {
-            mPendingRequests.clear();
+            clearPendingRequests();
             return;
         }
         final Iterator<Entry<ImageView, Request>> iterator = mPendingRequests.entrySet().iterator();
         while (iterator.hasNext()) {
-            final ImageView imageView = iterator.next().getKey();
+            final Entry<ImageView, Request> entry = iterator.next();
+            final ImageView imageView = entry.getKey();
             // If an ImageView is orphaned (currently scrap) or a child of fragmentRootView, then
             // we can safely remove its request.
             if (imageView.getParent() == null || isChildView(fragmentRootView, imageView)) {
+                removeWaiter(entry.getValue().getKey());
                 iterator.remove();
             }
         }
@@ -911,6 +1297,8 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
     @Override
     public void refreshCache() {
+        // The versions read before the change may be stale.
+        mPhotoVersions = new ConcurrentHashMap<Long, Long>();
         if (mBitmapHolderCacheAllUnfresh) {
             if (DEBUG) Log.d(TAG, "refreshCache -- no fresh entries.");
             return;
@@ -932,17 +1320,26 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     private boolean loadCachedPhoto(ImageView view, Request request, boolean fadeIn) {
         BitmapHolder holder = mBitmapHolderCache.get(request.getKey());
         if (holder == null) {
+            mHolderCacheMisses.increment();
             // The bitmap has not been loaded ==> show default avatar
+            setViewBitmap(view, null);
             request.applyDefaultImage(view, request.mIsCircular);
             return false;
         }
 
         if (holder.bytes == null || holder.bytes.length == 0) {
+            setViewBitmap(view, null);
             request.applyDefaultImage(view, request.mIsCircular);
             return holder.fresh;
         }
 
-        Bitmap cachedBitmap = holder.bitmapRef == null ? null : holder.bitmapRef.get();
+        mHolderCacheHits.increment();
+        Bitmap cachedBitmap = getSoftBitmap(holder);
+        if (cachedBitmap != null) {
+            mBitmapHits.increment();
+        } else {
+            mBitmapMisses.increment();
+        }
         if (cachedBitmap == null) {
             if (holder.bytes.length < 8 * 1024) {
                 // Small thumbnails are usually quick to inflate. Let's do that on the UI thread
@@ -952,11 +1349,13 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             } else {
                 // This is bigger data. Let's send that back to the Loader so that we can
                 // inflate this in the background
+                setViewBitmap(view, null);
                 request.applyDefaultImage(view, request.mIsCircular);
                 return false;
             }
         }
 
+        setViewBitmap(view, cachedBitmap);
         final Drawable previousDrawable = view.getDrawable();
         if (fadeIn && previousDrawable != null) {
             final Drawable[] layers = new Drawable[2];
@@ -981,6 +1380,12 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         // Put the bitmap in the LRU cache. But only do this for images that are small enough
         // (we require that at least six of those can be cached at the same time)
         if (cachedBitmap.getByteCount() < mBitmapCache.maxSize() / 6) {
+            synchronized (mPoolableBitmaps) {
+                final PoolableBitmapState state = mPoolableBitmaps.get(cachedBitmap);
+                if (state != null) {
+                    state.inBitmapCache = true;
+                }
+            }
             mBitmapCache.put(request.getKey(), cachedBitmap);
         }
 
@@ -1011,7 +1416,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
      * bitmap is held either by {@link #mBitmapCache} or by a soft reference in
      * the holder, it will not be necessary to decode the bitmap.
      */
-    private static void inflateBitmap(BitmapHolder holder, int requestedExtent) {
+    private void inflateBitmap(BitmapHolder holder, int requestedExtent) {
         final int sampleSize =
                 BitmapUtil.findOptimalSampleSize(holder.originalSmallerExtent, requestedExtent);
         byte[] bytes = holder.bytes;
@@ -1022,16 +1427,16 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         if (sampleSize == holder.decodedSampleSize) {
             // Check the soft reference.  If will be retained if the bitmap is also
             // in the LRU cache, so we don't need to check the LRU cache explicitly.
-            if (holder.bitmapRef != null) {
-                holder.bitmap = holder.bitmapRef.get();
-                if (holder.bitmap != null) {
-                    return;
-                }
+            holder.bitmap = getSoftBitmap(holder);
+            if (holder.bitmap != null) {
+                return;
             }
         }
 
         try {
-            Bitmap bitmap = BitmapUtil.decodeBitmapFromBytes(bytes, sampleSize);
+            final long startNanos = System.nanoTime();
+            Bitmap bitmap = BitmapUtil.decodeBitmapFromBytes(bytes, sampleSize, mBitmapPool);
+            mDecodeLatency.recordSince(startNanos);
 
             // TODO: As a temporary workaround while framework support is being added to
             // clip non-square bitmaps into a perfect circle, manually crop the bitmap into
@@ -1044,8 +1449,11 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             // below twice the length of a thumbnail image due to the way we calculate the optimal
             // sample size.
             if (height != width && Math.min(height, width) <= mThumbnailSize * 2) {
-                final int dimension = Math.min(height, width);
-                bitmap = ThumbnailUtils.extractThumbnail(bitmap, dimension, dimension);
+                final Bitmap decoded = bitmap;
+                // Crop into a mutable bitmap, so that the thumbnail can be pooled too.
+                bitmap = BitmapUtil.cropCenterSquare(decoded, mBitmapPool);
+                // Nobody has seen the uncropped bitmap, so it can be reused right away.
+                mBitmapPool.put(decoded);
             }
             // make bitmap mutable and draw size onto it
             if (DEBUG_SIZES) {
@@ -1065,7 +1473,12 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
             holder.decodedSampleSize = sampleSize;
             holder.bitmap = bitmap;
-            holder.bitmapRef = new SoftReference<Bitmap>(bitmap);
+            synchronized (mPoolableBitmaps) {
+                holder.bitmapRef = new SoftReference<Bitmap>(bitmap);
+                if (bitmap.isMutable()) {
+                    mPoolableBitmaps.put(bitmap, new PoolableBitmapState(holder));
+                }
+            }
             if (DEBUG) {
                 Log.d(TAG, "inflateBitmap " + btk(bytes.length) + " -> "
                         + bitmap.getWidth() + "x" + bitmap.getHeight()
@@ -1078,9 +1491,139 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
     public void clear() {
         if (DEBUG) Log.d(TAG, "clear");
-        mPendingRequests.clear();
+        clearPendingRequests();
         mBitmapHolderCache.evictAll();
         mBitmapCache.evictAll();
+        clearBitmapPool();
+    }
+
+    /**
+     * Empties {@link #mBitmapPool}, including of the bitmaps released so far that are still
+     * waiting for the next frames to be put into it.
+     */
+    private void clearBitmapPool() {
+        mBitmapPoolGeneration.incrementAndGet();
+        mBitmapPool.clear();
+    }
+
+    /**
+     * Records that the view now shows the given bitmap, or no bitmap decoded by us if null.
+     * Must be called on the UI thread before the drawable of the view is replaced.
+     */
+    private void setViewBitmap(ImageView view, Bitmap bitmap) {
+        final Bitmap previous = (Bitmap) view.getTag(R.id.tag_pooled_bitmap);
+        if (previous == bitmap) {
+            return;
+        }
+        view.setTag(R.id.tag_pooled_bitmap, bitmap);
+        Bitmap unused = null;
+        synchronized (mPoolableBitmaps) {
+            if (bitmap != null) {
+                final PoolableBitmapState state = mPoolableBitmaps.get(bitmap);
+                if (state != null) {
+                    state.viewCount++;
+                }
+            }
+            if (previous != null) {
+                final PoolableBitmapState state = mPoolableBitmaps.get(previous);
+                if (state != null && --state.viewCount == 0 && !state.inBitmapCache) {
+                    unused = previous;
+                }
+            }
+        }
+        if (unused != null) {
+            recycleBitmap(unused);
+        }
+    }
+
+    /**
+     * Called when a bitmap is evicted from or replaced in {@link #mBitmapCache}.
+     */
+    private void onBitmapRemovedFromCache(Bitmap bitmap) {
+        synchronized (mPoolableBitmaps) {
+            final PoolableBitmapState state = mPoolableBitmaps.get(bitmap);
+            if (state == null) {
+                return;
+            }
+            state.inBitmapCache = false;
+            if (state.viewCount > 0) {
+                return;
+            }
+        }
+        recycleBitmap(bitmap);
+    }
+
+    /**
+     * Detaches an unused bitmap from its holder and puts it into {@link #mBitmapPool}.
+     */
+    private void recycleBitmap(Bitmap bitmap) {
+        synchronized (mPoolableBitmaps) {
+            final PoolableBitmapState state = mPoolableBitmaps.remove(bitmap);
+            if (state == null) {
+                return;
+            }
+            final BitmapHolder holder = state.holder.get();
+            if (holder != null) {
+                if (holder.bitmapRef != null && holder.bitmapRef.get() == bitmap) {
+                    holder.bitmapRef = null;
+                }
+                if (holder.bitmap == bitmap) {
+                    holder.bitmap = null;
+                }
+            }
+        }
+        putIntoPoolAfterNextFrames(bitmap);
+    }
+
+    /**
+     * Puts a bitmap that no view shows anymore into {@link #mBitmapPool} once RenderThread is
+     * done with the frames that may still draw it, as decoding into it earlier could change
+     * pixels that are on screen.
+     */
+    private void putIntoPoolAfterNextFrames(final Bitmap bitmap) {
+        final int generation = mBitmapPoolGeneration.get();
+        mMainThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Choreographer choreographer = Choreographer.getInstance();
+                choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        // The last frame showing the bitmap may be rendered during this one.
+                        choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                            @Override
+                            public void doFrame(long frameTimeNanos) {
+                                // Don't refill the pool after a memory trim.
+                                if (generation == mBitmapPoolGeneration.get()) {
+                                    mBitmapPool.put(bitmap);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /** Returns the softly referenced bitmap of the holder, which may be recycled, or null. */
+    private Bitmap getSoftBitmap(BitmapHolder holder) {
+        synchronized (mPoolableBitmaps) {
+            return holder.bitmapRef == null ? null : holder.bitmapRef.get();
+        }
+    }
+
+    /**
+     * Tracks the users of a bitmap that may be recycled into {@link #mBitmapPool}.
+     */
+    private static class PoolableBitmapState {
+        /** Weak, so that the state doesn't keep the bitmap alive through the holder. */
+        final WeakReference<BitmapHolder> holder;
+        int viewCount;
+        boolean inBitmapCache;
+
+        PoolableBitmapState(BitmapHolder holder) {
+            this.holder = new WeakReference<BitmapHolder>(holder);
+        }
     }
 
     @Override
@@ -1155,6 +1698,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             // RoundedBitmapDrawables overlapping the default image drawables are resolved.
             final boolean loaded = loadCachedPhoto(entry.getKey(), entry.getValue(), false);
             if (loaded) {
+                removeWaiter(entry.getValue().getKey());
                 iterator.remove();
             }
         }
@@ -1198,13 +1742,22 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         BitmapHolder holder = new BitmapHolder(bytes,
                 bytes == null ? -1 : BitmapUtil.getSmallerExtentFromBytes(bytes));
 
-        // Unless this image is being preloaded, decode it right away while
-        // we are still on the background thread.
-        if (!preloading) {
-            inflateBitmap(holder, requestedExtent);
+        // Unless this image is being preloaded, decode it right away on the decode
+        // threads. It is published to the cache once it has been decoded.
+        if (!preloading && bytes != null && bytes.length > 0) {
+            decodeInBackground(key, holder, requestedExtent);
+            return;
         }
 
-        if (bytes != null) {
+        storeBitmapHolder(key, holder);
+    }
+
+    /**
+     * Puts the holder into {@link #mBitmapHolderCache}, or {@link #BITMAP_UNAVAILABLE} if
+     * the photo could not be loaded or is too big to be cached.
+     */
+    private void storeBitmapHolder(Object key, BitmapHolder holder) {
+        if (holder.bytes != null) {
             mBitmapHolderCache.put(key, holder);
             if (mBitmapHolderCache.get(key) != holder) {
                 Log.w(TAG, "Bitmap too big to fit in cache.");
@@ -1231,6 +1784,98 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         mBitmapCache.put(request.getKey(), bitmap);
     }
 
+    /**
+     * Queues the bytes in the holder to be decoded on {@link #mDecodeExecutor}.
+     */
+    private void decodeInBackground(Object key, BitmapHolder holder, int requestedExtent) {
+        final DecodeTask task = new DecodeTask(key, holder, requestedExtent);
+        mDecodingKeys.add(key);
+        synchronized (mDecodeQueue) {
+            mDecodeQueue.add(task);
+        }
+        updateMax(mMaxDecodeQueueDepth, mDecodeQueueDepth.incrementAndGet());
+        mDecodeExecutor.execute(task);
+    }
+
+    /**
+     * Publishes the decoded photos at the head of {@link #mDecodeQueue} and notifies the UI
+     * thread if there were any.
+     */
+    private void publishDecodedPhotos() {
+        boolean published = false;
+        synchronized (mDecodeQueue) {
+            while (!mDecodeQueue.isEmpty() && mDecodeQueue.peek().mDone) {
+                final DecodeTask task = mDecodeQueue.poll();
+                storeBitmapHolder(task.mKey, task.mHolder);
+                mDecodingKeys.remove(task.mKey);
+                published = true;
+            }
+        }
+        if (published) {
+            mMainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Another thread updated the maximum, try again.
+        }
+    }
+
+    /**
+     * Decodes a photo on {@link #mDecodeExecutor}.
+     */
+    private class DecodeTask implements Runnable {
+        final Object mKey;
+        final BitmapHolder mHolder;
+        final int mRequestedExtent;
+        volatile boolean mDone;
+
+        DecodeTask(Object key, BitmapHolder holder, int requestedExtent) {
+            mKey = key;
+            mHolder = holder;
+            mRequestedExtent = requestedExtent;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // If nobody waits for the photo anymore, only keep its bytes. It will be
+                // decoded when it is requested again.
+                if (hasWaiters(mKey)) {
+                    inflateBitmap(mHolder, mRequestedExtent);
+                } else {
+                    mAbandonedLoadCount.increment();
+                }
+            } finally {
+                mDecodeQueueDepth.decrementAndGet();
+                mDone = true;
+                publishDecodedPhotos();
+            }
+        }
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        BackgroundThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+        }
+    }
+
     /**
      * Populates an array of photo IDs that need to be loaded. Also decodes bitmaps that we have
      * already loaded
@@ -1241,7 +1886,9 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         photoIdsAsStrings.clear();
         uris.clear();
 
-        boolean jpegsDecoded = false;
+        // Views that show the same photo at different sizes share one fetch, made with the
+        // largest requested size.
+        final Map<Object, Request> uriRequests = new HashMap<Object, Request>();
 
         /*
          * Since the call is made from the loader thread, the map could be
@@ -1254,19 +1901,30 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         Iterator<Request> iterator = mPendingRequests.values().iterator();
         while (iterator.hasNext()) {
             Request request = iterator.next();
+            if (mDecodingKeys.contains(request.getKey())) {
+                // Already fetched, the photo will be published once it is decoded.
+                continue;
+            }
+            if (mFetchingKeys.contains(request.getKey())) {
+                // The photo will be published once it is fetched and decoded.
+                continue;
+            }
             final BitmapHolder holder = mBitmapHolderCache.get(request.getKey());
             if (holder == BITMAP_UNAVAILABLE) {
                 continue;
             }
             if (holder != null && holder.bytes != null && holder.fresh &&
-                    (holder.bitmapRef == null || holder.bitmapRef.get() == null)) {
+                    getSoftBitmap(holder) == null) {
                 // This was previously loaded but we don't currently have the inflated Bitmap
-                inflateBitmap(holder, request.getRequestedExtent());
-                jpegsDecoded = true;
+                decodeInBackground(request.getKey(), holder, request.getRequestedExtent());
             } else {
                 if (holder == null || !holder.fresh) {
                     if (request.isUriRequest()) {
-                        uris.add(request);
+                        final Request other = uriRequests.get(request.getKey());
+                        if (other == null || isLargerExtent(request.getRequestedExtent(),
+                                other.getRequestedExtent())) {
+                            uriRequests.put(request.getKey(), request);
+                        }
                     } else {
                         photoIds.add(request.getId());
                         photoIdsAsStrings.add(String.valueOf(request.mId));
@@ -1275,7 +1933,49 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             }
         }
 
-        if (jpegsDecoded) mMainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
+        uris.addAll(uriRequests.values());
+
+        final int fetchQueueDepth = photoIds.size() + uris.size();
+        mFetchQueueDepth.set(fetchQueueDepth);
+        updateMax(mMaxFetchQueueDepth, fetchQueueDepth);
+    }
+
+    /**
+     * Returns true if the requested extent {@code a} asks for a bigger photo than {@code b}.
+     * An extent smaller than 1 asks for the photo in its original size.
+     */
+    private static boolean isLargerExtent(int a, int b) {
+        return b >= 1 && (a < 1 || a > b);
+    }
+
+    /**
+     * Returns the key under which the photo for the given {@link Request#getKey()} is stored in
+     * {@link #mDiskCache}.
+     */
+    private static String getDiskCacheKey(Object key) {
+        return key instanceof Uri ? key.toString() : "id:" + key;
+    }
+
+    /** Writes a photo to {@link #mDiskCache} on {@link #mDiskWriteExecutor}. */
+    private void putInDiskCache(final Object key, final long version, final byte[] bytes) {
+        mDiskWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDiskCache.put(getDiskCacheKey(key), version, bytes);
+            }
+        });
+    }
+
+    /**
+     * Returns true if the uri points to a display photo in the contacts provider. A display
+     * photo is never modified in place: changing the photo of a contact creates a new display
+     * photo with a new uri, so it is safe to keep them in {@link #mDiskCache} without a version.
+     */
+    private static boolean isDisplayPhotoUri(Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        return ContactsContract.AUTHORITY.equals(uri.getAuthority()) && segments.size() == 2
+                && ContactsContract.DisplayPhoto.CONTENT_URI.getLastPathSegment()
+                        .equals(segments.get(0));
     }
 
     /**
@@ -1283,8 +1983,12 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
      */
     private class LoaderThread extends HandlerThread implements Callback {
         private static final int BUFFER_SIZE = 1024*16;
+
+        /** Fetch buffers that grew beyond this size are not kept for the next fetch. */
+        private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
         private static final int MESSAGE_PRELOAD_PHOTOS = 0;
         private static final int MESSAGE_LOAD_PHOTOS = 1;
+        private static final int MESSAGE_PREFETCH_PHOTOS = 2;
 
         /**
          * A pause between preload batches that yields to the UI thread.
@@ -1310,7 +2014,17 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         private final List<Long> mPreloadPhotoIds = Lists.newArrayList();
 
         private Handler mLoaderThreadHandler;
-        private byte mBuffer[];
+
+        /**
+         * Buffers of the thread fetching a URI based photo, reused across fetches so that
+         * reading a photo doesn't grow a new buffer every time.
+         */
+        private final ThreadLocal<FetchBuffers> mFetchBuffers = new ThreadLocal<FetchBuffers>() {
+            @Override
+            protected FetchBuffers initialValue() {
+                return new FetchBuffers();
+            }
+        };
 
         private static final int PRELOAD_STATUS_NOT_STARTED = 0;
         private static final int PRELOAD_STATUS_IN_PROGRESS = 1;
@@ -1361,6 +2075,15 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             mLoaderThreadHandler.sendEmptyMessage(MESSAGE_LOAD_PHOTOS);
         }
 
+        /**
+         * Sends a message to this thread to prefetch the photos in {@link #mPrefetchPhotoIds}.
+         */
+        public void requestPrefetching() {
+            ensureHandler();
+            mLoaderThreadHandler.removeMessages(MESSAGE_PREFETCH_PHOTOS);
+            mLoaderThreadHandler.sendEmptyMessage(MESSAGE_PREFETCH_PHOTOS);
+        }
+
         /**
          * Receives the above message, loads photos and then sends a message
          * to the main thread to process them.
@@ -1374,6 +2097,9 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
                 case MESSAGE_LOAD_PHOTOS:
                     loadPhotosInBackground();
                     break;
+                case MESSAGE_PREFETCH_PHOTOS:
+                    prefetchPhotosInBackground();
+                    break;
             }
             return true;
         }
@@ -1433,6 +2159,48 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             requestPreloading();
         }
 
+        /**
+         * Fetches the next batch of thumbnails requested through
+         * {@link #prefetchThumbnails} that are not cached yet, and requests another cycle if
+         * there may be more. Running one batch per message lets requests for the photos
+         * that are visible right now go first. Like preloaded photos, prefetched photos are
+         * decoded only when they are shown.
+         */
+        private void prefetchPhotosInBackground() {
+            if (!PermissionsUtil.hasPermission(mContext,
+                    android.Manifest.permission.READ_CONTACTS)) {
+                return;
+            }
+
+            final Set<Long> requested = mPrefetchPhotoIds;
+            mPhotoIds.clear();
+            mPhotoIdsAsStrings.clear();
+            for (Long id : requested) {
+                if (mPhotoIds.size() >= PRELOAD_BATCH) {
+                    break;
+                }
+                if (mDecodingKeys.contains(id)) {
+                    continue;
+                }
+                final BitmapHolder holder = mBitmapHolderCache.get(id);
+                if (holder == null || !holder.fresh) {
+                    mPhotoIds.add(id);
+                    mPhotoIdsAsStrings.add(id.toString());
+                }
+            }
+            if (mPhotoIds.isEmpty()) {
+                return;
+            }
+
+            if (DEBUG) Log.d(TAG, "Prefetching " + mPhotoIds.size() + " photos");
+            loadThumbnails(true);
+
+            // If the request was replaced in the meantime, a new cycle is already scheduled.
+            if (requested == mPrefetchPhotoIds) {
+                requestPrefetching();
+            }
+        }
+
         private void queryPhotosForPreload() {
             Cursor cursor = null;
             try {
@@ -1468,6 +2236,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             obtainPhotoIdsAndUrisToLoad(mPhotoIds, mPhotoIdsAsStrings, mPhotoUris);
             loadThumbnails(false);
             loadUriBasedPhotos();
+            mFetchQueueDepth.set(0);
             requestPreloading();
         }
 
@@ -1488,32 +2257,33 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
                 }
             }
 
-            mStringBuilder.setLength(0);
-            mStringBuilder.append(Photo._ID + " IN(");
-            for (int i = 0; i < mPhotoIds.size(); i++) {
-                if (i != 0) {
-                    mStringBuilder.append(',');
-                }
-                mStringBuilder.append('?');
+            loadThumbnailsFromDiskCache(preloading);
+            if (mPhotoIds.isEmpty()) {
+                mMainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
+                return;
             }
-            mStringBuilder.append(')');
 
             Cursor cursor = null;
+            final long startNanos = System.nanoTime();
             try {
                 if (DEBUG) Log.d(TAG, "Loading " + TextUtils.join(",", mPhotoIdsAsStrings));
                 cursor = mResolver.query(Data.CONTENT_URI,
                         COLUMNS,
-                        mStringBuilder.toString(),
+                        buildPhotoIdSelection(mPhotoIds.size()),
                         mPhotoIdsAsStrings.toArray(EMPTY_STRING_ARRAY),
                         null);
 
                 if (cursor != null) {
+                    final Map<Long, Long> versions = mPhotoVersions;
                     while (cursor.moveToNext()) {
                         Long id = cursor.getLong(0);
                         byte[] bytes = cursor.getBlob(1);
                         if (bytes == null) {
                             bytes = new byte[0];
                         }
+                        final long version = cursor.getLong(2);
+                        versions.put(id, version);
+                        putInDiskCache(id, version, bytes);
                         cacheBitmap(id, bytes, preloading, -1);
                         mPhotoIds.remove(id);
                     }
@@ -1522,6 +2292,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
                 if (cursor != null) {
                     cursor.close();
                 }
+                mThumbnailQueryLatency.recordSince(startNanos);
             }
 
             // Remaining photos were not found in the contacts database (but might be in profile).
@@ -1556,76 +2327,250 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             mMainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
         }
 
+        /**
+         * Satisfies as many of the requested thumbnails as possible from {@link #mDiskCache}.
+         * Only the data versions of the photos are read from the provider, which is much cheaper
+         * than reading the photo blobs, and only the ones not in {@link #mPhotoVersions}. Photos
+         * found on disk are removed from {@link #mPhotoIds} and {@link #mPhotoIdsAsStrings}.
+         */
+        private void loadThumbnailsFromDiskCache(boolean preloading) {
+            if (mDiskCache.isEmpty()) {
+                return;
+            }
+
+            final Map<Long, Long> versions = mPhotoVersions;
+            final List<String> unknownVersionIds = Lists.newArrayList();
+            final long startNanos = System.nanoTime();
+            for (Long id : Lists.newArrayList(mPhotoIds)) {
+                final Long version = versions.get(id);
+                if (version == null) {
+                    unknownVersionIds.add(id.toString());
+                } else {
+                    loadThumbnailFromDiskCache(id, version, preloading);
+                }
+            }
+            if (unknownVersionIds.isEmpty()) {
+                mDiskCacheLatency.recordSince(startNanos);
+                return;
+            }
+
+            Cursor cursor = null;
+            try {
+                cursor = mResolver.query(Data.CONTENT_URI,
+                        VERSION_COLUMNS,
+                        buildPhotoIdSelection(unknownVersionIds.size()),
+                        unknownVersionIds.toArray(EMPTY_STRING_ARRAY),
+                        null);
+                if (cursor == null) {
+                    return;
+                }
+                while (cursor.moveToNext()) {
+                    final Long id = cursor.getLong(0);
+                    final long version = cursor.getLong(1);
+                    versions.put(id, version);
+                    loadThumbnailFromDiskCache(id, version, preloading);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                mDiskCacheLatency.recordSince(startNanos);
+            }
+            if (DEBUG) Log.d(TAG, "Thumbnails not in disk cache: " + mPhotoIds.size());
+        }
+
+        private void loadThumbnailFromDiskCache(Long id, long version, boolean preloading) {
+            final byte[] bytes = mDiskCache.get(getDiskCacheKey(id), version);
+            if (bytes != null) {
+                mDiskCacheHits.increment();
+                cacheBitmap(id, bytes, preloading, -1);
+                mPhotoIds.remove(id);
+                mPhotoIdsAsStrings.remove(id.toString());
+            } else {
+                mDiskCacheMisses.increment();
+            }
+        }
+
+        /** Builds the selection for querying the given number of photos by id. */
+        private String buildPhotoIdSelection(int count) {
+            mStringBuilder.setLength(0);
+            mStringBuilder.append(Photo._ID + " IN(");
+            for (int i = 0; i < count; i++) {
+                if (i != 0) {
+                    mStringBuilder.append(',');
+                }
+                mStringBuilder.append('?');
+            }
+            mStringBuilder.append(')');
+            return mStringBuilder.toString();
+        }
+
         /**
          * Loads photos referenced with Uris. Those can be remote thumbnails
-         * (from directory searches), display photos etc
+         * (from directory searches), display photos etc.
+         *
+         * <p>Photos are grouped by the authority that serves them. Each authority gets at most
+         * {@link #MAX_FETCHES_PER_AUTHORITY} concurrent fetches on {@link #mFetchExecutor}, so
+         * that a slow directory neither holds up photos from other sources nor gets flooded
+         * with requests. Each photo is published as soon as it is fetched and decoded. This
+         * method doesn't wait for the fetches, so that the loader thread can go on with the
+         * photos requested in the meantime.</p>
          */
         private void loadUriBasedPhotos() {
+            final List<List<Request>> lanes = Lists.newArrayList();
+            final Map<String, List<List<Request>>> lanesByAuthority =
+                    new HashMap<String, List<List<Request>>>();
             for (Request uriRequest : mPhotoUris) {
-                // Keep the original URI and use this to key into the cache.  Failure to do so will
-                // result in an image being continually reloaded into cache if the original URI
-                // has a contact type encodedFragment (eg nearby places business photo URLs).
-                Uri originalUri = uriRequest.getUri();
-
-                // Strip off the "contact type" we added to the URI to ensure it was identifiable as
-                // a business photo -- there is no need to pass this on to the server.
-                Uri uri = ContactPhotoManager.removeContactType(originalUri);
+                final String authority = String.valueOf(uriRequest.getUri().getAuthority());
+                List<List<Request>> authorityLanes = lanesByAuthority.get(authority);
+                if (authorityLanes == null) {
+                    authorityLanes = Lists.newArrayList();
+                    lanesByAuthority.put(authority, authorityLanes);
+                }
+                if (authorityLanes.size() < MAX_FETCHES_PER_AUTHORITY) {
+                    final List<Request> lane = Lists.newArrayList();
+                    authorityLanes.add(lane);
+                    lanes.add(lane);
+                }
+                // Spread the requests of an authority evenly across its lanes.
+                int shortest = 0;
+                for (int i = 1; i < authorityLanes.size(); i++) {
+                    if (authorityLanes.get(i).size() < authorityLanes.get(shortest).size()) {
+                        shortest = i;
+                    }
+                }
+                authorityLanes.get(shortest).add(uriRequest);
+            }
 
-                if (mBuffer == null) {
-                    mBuffer = new byte[BUFFER_SIZE];
+            for (final List<Request> lane : lanes) {
+                for (Request uriRequest : lane) {
+                    mFetchingKeys.add(uriRequest.getKey());
                 }
-                try {
-                    if (DEBUG) Log.d(TAG, "Loading " + uri);
-                    final String scheme = uri.getScheme();
-                    InputStream is = null;
-                    if (scheme.equals("http") || scheme.equals("https")) {
-                        TrafficStats.setThreadStatsTag(TrafficStatsTags.CONTACT_PHOTO_DOWNLOAD_TAG);
-                        final HttpURLConnection connection =
-                                (HttpURLConnection) new URL(uri.toString()).openConnection();
-
-                        // Include the user agent if it is specified.
-                        if (!TextUtils.isEmpty(mUserAgent)) {
-                            connection.setRequestProperty("User-Agent", mUserAgent);
-                        }
-                        try {
-                            is = connection.getInputStream();
-                        } catch (IOException e) {
-                            connection.disconnect();
-                            is = null;
+                mFetchExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Request uriRequest : lane) {
+                            try {
+                                loadUriBasedPhoto(uriRequest);
+                            } finally {
+                                mFetchingKeys.remove(uriRequest.getKey());
+                            }
                         }
-                        TrafficStats.clearThreadStatsTag();
-                    } else {
-                        is = mResolver.openInputStream(uri);
                     }
-                    if (is != null) {
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        try {
-                            int size;
-                            while ((size = is.read(mBuffer)) != -1) {
-                                baos.write(mBuffer, 0, size);
+                });
+            }
+        }
+
+        /**
+         * Fetches a single photo referenced with a Uri and queues it for decoding at the size
+         * requested. Called on {@link #mFetchExecutor}.
+         */
+        private void loadUriBasedPhoto(Request uriRequest) {
+            // Keep the original URI and use this to key into the cache.  Failure to do so will
+            // result in an image being continually reloaded into cache if the original URI
+            // has a contact type encodedFragment (eg nearby places business photo URLs).
+            Uri originalUri = uriRequest.getUri();
+
+            // Strip off the "contact type" we added to the URI to ensure it was identifiable as
+            // a business photo -- there is no need to pass this on to the server.
+            Uri uri = ContactPhotoManager.removeContactType(originalUri);
+
+            if (!hasWaiters(originalUri)) {
+                // All views that requested this photo went away before we got to it.
+                mAbandonedLoadCount.increment();
+                return;
+            }
+
+            final boolean diskCacheable = isDisplayPhotoUri(uri);
+            if (diskCacheable) {
+                final byte[] bytes = mDiskCache.get(getDiskCacheKey(originalUri), 0);
+                if (bytes != null) {
+                    mDiskCacheHits.increment();
+                    cacheBitmap(originalUri, bytes, false, uriRequest.getRequestedExtent());
+                    mMainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
+                    return;
+                }
+                mDiskCacheMisses.increment();
+            }
+
+            final FetchBuffers buffers = mFetchBuffers.get();
+            final long startNanos = System.nanoTime();
+            try {
+                if (DEBUG) Log.d(TAG, "Loading " + uri);
+                final String scheme = uri.getScheme();
+                InputStream is = null;
+                if (scheme.equals("http") || scheme.equals("https")) {
+                    TrafficStats.setThreadStatsTag(TrafficStatsTags.CONTACT_PHOTO_DOWNLOAD_TAG);
+                    final HttpURLConnection connection =
+                            (HttpURLConnection) new URL(uri.toString()).openConnection();
+
+                    // Include the user agent if it is specified.
+                    if (!TextUtils.isEmpty(mUserAgent)) {
+                        connection.setRequestProperty("User-Agent", mUserAgent);
+                    }
+                    try {
+                        is = connection.getInputStream();
+                    } catch (IOException e) {
+                        connection.disconnect();
+                        is = null;
+                    }
+                    TrafficStats.clearThreadStatsTag();
+                } else {
+                    is = mResolver.openInputStream(uri);
+                }
+                if (is != null) {
+                    final ByteArrayOutputStream baos = buffers.mStream;
+                    baos.reset();
+                    boolean abandoned = false;
+                    try {
+                        int size;
+                        while ((size = is.read(buffers.mReadBuffer)) != -1) {
+                            if (!hasWaiters(originalUri)) {
+                                abandoned = true;
+                                break;
                             }
-                        } finally {
-                            is.close();
-                        }
-                        cacheBitmap(originalUri, baos.toByteArray(), false,
-                                uriRequest.getRequestedExtent());
-                        mMainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
-                    } else {
-                        if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                            Log.v(TAG, "Cannot load photo " + uri);
+                            baos.write(buffers.mReadBuffer, 0, size);
                         }
-                        cacheBitmap(originalUri, null, false, uriRequest.getRequestedExtent());
+                    } finally {
+                        is.close();
+                    }
+                    if (abandoned) {
+                        // Leave the cache alone, so that the photo is fetched again if it
+                        // is requested again.
+                        mAbandonedLoadCount.increment();
+                        return;
+                    }
+                    final byte[] bytes = baos.toByteArray();
+                    if (baos.size() > MAX_RETAINED_BUFFER_SIZE) {
+                        buffers.mStream = new ByteArrayOutputStream(BUFFER_SIZE);
                     }
-                } catch (final Exception | OutOfMemoryError ex) {
+                    mUriFetchLatency.recordSince(startNanos);
+                    if (diskCacheable) {
+                        putInDiskCache(originalUri, 0, bytes);
+                    }
+                    cacheBitmap(originalUri, bytes, false, uriRequest.getRequestedExtent());
+                    mMainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
+                } else {
                     if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                        Log.v(TAG, "Cannot load photo " + uri, ex);
+                        Log.v(TAG, "Cannot load photo " + uri);
                     }
                     cacheBitmap(originalUri, null, false, uriRequest.getRequestedExtent());
                 }
+            } catch (final Exception | OutOfMemoryError ex) {
+                if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                    Log.v(TAG, "Cannot load photo " + uri, ex);
+                }
+                cacheBitmap(originalUri, null, false, uriRequest.getRequestedExtent());
             }
         }
     }
 
+    /** Buffers used to read a URI based photo, one set per fetching thread. */
+    private static final class FetchBuffers {
+        final byte[] mReadBuffer = new byte[LoaderThread.BUFFER_SIZE];
+        ByteArrayOutputStream mStream = new ByteArrayOutputStream(LoaderThread.BUFFER_SIZE);
+    }
+
     /**
      * A holder for either a Uri or an id and a flag whether this was requested for the dark or
      * light theme
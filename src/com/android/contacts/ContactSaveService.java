@@ -57,6 +57,7 @@ import android.widget.Toast;
 import com.android.contacts.activities.ContactEditorActivity;
 import com.android.contacts.compat.CompatUtils;
 import com.android.contacts.compat.PinnedPositionsCompat;
+import com.android.contacts.database.AdaptiveBatchSizer;
 import com.android.contacts.database.ContactUpdateUtils;
 import com.android.contacts.database.SimContactDao;
 import com.android.contacts.model.AccountTypeManager;
@@ -81,6 +82,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -146,6 +148,10 @@ public class ContactSaveService extends IntentService {
     public static final String ACTION_SET_RINGTONE = "setRingtone";
     public static final String EXTRA_CUSTOM_RINGTONE = "customRingtone";
 
+    /** Applies the quick actions received within {@link #QUICK_ACTION_WINDOW_MILLIS}. */
+    private static final String ACTION_APPLY_QUICK_ACTIONS = "applyQuickActions";
+    private static final String EXTRA_QUICK_ACTIONS = "quickActions";
+
     public static final String ACTION_UNDO = "undo";
     public static final String EXTRA_UNDO_ACTION = "undoAction";
     public static final String EXTRA_UNDO_DATA = "undoData";
@@ -193,7 +199,18 @@ public class ContactSaveService extends IntentService {
 
     private static final int PERSIST_TRIES = 3;
 
-    private static final int MAX_CONTACTS_PROVIDER_BATCH_SIZE = 499;
+    /**
+     * Operations of a saved contact refer back to each other by index, so they can't be split at
+     * a measured size like other bulk writes; see {@link AdaptiveBatchSizer}.
+     */
+    private static final int MAX_CONTACTS_PROVIDER_BATCH_SIZE =
+            AdaptiveBatchSizer.MAX_BATCH_OPERATIONS;
+
+    /**
+     * How long quick actions (see {@link QuickActionCoalescer}) wait for more quick actions, so
+     * that rapid toggling in the UI results in one write.
+     */
+    private static final long QUICK_ACTION_WINDOW_MILLIS = 200;
 
     public interface Listener {
         public void onServiceCompleted(Intent callbackIntent);
@@ -208,6 +225,18 @@ public class ContactSaveService extends IntentService {
     private Handler mMainHandler;
     private GroupsDao mGroupsDao;
     private SimContactDao mSimContactDao;
+    // Sizes the batches of bulk writes. Only used on the worker thread.
+    private final AdaptiveBatchSizer mBatchSizer = AdaptiveBatchSizer.forOperations();
+
+    // Quick actions waiting to be applied together. Only accessed on the main thread.
+    private final ArrayList<Intent> mPendingQuickActions = new ArrayList<>();
+    private int mPendingQuickActionsStartId;
+    private final Runnable mFlushQuickActions = new Runnable() {
+        @Override
+        public void run() {
+            flushQuickActions();
+        }
+    };
 
     public ContactSaveService() {
         super(TAG);
@@ -302,9 +331,36 @@ public class ContactSaveService extends IntentService {
     public int onStartCommand(Intent intent, int flags, int startId) {
         sState.onStart(intent);
         notifyStateChanged();
+        if (intent != null && QuickActionCoalescer.isCoalescable(intent)) {
+            mPendingQuickActions.add(intent);
+            // Keep the service running until the quick actions are applied.
+            mPendingQuickActionsStartId = startId;
+            if (mPendingQuickActions.size() == 1) {
+                mMainHandler.postDelayed(mFlushQuickActions, QUICK_ACTION_WINDOW_MILLIS);
+            }
+            return START_REDELIVER_INTENT;
+        }
+        // Apply the pending quick actions before this request, to keep requests in order.
+        flushQuickActions();
         return super.onStartCommand(intent, flags, startId);
     }
 
+    /**
+     * Queues the pending quick actions to be applied in one batch by the worker thread.
+     */
+    private void flushQuickActions() {
+        mMainHandler.removeCallbacks(mFlushQuickActions);
+        if (mPendingQuickActions.isEmpty()) {
+            return;
+        }
+        final Intent intent = new Intent(this, ContactSaveService.class);
+        intent.setAction(ACTION_APPLY_QUICK_ACTIONS);
+        intent.putParcelableArrayListExtra(EXTRA_QUICK_ACTIONS, new ArrayList<Parcelable>(
+                mPendingQuickActions));
+        mPendingQuickActions.clear();
+        super.onStartCommand(intent, 0, mPendingQuickActionsStartId);
+    }
+
     @Override
     protected void onHandleIntent(final Intent intent) {
         if (intent == null) {
@@ -356,6 +412,8 @@ public class ContactSaveService extends IntentService {
             setSendToVoicemail(intent);
         } else if (ACTION_SET_RINGTONE.equals(action)) {
             setRingtone(intent);
+        } else if (ACTION_APPLY_QUICK_ACTIONS.equals(action)) {
+            applyQuickActions(intent);
         } else if (ACTION_UNDO.equals(action)) {
             undo(intent);
         } else if (ACTION_SLEEP.equals(action)) {
@@ -964,68 +1022,104 @@ public class ContactSaveService extends IntentService {
         if (rawContactsToAdd == null) {
             return;
         }
+        // Skip the raw contacts already in the group up front, rather than asserting it for each
+        // of them, so that the members can be added in batches.
+        final Set<Long> members = queryGroupMembers(resolver, rawContactsToAdd, groupId);
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
         for (long rawContactId : rawContactsToAdd) {
-            try {
-                final ArrayList<ContentProviderOperation> rawContactOperations =
-                        new ArrayList<ContentProviderOperation>();
-
-                // Build an assert operation to ensure the contact is not already in the group
-                final ContentProviderOperation.Builder assertBuilder = ContentProviderOperation
-                        .newAssertQuery(Data.CONTENT_URI);
-                assertBuilder.withSelection(Data.RAW_CONTACT_ID + "=? AND " +
-                        Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
-                        new String[] { String.valueOf(rawContactId),
-                        GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
-                assertBuilder.withExpectedCount(0);
-                rawContactOperations.add(assertBuilder.build());
-
-                // Build an insert operation to add the contact to the group
-                final ContentProviderOperation.Builder insertBuilder = ContentProviderOperation
-                        .newInsert(Data.CONTENT_URI);
-                insertBuilder.withValue(Data.RAW_CONTACT_ID, rawContactId);
-                insertBuilder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
-                insertBuilder.withValue(GroupMembership.GROUP_ROW_ID, groupId);
-                rawContactOperations.add(insertBuilder.build());
-
-                if (DEBUG) {
-                    for (ContentProviderOperation operation : rawContactOperations) {
-                        Log.v(TAG, operation.toString());
-                    }
-                }
+            if (members.contains(rawContactId)) {
+                Log.w(TAG, "Raw contact ID " + rawContactId + " already exists in group "
+                        + groupId);
+                continue;
+            }
+            // Build an insert operation to add the contact to the group
+            final ContentProviderOperation.Builder insertBuilder = ContentProviderOperation
+                    .newInsert(Data.CONTENT_URI);
+            insertBuilder.withYieldAllowed(mBatchSizer.isYieldPoint(operations.size()));
+            insertBuilder.withValue(Data.RAW_CONTACT_ID, rawContactId);
+            insertBuilder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
+            insertBuilder.withValue(GroupMembership.GROUP_ROW_ID, groupId);
+            operations.add(insertBuilder.build());
+
+            if (operations.size() >= mBatchSizer.getBatchSize()) {
+                applyGroupMembershipBatch(resolver, operations, groupId);
+                operations.clear();
+            }
+        }
+        applyGroupMembershipBatch(resolver, operations, groupId);
+    }
 
-                // Apply batch
-                if (!rawContactOperations.isEmpty()) {
-                    resolver.applyBatch(ContactsContract.AUTHORITY, rawContactOperations);
-                }
-            } catch (RemoteException e) {
-                // Something went wrong, bail without success
-                FeedbackHelper.sendFeedback(this, TAG,
-                        "Problem persisting user edits for raw contact ID " +
-                                String.valueOf(rawContactId), e);
-            } catch (OperationApplicationException e) {
-                // The assert could have failed because the contact is already in the group,
-                // just continue to the next contact
-                FeedbackHelper.sendFeedback(this, TAG,
-                        "Assert failed in adding raw contact ID " +
-                                String.valueOf(rawContactId) + ". Already exists in group " +
-                                String.valueOf(groupId), e);
+    /** Returns the ids of the given raw contacts that are already in the group. */
+    private static Set<Long> queryGroupMembers(ContentResolver resolver, long[] rawContactIds,
+            long groupId) {
+        final Set<Long> members = new HashSet<>();
+        final StringBuilder ids = new StringBuilder();
+        for (long id : rawContactIds) {
+            if (ids.length() > 0) {
+                ids.append(',');
             }
+            ids.append(id);
+        }
+        final Cursor cursor = resolver.query(Data.CONTENT_URI,
+                new String[] { Data.RAW_CONTACT_ID },
+                Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=? AND "
+                        + Data.RAW_CONTACT_ID + " IN (" + ids + ")",
+                new String[] { GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId) },
+                null);
+        if (cursor == null) {
+            return members;
         }
+        try {
+            while (cursor.moveToNext()) {
+                members.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return members;
     }
 
-    private static void removeMembersFromGroup(ContentResolver resolver, long[] rawContactsToRemove,
+    private void removeMembersFromGroup(ContentResolver resolver, long[] rawContactsToRemove,
             long groupId) {
         if (rawContactsToRemove == null) {
             return;
         }
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
         for (long rawContactId : rawContactsToRemove) {
             // Apply the delete operation on the data row for the given raw contact's
             // membership in the given group. If no contact matches the provided selection, then
             // nothing will be done. Just continue to the next contact.
-            resolver.delete(Data.CONTENT_URI, Data.RAW_CONTACT_ID + "=? AND " +
-                    Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
-                    new String[] { String.valueOf(rawContactId),
-                    GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
+            operations.add(ContentProviderOperation.newDelete(Data.CONTENT_URI)
+                    .withYieldAllowed(mBatchSizer.isYieldPoint(operations.size()))
+                    .withSelection(Data.RAW_CONTACT_ID + "=? AND " +
+                            Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
+                            new String[] { String.valueOf(rawContactId),
+                            GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)})
+                    .build());
+            if (operations.size() >= mBatchSizer.getBatchSize()) {
+                applyGroupMembershipBatch(resolver, operations, groupId);
+                operations.clear();
+            }
+        }
+        applyGroupMembershipBatch(resolver, operations, groupId);
+    }
+
+    private void applyGroupMembershipBatch(ContentResolver resolver,
+            ArrayList<ContentProviderOperation> operations, long groupId) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        if (DEBUG) {
+            for (ContentProviderOperation operation : operations) {
+                Log.v(TAG, operation.toString());
+            }
+        }
+        try {
+            mBatchSizer.applyBatch(resolver, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            // Something went wrong, continue with the next batch
+            FeedbackHelper.sendFeedback(this, TAG,
+                    "Problem updating the members of group " + groupId, e);
         }
     }
 
@@ -1053,6 +1147,10 @@ public class ContactSaveService extends IntentService {
         values.put(Contacts.STARRED, value);
         getContentResolver().update(contactUri, values, null, null);
 
+        undemoteContact(contactUri);
+    }
+
+    private void undemoteContact(Uri contactUri) {
         // Undemote the contact if necessary
         final Cursor c = getContentResolver().query(contactUri, new String[] {Contacts._ID},
                 null, null, null);
@@ -1172,6 +1270,35 @@ public class ContactSaveService extends IntentService {
                 values, null, null);
     }
 
+    private void applyQuickActions(Intent intent) {
+        final List<Intent> quickActions = intent.getParcelableArrayListExtra(EXTRA_QUICK_ACTIONS);
+        if (quickActions == null) {
+            return;
+        }
+        final QuickActionCoalescer coalescer = new QuickActionCoalescer();
+        for (Intent quickAction : quickActions) {
+            coalescer.add(quickAction);
+        }
+        final ArrayList<ContentProviderOperation> operations = coalescer.buildOperations();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Applying " + quickActions.size() + " quick actions with "
+                    + operations.size() + " operations");
+        }
+        try {
+            if (!operations.isEmpty()) {
+                getContentResolver().applyBatch(ContactsContract.AUTHORITY, operations);
+            }
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "Failed to apply quick actions", e);
+        }
+        for (Uri contactUri : coalescer.getStarredContactUris()) {
+            undemoteContact(contactUri);
+        }
+        for (Intent quickAction : quickActions) {
+            sState.onFinish(quickAction);
+        }
+    }
+
     /**
      * Creates an intent that can be sent to this service to delete a contact.
      */
@@ -1210,10 +1337,18 @@ public class ContactSaveService extends IntentService {
             Log.e(TAG, "Invalid arguments for deleteMultipleContacts request");
             return;
         }
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
         for (long contactId : contactIds) {
             final Uri contactUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId);
-            getContentResolver().delete(contactUri, null, null);
+            operations.add(ContentProviderOperation.newDelete(contactUri)
+                    .withYieldAllowed(mBatchSizer.isYieldPoint(operations.size()))
+                    .build());
+            if (operations.size() >= mBatchSizer.getBatchSize()) {
+                applyDeleteBatch(operations);
+                operations.clear();
+            }
         }
+        applyDeleteBatch(operations);
         final String[] names = intent.getStringArrayExtra(
                 ContactSaveService.EXTRA_DISPLAY_NAME_ARRAY);
         final String deleteToastMessage;
@@ -1244,6 +1379,17 @@ public class ContactSaveService extends IntentService {
         });
     }
 
+    private void applyDeleteBatch(ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            mBatchSizer.applyBatch(getContentResolver(), operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            FeedbackHelper.sendFeedback(this, TAG, "Failed to delete contacts", e);
+        }
+    }
+
     /**
      * Creates an intent that can be sent to this service to split a contact into it's constituent
      * pieces. This will set the raw contact ids to {@link AggregationExceptions#TYPE_AUTOMATIC} so
@@ -1283,9 +1429,8 @@ public class ContactSaveService extends IntentService {
             }
             return;
         }
-        final int batchSize = MAX_CONTACTS_PROVIDER_BATCH_SIZE;
         final ContentResolver resolver = getContentResolver();
-        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(batchSize);
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
         for (int i = 0; i < rawContactIds.length; i++) {
             for (int j = 0; j < rawContactIds.length; j++) {
                 if (i != j) {
@@ -1327,13 +1472,10 @@ public class ContactSaveService extends IntentService {
         }
         // For each pair of raw contacts, insert an aggregation exception
         final ContentResolver resolver = getContentResolver();
-        // The maximum number of operations per batch (aka yield point) is 500. See b/22480225
-        final int batchSize = MAX_CONTACTS_PROVIDER_BATCH_SIZE;
         for (int i = 0; i < rawContactIds1.length; i++) {
             for (int j = 0; j < rawContactIds2.length; j++) {
                 buildSplitContactDiff(operations, rawContactIds1[i], rawContactIds2[j], hardSplit);
-                // Before we get to 500 we need to flush the operations list
-                if (operations.size() > 0 && operations.size() % batchSize == 0) {
+                if (operations.size() >= mBatchSizer.getBatchSize()) {
                     if (!applyOperations(resolver, operations)) {
                         return false;
                     }
@@ -1428,26 +1570,22 @@ public class ContactSaveService extends IntentService {
             return;
         }
 
-        // For each pair of raw contacts, insert an aggregation exception
+        // Insert the aggregation exceptions keeping the raw contacts together
         final ContentResolver resolver = getContentResolver();
-        // The maximum number of operations per batch (aka yield point) is 500. See b/22480225
-        final int batchSize = MAX_CONTACTS_PROVIDER_BATCH_SIZE;
-        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(batchSize);
-        for (int i = 0; i < rawContactIds.length; i++) {
-            for (int j = 0; j < rawContactIds.length; j++) {
-                if (i != j) {
-                    buildJoinContactDiff(operations, rawContactIds[i], rawContactIds[j]);
-                }
-                // Before we get to 500 we need to flush the operations list
-                if (operations.size() > 0 && operations.size() % batchSize == 0) {
-                    if (!applyOperations(resolver, operations)) {
-                        if (receiver != null) {
-                            receiver.send(CP2_ERROR, new Bundle());
-                        }
-                        return;
+        final List<long[]> pairs = getJoinPairs(rawContactIds);
+        Log.i(TAG, "Joining " + rawContactIds.length + " raw contacts with " + pairs.size()
+                + " aggregation exceptions");
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (long[] pair : pairs) {
+            buildJoinContactDiff(operations, pair[0], pair[1]);
+            if (operations.size() >= mBatchSizer.getBatchSize()) {
+                if (!applyOperations(resolver, operations)) {
+                    if (receiver != null) {
+                        receiver.send(CP2_ERROR, new Bundle());
                     }
-                    operations.clear();
+                    return;
                 }
+                operations.clear();
             }
         }
         if (operations.size() > 0 && !applyOperations(resolver, operations)) {
@@ -1525,8 +1663,7 @@ public class ContactSaveService extends IntentService {
     private boolean applyOperations(ContentResolver resolver,
             ArrayList<ContentProviderOperation> operations) {
         try {
-            final ContentProviderResult[] result =
-                    resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+            final ContentProviderResult[] result = mBatchSizer.applyBatch(resolver, operations);
             for (int i = 0; i < result.length; ++i) {
                 // if no rows were modified in the operation then we count it as fail.
                 if (result[i].count < 0) {
@@ -1556,13 +1693,9 @@ public class ContactSaveService extends IntentService {
 
         ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
 
-        // For each pair of raw contacts, insert an aggregation exception
-        for (int i = 0; i < rawContactIds.length; i++) {
-            for (int j = 0; j < rawContactIds.length; j++) {
-                if (i != j) {
-                    buildJoinContactDiff(operations, rawContactIds[i], rawContactIds[j]);
-                }
-            }
+        // Insert the aggregation exceptions keeping the raw contacts together
+        for (long[] pair : getJoinPairs(rawContactIds)) {
+            buildJoinContactDiff(operations, pair[0], pair[1]);
         }
 
         final ContentResolver resolver = getContentResolver();
@@ -1719,6 +1852,51 @@ public class ContactSaveService extends IntentService {
         return getRawContactIdsForAggregation(new long[] {contactId1, contactId2});
     }
 
+    /**
+     * Returns the pairs of raw contacts that need a
+     * {@link AggregationExceptions#TYPE_KEEP_TOGETHER} exception to join all the given raw
+     * contacts. See {@link ContactJoinPlanner}.
+     */
+    private List<long[]> getJoinPairs(long[] rawContactIds) {
+        return ContactJoinPlanner.getKeepTogetherPairs(rawContactIds,
+                queryKeepSeparatePairs(rawContactIds));
+    }
+
+    /**
+     * Returns the pairs of the given raw contacts that have a
+     * {@link AggregationExceptions#TYPE_KEEP_SEPARATE} exception.
+     */
+    private List<long[]> queryKeepSeparatePairs(long[] rawContactIds) {
+        final ArrayList<long[]> pairs = new ArrayList<>();
+        final StringBuilder ids = new StringBuilder();
+        for (long id : rawContactIds) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(id);
+        }
+        final String selection = AggregationExceptions.TYPE + "="
+                + AggregationExceptions.TYPE_KEEP_SEPARATE
+                + " AND " + AggregationExceptions.RAW_CONTACT_ID1 + " IN (" + ids + ")"
+                + " AND " + AggregationExceptions.RAW_CONTACT_ID2 + " IN (" + ids + ")";
+        final Cursor cursor = getContentResolver().query(AggregationExceptions.CONTENT_URI,
+                new String[] {
+                        AggregationExceptions.RAW_CONTACT_ID1,
+                        AggregationExceptions.RAW_CONTACT_ID2
+                }, selection, null, null);
+        if (cursor == null) {
+            return pairs;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                pairs.add(new long[] { cursor.getLong(0), cursor.getLong(1) });
+            }
+        } finally {
+            cursor.close();
+        }
+        return pairs;
+    }
+
     /**
      * Construct a {@link AggregationExceptions#TYPE_KEEP_TOGETHER} ContentProviderOperation.
      */
@@ -1726,6 +1904,7 @@ public class ContactSaveService extends IntentService {
             long rawContactId1, long rawContactId2) {
         Builder builder =
                 ContentProviderOperation.newUpdate(AggregationExceptions.CONTENT_URI);
+        builder.withYieldAllowed(mBatchSizer.isYieldPoint(operations.size()));
         builder.withValue(AggregationExceptions.TYPE, AggregationExceptions.TYPE_KEEP_TOGETHER);
         builder.withValue(AggregationExceptions.RAW_CONTACT_ID1, rawContactId1);
         builder.withValue(AggregationExceptions.RAW_CONTACT_ID2, rawContactId2);
@@ -1741,6 +1920,7 @@ public class ContactSaveService extends IntentService {
             long rawContactId1, long rawContactId2, boolean hardSplit) {
         final Builder builder =
                 ContentProviderOperation.newUpdate(AggregationExceptions.CONTENT_URI);
+        builder.withYieldAllowed(mBatchSizer.isYieldPoint(operations.size()));
         builder.withValue(AggregationExceptions.TYPE,
                 hardSplit
                         ? AggregationExceptions.TYPE_KEEP_SEPARATE
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.net.Uri;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Merges the quick action requests of {@link ContactSaveService} (starring, send to voicemail,
+ * ringtone, setting and clearing the default data item) into as few provider writes as
+ * possible, leaving the same final state as applying them one by one in order.
+ *
+ * <p>Contact options are plain column writes, so only the last write of each column of a
+ * contact is kept. Writes of the primary flags of data rows also clear the flags of other rows,
+ * so they are kept in order, and only writes that a later write of the same row fully
+ * overrides are dropped.</p>
+ */
+/* package */ class QuickActionCoalescer {
+    private static final String TAG = "QuickActionCoalescer";
+
+    /** A write to a single contact or data row. */
+    /* package */ static class Write {
+        public final Uri uri;
+        public final ContentValues values;
+
+        /* package */ Write(Uri uri, ContentValues values) {
+            this.uri = uri;
+            this.values = values;
+        }
+    }
+
+    /** The contact option writes, one column each, in request order. */
+    private final ArrayList<Write> mContactWrites = new ArrayList<>();
+    /** The primary flag writes, in request order. */
+    private final ArrayList<Write> mDataWrites = new ArrayList<>();
+    private final LinkedHashSet<Uri> mStarredContactUris = new LinkedHashSet<>();
+
+    /**
+     * Returns true if the intent is a quick action that can be merged with others.
+     */
+    public static boolean isCoalescable(Intent intent) {
+        final String action = intent.getAction();
+        return ContactSaveService.ACTION_SET_STARRED.equals(action)
+                || ContactSaveService.ACTION_SET_SEND_TO_VOICEMAIL.equals(action)
+                || ContactSaveService.ACTION_SET_RINGTONE.equals(action)
+                || ContactSaveService.ACTION_SET_SUPER_PRIMARY.equals(action)
+                || ContactSaveService.ACTION_CLEAR_PRIMARY.equals(action);
+    }
+
+    /**
+     * Adds a quick action request, which must come after the requests already added.
+     */
+    public void add(Intent intent) {
+        final String action = intent.getAction();
+        if (ContactSaveService.ACTION_SET_SUPER_PRIMARY.equals(action)
+                || ContactSaveService.ACTION_CLEAR_PRIMARY.equals(action)) {
+            final long dataId = intent.getLongExtra(ContactSaveService.EXTRA_DATA_ID, -1);
+            if (dataId == -1) {
+                Log.e(TAG, "Invalid arguments for " + action + " request");
+                return;
+            }
+            final boolean primary = ContactSaveService.ACTION_SET_SUPER_PRIMARY.equals(action);
+            final ContentValues values = new ContentValues(2);
+            values.put(Data.IS_SUPER_PRIMARY, primary ? 1 : 0);
+            values.put(Data.IS_PRIMARY, primary ? 1 : 0);
+            addDataWrite(new Write(ContentUris.withAppendedId(Data.CONTENT_URI, dataId), values));
+            return;
+        }
+
+        final Uri contactUri = intent.getParcelableExtra(ContactSaveService.EXTRA_CONTACT_URI);
+        if (contactUri == null) {
+            Log.e(TAG, "Invalid arguments for " + action + " request");
+            return;
+        }
+        final ContentValues values = new ContentValues(1);
+        if (ContactSaveService.ACTION_SET_STARRED.equals(action)) {
+            values.put(Contacts.STARRED,
+                    intent.getBooleanExtra(ContactSaveService.EXTRA_STARRED_FLAG, false));
+            mStarredContactUris.add(contactUri);
+        } else if (ContactSaveService.ACTION_SET_SEND_TO_VOICEMAIL.equals(action)) {
+            values.put(Contacts.SEND_TO_VOICEMAIL, intent.getBooleanExtra(
+                    ContactSaveService.EXTRA_SEND_TO_VOICEMAIL_FLAG, false));
+        } else if (ContactSaveService.ACTION_SET_RINGTONE.equals(action)) {
+            values.put(Contacts.CUSTOM_RINGTONE,
+                    intent.getStringExtra(ContactSaveService.EXTRA_CUSTOM_RINGTONE));
+        } else {
+            return;
+        }
+        addContactWrite(new Write(contactUri, values));
+    }
+
+    private void addContactWrite(Write write) {
+        final String column = write.values.keySet().iterator().next();
+        // The new write overrides the previous one of the same column.
+        for (int i = 0; i < mContactWrites.size(); i++) {
+            final Write previous = mContactWrites.get(i);
+            if (previous.uri.equals(write.uri) && previous.values.containsKey(column)) {
+                mContactWrites.remove(i);
+                break;
+            }
+        }
+        mContactWrites.add(write);
+    }
+
+    private void addDataWrite(Write write) {
+        final boolean primary = write.values.getAsInteger(Data.IS_PRIMARY) == 1;
+        for (int i = mDataWrites.size() - 1; i >= 0; i--) {
+            final Write previous = mDataWrites.get(i);
+            if (!previous.uri.equals(write.uri)) {
+                continue;
+            }
+            // Setting the row primary overrides any previous write of the row, including the
+            // clearing of the other rows. Clearing the row only overrides clearing it.
+            final boolean previousPrimary = previous.values.getAsInteger(Data.IS_PRIMARY) == 1;
+            if (primary || !previousPrimary) {
+                mDataWrites.remove(i);
+            }
+        }
+        mDataWrites.add(write);
+    }
+
+    /**
+     * Returns the writes to apply, in order. The contact option writes of the same contact that
+     * are next to each other are merged into one.
+     */
+    /* package */ List<Write> getWrites() {
+        final ArrayList<Write> writes = new ArrayList<>();
+        for (Write write : mContactWrites) {
+            final Write last = writes.isEmpty() ? null : writes.get(writes.size() - 1);
+            if (last != null && last.uri.equals(write.uri)) {
+                last.values.putAll(write.values);
+            } else {
+                writes.add(new Write(write.uri, new ContentValues(write.values)));
+            }
+        }
+        // Contact options and data rows don't affect each other, so the order between the two
+        // doesn't matter.
+        writes.addAll(mDataWrites);
+        return writes;
+    }
+
+    public ArrayList<ContentProviderOperation> buildOperations() {
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (Write write : getWrites()) {
+            operations.add(ContentProviderOperation.newUpdate(write.uri)
+                    .withValues(write.values)
+                    .build());
+        }
+        return operations;
+    }
+
+    /** Returns the Uris of the contacts that were starred or unstarred. */
+    public List<Uri> getStarredContactUris() {
+        return new ArrayList<>(mStarredContactUris);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.database;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+
+/**
+ * Sizes the batches of bulk writes to the contacts provider by how long they take.
+ *
+ * <p>A batch holds the provider's write lock until it is done, so a too large batch freezes the
+ * other apps using contacts, and a too small batch wastes round trips. The size of the next
+ * batch is adjusted after each batch toward {@link #TARGET_BATCH_MILLIS}, and yield points are
+ * placed so that the provider can let other writers in about every
+ * {@link #TARGET_YIELD_MILLIS} within a batch.</p>
+ *
+ * <p>Sizes are in items, which are operations or whatever the writer batches, e.g. SIM contacts.
+ * Not thread safe.</p>
+ */
+public class AdaptiveBatchSizer {
+
+    /** The provider refuses more than 500 operations between two yield points. */
+    public static final int MAX_BATCH_OPERATIONS = 499;
+
+    /** Time that a single applyBatch call should take. */
+    public static final long TARGET_BATCH_MILLIS = 200;
+
+    /** Time that the provider should hold its lock between two yield points. */
+    public static final long TARGET_YIELD_MILLIS = 50;
+
+    private final int mMinSize;
+    private final int mMaxSize;
+    private int mBatchSize;
+    /** Operations between two yield points; 0 until a batch has been timed. */
+    private int mYieldInterval;
+
+    /**
+     * @param initialSize the size of the first batch.
+     * @param minSize the smallest size that batches shrink to.
+     * @param maxSize the largest size that batches grow to.
+     */
+    public AdaptiveBatchSizer(int initialSize, int minSize, int maxSize) {
+        mMinSize = minSize;
+        mMaxSize = maxSize;
+        mBatchSize = Math.max(minSize, Math.min(maxSize, initialSize));
+    }
+
+    /** Returns a sizer of batches of operations. */
+    public static AdaptiveBatchSizer forOperations() {
+        return new AdaptiveBatchSizer(100, 20, MAX_BATCH_OPERATIONS);
+    }
+
+    /** Returns the number of items to put into the next batch. */
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * Returns true if the operation at the given index of a batch should allow the provider to
+     * yield, see {@link ContentProviderOperation.Builder#withYieldAllowed}. Only operations that
+     * start a new unit of work, e.g. a new raw contact, may be yield points.
+     */
+    public boolean isYieldPoint(int index) {
+        return index > 0 && mYieldInterval > 0 && index % mYieldInterval == 0;
+    }
+
+    /**
+     * Applies the operations to the contacts provider and adjusts the size of the next batch.
+     *
+     * @param itemCount the number of items in the batch.
+     */
+    public ContentProviderResult[] applyBatch(ContentResolver resolver,
+            ArrayList<ContentProviderOperation> operations, int itemCount)
+            throws RemoteException, OperationApplicationException {
+        final long start = SystemClock.elapsedRealtime();
+        final ContentProviderResult[] results =
+                resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+        onBatchApplied(itemCount, operations.size(), SystemClock.elapsedRealtime() - start);
+        return results;
+    }
+
+    /** Applies a batch of operations, counting each operation as an item. */
+    public ContentProviderResult[] applyBatch(ContentResolver resolver,
+            ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        return applyBatch(resolver, operations, operations.size());
+    }
+
+    /**
+     * Records how long a batch applied by the caller took.
+     *
+     * @param itemCount the number of items in the batch.
+     * @param operationCount the number of operations in the batch.
+     */
+    public void onBatchApplied(int itemCount, int operationCount, long millis) {
+        mBatchSize = nextBatchSize(mBatchSize, itemCount, millis, mMinSize, mMaxSize);
+        if (operationCount > 0) {
+            final float millisPerOperation = Math.max(1, millis) / (float) operationCount;
+            mYieldInterval = Math.max(1, Math.round(TARGET_YIELD_MILLIS / millisPerOperation));
+        }
+    }
+
+    /**
+     * Returns the number of items to put into the next batch, given how long the last batch
+     * took.
+     */
+    @VisibleForTesting
+    static int nextBatchSize(int current, int lastSize, long lastMillis, int min, int max) {
+        if (lastSize < current) {
+            // The batch was cut short, e.g. at the end of the data. Its timing says little.
+            return current;
+        }
+        final float ratio = lastMillis <= 0 ? 2f : (float) TARGET_BATCH_MILLIS / lastMillis;
+        // Change the size by at most a factor of two at a time, so that a single slow batch,
+        // e.g. because of a concurrent sync, doesn't throw it off.
+        final int next = Math.round(current * Math.max(0.5f, Math.min(2f, ratio)));
+        return Math.max(min, Math.min(max, next));
+    }
+}
@@ -26,7 +26,6 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.RemoteException;
-import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.provider.ContactsContract.Data;
@@ -71,6 +70,8 @@ public class SimContactDaoImpl extends SimContactDao {
     // contacts. This has been tested on Nexus 6 NME70B and is probably be conservative enough
     // to work on any phone.
     private static final int IMPORT_MAX_BATCH_SIZE = 300;
+    private static final int IMPORT_MIN_BATCH_SIZE = 10;
+    private static final int IMPORT_INITIAL_BATCH_SIZE = 50;
 
     // How many SIM contacts to consider in a single query. This prevents hitting the SQLite
     // query parameter limit.
@@ -135,14 +136,16 @@ public class SimContactDaoImpl extends SimContactDao {
     public ContentProviderResult[] importContacts(List<SimContact> contacts,
             AccountWithDataSet targetAccount)
             throws RemoteException, OperationApplicationException {
-        if (contacts.size() < IMPORT_MAX_BATCH_SIZE) {
-            return importBatch(contacts, targetAccount);
-        }
+        // The batches are sized in SIM contacts, which take a few operations each.
+        final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(IMPORT_INITIAL_BATCH_SIZE,
+                IMPORT_MIN_BATCH_SIZE, IMPORT_MAX_BATCH_SIZE);
         final List<ContentProviderResult> results = new ArrayList<>();
-        for (int i = 0; i < contacts.size(); i += IMPORT_MAX_BATCH_SIZE) {
-            results.addAll(Arrays.asList(importBatch(
-                    contacts.subList(i, Math.min(contacts.size(), i + IMPORT_MAX_BATCH_SIZE)),
-                    targetAccount)));
+        int i = 0;
+        while (i < contacts.size()) {
+            final int end = Math.min(contacts.size(), i + sizer.getBatchSize());
+            results.addAll(Arrays.asList(importBatch(contacts.subList(i, end), targetAccount,
+                    sizer)));
+            i = end;
         }
         return results.toArray(new ContentProviderResult[results.size()]);
     }
@@ -231,11 +234,11 @@ public class SimContactDaoImpl extends SimContactDao {
 
 
     private ContentProviderResult[] importBatch(List<SimContact> contacts,
-            AccountWithDataSet targetAccount)
+            AccountWithDataSet targetAccount, AdaptiveBatchSizer sizer)
             throws RemoteException, OperationApplicationException {
         final ArrayList<ContentProviderOperation> ops =
                 createImportOperations(contacts, targetAccount);
-        return mResolver.applyBatch(ContactsContract.AUTHORITY, ops);
+        return sizer.applyBatch(mResolver, ops, contacts.size());
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
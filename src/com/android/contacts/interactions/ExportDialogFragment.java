@@ -40,6 +40,7 @@ import android.widget.Toast;
 
 import com.android.contacts.R;
 import com.android.contacts.util.ImplicitIntentsUtil;
+import com.android.contacts.vcard.ExportRequest;
 import com.android.contacts.vcard.ExportVCardActivity;
 import com.android.contacts.vcard.ShareVCardActivity;
 import com.android.contacts.vcard.VCardCommonArguments;
@@ -112,6 +113,8 @@ public class ExportDialogFragment extends DialogFragment {
         if (res.getBoolean(R.bool.config_allow_export)) {
                 adapter.add(new AdapterEntry(getString(R.string.export_to_vcf_file),
                         R.string.export_to_vcf_file));
+                adapter.add(new AdapterEntry(getString(R.string.export_changes_to_vcf_file),
+                        R.string.export_changes_to_vcf_file));
         }
         if (res.getBoolean(R.bool.config_allow_share_contacts)) {
             if (mExportMode == EXPORT_MODE_FAVORITES) {
@@ -139,6 +142,17 @@ public class ExportDialogFragment extends DialogFragment {
                     exportIntent.putExtra(VCardCommonArguments.ARG_CALLING_ACTIVITY,
                             callingActivity);
                     getActivity().startActivity(exportIntent);
+                } else if (resId == R.string.export_changes_to_vcf_file) {
+                    dismissDialog = true;
+                    final Intent exportIntent = new Intent(
+                            getActivity(), ExportVCardActivity.class);
+                    exportIntent.putExtra(VCardCommonArguments.ARG_CALLING_ACTIVITY,
+                            callingActivity);
+                    exportIntent.putExtra(VCardCommonArguments.ARG_EXPORT_MODE,
+                            ExportRequest.EXPORT_MODE_INCREMENTAL);
+                    exportIntent.putExtra(VCardCommonArguments.ARG_BACKUP_ID,
+                            ExportRequest.DEFAULT_BACKUP_ID);
+                    getActivity().startActivity(exportIntent);
                 } else if (resId == R.string.share_contacts) {
                     dismissDialog = true;
                     if (mExportMode == EXPORT_MODE_FAVORITES) {
@@ -206,7 +206,8 @@ public class ImportDialogFragment extends DialogFragment {
                 final int resId = adapter.getItem(which).mChoiceResourceId;
                 if (resId == R.string.import_from_sim) {
                     handleSimImportRequest(adapter.getItem(which).mSim);
-                } else if (resId == R.string.import_from_vcf_file) {
+                } else if (resId == R.string.import_from_vcf_file
+                        || resId == R.string.import_from_vcf_file_skip_duplicates) {
                     handleImportRequest(resId, SimCard.NO_SUBSCRIPTION_ID);
                 } else {
                     Log.e(TAG, "Unexpected resource: "
@@ -245,6 +246,9 @@ public class ImportDialogFragment extends DialogFragment {
         if (res.getBoolean(R.bool.config_allow_import_from_vcf_file) && !mSimOnly) {
             adapter.add(new AdapterEntry(getString(R.string.import_from_vcf_file),
                     R.string.import_from_vcf_file));
+            adapter.add(new AdapterEntry(
+                    getString(R.string.import_from_vcf_file_skip_duplicates),
+                    R.string.import_from_vcf_file_skip_duplicates));
         }
         final List<SimCard> sims = mSimDao.getSimCards();
 
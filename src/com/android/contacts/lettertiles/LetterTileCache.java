@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.lettertiles;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * A bounded cache of rendered letter tiles, so that {@link LetterTileDrawable}s showing the same
+ * tile at the same size don't have to measure and draw the letter on every draw call.
+ *
+ * <p>Only accessed from the UI thread. Tiles drawn on other threads aren't cached.</p>
+ */
+public class LetterTileCache {
+
+    /** Tiles that would take up more than this fraction of the cache are never cached. */
+    private static final int MAX_TILE_FRACTION = 8;
+
+    private final LruCache<TileKey, Bitmap> mCache;
+
+    public LetterTileCache(int maxBytes) {
+        mCache = new LruCache<TileKey, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(TileKey key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns true if a tile of the given size is small enough to be cached. Bigger tiles, like
+     * the one in the QuickContact header, are drawn directly.
+     */
+    public boolean isCacheable(int width, int height) {
+        return width > 0 && height > 0
+                && (long) width * height * 4 <= mCache.maxSize() / MAX_TILE_FRACTION;
+    }
+
+    public Bitmap get(TileKey key) {
+        return mCache.get(key);
+    }
+
+    public void put(TileKey key, Bitmap tile) {
+        mCache.put(key, tile);
+    }
+
+    public void trimToSize(int maxBytes) {
+        mCache.trimToSize(maxBytes);
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return mCache.toString();
+    }
+
+    /**
+     * Everything that affects how a tile is rendered. A single instance can be reused to look
+     * up tiles; {@link #copy()} it before using it as the key of a new entry.
+     */
+    public static final class TileKey {
+        private char mLetter;
+        private int mColor;
+        private int mWidth;
+        private int mHeight;
+        private boolean mIsCircle;
+        private int mContactType;
+        private float mScale;
+        private float mOffset;
+
+        /**
+         * @param letter the letter of the tile, or 0 if the tile shows the default avatar of
+         * the contact type.
+         */
+        public TileKey set(char letter, int color, int width, int height, boolean isCircle,
+                int contactType, float scale, float offset) {
+            mLetter = letter;
+            mColor = color;
+            mWidth = width;
+            mHeight = height;
+            mIsCircle = isCircle;
+            // The contact type only matters when there is no letter.
+            mContactType = letter == 0 ? contactType : 0;
+            mScale = scale;
+            mOffset = offset;
+            return this;
+        }
+
+        public TileKey copy() {
+            return new TileKey().set(mLetter, mColor, mWidth, mHeight, mIsCircle, mContactType,
+                    mScale, mOffset);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            final TileKey other = (TileKey) o;
+            return mLetter == other.mLetter && mColor == other.mColor
+                    && mWidth == other.mWidth && mHeight == other.mHeight
+                    && mIsCircle == other.mIsCircle && mContactType == other.mContactType
+                    && Float.compare(mScale, other.mScale) == 0
+                    && Float.compare(mOffset, other.mOffset) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mLetter;
+            result = 31 * result + mColor;
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + (mIsCircle ? 1 : 0);
+            result = 31 * result + mContactType;
+            result = 31 * result + Float.floatToIntBits(mScale);
+            result = 31 * result + Float.floatToIntBits(mOffset);
+            return result;
+        }
+    }
+}
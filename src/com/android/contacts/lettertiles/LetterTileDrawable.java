@@ -28,6 +28,7 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.AdaptiveIconDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Looper;
 import android.text.TextUtils;
 
 import com.android.contacts.R;
@@ -57,6 +58,8 @@ public class LetterTileDrawable extends Drawable {
     private static final Paint sPaint = new Paint();
     private static final Rect sRect = new Rect();
     private static final char[] sFirstChar = new char[1];
+    /** Only used on the UI thread, like {@link #mTileCache}. */
+    private static final LetterTileCache.TileKey sTileKey = new LetterTileCache.TileKey();
 
     /** Contact type constants */
     public static final int TYPE_PERSON = 1;
@@ -75,6 +78,9 @@ public class LetterTileDrawable extends Drawable {
     private int mColor;
     private Character mLetter = null;
 
+    /** Rendered tiles to draw from instead of drawing the letter, or null to always draw it. */
+    private LetterTileCache mTileCache;
+
     public LetterTileDrawable(final Resources res) {
         if (sColors == null) {
             sColors = res.obtainTypedArray(R.array.letter_tile_colors);
@@ -104,8 +110,34 @@ public class LetterTileDrawable extends Drawable {
         if (!isVisible() || bounds.isEmpty()) {
             return;
         }
-        // Draw letter tile.
-        drawLetterTile(canvas);
+        // Draw letter tile. The cached tiles are opaque, so translucent tiles are drawn directly.
+        // So are tiles drawn off the UI thread, e.g. for shortcut icons, as the cache and its
+        // lookup key are not thread safe.
+        if (mTileCache != null && mPaint.getAlpha() == 255
+                && Looper.myLooper() == Looper.getMainLooper()
+                && mTileCache.isCacheable(bounds.width(), bounds.height())) {
+            drawCachedLetterTile(canvas, bounds);
+        } else {
+            drawLetterTile(canvas);
+        }
+    }
+
+    /**
+     * Draws the tile from {@link #mTileCache}, rendering it into the cache first if it is not
+     * there yet.
+     */
+    private void drawCachedLetterTile(final Canvas canvas, final Rect bounds) {
+        sTileKey.set(mLetter != null ? mLetter : (char) 0, mColor, bounds.width(), bounds.height(),
+                mIsCircle, mContactType, mScale, mOffset);
+        Bitmap tile = mTileCache.get(sTileKey);
+        if (tile == null) {
+            tile = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+            final Canvas tileCanvas = new Canvas(tile);
+            tileCanvas.translate(-bounds.left, -bounds.top);
+            drawLetterTile(tileCanvas);
+            mTileCache.put(sTileKey.copy(), tile);
+        }
+        canvas.drawBitmap(tile, bounds.left, bounds.top, null);
     }
 
     /**
@@ -286,6 +318,15 @@ public class LetterTileDrawable extends Drawable {
         return this;
     }
 
+    /**
+     * Makes the drawable draw from the given cache of rendered tiles, which is filled as
+     * tiles are drawn. Pass null to always draw the letter directly.
+     */
+    public LetterTileDrawable setTileCache(LetterTileCache tileCache) {
+        mTileCache = tileCache;
+        return this;
+    }
+
     /**
      * Returns the scale percentage as a float for LetterTileDrawables used in AdaptiveIcons.
      */
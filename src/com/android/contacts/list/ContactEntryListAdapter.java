@@ -42,6 +42,7 @@ import com.android.contacts.compat.CompatUtils;
 import com.android.contacts.compat.DirectoryCompat;
 import com.android.contacts.util.SearchUtil;
 
+import java.util.Collection;
 import java.util.HashSet;
 
 /**
@@ -287,6 +288,15 @@ public abstract class ContactEntryListAdapter extends IndexerListAdapter {
         this.mDirectoryResultLimit = limit;
     }
 
+    /**
+     * Returns true if the search results of the partition can be picked out of the results of a
+     * shorter query by {@link SearchResultCache}, which matches them by their names, snippets
+     * and numbers.
+     */
+    public boolean isSearchResultRefinable(DirectoryPartition directoryPartition) {
+        return true;
+    }
+
     public int getContactNameDisplayOrder() {
         return mDisplayOrder;
     }
@@ -682,6 +692,40 @@ public abstract class ContactEntryListAdapter extends IndexerListAdapter {
         return true;
     }
 
+    /**
+     * Returns the column of the cursors of this adapter that holds the thumbnail photo id, or
+     * -1 if the entries of this adapter don't have thumbnails.
+     */
+    protected int getPhotoIdColumnIndex() {
+        return -1;
+    }
+
+    /**
+     * Adds the thumbnail photo ids of the entries between {@code start} (inclusive) and
+     * {@code end} (exclusive) to {@code photoIds}, so that they can be prefetched before the
+     * entries are shown.
+     */
+    public void collectPhotoIds(int start, int end, Collection<Long> photoIds) {
+        final int column = getPhotoIdColumnIndex();
+        if (column < 0 || mPhotoLoader == null) {
+            return;
+        }
+        end = Math.min(end, getCount());
+        for (int position = Math.max(0, start); position < end; position++) {
+            if (!isPhotoSupported(getPartitionForPosition(position))) {
+                continue;
+            }
+            final Cursor cursor = (Cursor) getItem(position);
+            if (cursor == null || cursor.isNull(column)) {
+                continue;
+            }
+            final long photoId = cursor.getLong(column);
+            if (photoId != 0) {
+                photoIds.add(photoId);
+            }
+        }
+    }
+
     /**
      * Returns the currently selected filter.
      */
@@ -29,6 +29,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.ContactsContract.Directory;
 import android.text.TextUtils;
 import android.util.Log;
@@ -48,10 +49,15 @@ import android.widget.ListView;
 
 import com.android.common.widget.CompositeCursorAdapter.Partition;
 import com.android.contacts.ContactPhotoManager;
+import com.android.contacts.compat.DirectoryCompat;
 import com.android.contacts.logging.ListEvent.ActionType;
 import com.android.contacts.logging.Logger;
+import com.android.contacts.logging.SearchState;
 import com.android.contacts.preference.ContactsPreferences;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -93,6 +99,7 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
 
     private static final int DIRECTORY_SEARCH_DELAY_MILLIS = 300;
     private static final int DIRECTORY_SEARCH_MESSAGE = 1;
+    private static final int DIRECTORY_SEARCH_DEADLINE_MESSAGE = 2;
 
     private static final int DEFAULT_DIRECTORY_RESULT_LIMIT = 20;
 
@@ -145,6 +152,17 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
     private ContactPhotoManager mPhotoManager;
     private ContactsPreferences mContactsPrefs;
 
+    /** Predicts which rows will be shown next, so that their photos can be prefetched. */
+    private final PhotoPrefetchPredictor mPhotoPrefetchPredictor = new PhotoPrefetchPredictor();
+    private final List<Long> mPrefetchPhotoIds = new ArrayList<>();
+
+    private final SearchLatencyTracker mSearchLatencyTracker = new SearchLatencyTracker();
+
+    private final DirectorySearchCoordinator mDirectorySearchCoordinator =
+            new DirectorySearchCoordinator();
+    private long mDirectorySearchDeadlineMillis =
+            DirectorySearchCoordinator.DEFAULT_DEADLINE_MILLIS;
+
     private boolean mForceLoad;
 
     private boolean mDarkTheme;
@@ -170,6 +188,8 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
         public void handleMessage(Message msg) {
             if (msg.what == DIRECTORY_SEARCH_MESSAGE) {
                 loadDirectoryPartition(msg.arg1, (DirectoryPartition) msg.obj);
+            } else if (msg.what == DIRECTORY_SEARCH_DEADLINE_MESSAGE) {
+                onDirectorySearchDeadline(msg.arg1, (DirectoryPartition) msg.obj);
             }
         }
     };
@@ -329,6 +349,13 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
         }
 
         configureAdapter();
+        if (isSearchMode() && getDirectorySearchMode() != DirectoryListLoader.SEARCH_MODE_NONE
+                && mDirectoryListStatus == STATUS_NOT_LOADED) {
+            // Look up the directories right away, so that they are searched at the same time
+            // as the default directory rather than after it.
+            mDirectoryListStatus = STATUS_LOADING;
+            getLoaderManager().initLoader(DIRECTORY_LOADER_ID, null, this);
+        }
         int partitionCount = mAdapter.getPartitionCount();
         for (int i = 0; i < partitionCount; i++) {
             Partition partition = mAdapter.getPartition(i);
@@ -395,6 +422,7 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
         } else {
             Bundle args = new Bundle();
             args.putLong(DIRECTORY_ID_ARG_KEY, directoryId);
+            onDirectorySearchStarted(partitionIndex, partition);
             getLoaderManager().initLoader(partitionIndex, args, this);
         }
     }
@@ -417,9 +445,69 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
     protected void loadDirectoryPartition(int partitionIndex, DirectoryPartition partition) {
         Bundle args = new Bundle();
         args.putLong(DIRECTORY_ID_ARG_KEY, partition.getDirectoryId());
+        onDirectorySearchStarted(partitionIndex, partition);
         getLoaderManager().restartLoader(partitionIndex, args, this);
     }
 
+    /**
+     * Sets the time that a directory has to return its search results. The partition of a
+     * directory that takes longer is shown without results, so that the partitions after it
+     * can be shown.
+     */
+    public void setDirectorySearchDeadlineMillis(long deadlineMillis) {
+        mDirectorySearchDeadlineMillis = deadlineMillis;
+    }
+
+    public long getDirectorySearchDeadlineMillis() {
+        return mDirectorySearchDeadlineMillis;
+    }
+
+    private void onDirectorySearchStarted(int partitionIndex, DirectoryPartition partition) {
+        if (!isSearchMode()) {
+            return;
+        }
+        mDirectorySearchCoordinator.onSearchStarted(partitionIndex, partition.getDirectoryId(),
+                SystemClock.elapsedRealtime());
+        mDelayedDirectorySearchHandler.removeMessages(
+                DIRECTORY_SEARCH_DEADLINE_MESSAGE, partition);
+        Message msg = mDelayedDirectorySearchHandler.obtainMessage(
+                DIRECTORY_SEARCH_DEADLINE_MESSAGE, partitionIndex, 0, partition);
+        mDelayedDirectorySearchHandler.sendMessageDelayed(msg, mDirectorySearchDeadlineMillis);
+    }
+
+    private void onDirectorySearchDeadline(int partitionIndex, DirectoryPartition partition) {
+        if (!mDirectorySearchCoordinator.isPending(partitionIndex)
+                || partitionIndex >= mAdapter.getPartitionCount()
+                || mAdapter.getPartition(partitionIndex) != partition) {
+            // The directories have changed since the search started.
+            return;
+        }
+        if (DirectoryCompat.isRemoteDirectoryId(partition.getDirectoryId())) {
+            // Don't keep waiting for the network.
+            final Loader<Cursor> loader = getLoaderManager().getLoader(partitionIndex);
+            if (loader != null) {
+                loader.cancelLoad();
+            }
+        }
+        showDirectorySearchResults(mDirectorySearchCoordinator.onDeadline(partitionIndex));
+    }
+
+    /**
+     * Shows the results of the given directory partitions, which are held by
+     * {@link #mDirectorySearchCoordinator}.
+     */
+    private void showDirectorySearchResults(List<Integer> partitionIndexes) {
+        for (int partitionIndex : partitionIndexes) {
+            onPartitionLoaded(partitionIndex,
+                    mDirectorySearchCoordinator.takeResult(partitionIndex));
+        }
+    }
+
+    private void removeDirectorySearchDeadlines() {
+        mDelayedDirectorySearchHandler.removeMessages(DIRECTORY_SEARCH_DEADLINE_MESSAGE);
+        mDirectorySearchCoordinator.reset();
+    }
+
     /**
      * Cancels all queued directory loading requests.
      */
@@ -439,19 +527,22 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
         int loaderId = loader.getId();
         if (loaderId == DIRECTORY_LOADER_ID) {
             mDirectoryListStatus = STATUS_LOADED;
+            // The searches are tracked by partition index, which changes with the directories.
+            removeDirectorySearchDeadlines();
             mAdapter.changeDirectories(data);
             startLoading();
         } else {
-            onPartitionLoaded(loaderId, data);
+            if (isSearchMode() && loaderId < mAdapter.getPartitionCount()
+                    && mAdapter.getPartition(loaderId) instanceof DirectoryPartition) {
+                // Partitions are shown in order, as the directories return their results.
+                showDirectorySearchResults(mDirectorySearchCoordinator.onSearchFinished(
+                        loaderId, data, SystemClock.elapsedRealtime()));
+            } else {
+                onPartitionLoaded(loaderId, data);
+            }
             if (isSearchMode()) {
-                int directorySearchMode = getDirectorySearchMode();
-                if (directorySearchMode != DirectoryListLoader.SEARCH_MODE_NONE) {
-                    if (mDirectoryListStatus == STATUS_NOT_LOADED) {
-                        mDirectoryListStatus = STATUS_LOADING;
-                        getLoaderManager().initLoader(DIRECTORY_LOADER_ID, null, this);
-                    } else {
-                        startLoading();
-                    }
+                if (getDirectorySearchMode() != DirectoryListLoader.SEARCH_MODE_NONE) {
+                    startLoading();
                 }
             } else {
                 maybeLogListEvent();
@@ -480,11 +571,97 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
             return;
         }
 
+        final Partition partition = mAdapter.getPartition(partitionIndex);
+        if (isSearchMode() && partition instanceof DirectoryPartition) {
+            cacheSearchResults((DirectoryPartition) partition, data);
+        }
         mAdapter.changeCursor(partitionIndex, data);
         setListHeader();
+        mPhotoPrefetchPredictor.reset();
 
         if (!isLoading()) {
             completeRestoreInstanceState();
+            if (isSearchMode()) {
+                mSearchLatencyTracker.onResultsPresented(SystemClock.elapsedRealtime());
+            }
+        }
+    }
+
+    private void cacheSearchResults(DirectoryPartition partition, Cursor data) {
+        if (!mAdapter.isSearchResultRefinable(partition)) {
+            return;
+        }
+        final long directoryId = partition.getDirectoryId();
+        // Remote directories return at most a limited number of results.
+        final boolean complete = directoryId == Directory.DEFAULT
+                || directoryId == Directory.LOCAL_INVISIBLE
+                || (data != null && data.getCount() < mAdapter.getDirectoryResultLimit(partition));
+        partition.getResultCache().put(mAdapter.getQueryString(), data, complete);
+    }
+
+    /**
+     * Shows the results of the current query that can be picked out of the results of earlier
+     * queries, until the partitions are loaded.
+     */
+    private void showCachedSearchResults() {
+        final String query = mAdapter.getQueryString();
+        if (TextUtils.isEmpty(query)) {
+            return;
+        }
+        final int partitionCount = mAdapter.getPartitionCount();
+        for (int i = 0; i < partitionCount; i++) {
+            final Partition partition = mAdapter.getPartition(i);
+            if (partition instanceof DirectoryPartition
+                    && mAdapter.isSearchResultRefinable((DirectoryPartition) partition)) {
+                final DirectoryPartition directoryPartition = (DirectoryPartition) partition;
+                directoryPartition.getResultCache().refine(query,
+                        new SearchResultCache.Listener() {
+                            @Override
+                            public void onRefined(String refinedQuery, Cursor cursor) {
+                                showRefinedSearchResults(directoryPartition, refinedQuery,
+                                        cursor);
+                            }
+                        });
+            }
+        }
+    }
+
+    private void showRefinedSearchResults(DirectoryPartition partition, String query,
+            Cursor cursor) {
+        int partitionIndex = -1;
+        for (int i = 0; i < mAdapter.getPartitionCount(); i++) {
+            if (mAdapter.getPartition(i) == partition) {
+                partitionIndex = i;
+                break;
+            }
+        }
+        // Drop the results if the query or the directories changed, or if the partition has
+        // been loaded since.
+        if (!isAdded() || !isSearchMode() || !query.equals(mAdapter.getQueryString())
+                || partitionIndex < 0
+                || partition.getStatus() == DirectoryPartition.STATUS_LOADED) {
+            cursor.close();
+            return;
+        }
+        final int status = partition.getStatus();
+        mAdapter.changeCursor(partitionIndex, cursor);
+        // The partition still has to be loaded.
+        partition.setStatus(status);
+    }
+
+    /**
+     * Cancels the directory loads that are still running, e.g. for a query that has changed
+     * since. The directories are loaded again by {@link #startLoading}.
+     */
+    private void cancelDirectoryLoads() {
+        final int partitionCount = mAdapter.getPartitionCount();
+        for (int i = 0; i < partitionCount; i++) {
+            if (mAdapter.getPartition(i) instanceof DirectoryPartition) {
+                final Loader<Cursor> loader = getLoaderManager().getLoader(i);
+                if (loader != null) {
+                    loader.cancelLoad();
+                }
+            }
         }
     }
 
@@ -511,11 +688,18 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
         super.onStop();
         mContactsPrefs.unregisterChangeListener();
         mAdapter.clearPartitions();
+        removeDirectorySearchDeadlines();
+        cancelPhotoPrefetch();
     }
 
     protected void reloadData() {
         removePendingDirectorySearchRequests();
+        removeDirectorySearchDeadlines();
         mAdapter.onDataReload();
+        cancelDirectoryLoads();
+        if (isSearchMode()) {
+            showCachedSearchResults();
+        }
         mLoadPriorityDirectoriesOnly = true;
         mForceLoad = true;
         startLoading();
@@ -635,6 +819,7 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
 
                 mAdapter.clearPartitions();
                 if (!flag) {
+                    clearSearchResultCaches();
                     // If we are switching from search to regular display, remove all directory
                     // partitions after default one, assuming they are remote directories which
                     // should be cleaned up on exiting the search mode.
@@ -649,6 +834,23 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
         }
     }
 
+    private void clearSearchResultCaches() {
+        final int partitionCount = mAdapter.getPartitionCount();
+        for (int i = 0; i < partitionCount; i++) {
+            final Partition partition = mAdapter.getPartition(i);
+            if (partition instanceof DirectoryPartition) {
+                ((DirectoryPartition) partition).getResultCache().clear();
+            }
+        }
+    }
+
+    /**
+     * Adds the time it took to present the results of each change of the search query.
+     */
+    protected void addSearchLatency(SearchState searchState) {
+        mSearchLatencyTracker.fillSearchState(searchState);
+    }
+
     /**
      * When not in search mode, directory header should always be hidden.
      * When in search mode, directory header should be displayed when mDisplayDirectoryHeader is
@@ -682,8 +884,14 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
                 }
             }
 
+            if (TextUtils.isEmpty(mQueryString)) {
+                mSearchLatencyTracker.reset();
+            }
             mQueryString = queryString;
             setSearchMode(!TextUtils.isEmpty(mQueryString) || mShowEmptyListForEmptyQuery);
+            if (!TextUtils.isEmpty(mQueryString)) {
+                mSearchLatencyTracker.onQueryChanged(SystemClock.elapsedRealtime());
+            }
 
             if (mAdapter != null) {
                 mAdapter.setQueryString(queryString);
@@ -851,6 +1059,40 @@ public abstract class ContactEntryListFragment<T extends ContactEntryListAdapter
     @Override
     public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
             int totalItemCount) {
+        prefetchPhotos(view, firstVisibleItem, visibleItemCount);
+    }
+
+    /**
+     * Asks the photo manager to fetch the photos of the rows that are predicted to become
+     * visible next, nearest rows first.
+     */
+    private void prefetchPhotos(AbsListView view, int firstVisibleItem, int visibleItemCount) {
+        if (!isPhotoLoaderEnabled() || mPhotoManager == null || mAdapter == null) {
+            return;
+        }
+        final int headerCount =
+                view instanceof ListView ? ((ListView) view).getHeaderViewsCount() : 0;
+        if (!mPhotoPrefetchPredictor.onScroll(Math.max(0, firstVisibleItem - headerCount),
+                visibleItemCount, mAdapter.getCount(), SystemClock.uptimeMillis())) {
+            return;
+        }
+        mPrefetchPhotoIds.clear();
+        if (mPhotoPrefetchPredictor.getWindowStart() >= 0) {
+            mAdapter.collectPhotoIds(mPhotoPrefetchPredictor.getWindowStart(),
+                    mPhotoPrefetchPredictor.getWindowEnd(), mPrefetchPhotoIds);
+            if (mPhotoPrefetchPredictor.getVelocity() < 0) {
+                Collections.reverse(mPrefetchPhotoIds);
+            }
+        }
+        mPhotoManager.prefetchThumbnails(mPrefetchPhotoIds);
+    }
+
+    private void cancelPhotoPrefetch() {
+        mPhotoPrefetchPredictor.reset();
+        if (mPhotoManager != null) {
+            mPrefetchPhotoIds.clear();
+            mPhotoManager.prefetchThumbnails(mPrefetchPhotoIds);
+        }
     }
 
     @Override
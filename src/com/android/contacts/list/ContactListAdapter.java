@@ -17,13 +17,16 @@ package com.android.contacts.list;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DataSetObserver;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.Directory;
 import android.provider.ContactsContract.SearchSnippets;
 import android.text.TextUtils;
+import android.util.SparseArray;
 import android.view.ViewGroup;
 import android.widget.ListView;
 
@@ -110,6 +113,17 @@ public abstract class ContactListAdapter extends MultiSelectEntryContactListAdap
     private long mSelectedContactId;
     private ContactListItemView.PhotoPosition mPhotoPosition;
 
+    /** The cursors of the partitions that are loaded a page at a time, by partition index. */
+    private final SparseArray<Cursor> mPagedCursors = new SparseArray<>();
+
+    /** Rebinds the rows when a page of a {@link PagedContactsCursor} has been loaded. */
+    private final DataSetObserver mPageObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            notifyDataSetChanged();
+        }
+    };
+
     public ContactListAdapter(Context context) {
         super(context, ContactQuery.CONTACT_ID);
 
@@ -241,6 +255,11 @@ public abstract class ContactListAdapter extends MultiSelectEntryContactListAdap
         }
     }
 
+    @Override
+    protected int getPhotoIdColumnIndex() {
+        return ContactQuery.CONTACT_PHOTO_ID;
+    }
+
     protected void bindPhoto(final ContactListItemView view, int partitionIndex, Cursor cursor) {
         if (!isPhotoSupported(partitionIndex)) {
             view.removePhotoView();
@@ -311,9 +330,17 @@ public abstract class ContactListAdapter extends MultiSelectEntryContactListAdap
             return -1;
         }
 
+        // The rows of a paged cursor, which follow the favorites, can only be matched by ID
+        // without loading them.
+        final Bundle extras = cursor.getExtras();
+        final long[] pagedIds = extras == null
+                ? null : extras.getLongArray(PagedContactsCursor.EXTRA_CONTACT_IDS);
+        final int pagedStart = pagedIds == null ? cursor.getCount()
+                : cursor.getCount() - pagedIds.length;
+
         cursor.moveToPosition(-1);      // Reset cursor
         int offset = -1;
-        while (cursor.moveToNext()) {
+        while (cursor.getPosition() + 1 < pagedStart && cursor.moveToNext()) {
             if (mSelectedContactLookupKey != null) {
                 String lookupKey = cursor.getString(ContactQuery.CONTACT_LOOKUP_KEY);
                 if (mSelectedContactLookupKey.equals(lookupKey)) {
@@ -330,6 +357,16 @@ public abstract class ContactListAdapter extends MultiSelectEntryContactListAdap
                 }
             }
         }
+        if (offset == -1 && pagedIds != null && mSelectedContactId != 0
+                && (mSelectedContactDirectoryId == Directory.DEFAULT
+                        || mSelectedContactDirectoryId == Directory.LOCAL_INVISIBLE)) {
+            for (int i = 0; i < pagedIds.length; i++) {
+                if (pagedIds[i] == mSelectedContactId) {
+                    offset = pagedStart + i;
+                    break;
+                }
+            }
+        }
         if (offset == -1) {
             return -1;
         }
@@ -370,6 +407,16 @@ public abstract class ContactListAdapter extends MultiSelectEntryContactListAdap
 
     @Override
     public void changeCursor(int partitionIndex, Cursor cursor) {
+        final Cursor pagedCursor = mPagedCursors.get(partitionIndex);
+        if (pagedCursor != null && pagedCursor != cursor) {
+            pagedCursor.unregisterDataSetObserver(mPageObserver);
+            mPagedCursors.remove(partitionIndex);
+        }
+        if (cursor != null && cursor != pagedCursor && cursor.getExtras() != null
+                && cursor.getExtras().containsKey(PagedContactsCursor.EXTRA_CONTACT_IDS)) {
+            cursor.registerDataSetObserver(mPageObserver);
+            mPagedCursors.put(partitionIndex, cursor);
+        }
         super.changeCursor(partitionIndex, cursor);
 
         if (cursor == null || !cursor.moveToFirst()) {
@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Nickname;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.Directory;
+import android.provider.ContactsContract.SearchSnippets;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.android.contacts.util.concurrent.ContactsExecutors;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of the local contacts, used to filter the contact list while the user
+ * types a search query, without a provider query for each keystroke.
+ *
+ * <p>The index maps the prefixes of the names, phonetic names, nicknames, email local parts
+ * and phone number digits of the contacts to the contacts. It is built on a background thread
+ * the first time it's used, and built again whenever the contacts change. Until the new index
+ * is ready, {@link #query} returns null so that callers query the provider instead.</p>
+ *
+ * <p>A contact matches a query if each word of the query is the prefix of one of its words,
+ * like with {@link Contacts#CONTENT_FILTER_URI}. Only the local directory is indexed.</p>
+ */
+public class ContactSearchIndex extends ContentObserver {
+    private static final String TAG = "ContactSearchIndex";
+
+    /** Wait for changes to settle, e.g. during a sync, before building the index again. */
+    private static final long REBUILD_DELAY_MILLIS = 1000;
+
+    /** The columns of {@link Contacts} that the index can return. */
+    @VisibleForTesting
+    static final String[] CONTACT_COLUMNS = new String[] {
+        Contacts._ID,                           // 0
+        Contacts.DISPLAY_NAME_PRIMARY,          // 1
+        Contacts.DISPLAY_NAME_ALTERNATIVE,      // 2
+        Contacts.PHONETIC_NAME,                 // 3
+        Contacts.CONTACT_PRESENCE,              // 4
+        Contacts.CONTACT_STATUS,                // 5
+        Contacts.PHOTO_ID,                      // 6
+        Contacts.PHOTO_THUMBNAIL_URI,           // 7
+        Contacts.LOOKUP_KEY,                    // 8
+        Contacts.STARRED,                       // 9
+    };
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_DISPLAY_NAME_PRIMARY = 1;
+    private static final int COLUMN_DISPLAY_NAME_ALTERNATIVE = 2;
+    private static final int COLUMN_PHONETIC_NAME = 3;
+
+    /** Only the contacts of the default directory are indexed. */
+    private static final Uri CONTACTS_URI = getDefaultDirectoryUri(Contacts.CONTENT_URI);
+    private static final Uri DATA_URI = getDefaultDirectoryUri(Data.CONTENT_URI);
+
+    private static final String[] DATA_PROJECTION = new String[] {
+        Data.CONTACT_ID,                        // 0
+        Data.MIMETYPE,                          // 1
+        Data.DATA1,                             // 2
+        Phone.NORMALIZED_NUMBER,                // 3
+    };
+
+    private static final String DATA_SELECTION = Data.MIMETYPE + " IN (?,?,?)";
+
+    private static final String[] DATA_SELECTION_ARGS = new String[] {
+        Nickname.CONTENT_ITEM_TYPE, Email.CONTENT_ITEM_TYPE, Phone.CONTENT_ITEM_TYPE
+    };
+
+    private static ContactSearchIndex sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Read on the loader threads.
+    private volatile Index mIndex;
+    private volatile boolean mStale = true;
+
+    // Only accessed on the UI thread.
+    private int mGeneration;
+    private boolean mBuilding;
+    private boolean mRebuildPending;
+
+    private final Runnable mRebuildRunnable = new Runnable() {
+        @Override
+        public void run() {
+            rebuild();
+        }
+    };
+
+    /**
+     * Returns the singleton instance, which starts building the index the first time. May be
+     * called on any thread.
+     */
+    public synchronized static ContactSearchIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContactSearchIndex(context.getApplicationContext());
+            sInstance.start();
+        }
+        return sInstance;
+    }
+
+    private ContactSearchIndex(Context context) {
+        super(new Handler(Looper.getMainLooper()));
+        mResolver = context.getContentResolver();
+    }
+
+    private void start() {
+        mResolver.registerContentObserver(Contacts.CONTENT_URI, true, this);
+        mHandler.post(mRebuildRunnable);
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        mStale = true;
+        mGeneration++;
+        mHandler.removeCallbacks(mRebuildRunnable);
+        mHandler.postDelayed(mRebuildRunnable, REBUILD_DELAY_MILLIS);
+    }
+
+    /**
+     * Returns the local contacts matching the query, ordered by {@link Contacts#SORT_KEY_PRIMARY}
+     * and with the given columns of {@link Contacts} and {@link SearchSnippets#SNIPPET}, or null
+     * if the index isn't up to date or can't return some of the columns. May be called on any
+     * thread.
+     */
+    public Cursor query(String query, String[] projection) {
+        final Index index = mIndex;
+        if (mStale || index == null) {
+            return null;
+        }
+        return index.query(query, projection);
+    }
+
+    private void rebuild() {
+        if (mBuilding) {
+            mRebuildPending = true;
+            return;
+        }
+        mBuilding = true;
+        final int generation = mGeneration;
+        ContactsExecutors.getDefaultThreadPoolExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Index index = loadIndex(mResolver);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onIndexLoaded(index, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onIndexLoaded(Index index, int generation) {
+        mBuilding = false;
+        if (index != null) {
+            mIndex = index;
+            // Stay stale if the contacts changed while loading, until the next index is built.
+            mStale = generation != mGeneration;
+        }
+        if (mRebuildPending) {
+            mRebuildPending = false;
+            rebuild();
+        }
+    }
+
+    @VisibleForTesting
+    static Index loadIndex(ContentResolver resolver) {
+        final long start = SystemClock.elapsedRealtime();
+        final Index.Builder builder = new Index.Builder();
+        final LongSparseArray<Integer> positions = new LongSparseArray<>();
+        try {
+            final Cursor contacts = resolver.query(CONTACTS_URI, CONTACT_COLUMNS,
+                    null, null, Contacts.SORT_KEY_PRIMARY);
+            if (contacts == null) {
+                return null;
+            }
+            try {
+                while (contacts.moveToNext()) {
+                    final Object[] row = new Object[CONTACT_COLUMNS.length];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = getValue(contacts, i);
+                    }
+                    positions.put(contacts.getLong(COLUMN_ID), builder.addContact(row));
+                }
+            } finally {
+                contacts.close();
+            }
+
+            final Cursor data = resolver.query(DATA_URI, DATA_PROJECTION,
+                    DATA_SELECTION, DATA_SELECTION_ARGS, null);
+            if (data == null) {
+                return null;
+            }
+            try {
+                while (data.moveToNext()) {
+                    final Integer position = positions.get(data.getLong(0));
+                    final String value = data.getString(2);
+                    if (position == null || value == null) {
+                        continue;
+                    }
+                    final String mimeType = data.getString(1);
+                    if (Nickname.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                        builder.addNickname(position, value);
+                    } else if (Email.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                        builder.addEmail(position, value);
+                    } else {
+                        builder.addPhoneNumber(position, value, data.getString(3));
+                    }
+                }
+            } finally {
+                data.close();
+            }
+        } catch (SQLiteException | SecurityException e) {
+            Log.w(TAG, "Failed to build the contact search index", e);
+            return null;
+        }
+        final Index index = builder.build();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Indexed " + positions.size() + " contacts in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+        return index;
+    }
+
+    private static Uri getDefaultDirectoryUri(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY,
+                String.valueOf(Directory.DEFAULT)).build();
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    /**
+     * Returns the lower case words of the text, without accents. Words are separated by
+     * anything that isn't a letter or a digit.
+     */
+    /* package */ static List<String> getWords(String text) {
+        final String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{Mn}+", "").toLowerCase();
+        final ArrayList<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            final boolean wordChar = i < normalized.length()
+                    && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /** Returns the digits of the query if it looks like a phone number, or else null. */
+    private static String getPhoneQueryDigits(String query) {
+        final StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            } else if ("+-(). ".indexOf(c) < 0) {
+                return null;
+            }
+        }
+        return digits.length() == 0 ? null : digits.toString();
+    }
+
+    private static String getDigits(String number) {
+        final StringBuilder digits = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            final char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    /**
+     * An immutable snapshot of the index: the sorted keys of all contacts, each with the
+     * position of its contact.
+     */
+    @VisibleForTesting
+    static class Index {
+        private final Object[][] mContacts;
+        private final String[] mKeys;
+        private final int[] mKeyContacts;
+        /** The value to show as snippet when a key matches, or null for names. */
+        private final String[] mKeySnippets;
+
+        private Index(Object[][] contacts, String[] keys, int[] keyContacts,
+                String[] keySnippets) {
+            mContacts = contacts;
+            mKeys = keys;
+            mKeyContacts = keyContacts;
+            mKeySnippets = keySnippets;
+        }
+
+        /** See {@link ContactSearchIndex#query}. */
+        public Cursor query(String query, String[] projection) {
+            final int[] columns = new int[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                if (SearchSnippets.SNIPPET.equals(projection[i])) {
+                    columns[i] = -1;
+                    continue;
+                }
+                columns[i] = Arrays.asList(CONTACT_COLUMNS).indexOf(projection[i]);
+                if (columns[i] < 0) {
+                    return null;
+                }
+            }
+
+            final MatrixCursor cursor = new MatrixCursor(projection);
+            final Map<Integer, String> matches = match(query);
+            final ArrayList<Integer> positions = new ArrayList<>(matches.keySet());
+            Collections.sort(positions);
+            for (int position : positions) {
+                final Object[] row = new Object[projection.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = columns[i] < 0
+                            ? matches.get(position) : mContacts[position][columns[i]];
+                }
+                cursor.addRow(row);
+            }
+            // Let ContactListItemView highlight the snippets, as with deferred snippeting.
+            final Bundle extras = new Bundle();
+            extras.putBoolean(ContactsContract.DEFERRED_SNIPPETING, true);
+            extras.putString(ContactsContract.DEFERRED_SNIPPETING_QUERY, query);
+            cursor.setExtras(extras);
+            return cursor;
+        }
+
+        /**
+         * Returns the positions of the contacts matching the query, each with its snippet,
+         * which is null if each word of the query matched a name.
+         */
+        private Map<Integer, String> match(String query) {
+            final List<String> words = getWords(query);
+            final String phoneDigits = getPhoneQueryDigits(query);
+            if (phoneDigits != null) {
+                // Match "555-1234" as one number rather than as two words.
+                words.clear();
+                words.add(phoneDigits);
+            }
+            Map<Integer, String> matches = null;
+            for (String word : words) {
+                final HashMap<Integer, String> wordMatches = new HashMap<>();
+                final int end = lowerBound(word + Character.MAX_VALUE);
+                for (int i = lowerBound(word); i < end; i++) {
+                    final int position = mKeyContacts[i];
+                    if (matches != null && !matches.containsKey(position)) {
+                        continue;
+                    }
+                    // Prefer matching names, which need no snippet.
+                    if (mKeySnippets[i] == null || !wordMatches.containsKey(position)) {
+                        wordMatches.put(position, mKeySnippets[i]);
+                    }
+                }
+                if (matches != null) {
+                    for (Map.Entry<Integer, String> entry : wordMatches.entrySet()) {
+                        // Keep the snippet of the first word that didn't match a name.
+                        final String snippet = matches.get(entry.getKey());
+                        if (snippet != null) {
+                            entry.setValue(snippet);
+                        }
+                    }
+                }
+                matches = wordMatches;
+            }
+            return matches == null ? new HashMap<Integer, String>() : matches;
+        }
+
+        /** Returns the index of the first key that isn't less than the given one. */
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = mKeys.length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (mKeys[middle].compareTo(key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /** Builds an {@link Index}. Contacts must be added in the order of the results. */
+        @VisibleForTesting
+        static class Builder {
+            private final ArrayList<Object[]> mContacts = new ArrayList<>();
+            private final ArrayList<String> mKeys = new ArrayList<>();
+            private final ArrayList<Integer> mKeyContacts = new ArrayList<>();
+            private final ArrayList<String> mKeySnippets = new ArrayList<>();
+
+            /**
+             * Adds a contact with the values of {@link #CONTACT_COLUMNS} and returns its
+             * position.
+             */
+            public int addContact(Object[] row) {
+                final int position = mContacts.size();
+                mContacts.add(row);
+                addName(position, (String) row[COLUMN_DISPLAY_NAME_PRIMARY]);
+                addName(position, (String) row[COLUMN_DISPLAY_NAME_ALTERNATIVE]);
+                addName(position, (String) row[COLUMN_PHONETIC_NAME]);
+                return position;
+            }
+
+            public void addNickname(int position, String nickname) {
+                for (String word : getWords(nickname)) {
+                    addKey(word, position, nickname);
+                }
+            }
+
+            public void addEmail(int position, String address) {
+                final int at = address.indexOf('@');
+                for (String word : getWords(at < 0 ? address : address.substring(0, at))) {
+                    addKey(word, position, address);
+                }
+            }
+
+            public void addPhoneNumber(int position, String number, String normalizedNumber) {
+                final String digits = getDigits(number);
+                addKey(digits, position, number);
+                if (normalizedNumber != null) {
+                    final String normalizedDigits = getDigits(normalizedNumber);
+                    if (!normalizedDigits.equals(digits)) {
+                        addKey(normalizedDigits, position, number);
+                    }
+                }
+            }
+
+            private void addName(int position, String name) {
+                if (name == null) {
+                    return;
+                }
+                final List<String> words = getWords(name);
+                for (String word : words) {
+                    addKey(word, position, null);
+                }
+                if (words.size() > 1) {
+                    // Also match queries that leave out the spaces, e.g. "johnsm".
+                    final StringBuilder joined = new StringBuilder();
+                    for (String word : words) {
+                        joined.append(word);
+                    }
+                    addKey(joined.toString(), position, null);
+                }
+            }
+
+            private void addKey(String key, int position, String snippet) {
+                if (key.isEmpty()) {
+                    return;
+                }
+                mKeys.add(key);
+                mKeyContacts.add(position);
+                mKeySnippets.add(snippet);
+            }
+
+            public Index build() {
+                final Integer[] order = new Integer[mKeys.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return mKeys.get(a).compareTo(mKeys.get(b));
+                    }
+                });
+                final String[] keys = new String[order.length];
+                final int[] keyContacts = new int[order.length];
+                final String[] keySnippets = new String[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    keys[i] = mKeys.get(order[i]);
+                    keyContacts[i] = mKeyContacts.get(order[i]);
+                    keySnippets[i] = mKeySnippets.get(order[i]);
+                }
+                return new Index(mContacts.toArray(new Object[mContacts.size()][]), keys,
+                        keyContacts, keySnippets);
+            }
+        }
+    }
+}
@@ -409,6 +409,7 @@ public class DefaultContactBrowseListFragment extends ContactBrowseListFragment
         adapter.setDisplayPhotos(true);
         adapter.setPhotoPosition(
                 ContactListItemView.getDefaultPhotoPosition(/* opposite = */ false));
+        adapter.setPagedLoadingEnabled(true);
         return adapter;
     }
 
@@ -44,6 +44,7 @@ public class DefaultContactListAdapter extends ContactListAdapter {
     public static final char SNIPPET_START_MATCH = '[';
     public static final char SNIPPET_END_MATCH = ']';
 
+    private boolean mPagedLoadingEnabled;
 
     public DefaultContactListAdapter(Context context) {
         super(context);
@@ -53,6 +54,8 @@ public class DefaultContactListAdapter extends ContactListAdapter {
     public void configureLoader(CursorLoader loader, long directoryId) {
         if (loader instanceof FavoritesAndContactsLoader) {
             ((FavoritesAndContactsLoader) loader).setLoadFavorites(shouldIncludeFavorites());
+            ((FavoritesAndContactsLoader) loader).setLocalSearchQuery(null);
+            ((FavoritesAndContactsLoader) loader).setPagedLoading(false);
         }
 
         String sortOrder = null;
@@ -85,6 +88,11 @@ public class DefaultContactListAdapter extends ContactListAdapter {
                 loader.setUri(builder.build());
                 loader.setProjection(getProjection(true));
                 sortOrder = Contacts.SORT_KEY_PRIMARY;
+                if (directoryId == Directory.DEFAULT
+                        && loader instanceof FavoritesAndContactsLoader) {
+                    // Filter the local contacts in memory when possible.
+                    ((FavoritesAndContactsLoader) loader).setLocalSearchQuery(query);
+                }
             }
         } else {
             final ContactListFilter filter = getFilter();
@@ -97,6 +105,11 @@ public class DefaultContactListAdapter extends ContactListAdapter {
                 loader.setProjection(getProjection(false));
             }
             configureSelection(loader, directoryId, filter);
+            if (mPagedLoadingEnabled && directoryId == Directory.DEFAULT
+                    && loader instanceof FavoritesAndContactsLoader
+                    && Contacts.CONTENT_URI.getPath().equals(loader.getUri().getPath())) {
+                ((FavoritesAndContactsLoader) loader).setPagedLoading(true);
+            }
         }
 
         if (getSortOrder() == ContactsPreferences.SORT_ORDER_PRIMARY) {
@@ -115,6 +128,18 @@ public class DefaultContactListAdapter extends ContactListAdapter {
         loader.setSortOrder(sortOrder);
     }
 
+    /**
+     * Sets whether the contact list, when it isn't searched, is loaded a page at a time, so that
+     * the first screen of a large list is shown sooner. See {@link PagedContactsCursor}.
+     */
+    public void setPagedLoadingEnabled(boolean pagedLoadingEnabled) {
+        mPagedLoadingEnabled = pagedLoadingEnabled;
+    }
+
+    public boolean isPagedLoadingEnabled() {
+        return mPagedLoadingEnabled;
+    }
+
     private boolean isGroupMembersFilter() {
         final ContactListFilter filter = getFilter();
         return filter != null && filter.filterType == ContactListFilter.FILTER_TYPE_GROUP_MEMBERS;
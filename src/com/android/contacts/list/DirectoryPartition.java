@@ -42,6 +42,8 @@ public final class DirectoryPartition extends CompositeCursorAdapter.Partition {
 
     private String mLabel;
 
+    private final SearchResultCache mResultCache = new SearchResultCache();
+
     public DirectoryPartition(boolean showIfEmpty, boolean hasHeader) {
         super(showIfEmpty, hasHeader);
     }
@@ -150,6 +152,13 @@ public final class DirectoryPartition extends CompositeCursorAdapter.Partition {
         mLabel = label;
     }
 
+    /**
+     * The results of the recent search queries of this directory.
+     */
+    public SearchResultCache getResultCache() {
+        return mResultCache;
+    }
+
     @Override
     public String toString() {
         return "DirectoryPartition{" +
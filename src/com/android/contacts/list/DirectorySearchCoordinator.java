@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.database.Cursor;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the directory searches of a query, which run concurrently, so that their
+ * results are shown in the order of the partitions, and a slow directory doesn't keep its
+ * partition loading forever.
+ *
+ * <p>The results of a partition are held back until the partitions before it have their
+ * results or have given up, so that the rows that are already shown never move down. A search
+ * that isn't done by its deadline gives up with no results. The latency and the timeouts of
+ * each directory are recorded.</p>
+ *
+ * <p>Partitions are identified by their index. Must be used on the UI thread.</p>
+ */
+/* package */ class DirectorySearchCoordinator {
+    private static final String TAG = "DirectorySearch";
+
+    /** Default time that a directory has to return its results. */
+    public static final long DEFAULT_DEADLINE_MILLIS = 5000;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_ARRIVED = 1;
+    private static final int STATE_TIMED_OUT = 2;
+
+    private static class Search {
+        final long mDirectoryId;
+        final long mStartMillis;
+        int mState = STATE_PENDING;
+        Cursor mResult;
+
+        Search(long directoryId, long startMillis) {
+            mDirectoryId = directoryId;
+            mStartMillis = startMillis;
+        }
+    }
+
+    /** The latency and the timeouts of the searches of a directory. */
+    public static class DirectoryStats {
+        public int searchCount;
+        public int timeoutCount;
+        public long totalLatencyMillis;
+        public long maxLatencyMillis;
+
+        /** Returns the average latency of the searches that didn't time out, or -1. */
+        public long getAverageLatencyMillis() {
+            final int count = searchCount - timeoutCount;
+            return count == 0 ? -1 : totalLatencyMillis / count;
+        }
+
+        @Override
+        public String toString() {
+            return "searches=" + searchCount + " timeouts=" + timeoutCount
+                    + " averageMillis=" + getAverageLatencyMillis()
+                    + " maxMillis=" + maxLatencyMillis;
+        }
+    }
+
+    /** The searches that haven't been shown yet, by partition index. */
+    private final TreeMap<Integer, Search> mSearches = new TreeMap<>();
+    private final LongSparseArray<DirectoryStats> mStats = new LongSparseArray<>();
+
+    /** Forgets the searches of the previous query. Their results are not shown anymore. */
+    public void reset() {
+        mSearches.clear();
+    }
+
+    public void onSearchStarted(int partitionIndex, long directoryId, long nowMillis) {
+        mSearches.put(partitionIndex, new Search(directoryId, nowMillis));
+    }
+
+    /**
+     * Records the results of the search of a partition.
+     *
+     * @return the partitions whose results can be shown now, in order. Their results are
+     * returned by {@link #takeResult}.
+     */
+    public List<Integer> onSearchFinished(int partitionIndex, Cursor cursor, long nowMillis) {
+        final Search search = mSearches.get(partitionIndex);
+        if (search == null) {
+            // E.g. a reload after a change of the data, which can be shown right away.
+            final Search result = new Search(-1, nowMillis);
+            result.mState = STATE_ARRIVED;
+            result.mResult = cursor;
+            mSearches.put(partitionIndex, result);
+            final List<Integer> partitions = new ArrayList<>();
+            partitions.add(partitionIndex);
+            return partitions;
+        }
+        if (search.mState == STATE_PENDING) {
+            final long latency = nowMillis - search.mStartMillis;
+            final DirectoryStats stats = getStats(search.mDirectoryId);
+            stats.searchCount++;
+            stats.totalLatencyMillis += latency;
+            stats.maxLatencyMillis = Math.max(stats.maxLatencyMillis, latency);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Directory " + search.mDirectoryId + " returned "
+                        + (cursor == null ? 0 : cursor.getCount()) + " results in "
+                        + latency + "ms");
+            }
+        }
+        search.mState = STATE_ARRIVED;
+        search.mResult = cursor;
+        return release();
+    }
+
+    /**
+     * Gives up on the search of a partition if it hasn't returned its results yet.
+     *
+     * @return the partitions whose results can be shown now, in order, or an empty list if the
+     * search had finished.
+     */
+    public List<Integer> onDeadline(int partitionIndex) {
+        final Search search = mSearches.get(partitionIndex);
+        if (search == null || search.mState != STATE_PENDING) {
+            return new ArrayList<>();
+        }
+        search.mState = STATE_TIMED_OUT;
+        final DirectoryStats stats = getStats(search.mDirectoryId);
+        stats.searchCount++;
+        stats.timeoutCount++;
+        Log.w(TAG, "Directory " + search.mDirectoryId + " timed out: " + stats);
+        return release();
+    }
+
+    /** Returns true if the search of the partition is pending. */
+    public boolean isPending(int partitionIndex) {
+        final Search search = mSearches.get(partitionIndex);
+        return search != null && search.mState == STATE_PENDING;
+    }
+
+    /**
+     * Returns the results of a partition returned by {@link #onSearchFinished} or
+     * {@link #onDeadline}, or null if the search timed out, in which case the partition has no
+     * results for now.
+     */
+    public Cursor takeResult(int partitionIndex) {
+        final Search search = mSearches.remove(partitionIndex);
+        return search == null ? null : search.mResult;
+    }
+
+    public DirectoryStats getStats(long directoryId) {
+        DirectoryStats stats = mStats.get(directoryId);
+        if (stats == null) {
+            stats = new DirectoryStats();
+            mStats.put(directoryId, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the partitions with results, or which timed out, that have no pending partition
+     * before them.
+     */
+    private List<Integer> release() {
+        final List<Integer> partitions = new ArrayList<>();
+        for (Map.Entry<Integer, Search> entry : mSearches.entrySet()) {
+            if (entry.getValue().mState == STATE_PENDING) {
+                break;
+            }
+            partitions.add(entry.getKey());
+        }
+        return partitions;
+    }
+}
@@ -110,6 +110,11 @@ public class EmailAddressListAdapter extends ContactEntryListAdapter {
         return ((Cursor) getItem(position)).getString(EmailQuery.EMAIL_DISPLAY_NAME);
     }
 
+    @Override
+    protected int getPhotoIdColumnIndex() {
+        return EmailQuery.EMAIL_PHOTO_ID;
+    }
+
     /**
      * Builds a {@link Data#CONTENT_URI} for the current cursor
      * position.
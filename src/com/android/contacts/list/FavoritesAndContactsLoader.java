@@ -21,6 +21,8 @@ import android.database.Cursor;
 import android.database.MergeCursor;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.ContactsContract.Contacts;
 
 import com.google.common.collect.Lists;
@@ -37,6 +39,11 @@ public class FavoritesAndContactsLoader extends CursorLoader {
 
     private String[] mProjection;
 
+    private String mLocalSearchQuery;
+
+    private boolean mPagedLoading;
+
+    private CancellationSignal mCancellationSignal;
 
     public FavoritesAndContactsLoader(Context context) {
         super(context);
@@ -47,6 +54,23 @@ public class FavoritesAndContactsLoader extends CursorLoader {
         mLoadFavorites = flag;
     }
 
+    /**
+     * Sets the query that the loader searches the local contacts for, which lets it answer from
+     * the {@link ContactSearchIndex} when that is up to date. The Uri of the loader must be the
+     * filter Uri of the same query, which is used otherwise.
+     */
+    public void setLocalSearchQuery(String query) {
+        mLocalSearchQuery = query;
+    }
+
+    /**
+     * Whether to load the contacts a page at a time, see {@link PagedContactsCursor}. The Uri
+     * of the loader must be a {@link Contacts#CONTENT_URI}.
+     */
+    public void setPagedLoading(boolean flag) {
+        mPagedLoading = flag;
+    }
+
     public void setProjection(String[] projection) {
         super.setProjection(projection);
         mProjection = projection;
@@ -70,9 +94,26 @@ public class FavoritesAndContactsLoader extends CursorLoader {
     }
 
     private Cursor loadContacts() {
+        if (mLocalSearchQuery != null) {
+            final Cursor cursor = ContactSearchIndex.getInstance(getContext())
+                    .query(mLocalSearchQuery, mProjection);
+            if (cursor != null) {
+                // Load again when the contacts change, as for provider cursors.
+                cursor.registerContentObserver(new ForceLoadContentObserver());
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        Contacts.CONTENT_URI);
+                return cursor;
+            }
+        }
         // ContactsCursor.loadInBackground() can return null; MergeCursor
         // correctly handles null cursors.
         try {
+            if (mPagedLoading) {
+                final Cursor cursor = loadPagedContacts();
+                if (cursor != null) {
+                    return cursor;
+                }
+            }
             return super.loadInBackground();
 
         } catch (NullPointerException | SQLiteException | SecurityException e) {
@@ -81,6 +122,23 @@ public class FavoritesAndContactsLoader extends CursorLoader {
         return null;
     }
 
+    private Cursor loadPagedContacts() {
+        final CancellationSignal cancellationSignal = newCancellationSignal();
+        final Cursor cursor;
+        try {
+            cursor = PagedContactsCursor.query(getContext().getContentResolver(), getUri(),
+                    mProjection, getSelection(), getSelectionArgs(), getSortOrder(),
+                    cancellationSignal);
+        } finally {
+            clearCancellationSignal();
+        }
+        if (cursor != null) {
+            cursor.registerContentObserver(new ForceLoadContentObserver());
+            cursor.setNotificationUri(getContext().getContentResolver(), Contacts.CONTENT_URI);
+        }
+        return cursor;
+    }
+
     private Cursor loadFavoritesContacts() {
         final StringBuilder selection = new StringBuilder();
         selection.append(Contacts.STARRED + "=?");
@@ -89,8 +147,36 @@ public class FavoritesAndContactsLoader extends CursorLoader {
         if (filter != null && filter.filterType == ContactListFilter.FILTER_TYPE_CUSTOM) {
             selection.append(" AND ").append(Contacts.IN_VISIBLE_GROUP + "=1");
         }
-        return getContext().getContentResolver().query(
-                Contacts.CONTENT_URI, mProjection, selection.toString(), new String[]{"1"},
-                getSortOrder());
+        final CancellationSignal cancellationSignal = newCancellationSignal();
+        try {
+            return getContext().getContentResolver().query(
+                    Contacts.CONTENT_URI, mProjection, selection.toString(), new String[]{"1"},
+                    getSortOrder(), cancellationSignal);
+        } finally {
+            clearCancellationSignal();
+        }
+    }
+
+    private synchronized CancellationSignal newCancellationSignal() {
+        if (isLoadInBackgroundCanceled()) {
+            throw new OperationCanceledException();
+        }
+        mCancellationSignal = new CancellationSignal();
+        return mCancellationSignal;
+    }
+
+    private synchronized void clearCancellationSignal() {
+        mCancellationSignal = null;
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
     }
 }
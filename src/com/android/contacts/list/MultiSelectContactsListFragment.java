@@ -231,6 +231,7 @@ public abstract class MultiSelectContactsListFragment<T extends MultiSelectEntry
         searchState.queryLength = adapter.getQueryString() == null
                 ? 0 : adapter.getQueryString().length();
         searchState.numPartitions = adapter.getPartitionCount();
+        addSearchLatency(searchState);
 
         // Set the number of results displayed to the user.  Note that the adapter.getCount(),
         // value does not always match the number of results actually displayed to the user,
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract.Contacts;
+import android.util.Log;
+
+import com.android.contacts.util.concurrent.ContactsExecutors;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A cursor over a contact list that is loaded a page at a time.
+ *
+ * <p>Only the contact IDs, in the order of the list, the extras, which hold the address book
+ * index, and the first page are queried up front. The other pages are queried in the background
+ * when the cursor moves to them or gets close to them. Until a page is loaded, its rows only hold
+ * their IDs, and the {@link DataSetObserver}s of the cursor are notified once it is. As the
+ * number and the order of the rows are known from the start, the positions of the
+ * {@link ContactsSectionIndexer} are those of the rows that are loaded later.</p>
+ *
+ * <p>Rows of contacts that are deleted before their page is loaded only hold their ID, until the
+ * list is loaded again.</p>
+ */
+/* package */ class PagedContactsCursor extends AbstractCursor {
+    private static final String TAG = "PagedContactsCursor";
+
+    /** Number of rows queried at a time, a few screens of contacts. */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * Extra holding the IDs of the rows, so that a contact can be found without moving the
+     * cursor over the pages that aren't loaded.
+     */
+    public static final String EXTRA_CONTACT_IDS = "com.android.contacts.extra.CONTACT_IDS";
+
+    private static final String[] ID_PROJECTION = new String[] { Contacts._ID };
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final int mIdColumn;
+    private final long[] mIds;
+    private final int mPageSize;
+    private final Executor mExecutor;
+
+    /** The rows of the pages that are loaded, or null. Guarded by {@code this}. */
+    private final Object[][][] mPages;
+    /** The pages that are being loaded in the background. Guarded by {@code this}. */
+    private final boolean[] mLoading;
+    /** The pages whose rows were returned before they were loaded. Guarded by {@code this}. */
+    private final boolean[] mShownBeforeLoaded;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** The observers notified when a page that was shown without its data is loaded. */
+    private final DataSetObservable mPageObservable = new DataSetObservable();
+
+    private Object[] mRow;
+
+    /**
+     * Queries the IDs of the contacts of a list.
+     *
+     * @return the cursor, or null if the projection doesn't have the contact ID, which the rows
+     * are matched by.
+     */
+    public static PagedContactsCursor query(ContentResolver resolver, Uri uri,
+            String[] projection, String selection, String[] selectionArgs, String sortOrder,
+            CancellationSignal cancellationSignal) {
+        if (projection == null || !Arrays.asList(projection).contains(Contacts._ID)) {
+            return null;
+        }
+        final Cursor cursor = resolver.query(uri, ID_PROJECTION, selection, selectionArgs,
+                sortOrder, cancellationSignal);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            final long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            final PagedContactsCursor pagedCursor = new PagedContactsCursor(resolver,
+                    removeAddressBookIndex(uri), projection, ids, PAGE_SIZE,
+                    ContactsExecutors.getDefaultThreadPoolExecutor());
+            final Bundle extras = new Bundle(cursor.getExtras());
+            extras.putLongArray(EXTRA_CONTACT_IDS, ids);
+            pagedCursor.setExtras(extras);
+            // Have the first screen ready when the list is shown.
+            if (ids.length > 0) {
+                pagedCursor.loadPage(0);
+            }
+            return pagedCursor;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @VisibleForTesting
+    PagedContactsCursor(ContentResolver resolver, Uri uri, String[] projection, long[] ids,
+            int pageSize, Executor executor) {
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mIdColumn = Arrays.asList(projection).indexOf(Contacts._ID);
+        mIds = ids;
+        mPageSize = pageSize;
+        mExecutor = executor;
+        final int pageCount = (ids.length + pageSize - 1) / pageSize;
+        mPages = new Object[pageCount][][];
+        mLoading = new boolean[pageCount];
+        mShownBeforeLoaded = new boolean[pageCount];
+    }
+
+    /** The rows of a page only need the ID and the other columns, not the index again. */
+    private static Uri removeAddressBookIndex(Uri uri) {
+        final Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!Contacts.EXTRA_ADDRESS_BOOK_INDEX.equals(name)) {
+                for (String value : uri.getQueryParameters(name)) {
+                    builder.appendQueryParameter(name, value);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int getCount() {
+        return mIds.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mProjection;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        final int page = newPosition / mPageSize;
+        Object[][] rows;
+        synchronized (this) {
+            rows = mPages[page];
+        }
+        if (rows == null) {
+            // Don't query the provider on the UI thread. The row only has its ID until then.
+            loadPageInBackground(page);
+            synchronized (this) {
+                rows = mPages[page];
+                if (rows == null) {
+                    mShownBeforeLoaded[page] = true;
+                }
+            }
+        }
+        if (rows != null) {
+            mRow = rows[newPosition - page * mPageSize];
+        } else {
+            mRow = new Object[mProjection.length];
+            mRow[mIdColumn] = mIds[newPosition];
+        }
+
+        final int offset = newPosition % mPageSize;
+        final int prefetchDistance = Math.max(1, mPageSize / 4);
+        if (offset >= mPageSize - prefetchDistance && page + 1 < mPages.length) {
+            loadPageInBackground(page + 1);
+        } else if (offset < prefetchDistance && page > 0) {
+            loadPageInBackground(page - 1);
+        }
+        return true;
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        mPageObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        mPageObservable.unregisterObserver(observer);
+    }
+
+    private void loadPageInBackground(final int page) {
+        synchronized (this) {
+            if (mPages[page] != null || mLoading[page]) {
+                return;
+            }
+            mLoading[page] = true;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean loaded = !isClosed() && loadPage(page);
+                final boolean shown;
+                synchronized (PagedContactsCursor.this) {
+                    mLoading[page] = false;
+                    shown = mShownBeforeLoaded[page];
+                }
+                if (loaded && shown) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isClosed()) {
+                                mPageObservable.notifyChanged();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Queries the rows of a page and keeps them. Rows of contacts that are gone only hold their
+     * IDs.
+     *
+     * @return false if the query failed, in which case the page is queried again when the
+     * cursor next moves to it.
+     */
+    private boolean loadPage(int page) {
+        final int start = page * mPageSize;
+        final int end = Math.min(start + mPageSize, mIds.length);
+        final Object[][] rows = new Object[end - start][];
+        final HashMap<Long, Integer> rowIndexes = new HashMap<>();
+        final StringBuilder selection = new StringBuilder(Contacts._ID + " IN (");
+        for (int i = start; i < end; i++) {
+            rowIndexes.put(mIds[i], i - start);
+            if (i > start) {
+                selection.append(',');
+            }
+            selection.append(mIds[i]);
+        }
+        selection.append(')');
+
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(mUri, mProjection, selection.toString(), null, null);
+            if (cursor == null) {
+                return false;
+            }
+            final int columnCount = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                final Integer index = rowIndexes.get(cursor.getLong(mIdColumn));
+                if (index == null) {
+                    continue;
+                }
+                final Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = getValue(cursor, i);
+                }
+                rows[index] = row;
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to load contacts " + start + " to " + end, e);
+            return false;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == null) {
+                rows[i] = new Object[mProjection.length];
+                rows[i][mIdColumn] = mIds[start + i];
+            }
+        }
+        synchronized (this) {
+            if (mPages[page] == null) {
+                mPages[page] = rows;
+            }
+        }
+        return true;
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mProjection.length) {
+            throw new CursorIndexOutOfBoundsException("Requested column: " + column
+                    + ", # of columns: " + mProjection.length);
+        }
+        if (mPos < 0 || mPos >= mIds.length) {
+            throw new CursorIndexOutOfBoundsException(mPos, mIds.length);
+        }
+        return mRow[column];
+    }
+
+    @Override
+    public int getType(int column) {
+        final Object value = get(column);
+        if (value == null) {
+            return Cursor.FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return Cursor.FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return Cursor.FIELD_TYPE_BLOB;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        final Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        final Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return (byte[]) get(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+}
@@ -162,6 +162,8 @@ public class PhoneNumberListAdapter extends ContactEntryListAdapter {
 
     private boolean mUseCallableUri;
 
+    private boolean mSmartDialEnabled;
+
     private Listener mListener;
 
     private boolean mIsVideoEnabled;
@@ -197,6 +199,9 @@ public class PhoneNumberListAdapter extends ContactEntryListAdapter {
         if (query == null) {
             query = "";
         }
+        if (loader instanceof SmartDialLoader) {
+            ((SmartDialLoader) loader).setSmartDialQuery(null);
+        }
         if (isExtendedDirectory(directoryId)) {
             final DirectoryPartition directory = getExtendedDirectoryFromId(directoryId);
             final String contentUri = directory.getContentUri();
@@ -231,6 +236,11 @@ public class PhoneNumberListAdapter extends ContactEntryListAdapter {
                     builder.appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY,
                             String.valueOf(getDirectoryResultLimit(getDirectoryById(directoryId))));
                 }
+                // The index only holds phone numbers, not SIP addresses.
+                if (mSmartDialEnabled && !mUseCallableUri && directoryId == Directory.DEFAULT
+                        && loader instanceof SmartDialLoader) {
+                    ((SmartDialLoader) loader).setSmartDialQuery(query);
+                }
             } else {
                 Uri baseUri = mUseCallableUri ? Callable.CONTENT_URI : Phone.CONTENT_URI;
                 builder = baseUri.buildUpon().appendQueryParameter(
@@ -324,6 +334,11 @@ public class PhoneNumberListAdapter extends ContactEntryListAdapter {
         return ((Cursor) getItem(position)).getString(PhoneQuery.DISPLAY_NAME);
     }
 
+    @Override
+    protected int getPhotoIdColumnIndex() {
+        return PhoneQuery.PHOTO_ID;
+    }
+
     public String getPhoneNumber(int position) {
         final Cursor item = (Cursor)getItem(position);
         return item != null ? item.getString(PhoneQuery.PHONE_NUMBER) : null;
@@ -575,6 +590,28 @@ public class PhoneNumberListAdapter extends ContactEntryListAdapter {
         return mUseCallableUri;
     }
 
+    /**
+     * Sets whether search queries are typed on a dialpad, in which case local phone numbers are
+     * also matched by the names that the digits spell, see {@link SmartDialIndex}.
+     */
+    public void setSmartDialEnabled(boolean smartDialEnabled) {
+        mSmartDialEnabled = smartDialEnabled;
+    }
+
+    public boolean isSmartDialEnabled() {
+        return mSmartDialEnabled;
+    }
+
+    /**
+     * Smart dial results also match by the names that the digits spell, which the cached rows
+     * can't be matched by.
+     */
+    @Override
+    public boolean isSearchResultRefinable(DirectoryPartition directoryPartition) {
+        return !(mSmartDialEnabled && !mUseCallableUri
+                && directoryPartition.getDirectoryId() == Directory.DEFAULT);
+    }
+
     /**
      * Override base implementation to inject extended directories between local & remote
      * directories. This is done in the following steps:
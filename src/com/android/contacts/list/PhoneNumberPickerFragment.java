@@ -15,6 +15,8 @@
  */
 package com.android.contacts.list;
 
+import android.content.Context;
+import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
@@ -52,6 +54,8 @@ public class PhoneNumberPickerFragment extends ContactEntryListFragment<ContactE
 
     private boolean mUseCallableUri;
 
+    private boolean mSmartDialEnabled;
+
     private ContactListItemView.PhotoPosition mPhotoPosition =
             ContactListItemView.getDefaultPhotoPosition(false /* normal/non opposite */);
 
@@ -209,11 +213,29 @@ public class PhoneNumberPickerFragment extends ContactEntryListFragment<ContactE
         return mUseCallableUri;
     }
 
+    /**
+     * Sets whether the search queries come from a dialpad. Must be called before the adapter is
+     * created.
+     */
+    public void setSmartDialEnabled(boolean smartDialEnabled) {
+        mSmartDialEnabled = smartDialEnabled;
+    }
+
+    public boolean isSmartDialEnabled() {
+        return mSmartDialEnabled;
+    }
+
+    @Override
+    public CursorLoader createCursorLoader(Context context) {
+        return new SmartDialLoader(context);
+    }
+
     @Override
     protected ContactEntryListAdapter createListAdapter() {
         PhoneNumberListAdapter adapter = new PhoneNumberListAdapter(getActivity());
         adapter.setDisplayPhotos(true);
         adapter.setUseCallableUri(mUseCallableUri);
+        adapter.setSmartDialEnabled(mSmartDialEnabled);
         return adapter;
     }
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+/**
+ * Predicts which rows of a list are about to become visible, based on the visible range and
+ * how fast the list is scrolling, so that their photos can be prefetched.
+ */
+class PhotoPrefetchPredictor {
+    /** How far ahead, in time, rows are predicted while scrolling. */
+    static final int LOOKAHEAD_MILLIS = 1000;
+
+    /** The predicted window never extends further than this many screens from the visible rows. */
+    static final int MAX_SCREENS_AHEAD = 3;
+
+    /** Weight of the latest sample in the smoothed velocity. */
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    /** Scroll events further apart than this don't belong to the same gesture. */
+    private static final long MAX_SAMPLE_INTERVAL_MILLIS = 200;
+
+    private int mLastFirstVisible = -1;
+    private long mLastTimeMillis;
+
+    /** Smoothed velocity in rows per second; positive when scrolling towards the end. */
+    private float mVelocity;
+
+    private int mWindowStart = -1;
+    private int mWindowEnd = -1;
+
+    /**
+     * Records the visible range of the list and returns true if the predicted window moved far
+     * enough from the previous prediction that the prefetch request should be updated.
+     */
+    public boolean onScroll(int firstVisible, int visibleCount, int totalCount, long nowMillis) {
+        if (mLastFirstVisible >= 0) {
+            final long elapsed = nowMillis - mLastTimeMillis;
+            if (elapsed > MAX_SAMPLE_INTERVAL_MILLIS) {
+                mVelocity = 0;
+            } else if (elapsed > 0) {
+                final float sample = (firstVisible - mLastFirstVisible) * 1000f / elapsed;
+                mVelocity = VELOCITY_SMOOTHING * sample + (1 - VELOCITY_SMOOTHING) * mVelocity;
+            }
+        }
+        mLastFirstVisible = firstVisible;
+        mLastTimeMillis = nowMillis;
+
+        if (visibleCount <= 0 || totalCount <= 0) {
+            return updateWindow(-1, -1);
+        }
+
+        final int maxAhead = visibleCount * MAX_SCREENS_AHEAD;
+        final int ahead = Math.max(visibleCount,
+                Math.min(maxAhead, Math.round(Math.abs(mVelocity) * LOOKAHEAD_MILLIS / 1000f)));
+        final int lastVisible = firstVisible + visibleCount;
+        int start;
+        int end;
+        if (mVelocity > 0) {
+            start = lastVisible;
+            end = lastVisible + ahead;
+        } else if (mVelocity < 0) {
+            start = firstVisible - ahead;
+            end = firstVisible;
+        } else {
+            // Not moving: the user is as likely to scroll either way.
+            start = firstVisible - visibleCount;
+            end = lastVisible + visibleCount;
+        }
+        start = Math.max(0, start);
+        end = Math.min(totalCount, end);
+        if (start >= end) {
+            return updateWindow(-1, -1);
+        }
+
+        // Avoid re-issuing requests for every pixel scrolled.
+        final int threshold = Math.max(1, visibleCount / 2);
+        if (mWindowStart >= 0 && Math.abs(start - mWindowStart) < threshold
+                && Math.abs(end - mWindowEnd) < threshold) {
+            return false;
+        }
+        return updateWindow(start, end);
+    }
+
+    /**
+     * Forgets the scroll history, e.g. after the contents of the list changed.
+     */
+    public void reset() {
+        mLastFirstVisible = -1;
+        mVelocity = 0;
+        mWindowStart = -1;
+        mWindowEnd = -1;
+    }
+
+    /** First position of the predicted window, or -1 if there is nothing to prefetch. */
+    public int getWindowStart() {
+        return mWindowStart;
+    }
+
+    /** Position after the last one in the predicted window. */
+    public int getWindowEnd() {
+        return mWindowEnd;
+    }
+
+    /** The smoothed scroll velocity in rows per second. */
+    public float getVelocity() {
+        return mVelocity;
+    }
+
+    private boolean updateWindow(int start, int end) {
+        if (start == mWindowStart && end == mWindowEnd) {
+            return false;
+        }
+        mWindowStart = start;
+        mWindowEnd = end;
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import com.android.contacts.logging.SearchState;
+
+/**
+ * Measures, for each change of the search query, the time until its results are presented.
+ * When the query changes again before that, only the latest change is measured.
+ */
+/* package */ class SearchLatencyTracker {
+    private int mQueryChangeCount;
+    private int mMeasuredCount;
+    /** The time of the query change whose results are awaited, or -1. */
+    private long mPendingSinceMillis = -1;
+    private long mLastLatencyMillis = -1;
+    private long mMaxLatencyMillis = -1;
+    private long mTotalLatencyMillis;
+
+    /** Starts measuring a new search. */
+    public void reset() {
+        mQueryChangeCount = 0;
+        mMeasuredCount = 0;
+        mPendingSinceMillis = -1;
+        mLastLatencyMillis = -1;
+        mMaxLatencyMillis = -1;
+        mTotalLatencyMillis = 0;
+    }
+
+    public void onQueryChanged(long nowMillis) {
+        mQueryChangeCount++;
+        mPendingSinceMillis = nowMillis;
+    }
+
+    /** Called when all partitions hold the results of the current query. */
+    public void onResultsPresented(long nowMillis) {
+        if (mPendingSinceMillis < 0) {
+            return;
+        }
+        mLastLatencyMillis = nowMillis - mPendingSinceMillis;
+        mMaxLatencyMillis = Math.max(mMaxLatencyMillis, mLastLatencyMillis);
+        mTotalLatencyMillis += mLastLatencyMillis;
+        mMeasuredCount++;
+        mPendingSinceMillis = -1;
+    }
+
+    public void fillSearchState(SearchState searchState) {
+        searchState.numQueryChanges = mQueryChangeCount;
+        searchState.lastQueryLatencyMillis = mLastLatencyMillis;
+        searchState.maxQueryLatencyMillis = mMaxLatencyMillis;
+        searchState.averageQueryLatencyMillis =
+                mMeasuredCount == 0 ? -1 : mTotalLatencyMillis / mMeasuredCount;
+    }
+}
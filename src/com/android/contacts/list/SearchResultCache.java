@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.SearchSnippets;
+
+import com.android.contacts.util.concurrent.ContactsExecutors;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * The results of the recent search queries of a {@link DirectoryPartition}.
+ *
+ * <p>A contact that matches a query also matches any shorter query it starts with, so the
+ * results of "jo" hold the results of "joh". {@link #refine} picks them out of the cached rows
+ * by the names, snippets and numbers of the rows. Rows can also match by data that isn't in the
+ * results, so a refined result is only shown until the results of the query itself are
+ * loaded.</p>
+ *
+ * <p>The rows are copied when the results are loaded, as the adapter closes the cursors when
+ * they are replaced. Copying only reads the values, and is limited to {@link #MAX_ROWS} rows.
+ * Matching the rows with a query, which normalizes their text, is done on a background
+ * thread.</p>
+ *
+ * <p>Must be used on the UI thread.</p>
+ */
+public class SearchResultCache {
+
+    /** Notified on the UI thread of the refined results of a query. */
+    public interface Listener {
+        /**
+         * @param cursor the rows of the cached results that match the query. The listener
+         * owns the cursor.
+         */
+        void onRefined(String query, Cursor cursor);
+    }
+
+    /** Number of queries whose results are kept. */
+    private static final int MAX_QUERIES = 8;
+
+    /** Results with more rows aren't kept, as copying them would cost more than it saves. */
+    private static final int MAX_ROWS = 300;
+
+    /** The columns that a query is matched with. */
+    private static final List<String> TEXT_COLUMNS = Arrays.asList(
+            Contacts.DISPLAY_NAME_PRIMARY,
+            Contacts.DISPLAY_NAME_ALTERNATIVE,
+            Contacts.PHONETIC_NAME,
+            SearchSnippets.SNIPPET,
+            Data.DATA1);
+
+    private final LinkedHashMap<String, Results> mResults =
+            new LinkedHashMap<String, Results>(MAX_QUERIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Results> eldest) {
+                    return size() > MAX_QUERIES;
+                }
+            };
+
+    private final Executor mBackgroundExecutor;
+    private final Executor mUiExecutor;
+    /** Changed by {@link #clear}, so that the refined results of older queries are dropped. */
+    private int mGeneration;
+
+    public SearchResultCache() {
+        this(ContactsExecutors.getDefaultThreadPoolExecutor(),
+                ContactsExecutors.newUiThreadExecutor());
+    }
+
+    @VisibleForTesting
+    SearchResultCache(Executor backgroundExecutor, Executor uiExecutor) {
+        mBackgroundExecutor = backgroundExecutor;
+        mUiExecutor = uiExecutor;
+    }
+
+    /**
+     * Keeps a copy of the results of a query, which is read when a longer query is refined.
+     *
+     * @param complete false if the results may have been cut short, e.g. by a result limit, in
+     * which case they can't be refined.
+     */
+    public void put(String query, Cursor cursor, boolean complete) {
+        if (query == null || cursor == null || cursor.isClosed()) {
+            return;
+        }
+        if (!complete || cursor.getCount() > MAX_ROWS) {
+            mResults.remove(query);
+            return;
+        }
+        mResults.put(query, new Results(cursor));
+    }
+
+    /**
+     * Picks the rows of the longest cached query that the given query starts with, which match
+     * the given query, and passes them to the listener once they are ready. The rows of the
+     * query itself are passed as they are.
+     *
+     * @return false if there is no such query, in which case the listener isn't called.
+     */
+    public boolean refine(final String query, final Listener listener) {
+        if (query == null) {
+            return false;
+        }
+        String cachedQuery = null;
+        for (String key : mResults.keySet()) {
+            if (query.startsWith(key) && !key.trim().isEmpty()
+                    && (cachedQuery == null || key.length() > cachedQuery.length())) {
+                cachedQuery = key;
+            }
+        }
+        if (cachedQuery == null) {
+            return false;
+        }
+        final Results results = mResults.get(cachedQuery);
+        final boolean sameQuery = cachedQuery.equals(query);
+        final int generation = mGeneration;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Results refined = sameQuery ? results : results.refine(query);
+                mUiExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        // A longer query can be refined from these until the query itself is
+                        // loaded.
+                        if (!mResults.containsKey(query)) {
+                            mResults.put(query, refined);
+                        }
+                        listener.onRefined(query, refined.toCursor(query));
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    public void clear() {
+        mResults.clear();
+        mGeneration++;
+    }
+
+    /** Returns true if the results of the given query are cached. */
+    @VisibleForTesting
+    boolean contains(String query) {
+        return mResults.containsKey(query);
+    }
+
+    /** An immutable copy of the results of a query. */
+    private static class Results {
+        private final String[] mColumnNames;
+        private final Bundle mExtras;
+        private final List<Object[]> mRows;
+        /** The indexes of the columns matched with a query. */
+        private final int[] mTextColumns;
+        /** The words and digits of the text columns of each row, read when first refined. */
+        private List<List<String>> mRowWords;
+        private List<List<String>> mRowDigits;
+
+        /** Copies the rows of the cursor, leaving its position unchanged. */
+        Results(Cursor cursor) {
+            mColumnNames = cursor.getColumnNames();
+            mExtras = new Bundle(cursor.getExtras());
+            mRows = new ArrayList<>(cursor.getCount());
+            final int position = cursor.getPosition();
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                mRows.add(getRow(cursor));
+            }
+            cursor.moveToPosition(position);
+            mTextColumns = getTextColumns(mColumnNames);
+        }
+
+        private Results(Results results, List<Object[]> rows, List<List<String>> rowWords,
+                List<List<String>> rowDigits) {
+            mColumnNames = results.mColumnNames;
+            mExtras = results.mExtras;
+            mRows = rows;
+            mTextColumns = results.mTextColumns;
+            mRowWords = rowWords;
+            mRowDigits = rowDigits;
+        }
+
+        /** Returns the rows matching the query. May be called on any thread. */
+        synchronized Results refine(String query) {
+            if (mRowWords == null) {
+                readText();
+            }
+            final List<String> words = ContactSearchIndex.getWords(query);
+            final ArrayList<Object[]> rows = new ArrayList<>();
+            final ArrayList<List<String>> rowWords = new ArrayList<>();
+            final ArrayList<List<String>> rowDigits = new ArrayList<>();
+            for (int i = 0; i < mRows.size(); i++) {
+                if (matches(words, mRowWords.get(i), mRowDigits.get(i))) {
+                    rows.add(mRows.get(i));
+                    rowWords.add(mRowWords.get(i));
+                    rowDigits.add(mRowDigits.get(i));
+                }
+            }
+            return new Results(this, rows, rowWords, rowDigits);
+        }
+
+        private void readText() {
+            mRowWords = new ArrayList<>(mRows.size());
+            mRowDigits = new ArrayList<>(mRows.size());
+            for (Object[] row : mRows) {
+                final ArrayList<String> words = new ArrayList<>();
+                final ArrayList<String> digits = new ArrayList<>();
+                for (int column : mTextColumns) {
+                    if (row[column] instanceof String) {
+                        final String text = (String) row[column];
+                        words.addAll(ContactSearchIndex.getWords(text));
+                        digits.add(text.replaceAll("[^0-9]", ""));
+                    }
+                }
+                mRowWords.add(words);
+                mRowDigits.add(digits);
+            }
+        }
+
+        Cursor toCursor(String query) {
+            final MatrixCursor cursor = new MatrixCursor(mColumnNames, mRows.size());
+            for (Object[] row : mRows) {
+                cursor.addRow(row);
+            }
+            final Bundle extras = new Bundle(mExtras);
+            if (extras.containsKey(ContactsContract.DEFERRED_SNIPPETING_QUERY)) {
+                extras.putString(ContactsContract.DEFERRED_SNIPPETING_QUERY, query);
+            }
+            cursor.setExtras(extras);
+            return cursor;
+        }
+    }
+
+    private static int[] getTextColumns(String[] columnNames) {
+        final ArrayList<Integer> textColumns = new ArrayList<>();
+        for (int i = 0; i < columnNames.length; i++) {
+            if (TEXT_COLUMNS.contains(columnNames[i])) {
+                textColumns.add(i);
+            }
+        }
+        final int[] columns = new int[textColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = textColumns.get(i);
+        }
+        return columns;
+    }
+
+    private static Object[] getRow(Cursor cursor) {
+        final int columnCount = cursor.getColumnCount();
+        final Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = cursor.getString(i);
+                    break;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Returns true if each word is the prefix of one of the words of a row, or, for numbers, is
+     * part of the digits of one of its columns.
+     */
+    private static boolean matches(List<String> words, List<String> rowWords,
+            List<String> rowDigits) {
+        for (String word : words) {
+            if (!matchesWord(word, rowWords, rowDigits)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesWord(String word, List<String> rowWords,
+            List<String> rowDigits) {
+        for (String rowWord : rowWords) {
+            if (rowWord.startsWith(word)) {
+                return true;
+            }
+        }
+        if (word.matches("[0-9]+")) {
+            for (String digits : rowDigits) {
+                if (digits.contains(word)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.provider.ContactsContract.Directory;
+import android.util.Log;
+
+import com.android.contacts.util.concurrent.ContactsExecutors;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory index of the local phone numbers for dialpad search, where each key of the
+ * dialpad stands for itself and its letters, e.g. "56" matches "John" and "(650) 555-0156".
+ *
+ * <p>The names are mapped to keypad digits and the keys of each name, i.e. the name from each of
+ * its words on and its initials, are kept in a sorted array of packed digits, so that a query
+ * only needs a binary search. Numbers are matched by substring. Results are ranked by where
+ * they match: the start of the name first, then the initials, the start of another word, the
+ * start of the number and the rest of the number.</p>
+ *
+ * <p>The index is loaded on a background thread the first time it's used. When the contacts
+ * change, only the contacts updated or deleted since the last load are loaded again. Until then,
+ * {@link #query} returns null so that callers query the provider instead.</p>
+ */
+public class SmartDialIndex extends ContentObserver {
+    private static final String TAG = "SmartDialIndex";
+
+    /** Wait for changes to settle, e.g. during a sync, before loading them. */
+    private static final long UPDATE_DELAY_MILLIS = 1000;
+
+    /** Ranks of the matches, best first. */
+    @VisibleForTesting
+    static final int RANK_NAME_PREFIX = 0;
+    @VisibleForTesting
+    static final int RANK_INITIALS = 1;
+    @VisibleForTesting
+    static final int RANK_WORD_PREFIX = 2;
+    @VisibleForTesting
+    static final int RANK_NUMBER_PREFIX = 3;
+    @VisibleForTesting
+    static final int RANK_NUMBER_SUBSTRING = 4;
+
+    /** The columns of {@link Phone} that the index can return. */
+    @VisibleForTesting
+    static final String[] PHONE_COLUMNS = new String[] {
+        Phone._ID,                          // 0
+        Phone.TYPE,                         // 1
+        Phone.LABEL,                        // 2
+        Phone.NUMBER,                       // 3
+        Phone.CONTACT_ID,                   // 4
+        Phone.LOOKUP_KEY,                   // 5
+        Phone.PHOTO_ID,                     // 6
+        Phone.DISPLAY_NAME_PRIMARY,         // 7
+        Phone.DISPLAY_NAME_ALTERNATIVE,     // 8
+        Phone.PHOTO_THUMBNAIL_URI,          // 9
+        Phone.CARRIER_PRESENCE,             // 10
+    };
+
+    private static final int COLUMN_NUMBER = 3;
+    private static final int COLUMN_CONTACT_ID = 4;
+    private static final int COLUMN_DISPLAY_NAME = 7;
+
+    /**
+     * Same as {@link PhoneNumberListAdapter}, only the contacts of the default directory are
+     * indexed, and a number is only listed once per contact.
+     */
+    private static final Uri PHONE_URI = Phone.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY,
+                    String.valueOf(Directory.DEFAULT))
+            .appendQueryParameter(ContactsContract.REMOVE_DUPLICATE_ENTRIES, "true")
+            .build();
+    private static final Uri CONTACTS_URI = Contacts.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY,
+                    String.valueOf(Directory.DEFAULT))
+            .build();
+
+    /** Same as {@link PhoneNumberListAdapter}, numbers this long aren't shown. */
+    private static final String PHONE_SELECTION = "length(" + Phone.NUMBER + ") < 1000";
+
+    /** Number of digits of a name that the keys hold. */
+    private static final int KEY_DIGITS = 16;
+    private static final int KEY_BASE = 11;
+
+    private static final String KEYPAD = "22233344455566677778889999";
+
+    private static SmartDialIndex sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Read on the loader threads.
+    private volatile Index mIndex;
+    private volatile boolean mStale = true;
+
+    // Only accessed on the UI thread.
+    private int mGeneration;
+    private boolean mUpdating;
+    private boolean mUpdatePending;
+    /** The time at which the last load started, or 0 before the first one. */
+    private long mLastLoadMillis;
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    /**
+     * Returns the singleton instance, which starts loading the index the first time. May be
+     * called on any thread.
+     */
+    public synchronized static SmartDialIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SmartDialIndex(context.getApplicationContext());
+            sInstance.start();
+        }
+        return sInstance;
+    }
+
+    private SmartDialIndex(Context context) {
+        super(new Handler(Looper.getMainLooper()));
+        mResolver = context.getContentResolver();
+    }
+
+    private void start() {
+        mResolver.registerContentObserver(Contacts.CONTENT_URI, true, this);
+        mHandler.post(mUpdateRunnable);
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        mStale = true;
+        mGeneration++;
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mHandler.postDelayed(mUpdateRunnable, UPDATE_DELAY_MILLIS);
+    }
+
+    /**
+     * Returns the local phone numbers matching the dialpad query, best match first and with the
+     * given columns of {@link Phone}, or null if the index isn't up to date or can't return some
+     * of the columns. May be called on any thread.
+     */
+    public Cursor query(String query, String[] projection) {
+        final Index index = mIndex;
+        if (mStale || index == null) {
+            return null;
+        }
+        return index.query(query, projection);
+    }
+
+    private void update() {
+        if (mUpdating) {
+            mUpdatePending = true;
+            return;
+        }
+        mUpdating = true;
+        final int generation = mGeneration;
+        final Index previous = mIndex;
+        final long since = mLastLoadMillis;
+        ContactsExecutors.getDefaultThreadPoolExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final long now = System.currentTimeMillis();
+                final Index index = loadIndex(previous, since, now);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onIndexLoaded(index, generation, now);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onIndexLoaded(Index index, int generation, long loadMillis) {
+        mUpdating = false;
+        if (index != null) {
+            mIndex = index;
+            mLastLoadMillis = loadMillis;
+            // Stay stale if the contacts changed while loading, until the next update.
+            mStale = generation != mGeneration;
+        }
+        if (mUpdatePending) {
+            mUpdatePending = false;
+            update();
+        }
+    }
+
+    /**
+     * Loads the phone numbers of the contacts changed since the previous load into a copy of the
+     * previous index, or all of them if there is no usable previous load.
+     */
+    private Index loadIndex(Index previous, long since, long now) {
+        final long start = SystemClock.elapsedRealtime();
+        // The provider forgets deleted contacts after a while.
+        final boolean full = previous == null || since <= 0
+                || now - since >= DeletedContacts.DAYS_KEPT_MILLISECONDS;
+        final String[] args = full ? null : new String[] { String.valueOf(since) };
+        final Set<Long> changedContactIds = new HashSet<>();
+        final List<Object[]> rows = new ArrayList<>();
+        try {
+            String selection = PHONE_SELECTION;
+            if (!full) {
+                queryIds(CONTACTS_URI, Contacts._ID,
+                        Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">=?", args, changedContactIds);
+                queryIds(DeletedContacts.CONTENT_URI, DeletedContacts.CONTACT_ID,
+                        DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">=?", args,
+                        changedContactIds);
+                selection += " AND " + Phone.CONTACT_LAST_UPDATED_TIMESTAMP + ">=?";
+            }
+            final Cursor cursor = mResolver.query(PHONE_URI, PHONE_COLUMNS, selection,
+                    args, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    final Object[] row = new Object[PHONE_COLUMNS.length];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = getValue(cursor, i);
+                    }
+                    rows.add(row);
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException | SecurityException e) {
+            Log.w(TAG, "Failed to load the smart dial index", e);
+            return null;
+        }
+        final Index index = (full ? Index.EMPTY : previous).update(changedContactIds, rows);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, (full ? "Loaded " : "Updated ") + rows.size() + " numbers in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+        return index;
+    }
+
+    private void queryIds(Uri uri, String column, String selection, String[] selectionArgs,
+            Set<Long> ids) {
+        final Cursor cursor = mResolver.query(uri, new String[] { column }, selection,
+                selectionArgs, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    /**
+     * Returns the keypad digits of the text: letters are replaced by the digit of their key, and
+     * anything that isn't a letter or a digit is dropped.
+     */
+    @VisibleForTesting
+    static String getKeypadDigits(String text) {
+        final StringBuilder digits = new StringBuilder();
+        for (String word : ContactSearchIndex.getWords(text)) {
+            appendKeypadDigits(word, digits);
+        }
+        return digits.toString();
+    }
+
+    /** Appends the digits of a word, which must be in lower case and without accents. */
+    private static void appendKeypadDigits(String word, StringBuilder digits) {
+        for (int i = 0; i < word.length(); i++) {
+            final char c = word.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                digits.append(KEYPAD.charAt(c - 'a'));
+            } else if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+    }
+
+    /**
+     * Packs the first {@link #KEY_DIGITS} digits into a long, filling up with the padding
+     * value, so that the keys starting with some digits lie between those digits packed with
+     * 0 and packed with {@link #KEY_BASE} - 1.
+     */
+    private static long packKey(String digits, int padding) {
+        long key = 0;
+        for (int i = 0; i < KEY_DIGITS; i++) {
+            key = key * KEY_BASE + (i < digits.length() ? digits.charAt(i) - '0' + 1 : padding);
+        }
+        return key;
+    }
+
+    /** A phone number in the index. */
+    private static class Entry {
+        final Object[] mRow;
+        final long mContactId;
+        final String mName;
+        final String mNumberDigits;
+
+        Entry(Object[] row) {
+            mRow = row;
+            mContactId = row[COLUMN_CONTACT_ID] == null ? -1 : (Long) row[COLUMN_CONTACT_ID];
+            mName = row[COLUMN_DISPLAY_NAME] == null ? "" : (String) row[COLUMN_DISPLAY_NAME];
+            final String number = (String) row[COLUMN_NUMBER];
+            final StringBuilder digits = new StringBuilder();
+            if (number != null) {
+                appendKeypadDigits(number, digits);
+            }
+            mNumberDigits = digits.toString();
+        }
+    }
+
+    /**
+     * An immutable snapshot of the index. The name keys are sorted, each with its entry and the
+     * rank of a match.
+     */
+    @VisibleForTesting
+    static class Index {
+        static final Index EMPTY = new Index(new Entry[0], new long[0], new Entry[0], new int[0]);
+
+        private final Entry[] mEntries;
+        private final long[] mNameKeys;
+        private final Entry[] mNameKeyEntries;
+        private final int[] mNameKeyRanks;
+
+        private Index(Entry[] entries, long[] nameKeys, Entry[] nameKeyEntries,
+                int[] nameKeyRanks) {
+            mEntries = entries;
+            mNameKeys = nameKeys;
+            mNameKeyEntries = nameKeyEntries;
+            mNameKeyRanks = nameKeyRanks;
+        }
+
+        /** Returns the number of phone numbers in the index. */
+        public int size() {
+            return mEntries.length;
+        }
+
+        /**
+         * Returns a copy of the index without the numbers of the given contacts, and with the
+         * given rows, which have the values of {@link #PHONE_COLUMNS}. Like
+         * {@link ContactsContract#REMOVE_DUPLICATE_ENTRIES}, only the first row with a given
+         * number is kept for each contact. Takes time linear in the size of the index, plus
+         * sorting the keys of the new rows.
+         */
+        public Index update(Collection<Long> removedContactIds, List<Object[]> addedRows) {
+            final Set<Long> removed = new HashSet<>(removedContactIds);
+            final ArrayList<Entry> entries = new ArrayList<>(mEntries.length + addedRows.size());
+            for (Entry entry : mEntries) {
+                if (!removed.contains(entry.mContactId)) {
+                    entries.add(entry);
+                }
+            }
+
+            // All the numbers of a changed contact are added again, so duplicates can only be
+            // among the added rows.
+            final ArrayList<Entry> added = new ArrayList<>(addedRows.size());
+            final Set<String> addedNumbers = new HashSet<>();
+            for (Object[] row : addedRows) {
+                final Entry entry = new Entry(row);
+                if (addedNumbers.add(entry.mContactId + ":" + entry.mNumberDigits)) {
+                    added.add(entry);
+                }
+            }
+            entries.addAll(added);
+
+            // Sort the keys of the new entries, and merge them with the remaining old ones.
+            final KeyList newKeys = new KeyList();
+            for (Entry entry : added) {
+                newKeys.addKeysOf(entry);
+            }
+            newKeys.sort();
+            final KeyList keys = new KeyList();
+            int i = 0;
+            int j = 0;
+            while (i < mNameKeys.length || j < newKeys.mSize) {
+                if (i < mNameKeys.length && removed.contains(mNameKeyEntries[i].mContactId)) {
+                    i++;
+                } else if (j >= newKeys.mSize
+                        || (i < mNameKeys.length && mNameKeys[i] <= newKeys.mKeys[j])) {
+                    keys.add(mNameKeys[i], mNameKeyEntries[i], mNameKeyRanks[i]);
+                    i++;
+                } else {
+                    keys.add(newKeys.mKeys[j], newKeys.mEntries[j], newKeys.mRanks[j]);
+                    j++;
+                }
+            }
+            return new Index(entries.toArray(new Entry[entries.size()]),
+                    Arrays.copyOf(keys.mKeys, keys.mSize),
+                    Arrays.copyOf(keys.mEntries, keys.mSize),
+                    Arrays.copyOf(keys.mRanks, keys.mSize));
+        }
+
+        /** See {@link SmartDialIndex#query}. */
+        public Cursor query(String query, String[] projection) {
+            final int[] columns = new int[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                columns[i] = Arrays.asList(PHONE_COLUMNS).indexOf(projection[i]);
+                if (columns[i] < 0) {
+                    return null;
+                }
+            }
+            final MatrixCursor cursor = new MatrixCursor(projection);
+            for (Entry entry : search(query)) {
+                final Object[] row = new Object[projection.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = entry.mRow[columns[i]];
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        /** Returns the entries matching the query, best match first. */
+        private List<Entry> search(String query) {
+            final String digits = getKeypadDigits(query);
+            if (digits.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final HashMap<Entry, Integer> ranks = new HashMap<>();
+            // Keys only hold the start of long names; longer queries can only be numbers.
+            if (digits.length() <= KEY_DIGITS) {
+                final long last = packKey(digits, KEY_BASE - 1);
+                for (int i = lowerBound(packKey(digits, 0));
+                        i < mNameKeys.length && mNameKeys[i] <= last; i++) {
+                    final Integer rank = ranks.get(mNameKeyEntries[i]);
+                    if (rank == null || mNameKeyRanks[i] < rank) {
+                        ranks.put(mNameKeyEntries[i], mNameKeyRanks[i]);
+                    }
+                }
+            }
+            for (Entry entry : mEntries) {
+                if (ranks.containsKey(entry)) {
+                    continue;
+                }
+                final int index = entry.mNumberDigits.indexOf(digits);
+                if (index >= 0) {
+                    ranks.put(entry, index == 0 ? RANK_NUMBER_PREFIX : RANK_NUMBER_SUBSTRING);
+                }
+            }
+
+            final ArrayList<Entry> results = new ArrayList<>(ranks.keySet());
+            Collections.sort(results, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    final int result = ranks.get(a) - ranks.get(b);
+                    if (result != 0) {
+                        return result;
+                    }
+                    return String.CASE_INSENSITIVE_ORDER.compare(a.mName, b.mName);
+                }
+            });
+            return results;
+        }
+
+        /** Returns the index of the first key that isn't less than the given one. */
+        private int lowerBound(long key) {
+            int low = 0;
+            int high = mNameKeys.length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (mNameKeys[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /** A growable list of name keys. */
+    private static class KeyList {
+        long[] mKeys = new long[16];
+        Entry[] mEntries = new Entry[16];
+        int[] mRanks = new int[16];
+        int mSize;
+
+        void add(long key, Entry entry, int rank) {
+            if (mSize == mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mSize * 2);
+                mEntries = Arrays.copyOf(mEntries, mSize * 2);
+                mRanks = Arrays.copyOf(mRanks, mSize * 2);
+            }
+            mKeys[mSize] = key;
+            mEntries[mSize] = entry;
+            mRanks[mSize] = rank;
+            mSize++;
+        }
+
+        /** Adds the keys of the name of the entry: from each word on, and the initials. */
+        void addKeysOf(Entry entry) {
+            final ArrayList<String> words = new ArrayList<>();
+            for (String word : ContactSearchIndex.getWords(entry.mName)) {
+                final StringBuilder digits = new StringBuilder();
+                appendKeypadDigits(word, digits);
+                if (digits.length() > 0) {
+                    words.add(digits.toString());
+                }
+            }
+            final StringBuilder initials = new StringBuilder();
+            for (int i = 0; i < words.size(); i++) {
+                final StringBuilder rest = new StringBuilder();
+                for (int j = i; j < words.size() && rest.length() < KEY_DIGITS; j++) {
+                    rest.append(words.get(j));
+                }
+                add(packKey(rest.toString(), 0), entry,
+                        i == 0 ? RANK_NAME_PREFIX : RANK_WORD_PREFIX);
+                initials.append(words.get(i).charAt(0));
+            }
+            if (words.size() > 1) {
+                add(packKey(initials.toString(), 0), entry, RANK_INITIALS);
+            }
+        }
+
+        void sort() {
+            final Integer[] order = new Integer[mSize];
+            for (int i = 0; i < mSize; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(mKeys[a], mKeys[b]);
+                }
+            });
+            final long[] keys = new long[mSize];
+            final Entry[] entries = new Entry[mSize];
+            final int[] ranks = new int[mSize];
+            for (int i = 0; i < mSize; i++) {
+                keys[i] = mKeys[order[i]];
+                entries[i] = mEntries[order[i]];
+                ranks[i] = mRanks[order[i]];
+            }
+            mKeys = keys;
+            mEntries = entries;
+            mRanks = ranks;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.provider.ContactsContract.Contacts;
+import android.util.Log;
+
+/**
+ * A loader for the phone number list, which answers dialpad queries of the local directory
+ * from the {@link SmartDialIndex} when that is up to date.
+ */
+public class SmartDialLoader extends CursorLoader {
+    private static final String TAG = "SmartDialLoader";
+
+    private String mSmartDialQuery;
+
+    public SmartDialLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Sets the dialpad query to search the local phone numbers for, or null to only use the
+     * Uri of the loader. The Uri must be the filter Uri of the same query, which is used when
+     * the index isn't ready.
+     */
+    public void setSmartDialQuery(String query) {
+        mSmartDialQuery = query;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        if (mSmartDialQuery != null) {
+            final Cursor cursor = SmartDialIndex.getInstance(getContext())
+                    .query(mSmartDialQuery, getProjection());
+            if (cursor != null) {
+                // Load again when the contacts change, as for provider cursors.
+                cursor.registerContentObserver(new ForceLoadContentObserver());
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        Contacts.CONTENT_URI);
+                return cursor;
+            }
+        }
+        try {
+            return super.loadInBackground();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "RuntimeException while trying to query ContactsProvider.");
+            return null;
+        }
+    }
+}
@@ -49,6 +49,21 @@ public final class SearchState implements Parcelable {
      */
     public int selectedIndex = -1;
 
+    /** The number of times the query changed, i.e. the number of keystrokes. */
+    public int numQueryChanges;
+
+    /**
+     * The time, in milliseconds, from the last change of the query until its results were
+     * presented to the user, or -1 if they weren't.
+     */
+    public long lastQueryLatencyMillis = -1;
+
+    /** The longest time from a change of the query until its results were presented. */
+    public long maxQueryLatencyMillis = -1;
+
+    /** The average time from a change of the query until its results were presented. */
+    public long averageQueryLatencyMillis = -1;
+
     public static final Creator<SearchState> CREATOR = new Creator<SearchState>() {
         @Override
         public SearchState createFromParcel(Parcel in) {
@@ -78,6 +93,10 @@ public final class SearchState implements Parcelable {
                 .add("selectedPartition", selectedPartition)
                 .add("selectedIndexInPartition", selectedIndexInPartition)
                 .add("selectedIndex", selectedIndex)
+                .add("numQueryChanges", numQueryChanges)
+                .add("lastQueryLatencyMillis", lastQueryLatencyMillis)
+                .add("maxQueryLatencyMillis", maxQueryLatencyMillis)
+                .add("averageQueryLatencyMillis", averageQueryLatencyMillis)
                 .toString();
     }
 
@@ -95,6 +114,10 @@ public final class SearchState implements Parcelable {
         dest.writeInt(selectedPartition);
         dest.writeInt(selectedIndexInPartition);
         dest.writeInt(selectedIndex);
+        dest.writeInt(numQueryChanges);
+        dest.writeLong(lastQueryLatencyMillis);
+        dest.writeLong(maxQueryLatencyMillis);
+        dest.writeLong(averageQueryLatencyMillis);
     }
 
     private void readFromParcel(Parcel source) {
@@ -105,5 +128,9 @@ public final class SearchState implements Parcelable {
         selectedPartition = source.readInt();
         selectedIndexInPartition = source.readInt();
         selectedIndex = source.readInt();
+        numQueryChanges = source.readInt();
+        lastQueryLatencyMillis = source.readLong();
+        maxQueryLatencyMillis = source.readLong();
+        averageQueryLatencyMillis = source.readLong();
     }
 }
@@ -16,20 +16,26 @@
 
 package com.android.contacts.preference;
 
+import android.app.AlertDialog;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.widget.Toast;
 
+import com.android.contacts.ContactPhotoManager;
 import com.android.contacts.R;
 import com.android.contacts.activities.LicenseActivity;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 /**
  * This fragment shows the preferences for "about".
  */
@@ -87,6 +93,35 @@ public class AboutPreferenceFragment extends PreferenceFragment {
 
         privacyPolicyPreference.setOnPreferenceClickListener(listener);
         termsOfServicePreference.setOnPreferenceClickListener(listener);
+
+        final Preference photoMetricsPreference = findPreference(
+                getString(R.string.pref_photo_metrics_key));
+        final boolean isPlatformDebugBuild = Build.TYPE.equals("eng")
+                || Build.TYPE.equals("userdebug");
+        if (isPlatformDebugBuild) {
+            photoMetricsPreference.setOnPreferenceClickListener(
+                    new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    showPhotoMetrics();
+                    return true;
+                }
+            });
+        } else {
+            getPreferenceScreen().removePreference(photoMetricsPreference);
+        }
+    }
+
+    private void showPhotoMetrics() {
+        final StringWriter metrics = new StringWriter();
+        final PrintWriter writer = new PrintWriter(metrics);
+        ContactPhotoManager.getInstance(getActivity()).dump("", writer);
+        writer.flush();
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.about_photo_metrics)
+                .setMessage(metrics.toString())
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
     }
 
     @Override
@@ -37,6 +37,7 @@ import com.android.contacts.model.AccountTypeManager;
 import com.android.contacts.model.account.AccountType;
 import com.android.contacts.model.account.AccountWithDataSet;
 import com.android.contacts.vcard.ImportVCardActivity;
+import com.android.contacts.vcard.VCardCommonArguments;
 
 import java.util.List;
 
@@ -159,7 +160,9 @@ public class AccountSelectionUtil {
         if (resId == R.string.import_from_sim) {
             doImportFromSim(activity, account, subscriptionId);
         } else if (resId == R.string.import_from_vcf_file) {
-            doImportFromVcfFile(activity, account);
+            doImportFromVcfFile(activity, account, /* skipDuplicates =*/ false);
+        } else if (resId == R.string.import_from_vcf_file_skip_duplicates) {
+            doImportFromVcfFile(activity, account, /* skipDuplicates =*/ true);
         }
     }
 
@@ -177,13 +180,18 @@ public class AccountSelectionUtil {
         context.startActivity(importIntent);
     }
 
-    public static void doImportFromVcfFile(Activity activity, AccountWithDataSet account) {
+    /**
+     * @param skipDuplicates whether to leave out the contacts that are already in the account.
+     */
+    public static void doImportFromVcfFile(Activity activity, AccountWithDataSet account,
+            boolean skipDuplicates) {
         Intent importIntent = new Intent(activity, ImportVCardActivity.class);
         if (account != null) {
             importIntent.putExtra("account_name", account.name);
             importIntent.putExtra("account_type", account.type);
             importIntent.putExtra("data_set", account.dataSet);
         }
+        importIntent.putExtra(VCardCommonArguments.ARG_SKIP_DUPLICATES, skipDuplicates);
 
         if (mVCardShare) {
             importIntent.setAction(Intent.ACTION_VIEW);
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of mutable bitmaps that are no longer used and can be reused as
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} when decoding other bitmaps.
+ *
+ * <p>Bitmaps are bucketed by their allocation size. A request is served from the smallest
+ * bucket that is big enough, as long as it does not waste more than half of the pooled
+ * bitmap. When the pool grows beyond its maximum size, the bitmaps that were added first are
+ * dropped.</p>
+ *
+ * <p>Callers must only put bitmaps into the pool that are not referenced by anything else.</p>
+ */
+public class BitmapPool {
+    /** A pooled bitmap may be at most this many times bigger than the requested size. */
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private final int mMaxBytes;
+
+    /** Pooled bitmaps by allocation byte count. */
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<>();
+
+    /** All pooled bitmaps in the order in which they were added. */
+    private final ArrayDeque<Bitmap> mInsertionOrder = new ArrayDeque<>();
+
+    private int mSizeBytes;
+
+    private int mRequestCount;
+    private int mHitCount;
+    private int mPutCount;
+    private int mRejectCount;
+    private int mEvictionCount;
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a pooled bitmap that can hold a bitmap of the given size and config, or null if
+     * there is none. The returned bitmap is removed from the pool and has undefined contents.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        mRequestCount++;
+        final int byteCount = width * height * getBytesPerPixel(config);
+        for (Map.Entry<Integer, ArrayDeque<Bitmap>> bucket
+                : mBuckets.tailMap(byteCount, true).entrySet()) {
+            if (bucket.getKey() > byteCount * MAX_SIZE_MULTIPLE) {
+                break;
+            }
+            final Iterator<Bitmap> iterator = bucket.getValue().iterator();
+            while (iterator.hasNext()) {
+                final Bitmap bitmap = iterator.next();
+                if (bitmap.getConfig() == config) {
+                    iterator.remove();
+                    if (bucket.getValue().isEmpty()) {
+                        mBuckets.remove(bucket.getKey());
+                    }
+                    mInsertionOrder.remove(bitmap);
+                    mSizeBytes -= bucket.getKey();
+                    mHitCount++;
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a bitmap that is no longer used to the pool. Bitmaps that can't be reused, or that
+     * are bigger than the whole pool, are ignored.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() == null || mInsertionOrder.contains(bitmap)) {
+            mRejectCount++;
+            return;
+        }
+        final int byteCount = bitmap.getAllocationByteCount();
+        if (byteCount > mMaxBytes) {
+            mRejectCount++;
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(byteCount);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(byteCount, bucket);
+        }
+        bucket.add(bitmap);
+        mInsertionOrder.add(bitmap);
+        mSizeBytes += byteCount;
+        mPutCount++;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Drops pooled bitmaps, oldest first, until the pool holds at most {@code maxBytes}.
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        while (mSizeBytes > maxBytes && !mInsertionOrder.isEmpty()) {
+            final Bitmap bitmap = mInsertionOrder.poll();
+            final int byteCount = bitmap.getAllocationByteCount();
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(byteCount);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(byteCount);
+            }
+            mSizeBytes -= byteCount;
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Drops all pooled bitmaps.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized int size() {
+        return mSizeBytes;
+    }
+
+    public synchronized int maxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int requestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    public synchronized int rejectCount() {
+        return mRejectCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final int hitPercent = mRequestCount == 0 ? 0 : (100 * mHitCount / mRequestCount);
+        return "BitmapPool[size=" + mSizeBytes + ",maxSize=" + mMaxBytes
+                + ",bitmaps=" + mInsertionOrder.size() + ",requests=" + mRequestCount
+                + ",hits=" + mHitCount + ",hitRate=" + hitPercent + "%,puts=" + mPutCount
+                + ",rejects=" + mRejectCount + ",evictions=" + mEvictionCount + "]";
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
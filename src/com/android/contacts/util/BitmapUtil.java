@@ -19,6 +19,7 @@ package com.android.contacts.util;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffXfermode;
@@ -89,6 +90,65 @@ public class BitmapUtil {
         return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
     }
 
+    /**
+     * Decodes the bitmap with the given sample size, reusing the memory of a bitmap from the
+     * given pool if it holds one that is big enough. The returned bitmap is mutable, so that it
+     * can be put back into the pool once it is no longer used.
+     */
+    public static Bitmap decodeBitmapFromBytes(byte[] bytes, int sampleSize, BitmapPool pool) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = Math.max(1, sampleSize);
+        options.inMutable = true;
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            // Round up, so that the reused bitmap is big enough whichever way the decoder
+            // rounds the sampled size.
+            final int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            final int height =
+                    (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            options.inBitmap = pool.get(width, height, Bitmap.Config.ARGB_8888);
+        }
+        try {
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap can't hold this image after all. Drop it and decode into a new
+            // bitmap instead.
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+    }
+
+    /**
+     * Crops the center square out of the bitmap into a mutable bitmap, reusing the memory of a
+     * bitmap from the given pool if it holds one that is big enough, so that the square can be
+     * put back into the pool once it is no longer used.
+     */
+    public static Bitmap cropCenterSquare(Bitmap source, BitmapPool pool) {
+        final int dimension = Math.min(source.getWidth(), source.getHeight());
+        Bitmap square = pool.get(dimension, dimension, Bitmap.Config.ARGB_8888);
+        if (square != null) {
+            try {
+                square.reconfigure(dimension, dimension, Bitmap.Config.ARGB_8888);
+                square.eraseColor(Color.TRANSPARENT);
+            } catch (IllegalArgumentException e) {
+                square = null;
+            }
+        }
+        if (square == null) {
+            square = Bitmap.createBitmap(dimension, dimension, Bitmap.Config.ARGB_8888);
+        }
+        square.setHasAlpha(source.hasAlpha());
+        final int left = (source.getWidth() - dimension) / 2;
+        final int top = (source.getHeight() - dimension) / 2;
+        new Canvas(square).drawBitmap(source,
+                new Rect(left, top, left + dimension, top + dimension),
+                new Rect(0, 0, dimension, dimension), null);
+        return square;
+    }
+
     /**
      * Retrieves a copy of the specified drawable resource, rotated by a specified angle.
      *
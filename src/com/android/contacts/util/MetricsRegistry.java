@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of named counters, gauges and latency histograms, which can be updated from any thread
+ * and printed in dumpsys output.
+ *
+ * <p>Metrics are created on first use and printed in the order in which they were created.</p>
+ */
+public class MetricsRegistry {
+
+    /** A value that only goes up, e.g. the number of cache hits. */
+    public static final class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        private void reset() {
+            mValue.set(0);
+        }
+    }
+
+    /** A value that is read when the metrics are printed, e.g. the number of bytes cached. */
+    public interface Gauge {
+        long get();
+    }
+
+    /**
+     * Distribution of latencies, in buckets whose upper bounds double from 1ms to
+     * {@link #MAX_BUCKET_MILLIS}. Latencies above that go to an overflow bucket.
+     */
+    public static final class Histogram {
+        static final int MAX_BUCKET_MILLIS = 4096;
+        private static final int BUCKET_COUNT =
+                Integer.numberOfTrailingZeros(MAX_BUCKET_MILLIS) + 2;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        /** Records an operation that started at the given {@link System#nanoTime()}. */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                return;
+            }
+            mBuckets.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMillis(nanos)));
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = mMaxNanos.get())) {
+                if (mMaxNanos.compareAndSet(max, nanos)) {
+                    break;
+                }
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMeanMillis() {
+            final long count = mCount.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalNanos.get() / count);
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mMaxNanos.get());
+        }
+
+        /**
+         * Returns the upper bound, in milliseconds, of the bucket that holds the given
+         * percentile, or -1 if it is in the overflow bucket.
+         */
+        public long getPercentileMillis(int percentile) {
+            final long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return -1;
+        }
+
+        private static int bucketOf(long millis) {
+            for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+                if (millis < (1L << i)) {
+                    return i;
+                }
+            }
+            return BUCKET_COUNT - 1;
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + getCount() + " mean=" + getMeanMillis() + "ms"
+                    + " p50<" + formatBound(getPercentileMillis(50))
+                    + " p90<" + formatBound(getPercentileMillis(90))
+                    + " p99<" + formatBound(getPercentileMillis(99))
+                    + " max=" + getMaxMillis() + "ms";
+        }
+
+        private static String formatBound(long millis) {
+            return millis < 0 ? "inf" : millis + "ms";
+        }
+    }
+
+    private final String mName;
+    private final Map<String, Counter> mCounters = new LinkedHashMap<String, Counter>();
+    private final Map<String, Gauge> mGauges = new LinkedHashMap<String, Gauge>();
+    private final Map<String, Histogram> mHistograms = new LinkedHashMap<String, Histogram>();
+
+    public MetricsRegistry(String name) {
+        mName = name;
+    }
+
+    public synchronized Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            mCounters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public synchronized Histogram histogram(String name) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    public synchronized void registerGauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    /** Sets all counters and histograms back to zero. Gauges are not affected. */
+    public synchronized void reset() {
+        for (Counter counter : mCounters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : mHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns the ratio of two counters as a percentage, or -1 if neither has been incremented.
+     */
+    public static int percent(Counter part, Counter other) {
+        final long total = part.get() + other.get();
+        return total == 0 ? -1 : (int) (part.get() * 100 / total);
+    }
+
+    public synchronized void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + mName + ":");
+        final String innerPrefix = prefix + "  ";
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            writer.println(innerPrefix + entry.getKey() + ": " + entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            writer.println(innerPrefix + entry.getKey() + ": " + entry.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            writer.println(innerPrefix + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+}
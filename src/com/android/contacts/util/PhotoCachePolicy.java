@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Decides how big the contact photo caches are, and how much of them to keep when the system
+ * asks the app to trim its memory.
+ *
+ * <p>The cache of compressed photo bytes is sized from the heap available to the app. The
+ * cache of decoded bitmaps is sized in thumbnails: the number of thumbnails grows with the
+ * heap, and the size of each thumbnail with the screen density. It never takes more than a
+ * fixed share of the heap, however large the thumbnails.</p>
+ */
+public class PhotoCachePolicy {
+    private static final int MB = 1024 * 1024;
+
+    /** The heap share of the compressed photo cache, as a divisor of the memory class. */
+    private static final int HOLDER_CACHE_HEAP_DIVISOR = 64;
+    private static final int MIN_HOLDER_CACHE_SIZE = 1 * MB;
+    private static final int MAX_HOLDER_CACHE_SIZE = 8 * MB;
+
+    /** Number of decoded thumbnails kept per 128MB of memory class. */
+    private static final int THUMBNAILS_PER_128_MB = 48;
+    private static final int MIN_CACHED_THUMBNAILS = 24;
+    private static final int MAX_CACHED_THUMBNAILS = 96;
+
+    /** The largest heap share of the bitmap cache, as a divisor of the memory class. */
+    private static final int BITMAP_CACHE_HEAP_DIVISOR = 8;
+
+    /** The bitmap pool holds this fraction of the bitmap cache. */
+    private static final int BITMAP_POOL_DIVISOR = 4;
+
+    private static final int DISK_CACHE_SIZE = 8 * MB;
+
+    private final int mHolderCacheSize;
+    private final int mBitmapCacheSize;
+    private final int mBitmapPoolSize;
+    private final int mDiskCacheSize;
+
+    /**
+     * Creates the policy for this device.
+     *
+     * @param thumbnailSize height and width of a thumbnail in pixels, which reflects the
+     * density of the screen.
+     */
+    public static PhotoCachePolicy create(Context context, int thumbnailSize) {
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return new PhotoCachePolicy(am.getMemoryClass(), am.isLowRamDevice(), thumbnailSize);
+    }
+
+    @VisibleForTesting
+    PhotoCachePolicy(int memoryClassMb, boolean lowRamDevice, int thumbnailSize) {
+        final float lowRamAdjustment = lowRamDevice ? 0.5f : 1.0f;
+
+        mHolderCacheSize = (int) (lowRamAdjustment * clamp(
+                (int) ((long) memoryClassMb * MB / HOLDER_CACHE_HEAP_DIVISOR),
+                MIN_HOLDER_CACHE_SIZE, MAX_HOLDER_CACHE_SIZE));
+
+        final int thumbnailCount = (int) (lowRamAdjustment * clamp(
+                memoryClassMb * THUMBNAILS_PER_128_MB / 128,
+                MIN_CACHED_THUMBNAILS, MAX_CACHED_THUMBNAILS));
+        // ARGB_8888, so 4 bytes per pixel.
+        mBitmapCacheSize = (int) Math.min(
+                (long) thumbnailCount * Math.max(1, thumbnailSize * thumbnailSize * 4),
+                (long) memoryClassMb * MB / BITMAP_CACHE_HEAP_DIVISOR);
+        mBitmapPoolSize = mBitmapCacheSize / BITMAP_POOL_DIVISOR;
+        mDiskCacheSize = (int) (lowRamAdjustment * DISK_CACHE_SIZE);
+    }
+
+    /** Size in bytes of the cache of compressed photos. */
+    public int getHolderCacheSize() {
+        return mHolderCacheSize;
+    }
+
+    /** Size in bytes of the cache of decoded bitmaps. */
+    public int getBitmapCacheSize() {
+        return mBitmapCacheSize;
+    }
+
+    /** Size in bytes of the pool of reusable bitmaps. */
+    public int getBitmapPoolSize() {
+        return mBitmapPoolSize;
+    }
+
+    /** Size in bytes of the on-disk photo cache. */
+    public int getDiskCacheSize() {
+        return mDiskCacheSize;
+    }
+
+    /**
+     * Returns the fraction of the compressed photo cache to keep for the given
+     * {@link ComponentCallbacks2} trim level.
+     */
+    public float getHolderCacheTrimFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Nothing is shown, but the bytes are cheap and make coming back fast.
+            return 1f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        }
+        return 1f;
+    }
+
+    /**
+     * Returns the fraction of the decoded bitmap cache to keep for the given
+     * {@link ComponentCallbacks2} trim level. When this is less than 1, unused bitmaps that
+     * were kept for reuse are dropped as well.
+     */
+    public float getBitmapCacheTrimFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Decoded bitmaps are only useful while they are on screen.
+            return 0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        }
+        return 1f;
+    }
+
+    @Override
+    public String toString() {
+        return "PhotoCachePolicy[holders=" + mHolderCacheSize + ",bitmaps=" + mBitmapCacheSize
+                + ",pool=" + mBitmapPoolSize + ",disk=" + mDiskCacheSize + "]";
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, least recently used cache of photo bytes stored on disk.
+ *
+ * <p>Each entry is stored together with the cache key and a version stamp supplied by the
+ * caller. A lookup with a different version stamp than the one the entry was written with is
+ * treated as a miss and removes the stale entry, so callers can invalidate photos simply by
+ * passing the current version of the underlying data.</p>
+ *
+ * <p>The index of the cache directory is built lazily on first access, so the cache can be
+ * created on the UI thread. All other methods perform disk I/O and must be called from a
+ * background thread. Entries are written without holding the lock of the cache, so that a
+ * slow write doesn't hold up reads, but only one thread may write at a time.</p>
+ */
+public class PhotoDiskCache {
+    private static final String TAG = "PhotoDiskCache";
+
+    /** Bumped whenever the on-disk format changes; entries in other formats are dropped. */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String ENTRY_SUFFIX = ".photo";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /** File name to file size, in access order. Null until the directory has been indexed. */
+    private LinkedHashMap<String, Long> mIndex;
+    private long mSizeBytes;
+
+    public PhotoDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the bytes stored for the given key, or null if there is no entry for it or the
+     * entry was written with a different version.
+     */
+    public synchronized byte[] get(String key, long version) {
+        ensureIndex();
+        final String name = getFileName(key);
+        // Looking the entry up also moves it to the most recently used end of the index.
+        if (mIndex.get(name) == null) {
+            return null;
+        }
+        final File file = new File(mDirectory, name);
+        final byte[] bytes;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())
+                    || in.readLong() != version) {
+                bytes = null;
+            } else {
+                bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            Log.w(TAG, "Failed to read cached photo " + name, e);
+            removeFile(name);
+            return null;
+        }
+        if (bytes == null) {
+            removeFile(name);
+            return null;
+        }
+        // Record the access so that the entry keeps its place when the index is rebuilt.
+        file.setLastModified(System.currentTimeMillis());
+        return bytes;
+    }
+
+    /**
+     * Stores the bytes for the given key and version, replacing any previous entry and
+     * evicting the least recently used entries if the cache grows beyond its maximum size.
+     * Must not be called by several threads at the same time.
+     */
+    public void put(String key, long version, byte[] bytes) {
+        final String name = getFileName(key);
+        synchronized (this) {
+            ensureIndex();
+            if (!mDirectory.isDirectory()) {
+                // The system may have wiped our cache directory to free up space.
+                mDirectory.mkdirs();
+            }
+        }
+        final File temp = new File(mDirectory, name + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeLong(version);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to cache photo " + name, e);
+            temp.delete();
+            return;
+        }
+        final File file = new File(mDirectory, name);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            removeFromIndex(name);
+            final long length = file.length();
+            mIndex.put(name, length);
+            mSizeBytes += length;
+            trimToSize(mMaxBytes);
+        }
+    }
+
+    /**
+     * Removes the entry for the given key, if any.
+     */
+    public synchronized void remove(String key) {
+        ensureIndex();
+        removeFile(getFileName(key));
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        ensureIndex();
+        trimToSize(0);
+    }
+
+    /**
+     * Returns true if the cache currently holds no entries.
+     */
+    public synchronized boolean isEmpty() {
+        ensureIndex();
+        return mIndex.isEmpty();
+    }
+
+    /**
+     * Returns the total size of the cached files in bytes.
+     */
+    public synchronized long size() {
+        ensureIndex();
+        return mSizeBytes;
+    }
+
+    private void trimToSize(long maxBytes) {
+        final Iterator<Map.Entry<String, Long>> iterator = mIndex.entrySet().iterator();
+        while (mSizeBytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSizeBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void removeFile(String name) {
+        new File(mDirectory, name).delete();
+        removeFromIndex(name);
+    }
+
+    private void removeFromIndex(String name) {
+        final Long length = mIndex.remove(name);
+        if (length != null) {
+            mSizeBytes -= length;
+        }
+    }
+
+    private void ensureIndex() {
+        if (mIndex != null) {
+            return;
+        }
+        mIndex = new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+        mSizeBytes = 0;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create photo cache directory " + mDirectory);
+            return;
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest files first so that they are the first ones to be evicted.
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(ENTRY_SUFFIX)) {
+                final long length = file.length();
+                mIndex.put(name, length);
+                mSizeBytes += length;
+            } else {
+                // Leftover from an interrupted write.
+                file.delete();
+            }
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    private static String getFileName(String key) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(hash.length * 2 + ENTRY_SUFFIX.length());
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.append(ENTRY_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device supports SHA-1 and UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+}
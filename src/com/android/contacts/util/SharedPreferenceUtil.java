@@ -61,6 +61,9 @@ public class SharedPreferenceUtil {
     public static final String PREFERENCE_WELCOME_CARD_DISMISSED =
             "welcome-reminder-card-dismissed";
 
+    private static final String PREFERENCE_KEY_VCARD_EXPORT_WATERMARK =
+            "vcardExportWatermark";
+
     public static boolean getHamburgerPromoDisplayedBefore(Context context) {
         return getSharedPreferences(context)
                 .getBoolean(PREFERENCE_KEY_HAMBURGER_PROMO_DISPLAYED, false);
@@ -165,6 +168,25 @@ public class SharedPreferenceUtil {
                 .putInt(buildSharedPrefsName(accountName), value + 1).apply();
     }
 
+    private static String buildVCardExportWatermarkName(String backupId) {
+        return PREFERENCE_KEY_VCARD_EXPORT_WATERMARK + "-" + backupId;
+    }
+
+    /**
+     * Returns the time at which the last successful incremental vCard export of the given
+     * backup started, or 0 if there was none.
+     */
+    public static long getVCardExportWatermark(Context context, String backupId) {
+        return getSharedPreferences(context).getLong(
+                buildVCardExportWatermarkName(backupId), 0);
+    }
+
+    public static void setVCardExportWatermark(Context context, String backupId,
+            long watermark) {
+        getSharedPreferences(context).edit()
+                .putLong(buildVCardExportWatermarkName(backupId), watermark).apply();
+    }
+
     public static void persistSimStates(Context context, Collection<SimCard> sims) {
         final Set<String> imported = new HashSet<>(getImportedSims(context));
         final Set<String> dismissed = new HashSet<>(getDismissedSims(context));
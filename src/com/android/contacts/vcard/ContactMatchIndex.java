@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import com.android.vcard.VCardEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An in-memory index of the names, phone numbers and email addresses of the raw contacts of an
+ * account, used to find the vCard entries that are already in the account before importing
+ * them.
+ *
+ * <p>An entry matches a raw contact with the same name that also shares one of its phone
+ * numbers, as compared by {@link PhoneNumberUtils#compare(String, String)}, or one of its email
+ * addresses. Different people can have the same name, and numbers of different areas can end
+ * with the same digits, so entries without a name or without phone numbers and email addresses
+ * never match, and are always imported.</p>
+ *
+ * <p>Not thread safe.</p>
+ */
+/* package */ class ContactMatchIndex {
+
+    private static final String[] PROJECTION = new String[] {
+            Data.RAW_CONTACT_ID,
+            Data.MIMETYPE,
+            Data.DATA1,
+    };
+    private static final int COLUMN_RAW_CONTACT_ID = 0;
+    private static final int COLUMN_MIMETYPE = 1;
+    private static final int COLUMN_DATA1 = 2;
+
+    // Name keys mapped to the ids of the raw contacts having them.
+    private final HashMap<String, ArrayList<Long>> mNames = new HashMap<String, ArrayList<Long>>();
+    // Raw contact ids mapped to their phone numbers and email keys.
+    private final HashMap<Long, ArrayList<String>> mPhones = new HashMap<Long, ArrayList<String>>();
+    private final HashMap<Long, ArrayList<String>> mEmails = new HashMap<Long, ArrayList<String>>();
+
+    /** Ids given to the entries added by {@link #add(VCardEntry)}, which have none yet. */
+    private long mNextEntryId = -1;
+
+    /**
+     * Builds the index of the raw contacts of the given account, or of the raw contacts without
+     * account if it is null.
+     */
+    public static ContactMatchIndex build(ContentResolver resolver, Account account) {
+        final ContactMatchIndex index = new ContactMatchIndex();
+        final StringBuilder selection = new StringBuilder();
+        final ArrayList<String> selectionArgs = new ArrayList<String>();
+        selection.append(Data.MIMETYPE).append(" IN (?,?,?)");
+        selectionArgs.add(StructuredName.CONTENT_ITEM_TYPE);
+        selectionArgs.add(Phone.CONTENT_ITEM_TYPE);
+        selectionArgs.add(Email.CONTENT_ITEM_TYPE);
+        selection.append(" AND ").append(RawContacts.DELETED).append("=0");
+        if (account != null) {
+            selection.append(" AND ").append(RawContacts.ACCOUNT_NAME).append("=?")
+                    .append(" AND ").append(RawContacts.ACCOUNT_TYPE).append("=?");
+            selectionArgs.add(account.name);
+            selectionArgs.add(account.type);
+        } else {
+            selection.append(" AND ").append(RawContacts.ACCOUNT_NAME).append(" IS NULL")
+                    .append(" AND ").append(RawContacts.ACCOUNT_TYPE).append(" IS NULL");
+        }
+        final Cursor cursor = resolver.query(Data.CONTENT_URI, PROJECTION, selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null);
+        if (cursor == null) {
+            return index;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final long rawContactId = cursor.getLong(COLUMN_RAW_CONTACT_ID);
+                final String mimeType = cursor.getString(COLUMN_MIMETYPE);
+                final String value = cursor.getString(COLUMN_DATA1);
+                if (StructuredName.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                    put(index.mNames, nameKey(value), rawContactId);
+                } else if (Phone.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                    put(index.mPhones, rawContactId, value);
+                } else if (Email.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                    put(index.mEmails, rawContactId, emailKey(value));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return index;
+    }
+
+    /** Returns true if the entry matches a raw contact of the index. */
+    public boolean matches(VCardEntry entry) {
+        return matches(getName(entry), getPhoneNumbers(entry), getEmails(entry));
+    }
+
+    /**
+     * Adds the entry to the index, so that later entries of the same vCard which duplicate it
+     * are found too.
+     */
+    public void add(VCardEntry entry) {
+        add(getName(entry), getPhoneNumbers(entry), getEmails(entry));
+    }
+
+    /* package */ boolean matches(String name, List<String> phoneNumbers, List<String> emails) {
+        final String nameKey = nameKey(name);
+        if (TextUtils.isEmpty(nameKey)) {
+            return false;
+        }
+        final ArrayList<Long> sameName = mNames.get(nameKey);
+        if (sameName == null) {
+            return false;
+        }
+        for (Long id : sameName) {
+            final ArrayList<String> otherNumbers = mPhones.get(id);
+            if (otherNumbers != null) {
+                for (String number : phoneNumbers) {
+                    for (String otherNumber : otherNumbers) {
+                        if (PhoneNumberUtils.compare(number, otherNumber)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            final ArrayList<String> otherEmails = mEmails.get(id);
+            if (otherEmails != null) {
+                for (String email : emails) {
+                    if (otherEmails.contains(emailKey(email))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /* package */ void add(String name, List<String> phoneNumbers, List<String> emails) {
+        final long id = mNextEntryId--;
+        put(mNames, nameKey(name), id);
+        for (String number : phoneNumbers) {
+            put(mPhones, id, number);
+        }
+        for (String email : emails) {
+            put(mEmails, id, emailKey(email));
+        }
+    }
+
+    private static void put(HashMap<String, ArrayList<Long>> map, String key, long id) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        ArrayList<Long> ids = map.get(key);
+        if (ids == null) {
+            ids = new ArrayList<Long>(1);
+            map.put(key, ids);
+        }
+        if (!ids.contains(id)) {
+            ids.add(id);
+        }
+    }
+
+    private static void put(HashMap<Long, ArrayList<String>> map, long id, String value) {
+        if (TextUtils.isEmpty(value)) {
+            return;
+        }
+        ArrayList<String> values = map.get(id);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            map.put(id, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Returns the display name of the entry, or null if it has no name. The display name of an
+     * entry without a name is made of its other data, e.g. an email address.
+     */
+    private static String getName(VCardEntry entry) {
+        final VCardEntry.NameData name = entry.getNameData();
+        return name == null || name.isEmpty() ? null : entry.getDisplayName();
+    }
+
+    private static List<String> getPhoneNumbers(VCardEntry entry) {
+        final ArrayList<String> numbers = new ArrayList<String>();
+        if (entry.getPhoneList() != null) {
+            for (VCardEntry.PhoneData phone : entry.getPhoneList()) {
+                numbers.add(phone.getNumber());
+            }
+        }
+        return numbers;
+    }
+
+    private static List<String> getEmails(VCardEntry entry) {
+        final ArrayList<String> emails = new ArrayList<String>();
+        if (entry.getEmailList() != null) {
+            for (VCardEntry.EmailData email : entry.getEmailList()) {
+                emails.add(email.getAddress());
+            }
+        }
+        return emails;
+    }
+
+    /** Case and white space insensitive. */
+    /* package */ static String nameKey(String name) {
+        if (name == null) {
+            return null;
+        }
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /* package */ static String emailKey(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -21,21 +21,24 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
 import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.RawContactsEntity;
+import android.provider.OpenableColumns;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.android.contacts.R;
+import com.android.contacts.util.SharedPreferenceUtil;
 import com.android.contactsbind.FeedbackHelper;
 import com.android.vcard.VCardComposer;
 import com.android.vcard.VCardConfig;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -116,7 +119,6 @@ public class ExportProcessor extends ProcessorBase {
     private void runInternal() {
         if (DEBUG) Log.d(LOG_TAG, String.format("vCard export (id: %d) has started.", mJobId));
         final ExportRequest request = mExportRequest;
-        VCardComposer composer = null;
         Writer writer = null;
         boolean successful = false;
         try {
@@ -125,9 +127,22 @@ public class ExportProcessor extends ProcessorBase {
                 return;
             }
             final Uri uri = request.destUri;
+            final boolean incremental =
+                    request.exportMode == ExportRequest.EXPORT_MODE_INCREMENTAL;
+            // The changes written by an incremental export are only exported once, so they
+            // must not be written over by the next one.
+            if (incremental && !isEmptyFile(uri)) {
+                Log.w(LOG_TAG, "Not exporting the changes to a file that isn't empty: " + uri);
+                doFinishNotification(mService.getString(
+                        R.string.fail_reason_export_changes_file_not_empty), null);
+                return;
+            }
             final OutputStream outputStream;
             try {
-                outputStream = mResolver.openOutputStream(uri);
+                // Appending, so that nothing is lost if the size of the file was unknown.
+                outputStream = incremental
+                        ? mResolver.openOutputStream(uri, "wa")
+                        : mResolver.openOutputStream(uri);
             } catch (FileNotFoundException e) {
                 Log.w(LOG_TAG, "FileNotFoundException thrown", e);
                 // Need concise title.
@@ -148,20 +163,29 @@ public class ExportProcessor extends ProcessorBase {
                 vcardType = VCardConfig.getVCardTypeFromString(exportType);
             }
 
-            composer = new VCardComposer(mService, vcardType, true);
-
-            // for test
-            // int vcardType = (VCardConfig.VCARD_TYPE_V21_GENERIC |
-            //     VCardConfig.FLAG_USE_QP_TO_PRIMARY_PROPERTIES);
-            // composer = new VCardComposer(ExportVCardActivity.this, vcardType, true);
-
             writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-            final Uri contentUriForRawContactsEntity = RawContactsEntity.CONTENT_URI;
-            // TODO: should provide better selection.
-            if (!composer.init(Contacts.CONTENT_URI, new String[] {Contacts._ID},
-                    null, null,
-                    null, contentUriForRawContactsEntity)) {
-                final String errorReason = composer.getErrorReason();
+            // Taken before querying, so that contacts changed while exporting are exported
+            // again next time.
+            final long exportStartTime = System.currentTimeMillis();
+            final IncrementalExport delta = incremental
+                    ? new IncrementalExport(
+                            SharedPreferenceUtil.getVCardExportWatermark(mService,
+                                    request.backupId),
+                            exportStartTime)
+                    : null;
+            if (delta != null) {
+                Log.i(LOG_TAG, delta.isFullExport()
+                        ? "No usable watermark; exporting all contacts"
+                        : "Exporting the contacts changed since the last incremental export");
+            }
+            final ShardedVCardExporter exporter = new ShardedVCardExporter(mService, vcardType,
+                    delta != null ? delta.getSelection() : null,
+                    delta != null ? delta.getSelectionArgs() : null);
+            final int total;
+            try {
+                total = exporter.prepare(mResolver);
+            } catch (ShardedVCardExporter.ComposerException e) {
+                final String errorReason = e.errorReason;
                 Log.e(LOG_TAG, "initialization of vCard composer failed: " + errorReason);
                 final String translatedErrorReason =
                         translateComposerError(errorReason);
@@ -172,40 +196,54 @@ public class ExportProcessor extends ProcessorBase {
                 return;
             }
 
-            final int total = composer.getCount();
-            if (total == 0) {
+            if (total == 0 && (delta == null || delta.isFullExport())) {
                 final String title =
                         mService.getString(R.string.fail_reason_no_exportable_contact);
                 doFinishNotification(title, null);
                 return;
             }
 
-            int current = 1;  // 1-origin
-            while (!composer.isAfterLast()) {
-                if (isCancelled()) {
-                    Log.i(LOG_TAG, "Export request is cancelled during composing vCard");
-                    return;
-                }
-                try {
-                    writer.write(composer.createOneEntry());
-                } catch (IOException e) {
-                    final String errorReason = composer.getErrorReason();
-                    Log.e(LOG_TAG, "Failed to read a contact: " + errorReason);
-                    final String translatedErrorReason =
-                            translateComposerError(errorReason);
-                    final String title =
-                            mService.getString(R.string.fail_reason_error_occurred_during_export,
-                                    translatedErrorReason);
-                    doFinishNotification(title, null);
-                    return;
-                }
-
-                // vCard export is quite fast (compared to import), and frequent notifications
-                // bother notification bar too much.
-                if (current % 100 == 1) {
-                    doProgressNotification(uri, total, current);
-                }
-                current++;
+            final boolean exported;
+            try {
+                exported = exporter.export(outputStream, new ShardedVCardExporter.Callback() {
+                    private int mLastNotifiedCount = -1;
+
+                    @Override
+                    public boolean isCancelled() {
+                        return ExportProcessor.this.isCancelled();
+                    }
+
+                    @Override
+                    public void onProgress(int exportedCount) {
+                        // vCard export is quite fast (compared to import), and frequent
+                        // notifications bother notification bar too much.
+                        if (exportedCount - mLastNotifiedCount >= 100) {
+                            doProgressNotification(uri, total, exportedCount);
+                            mLastNotifiedCount = exportedCount;
+                        }
+                    }
+                });
+            } catch (IOException | ShardedVCardExporter.ComposerException e) {
+                final String errorReason = e instanceof ShardedVCardExporter.ComposerException
+                        ? ((ShardedVCardExporter.ComposerException) e).errorReason
+                        : e.getMessage();
+                Log.e(LOG_TAG, "Failed to read a contact: " + errorReason);
+                final String translatedErrorReason =
+                        translateComposerError(errorReason);
+                final String title =
+                        mService.getString(R.string.fail_reason_error_occurred_during_export,
+                                translatedErrorReason);
+                doFinishNotification(title, null);
+                return;
+            }
+            if (!exported) {
+                Log.i(LOG_TAG, "Export request is cancelled during composing vCard");
+                return;
+            }
+            if (delta != null) {
+                successful = finishIncrementalExport(request, delta, writer, vcardType,
+                        exportStartTime, total);
+                return;
             }
             Log.i(LOG_TAG, "Successfully finished exporting vCard " + request.destUri);
 
@@ -215,27 +253,8 @@ public class ExportProcessor extends ProcessorBase {
             mService.updateMediaScanner(request.destUri.getPath());
 
             successful = true;
-            final String filename = request.displayName;
-            // If it is a local file (i.e. not a file from Drive), we need to allow user to share
-            // the file by pressing the notification; otherwise, it would be a file in Drive, we
-            // don't need to enable this action in notification since the file is already uploaded.
-            if (isLocalFile(uri)) {
-                final Message msg = handler.obtainMessage();
-                msg.arg1 = SHOW_READY_TOAST;
-                handler.sendMessage(msg);
-                doFinishNotificationWithShareAction(
-                        mService.getString(R.string.exporting_vcard_finished_title_fallback),
-                        mService.getString(R.string.touch_to_share_contacts), uri);
-            } else {
-                final String title = filename == null
-                        ? mService.getString(R.string.exporting_vcard_finished_title_fallback)
-                        : mService.getString(R.string.exporting_vcard_finished_title, filename);
-                doFinishNotification(title, null);
-            }
+            doExportFinishedNotification(request);
         } finally {
-            if (composer != null) {
-                composer.terminate();
-            }
             if (writer != null) {
                 try {
                     writer.close();
@@ -247,6 +266,81 @@ public class ExportProcessor extends ProcessorBase {
         }
     }
 
+    /**
+     * Appends the tombstones of an incremental export, moves the watermark forward and notifies
+     * the user.
+     *
+     * @return true if the export was successful.
+     */
+    private boolean finishIncrementalExport(ExportRequest request, IncrementalExport delta,
+            Writer writer, int vcardType, long exportStartTime, int exportedCount) {
+        final int tombstoneCount;
+        try {
+            tombstoneCount = delta.writeTombstones(mResolver, writer, vcardType);
+            // Make sure everything is written before moving the watermark.
+            writer.flush();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write deleted contacts", e);
+            doFinishNotification(mService.getString(
+                    R.string.fail_reason_error_occurred_during_export, e.getMessage()), null);
+            return false;
+        }
+        SharedPreferenceUtil.setVCardExportWatermark(mService, request.backupId,
+                exportStartTime);
+        Log.i(LOG_TAG, String.format("Successfully finished incremental export of vCard %s "
+                + "(%d contacts, %d deleted)", request.destUri, exportedCount, tombstoneCount));
+        mService.updateMediaScanner(request.destUri.getPath());
+        doExportFinishedNotification(request);
+        return true;
+    }
+
+    /**
+     * Returns true if the file has no content. A file whose size isn't known is assumed to be
+     * empty, as the documents created for an export are.
+     */
+    private boolean isEmptyFile(Uri uri) {
+        if ("file".equals(uri.getScheme())) {
+            return new File(uri.getPath()).length() == 0;
+        }
+        final Cursor cursor;
+        try {
+            cursor = mResolver.query(uri, new String[] { OpenableColumns.SIZE }, null, null,
+                    null);
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Couldn't get the size of " + uri, e);
+            return true;
+        }
+        if (cursor == null) {
+            return true;
+        }
+        try {
+            return !cursor.moveToFirst() || cursor.isNull(0) || cursor.getLong(0) == 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void doExportFinishedNotification(ExportRequest request) {
+        final Uri uri = request.destUri;
+        final String filename = request.displayName;
+        // If it is a local file (i.e. not a file from Drive), we need to allow user to share
+        // the file by pressing the notification; otherwise, it would be a file in Drive, we
+        // don't need to enable this action in notification since the file is already uploaded.
+        if (isLocalFile(uri)) {
+            final Message msg = handler.obtainMessage();
+            msg.arg1 = SHOW_READY_TOAST;
+            handler.sendMessage(msg);
+            doFinishNotificationWithShareAction(
+                    mService.getString(R.string.exporting_vcard_finished_title_fallback),
+                    mService.getString(R.string.touch_to_share_contacts), uri);
+        } else {
+            final String title = filename == null
+                    ? mService.getString(R.string.exporting_vcard_finished_title_fallback)
+                    : mService.getString(R.string.exporting_vcard_finished_title, filename);
+            doFinishNotification(title, null);
+        }
+    }
+
     private boolean isLocalFile(Uri uri) {
         final String authority = uri.getAuthority();
         return mService.getString(R.string.contacts_file_provider_authority).equals(authority);
@@ -275,7 +369,7 @@ public class ExportProcessor extends ProcessorBase {
                 NotificationImportExportListener.constructProgressNotification(mService,
                         VCardService.TYPE_EXPORT, description, tickerText, mJobId, displayName,
                         totalCount, currentCount);
-        mService.startForeground(mJobId, notification);
+        mService.notifyJobProgress(mJobId, notification);
     }
 
     private void doCancelNotification() {
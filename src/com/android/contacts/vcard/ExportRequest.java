@@ -18,6 +18,17 @@ package com.android.contacts.vcard;
 import android.net.Uri;
 
 public class ExportRequest {
+    /** Exports all contacts. */
+    public static final int EXPORT_MODE_FULL = 0;
+    /**
+     * Exports the contacts updated since the previous incremental export, and tombstones for
+     * the contacts deleted since then. See {@link IncrementalExport}.
+     */
+    public static final int EXPORT_MODE_INCREMENTAL = 1;
+
+    /** The backup that incremental exports belong to when the caller doesn't name one. */
+    public static final String DEFAULT_BACKUP_ID = "default";
+
     public final Uri destUri;
     /**
      * Can be null.
@@ -26,6 +37,22 @@ public class ExportRequest {
 
     public final String displayName;
 
+    /**
+     * True if the user is waiting for the export to finish, e.g. to share the exported
+     * contacts. Such exports are scheduled before bulk imports and exports.
+     */
+    public final boolean isInteractive;
+
+    /** {@link #EXPORT_MODE_FULL} or {@link #EXPORT_MODE_INCREMENTAL}. */
+    public final int exportMode;
+
+    /**
+     * Names the series of incremental exports that this one continues, whose watermark it
+     * moves forward. Each export of the series is written to a new file, so the destination
+     * can't identify it. Null for full exports.
+     */
+    public final String backupId;
+
     public ExportRequest(Uri destUri) {
         this(destUri, null);
     }
@@ -35,8 +62,27 @@ public class ExportRequest {
     }
 
     public ExportRequest(Uri destUri, String exportType, String displayName) {
+        this(destUri, exportType, displayName, false);
+    }
+
+    public ExportRequest(Uri destUri, String exportType, String displayName,
+            boolean isInteractive) {
+        this(destUri, exportType, displayName, isInteractive, EXPORT_MODE_FULL);
+    }
+
+    public ExportRequest(Uri destUri, String exportType, String displayName,
+            boolean isInteractive, int exportMode) {
+        this(destUri, exportType, displayName, isInteractive, exportMode,
+                exportMode == EXPORT_MODE_INCREMENTAL ? DEFAULT_BACKUP_ID : null);
+    }
+
+    public ExportRequest(Uri destUri, String exportType, String displayName,
+            boolean isInteractive, int exportMode, String backupId) {
         this.destUri = destUri;
         this.exportType = exportType;
         this.displayName = displayName;
+        this.isInteractive = isInteractive;
+        this.exportMode = exportMode;
+        this.backupId = backupId;
     }
 }
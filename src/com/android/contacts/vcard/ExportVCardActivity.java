@@ -37,7 +37,10 @@ import android.util.Log;
 import com.android.contacts.R;
 import com.android.contacts.activities.RequestImportVCardPermissionsActivity;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Shows a dialog confirming the export and asks actual vCard export to {@link VCardService}
@@ -120,10 +123,28 @@ public class ExportVCardActivity extends Activity implements ServiceConnection,
         intent.addCategory(Intent.CATEGORY_OPENABLE);
         intent.setType(VCardService.X_VCARD_MIME_TYPE);
         intent.putExtra(Intent.EXTRA_TITLE, mBidiFormatter.unicodeWrap(
-                getString(R.string.exporting_vcard_filename), TextDirectionHeuristics.LTR));
+                getSuggestedFileName(), TextDirectionHeuristics.LTR));
         return intent;
     }
 
+    private int getExportMode() {
+        return getIntent().getIntExtra(
+                VCardCommonArguments.ARG_EXPORT_MODE, ExportRequest.EXPORT_MODE_FULL);
+    }
+
+    /**
+     * The changes of each incremental export go to a new file, so they are named after the time
+     * they are exported.
+     */
+    private String getSuggestedFileName() {
+        if (getExportMode() != ExportRequest.EXPORT_MODE_INCREMENTAL) {
+            return getString(R.string.exporting_vcard_filename);
+        }
+        final String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US)
+                .format(new Date());
+        return getString(R.string.exporting_vcard_changes_filename, time);
+    }
+
     private void showErrorDialog() {
         mErrorReason = getString(R.string.fail_reason_unknown);
         showDialog(R.id.dialog_fail_to_export_with_reason);
@@ -137,7 +158,16 @@ public class ExportVCardActivity extends Activity implements ServiceConnection,
                 final Uri targetFileName = data.getData();
                 if (DEBUG) Log.d(LOG_TAG, "exporting to " + targetFileName);
                 final String displayName = getOpenableUriDisplayName(this, targetFileName);
-                final ExportRequest request = new ExportRequest(targetFileName, null, displayName);
+                final int exportMode = getExportMode();
+                String backupId = null;
+                if (exportMode == ExportRequest.EXPORT_MODE_INCREMENTAL) {
+                    backupId = getIntent().getStringExtra(VCardCommonArguments.ARG_BACKUP_ID);
+                    if (backupId == null) {
+                        backupId = ExportRequest.DEFAULT_BACKUP_ID;
+                    }
+                }
+                final ExportRequest request = new ExportRequest(targetFileName, null, displayName,
+                        /* isInteractive */ false, exportMode, backupId);
                 // The connection object will call finish().
                 mService.handleExportRequest(request, new NotificationImportExportListener(
                         ExportVCardActivity.this));
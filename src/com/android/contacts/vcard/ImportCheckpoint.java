@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.provider.ContactsContract.RawContacts;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.contacts.model.account.AccountWithDataSet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The progress of an import, saved to app local storage so that {@link VCardService} can resume
+ * the import where it stopped if the process is killed.
+ *
+ * <p>Only imports of vCards copied to app local storage can be resumed, as other Uris may not
+ * be readable anymore after a restart. The vCard is parsed again from its start when resuming,
+ * and the first {@link #getCommittedEntryCount()} entries are skipped.</p>
+ *
+ * <p>The request and the number of committed entries are saved as JSON. The IDs of the raw
+ * contacts created so far are only appended to a separate file, so that saving the checkpoint
+ * doesn't get slower as the import goes on. The JSON holds the number of IDs that are valid,
+ * and is written after them.</p>
+ */
+/* package */ class ImportCheckpoint {
+    private static final String LOG_TAG = "VCardImport";
+
+    /* package */ static final String FILE_PREFIX = "import_checkpoint_";
+    /* package */ static final String IDS_FILE_PREFIX = "import_created_ids_";
+
+    private static final int ID_BYTES = 8;
+
+    private static final String KEY_URI = "uri";
+    private static final String KEY_DISPLAY_NAME = "displayName";
+    private static final String KEY_ACCOUNT_NAME = "accountName";
+    private static final String KEY_ACCOUNT_TYPE = "accountType";
+    private static final String KEY_ESTIMATED_TYPE = "estimatedType";
+    private static final String KEY_ESTIMATED_CHARSET = "estimatedCharset";
+    private static final String KEY_VCARD_VERSION = "vcardVersion";
+    private static final String KEY_ENTRY_COUNT = "entryCount";
+    private static final String KEY_SKIP_DUPLICATES = "skipDuplicates";
+    private static final String KEY_DUPLICATE_COUNT = "duplicateCount";
+    private static final String KEY_COMMITTED_ENTRY_COUNT = "committedEntryCount";
+    private static final String KEY_RAW_CONTACT_ID_COUNT = "rawContactIdCount";
+
+    private final ImportRequest mRequest;
+    private int mCommittedEntryCount;
+    private int mDuplicateCount;
+    private final ArrayList<Long> mRawContactIds = new ArrayList<Long>();
+    /** Number of created Uris given to {@link #update} so far. */
+    private int mCreatedUriCount;
+    /** Number of {@link #mRawContactIds} written to the ID file. */
+    private int mSavedIdCount;
+
+    public ImportCheckpoint(ImportRequest request) {
+        mRequest = request;
+    }
+
+    /**
+     * Returns true if the import of the given request can be resumed after a restart.
+     */
+    public static boolean isResumable(Context context, ImportRequest request) {
+        return request.uri != null && VCardService.isLocalCacheUri(context, request.uri);
+    }
+
+    public ImportRequest getRequest() {
+        return mRequest;
+    }
+
+    /** Number of entries, from the start of the vCard, that don't need to be imported again. */
+    public int getCommittedEntryCount() {
+        return mCommittedEntryCount;
+    }
+
+    /**
+     * Number of entries before the checkpoint that were already in the account, see
+     * {@link ImportRequest#skipDuplicates}.
+     */
+    public int getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /** Returns the Uris of the raw contacts created before the checkpoint. */
+    public List<Uri> getCreatedUris() {
+        final ArrayList<Uri> uris = new ArrayList<Uri>(mRawContactIds.size());
+        for (long id : mRawContactIds) {
+            uris.add(ContentUris.withAppendedId(RawContacts.CONTENT_URI, id));
+        }
+        return uris;
+    }
+
+    /**
+     * Records that the first committedEntryCount entries have been committed, creating the
+     * given raw contacts, and that duplicateCount of them were skipped as duplicates.
+     */
+    public void update(int committedEntryCount, int duplicateCount, List<Uri> createdUris) {
+        mCommittedEntryCount = committedEntryCount;
+        mDuplicateCount = duplicateCount;
+        // Uris are only ever added to the end of the list, so only look at the new ones.
+        for (int i = mCreatedUriCount; i < createdUris.size(); i++) {
+            try {
+                mRawContactIds.add(ContentUris.parseId(createdUris.get(i)));
+            } catch (NumberFormatException | UnsupportedOperationException e) {
+                // Not a raw contact Uri; nothing to remember.
+            }
+        }
+        mCreatedUriCount = createdUris.size();
+    }
+
+    /**
+     * Writes the checkpoint to app local storage, replacing the previous one of the same
+     * import.
+     */
+    public void save(Context context) {
+        try {
+            appendRawContactIds(context);
+        } catch (IOException e) {
+            // Keep the previous checkpoint, which doesn't count the IDs that weren't written.
+            Log.w(LOG_TAG, "Failed to save the raw contacts created by " + mRequest.uri, e);
+            return;
+        }
+        final AtomicFile file = new AtomicFile(getFile(context, mRequest.uri));
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(toJson().toString().getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(out);
+        } catch (IOException | JSONException e) {
+            Log.w(LOG_TAG, "Failed to save the import checkpoint of " + mRequest.uri, e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    public void delete(Context context) {
+        new AtomicFile(getFile(context, mRequest.uri)).delete();
+        getIdsFile(context, mRequest.uri).delete();
+    }
+
+    /**
+     * Writes the IDs that aren't in the ID file yet, replacing whatever a save interrupted
+     * before writing the JSON left after the valid ones.
+     */
+    private void appendRawContactIds(Context context) throws IOException {
+        final RandomAccessFile file =
+                new RandomAccessFile(getIdsFile(context, mRequest.uri), "rw");
+        try {
+            final long offset = (long) mSavedIdCount * ID_BYTES;
+            file.setLength(offset);
+            file.seek(offset);
+            final ByteBuffer ids =
+                    ByteBuffer.allocate((mRawContactIds.size() - mSavedIdCount) * ID_BYTES);
+            for (int i = mSavedIdCount; i < mRawContactIds.size(); i++) {
+                ids.putLong(mRawContactIds.get(i));
+            }
+            file.write(ids.array());
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        mSavedIdCount = mRawContactIds.size();
+    }
+
+    /** Reads the IDs counted by the JSON of the checkpoint. */
+    private void readRawContactIds(Context context) throws IOException {
+        mRawContactIds.clear();
+        if (mSavedIdCount == 0) {
+            return;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(getIdsFile(context, mRequest.uri))));
+        try {
+            for (int i = 0; i < mSavedIdCount; i++) {
+                mRawContactIds.add(in.readLong());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the checkpoints of the imports that were interrupted. Checkpoints whose vCard has
+     * been removed in the meantime are deleted.
+     */
+    public static List<ImportCheckpoint> loadAll(Context context) {
+        final ArrayList<ImportCheckpoint> checkpoints = new ArrayList<ImportCheckpoint>();
+        for (String fileName : context.fileList()) {
+            if (!fileName.startsWith(FILE_PREFIX)) {
+                continue;
+            }
+            final AtomicFile file = new AtomicFile(context.getFileStreamPath(fileName));
+            ImportCheckpoint checkpoint = null;
+            try {
+                checkpoint = fromJson(new JSONObject(
+                        new String(file.readFully(), StandardCharsets.UTF_8)));
+                checkpoint.readRawContactIds(context);
+            } catch (IOException | JSONException e) {
+                Log.w(LOG_TAG, "Failed to read the import checkpoint " + fileName, e);
+            }
+            if (checkpoint != null && isResumable(context, checkpoint.mRequest)
+                    && new File(checkpoint.mRequest.uri.getPath()).exists()) {
+                checkpoints.add(checkpoint);
+            } else {
+                file.delete();
+                if (checkpoint != null) {
+                    getIdsFile(context, checkpoint.mRequest.uri).delete();
+                }
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Deletes all the checkpoints. Must only be called once no import is running.
+     */
+    public static void deleteAll(Context context) {
+        for (String fileName : context.fileList()) {
+            if (fileName.startsWith(FILE_PREFIX) || fileName.startsWith(IDS_FILE_PREFIX)) {
+                context.deleteFile(fileName);
+            }
+        }
+    }
+
+    private static File getFile(Context context, Uri uri) {
+        return context.getFileStreamPath(FILE_PREFIX + uri.getLastPathSegment());
+    }
+
+    private static File getIdsFile(Context context, Uri uri) {
+        return context.getFileStreamPath(IDS_FILE_PREFIX + uri.getLastPathSegment());
+    }
+
+    /* package */ JSONObject toJson() throws JSONException {
+        final JSONObject json = new JSONObject();
+        json.put(KEY_URI, mRequest.uri.toString());
+        json.putOpt(KEY_DISPLAY_NAME, mRequest.displayName);
+        if (mRequest.account != null) {
+            json.put(KEY_ACCOUNT_NAME, mRequest.account.name);
+            json.put(KEY_ACCOUNT_TYPE, mRequest.account.type);
+        }
+        json.put(KEY_ESTIMATED_TYPE, mRequest.estimatedVCardType);
+        json.putOpt(KEY_ESTIMATED_CHARSET, mRequest.estimatedCharset);
+        json.put(KEY_VCARD_VERSION, mRequest.vcardVersion);
+        json.put(KEY_ENTRY_COUNT, mRequest.entryCount);
+        json.put(KEY_SKIP_DUPLICATES, mRequest.skipDuplicates);
+        json.put(KEY_DUPLICATE_COUNT, mDuplicateCount);
+        json.put(KEY_COMMITTED_ENTRY_COUNT, mCommittedEntryCount);
+        json.put(KEY_RAW_CONTACT_ID_COUNT, mSavedIdCount);
+        return json;
+    }
+
+    /* package */ static ImportCheckpoint fromJson(JSONObject json) throws JSONException {
+        final AccountWithDataSet account = json.has(KEY_ACCOUNT_NAME)
+                ? new AccountWithDataSet(json.getString(KEY_ACCOUNT_NAME),
+                        json.getString(KEY_ACCOUNT_TYPE), null)
+                : null;
+        final ImportRequest request = new ImportRequest(account, null,
+                Uri.parse(json.getString(KEY_URI)),
+                json.optString(KEY_DISPLAY_NAME, null),
+                json.getInt(KEY_ESTIMATED_TYPE),
+                json.optString(KEY_ESTIMATED_CHARSET, null),
+                json.getInt(KEY_VCARD_VERSION),
+                json.getInt(KEY_ENTRY_COUNT),
+                json.optBoolean(KEY_SKIP_DUPLICATES, false));
+        final ImportCheckpoint checkpoint = new ImportCheckpoint(request);
+        checkpoint.mCommittedEntryCount = json.getInt(KEY_COMMITTED_ENTRY_COUNT);
+        checkpoint.mDuplicateCount = json.optInt(KEY_DUPLICATE_COUNT, 0);
+        checkpoint.mSavedIdCount = json.getInt(KEY_RAW_CONTACT_ID_COUNT);
+        // The committer of the resumed import starts with the Uris of these IDs.
+        checkpoint.mCreatedUriCount = checkpoint.mSavedIdCount;
+        return checkpoint;
+    }
+}
@@ -19,11 +19,11 @@ import android.accounts.Account;
 import android.app.Notification;
 import android.content.ContentResolver;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.contactsbind.FeedbackHelper;
 import com.android.vcard.VCardEntry;
-import com.android.vcard.VCardEntryCommitter;
 import com.android.vcard.VCardEntryConstructor;
 import com.android.vcard.VCardEntryHandler;
 import com.android.vcard.VCardInterpreter;
@@ -34,6 +34,7 @@ import com.android.vcard.exception.VCardException;
 import com.android.vcard.exception.VCardNotSupportedException;
 import com.android.vcard.exception.VCardVersionException;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,6 +44,10 @@ import java.util.List;
 /**
  * Class for processing one import request from a user. Dropped after importing requested Uri(s).
  * {@link VCardService} will create another object when there is another import request.
+ *
+ * The progress of imports of local vCard copies is saved in an {@link ImportCheckpoint} after
+ * every batch of entries, so that they can be resumed if the process is killed without
+ * importing the committed entries again.
  */
 public class ImportProcessor extends ProcessorBase implements VCardEntryHandler {
     private static final String LOG_TAG = "VCardImport";
@@ -53,26 +58,50 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
     private final ImportRequest mImportRequest;
     private final int mJobId;
     private final VCardImportExportListener mListener;
+    /** Null if the import can't be resumed. */
+    private final ImportCheckpoint mCheckpoint;
+    private final boolean mIsResumed;
 
     // TODO: remove and show appropriate message instead.
     private final List<Uri> mFailedUris = new ArrayList<Uri>();
 
     private VCardParser mVCardParser;
+    private PipelinedEntryCommitter mCommitter;
 
     private volatile boolean mCanceled;
     private volatile boolean mDone;
 
     private int mCurrentCount = 0;
     private int mTotalCount = 0;
+    // Only updated on the committer thread, and read once it has finished.
+    private int mDuplicateCount = 0;
 
     public ImportProcessor(final VCardService service, final VCardImportExportListener listener,
             final ImportRequest request, final int jobId) {
+        this(service, listener, request, jobId,
+                ImportCheckpoint.isResumable(service, request)
+                        ? new ImportCheckpoint(request) : null, false);
+    }
+
+    /**
+     * Creates a processor continuing the import that saved the given checkpoint.
+     */
+    public ImportProcessor(final VCardService service, final VCardImportExportListener listener,
+            final ImportCheckpoint checkpoint, final int jobId) {
+        this(service, listener, checkpoint.getRequest(), jobId, checkpoint, true);
+    }
+
+    private ImportProcessor(final VCardService service, final VCardImportExportListener listener,
+            final ImportRequest request, final int jobId, final ImportCheckpoint checkpoint,
+            final boolean isResumed) {
         mService = service;
         mResolver = mService.getContentResolver();
         mListener = listener;
 
         mImportRequest = request;
         mJobId = jobId;
+        mCheckpoint = checkpoint;
+        mIsResumed = isResumed;
     }
 
     @Override
@@ -92,7 +121,7 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
             final Notification notification = mListener.onImportParsed(mImportRequest, mJobId,
                     entry, mCurrentCount, mTotalCount);
             if (notification != null) {
-                mService.startForeground(mJobId, notification);
+                mService.notifyJobProgress(mJobId, notification);
             }
         }
     }
@@ -127,22 +156,6 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
             Log.i(LOG_TAG, "Canceled before actually handling parameter (" + request.uri + ")");
             return;
         }
-        final int[] possibleVCardVersions;
-        if (request.vcardVersion == ImportVCardActivity.VCARD_VERSION_AUTO_DETECT) {
-            /**
-             * Note: this code assumes that a given Uri is able to be opened more than once,
-             * which may not be true in certain conditions.
-             */
-            possibleVCardVersions = new int[] {
-                    ImportVCardActivity.VCARD_VERSION_V21,
-                    ImportVCardActivity.VCARD_VERSION_V30
-            };
-        } else {
-            possibleVCardVersions = new int[] {
-                    request.vcardVersion
-            };
-        }
-
         final Uri uri = request.uri;
         final Account account = request.account;
         final int estimatedVCardType = request.estimatedVCardType;
@@ -152,7 +165,54 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
 
         final VCardEntryConstructor constructor =
                 new VCardEntryConstructor(estimatedVCardType, account, estimatedCharset);
-        final VCardEntryCommitter committer = new VCardEntryCommitter(mResolver);
+        final PipelinedEntryCommitter committer;
+        synchronized (this) {
+            committer = new PipelinedEntryCommitter(mResolver, "VCardCommitter-" + mJobId);
+            mCommitter = committer;
+            if (isCancelled()) {
+                committer.cancel();
+            }
+        }
+        if (mCheckpoint != null) {
+            if (mIsResumed) {
+                Log.i(LOG_TAG, String.format("Resuming vCard import (id: %d) after %d entries",
+                        mJobId, mCheckpoint.getCommittedEntryCount()));
+                committer.resume(mCheckpoint.getCommittedEntryCount(),
+                        mCheckpoint.getCreatedUris());
+                // Report the duplicates skipped before the restart too.
+                mDuplicateCount = mCheckpoint.getDuplicateCount();
+            }
+            // Save the checkpoint now, so that the import is resumed even if the process is
+            // killed before the first checkpoint.
+            mCheckpoint.save(mService);
+            committer.setCommitListener(new PipelinedEntryCommitter.CommitListener() {
+                @Override
+                public void onEntriesCommitted(int committedEntryCount, List<Uri> createdUris) {
+                    // Saving only appends the new raw contacts, so it is cheap enough to do
+                    // after every batch.
+                    mCheckpoint.update(committedEntryCount, mDuplicateCount, createdUris);
+                    mCheckpoint.save(mService);
+                }
+            });
+        }
+        if (request.skipDuplicates) {
+            final long start = SystemClock.elapsedRealtime();
+            final ContactMatchIndex index = ContactMatchIndex.build(mResolver, account);
+            Log.i(LOG_TAG, String.format("Built the duplicate match index in %d ms",
+                    SystemClock.elapsedRealtime() - start));
+            committer.setEntryFilter(new PipelinedEntryCommitter.EntryFilter() {
+                @Override
+                public boolean accept(VCardEntry entry) {
+                    if (index.matches(entry)) {
+                        mDuplicateCount++;
+                        return false;
+                    }
+                    // Also skip the entries duplicated within the vCard.
+                    index.add(entry);
+                    return true;
+                }
+            });
+        }
         constructor.addEntryHandler(committer);
         constructor.addEntryHandler(this);
 
@@ -161,14 +221,35 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
         try {
             if (uri != null) {
                 Log.i(LOG_TAG, "start importing one vCard (Uri: " + uri + ")");
-                is = mResolver.openInputStream(uri);
             } else if (request.data != null){
                 Log.i(LOG_TAG, "start importing one vCard (byte[])");
-                is = new ByteArrayInputStream(request.data);
             }
+            is = openVCard(request);
 
             if (is != null) {
-                successful = readOneVCard(is, estimatedVCardType, estimatedCharset, constructor,
+                final int[] possibleVCardVersions;
+                if (request.vcardVersion == ImportVCardActivity.VCARD_VERSION_AUTO_DETECT) {
+                    // Try the version given in the header first, so that the vCard is usually
+                    // read only once.
+                    is = new BufferedInputStream(is);
+                    if (VCardVersionDetector.detectVersion(is)
+                            == ImportVCardActivity.VCARD_VERSION_V30) {
+                        possibleVCardVersions = new int[] {
+                                ImportVCardActivity.VCARD_VERSION_V30,
+                                ImportVCardActivity.VCARD_VERSION_V21
+                        };
+                    } else {
+                        possibleVCardVersions = new int[] {
+                                ImportVCardActivity.VCARD_VERSION_V21,
+                                ImportVCardActivity.VCARD_VERSION_V30
+                        };
+                    }
+                } else {
+                    possibleVCardVersions = new int[] {
+                            request.vcardVersion
+                    };
+                }
+                successful = readOneVCard(is, request, estimatedVCardType, constructor,
                         possibleVCardVersions);
             }
         } catch (IOException e) {
@@ -181,6 +262,14 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
                     // ignore
                 }
             }
+            // Wait for the entries that are still being committed.
+            if (!committer.finish()) {
+                successful = false;
+            }
+            // The import is over, whether it succeeded or not. Don't resume it.
+            if (mCheckpoint != null) {
+                mCheckpoint.delete(mService);
+            }
         }
 
         mService.handleFinishImportNotification(mJobId, successful);
@@ -194,16 +283,23 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
             } else {
                 Log.i(LOG_TAG, "Successfully finished importing one vCard file: " + uri);
                 List<Uri> uris = committer.getCreatedUris();
+                final int importedCount = uris == null ? 0 : uris.size();
+                if (request.skipDuplicates) {
+                    Log.i(LOG_TAG, String.format("Imported %d contacts, skipped %d duplicates",
+                            importedCount, mDuplicateCount));
+                }
                 if (mListener != null) {
                     if (uris != null && uris.size() == 1) {
-                        mListener.onImportFinished(mImportRequest, mJobId, uris.get(0));
+                        mListener.onImportFinished(mImportRequest, mJobId, uris.get(0),
+                                importedCount, mDuplicateCount);
                     } else {
-                        if (uris == null || uris.size() == 0) {
+                        if ((uris == null || uris.size() == 0) && mDuplicateCount == 0) {
                             // Not critical, but suspicious.
                             Log.w(LOG_TAG,  "Created Uris is null or 0 length " +
                                     "though the creation itself is successful.");
                         }
-                        mListener.onImportFinished(mImportRequest, mJobId, null);
+                        mListener.onImportFinished(mImportRequest, mJobId, null, importedCount,
+                                mDuplicateCount);
                     }
                 }
             }
@@ -213,7 +309,27 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
         }
     }
 
-    private boolean readOneVCard(InputStream is, int vcardType, String charset,
+    /**
+     * Opens the vCard of the request, or returns null if the request has neither a Uri nor
+     * data.
+     */
+    private InputStream openVCard(ImportRequest request) throws IOException {
+        if (request.uri != null) {
+            return mResolver.openInputStream(request.uri);
+        } else if (request.data != null) {
+            return new ByteArrayInputStream(request.data);
+        }
+        return null;
+    }
+
+    /**
+     * Parses the vCard with the parser for each of the given versions in turn, until one of
+     * them succeeds. The vCard is opened again for each attempt after the first one.
+     *
+     * Note: this code assumes that a given Uri is able to be opened more than once,
+     * which may not be true in certain conditions.
+     */
+    private boolean readOneVCard(InputStream is, ImportRequest request, int vcardType,
             final VCardInterpreter interpreter,
             final int[] possibleVCardVersions) {
         boolean successful = false;
@@ -221,9 +337,13 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
         for (int i = 0; i < length; i++) {
             final int vcardVersion = possibleVCardVersions[i];
             try {
-                if (i > 0 && (interpreter instanceof VCardEntryConstructor)) {
-                    // Let the object clean up internal temporary objects,
-                    ((VCardEntryConstructor) interpreter).clear();
+                if (i > 0) {
+                    if (interpreter instanceof VCardEntryConstructor) {
+                        // Let the object clean up internal temporary objects,
+                        ((VCardEntryConstructor) interpreter).clear();
+                    }
+                    // The previous attempt closed the stream.
+                    is = openVCard(request);
                 }
 
                 // We need synchronized block here,
@@ -286,6 +406,9 @@ public class ImportProcessor extends ProcessorBase implements VCardEntryHandler
             if (mVCardParser != null) {
                 mVCardParser.cancel();
             }
+            if (mCommitter != null) {
+                mCommitter.cancel();
+            }
         }
         return true;
     }
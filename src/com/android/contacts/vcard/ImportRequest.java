@@ -96,9 +96,22 @@ public class ImportRequest {
      */
     public final int entryCount;
 
+    /**
+     * If true, the entries matching a contact already in {@link #account} are not imported.
+     * See {@link ContactMatchIndex}.
+     */
+    public final boolean skipDuplicates;
+
     public ImportRequest(AccountWithDataSet account,
             byte[] data, Uri uri, String displayName, int estimatedType, String estimatedCharset,
             int vcardVersion, int entryCount) {
+        this(account, data, uri, displayName, estimatedType, estimatedCharset, vcardVersion,
+                entryCount, false);
+    }
+
+    public ImportRequest(AccountWithDataSet account,
+            byte[] data, Uri uri, String displayName, int estimatedType, String estimatedCharset,
+            int vcardVersion, int entryCount, boolean skipDuplicates) {
         this.account = account != null ? account.getAccountOrNull() : null;
         this.data = data;
         this.uri = uri;
@@ -107,5 +120,6 @@ public class ImportRequest {
         this.estimatedCharset = estimatedCharset;
         this.vcardVersion = vcardVersion;
         this.entryCount = entryCount;
+        this.skipDuplicates = skipDuplicates;
     }
 }
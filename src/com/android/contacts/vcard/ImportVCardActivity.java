@@ -54,6 +54,8 @@ import com.android.vcard.exception.VCardException;
 import com.android.vcard.exception.VCardNestedException;
 import com.android.vcard.exception.VCardVersionException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -100,6 +102,7 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
     private static final String STORAGE_VCARD_URI_PREFIX = "file:///storage";
 
     private AccountWithDataSet mAccount;
+    private boolean mSkipDuplicates;
 
     private ProgressDialog mProgressDialogForCachingVCard;
 
@@ -176,7 +179,7 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
      */
     private class VCardCacheThread extends Thread
             implements DialogInterface.OnCancelListener {
-        private boolean mCanceled;
+        private volatile boolean mCanceled;
         private PowerManager.WakeLock mWakeLock;
         private VCardParser mVCardParser;
         private final Uri[] mSourceUris;  // Given from a caller.
@@ -220,16 +223,12 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
                     return;
                 }
 
-                final Context context = ImportVCardActivity.this;
                 // Uris given from caller applications may not be opened twice: consider when
                 // it is not from local storage (e.g. "file:///...") but from some special
                 // provider (e.g. "content://...").
                 // Thus we have to once copy the content of Uri into local storage, and read
-                // it after it.
-                //
-                // We may be able to read content of each vCard file during copying them
-                // to local storage, but currently vCard code does not allow us to do so.
-                int cache_index = 0;
+                // it after it. Uris that are not cached yet are copied while they are scanned,
+                // so that they are read only once here.
                 ArrayList<ImportRequest> requests = new ArrayList<ImportRequest>();
                 if (mSource != null) {
                     try {
@@ -252,13 +251,24 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
 
                         final ImportRequest request;
                         try {
-                            request = constructImportRequest(null, sourceUri, sourceDisplayName);
+                            if (VCardService.isLocalCacheUri(ImportVCardActivity.this, sourceUri)) {
+                                request = constructImportRequest(
+                                        null, sourceUri, sourceDisplayName);
+                            } else {
+                                request = streamImportRequest(sourceUri, sourceDisplayName);
+                            }
+                            if (request == null) {
+                                Log.i(LOG_TAG, "vCard cache operation is canceled.");
+                                return;
+                            }
                         } catch (VCardException e) {
                             FeedbackHelper.sendFeedback(ImportVCardActivity.this, LOG_TAG,
                                     "Failed to cache vcard", e);
                             showFailureNotification(R.string.fail_reason_not_supported);
                             return;
-                        } catch (IOException e) {
+                        } catch (IOException | SecurityException e) {
+                            // The permission to read the Uri may have been revoked. The partial
+                            // copy has been deleted by streamImportRequest.
                             FeedbackHelper.sendFeedback(ImportVCardActivity.this, LOG_TAG,
                                     "Failed to cache vcard", e);
                             showFailureNotification(R.string.fail_reason_io_error);
@@ -315,67 +325,143 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
         private ImportRequest constructImportRequest(final byte[] data,
                 final Uri localDataUri, final String displayName)
                 throws IOException, VCardException {
-            final ContentResolver resolver = ImportVCardActivity.this.getContentResolver();
-            VCardEntryCounter counter = null;
-            VCardSourceDetector detector = null;
-            int vcardVersion = VCARD_VERSION_V21;
+            final InputStream is = data != null
+                    ? new ByteArrayInputStream(data)
+                    : getContentResolver().openInputStream(localDataUri);
+            return scanImportRequest(new BufferedInputStream(is), data, localDataUri,
+                    displayName);
+        }
+
+        /**
+         * Copies sourceUri to a new file in app local storage while scanning it, and constructs
+         * an {@link ImportRequest} for the copy. This reads the source only once, unless its
+         * vCard version turns out to be different from the one its header announces, in which
+         * case the copy is scanned again.
+         *
+         * @return the request, or null if the operation was canceled.
+         */
+        private ImportRequest streamImportRequest(final Uri sourceUri, final String displayName)
+                throws IOException, VCardException {
+            final String localFilename = newCacheFileName();
+            Log.i(LOG_TAG, String.format("Copy a Uri to app local storage while scanning it "
+                    + "(%s -> %s)", sourceUri, localFilename));
+            final Uri localUri =
+                    Uri.parse(getFileStreamPath(localFilename).toURI().toString());
+            final InputStream source = getContentResolver().openInputStream(sourceUri);
+            if (source == null) {
+                throw new IOException("Cannot open " + sourceUri);
+            }
+            boolean copied = false;
+            TeeInputStream tee = null;
             try {
-                boolean shouldUseV30 = false;
-                InputStream is;
-                if (data != null) {
-                    is = new ByteArrayInputStream(data);
+                // Buffer the source for the version detection, and the copy so that the
+                // parser's small reads don't turn into small writes.
+                final BufferedInputStream is = new BufferedInputStream(source);
+                final int headerVersion = VCardVersionDetector.detectVersion(is);
+                tee = new TeeInputStream(is, new BufferedOutputStream(
+                        openFileOutput(localFilename, Context.MODE_PRIVATE)));
+                final ImportRequest request =
+                        scanImportRequest(tee, headerVersion, null, localUri, displayName);
+                if (mCanceled) {
+                    return null;
+                }
+                copied = true;
+                return request;
+            } finally {
+                if (tee != null) {
+                    tee.close();
                 } else {
-                    is = resolver.openInputStream(localDataUri);
+                    source.close();
+                }
+                if (!copied) {
+                    deleteFile(localFilename);
                 }
-                mVCardParser = new VCardParser_V21();
+            }
+        }
+
+        private ImportRequest scanImportRequest(final BufferedInputStream is, final byte[] data,
+                final Uri localDataUri, final String displayName)
+                throws IOException, VCardException {
+            final int headerVersion;
+            try {
+                headerVersion = VCardVersionDetector.detectVersion(is);
+            } catch (IOException e) {
+                is.close();
+                throw e;
+            }
+            return scanImportRequest(is, headerVersion, data, localDataUri, displayName);
+        }
+
+        /**
+         * Scans the vCard in the stream to count its entries and estimate its type and charset,
+         * and constructs the {@link ImportRequest}. The stream is parsed with the parser for the
+         * version given in its header. If that turns out to be wrong, the vCard is read again
+         * from data or localDataUri with the other parser. The stream is closed, after copying
+         * the rest of it if it is a {@link TeeInputStream}.
+         */
+        private ImportRequest scanImportRequest(InputStream is, final int headerVersion,
+                final byte[] data, final Uri localDataUri, final String displayName)
+                throws IOException, VCardException {
+            int vcardVersion = headerVersion == VCARD_VERSION_V30
+                    ? VCARD_VERSION_V30 : VCARD_VERSION_V21;
+            VCardEntryCounter counter = new VCardEntryCounter();
+            VCardSourceDetector detector = new VCardSourceDetector();
+            try {
                 try {
-                    counter = new VCardEntryCounter();
-                    detector = new VCardSourceDetector();
-                    mVCardParser.addInterpreter(counter);
-                    mVCardParser.addInterpreter(detector);
-                    mVCardParser.parse(is);
+                    scanVCard(is, vcardVersion, counter, detector);
                 } catch (VCardVersionException e1) {
-                    try {
-                        is.close();
-                    } catch (IOException e) {
-                    }
-
-                    shouldUseV30 = true;
-                    if (data != null) {
-                        is = new ByteArrayInputStream(data);
-                    } else {
-                        is = resolver.openInputStream(localDataUri);
+                    if (is instanceof TeeInputStream) {
+                        // Finish the copy before reading it again.
+                        ((TeeInputStream) is).drain();
                     }
-                    mVCardParser = new VCardParser_V30();
+                    is.close();
+                    is = data != null
+                            ? new ByteArrayInputStream(data)
+                            : getContentResolver().openInputStream(localDataUri);
+                    Log.i(LOG_TAG, "The vCard is not of the version its header says.");
+                    vcardVersion = vcardVersion == VCARD_VERSION_V30
+                            ? VCARD_VERSION_V21 : VCARD_VERSION_V30;
+                    counter = new VCardEntryCounter();
+                    detector = new VCardSourceDetector();
                     try {
-                        counter = new VCardEntryCounter();
-                        detector = new VCardSourceDetector();
-                        mVCardParser.addInterpreter(counter);
-                        mVCardParser.addInterpreter(detector);
-                        mVCardParser.parse(is);
+                        scanVCard(is, vcardVersion, counter, detector);
                     } catch (VCardVersionException e2) {
                         throw new VCardException("vCard with unspported version.");
                     }
-                } finally {
-                    if (is != null) {
-                        try {
-                            is.close();
-                        } catch (IOException e) {
-                        }
-                    }
                 }
-
-                vcardVersion = shouldUseV30 ? VCARD_VERSION_V30 : VCARD_VERSION_V21;
             } catch (VCardNestedException e) {
                 Log.w(LOG_TAG, "Nested Exception is found (it may be false-positive).");
                 // Go through without throwing the Exception, as we may be able to detect the
                 // version before it
+            } finally {
+                try {
+                    if (is instanceof TeeInputStream && !mCanceled) {
+                        ((TeeInputStream) is).drain();
+                    }
+                } finally {
+                    try {
+                        is.close();
+                    } catch (IOException e) {
+                    }
+                }
             }
             return new ImportRequest(mAccount,
                     data, localDataUri, displayName,
                     detector.getEstimatedType(),
                     detector.getEstimatedCharset(),
-                    vcardVersion, counter.getCount());
+                    vcardVersion, counter.getCount(), mSkipDuplicates);
+        }
+
+        private void scanVCard(InputStream is, int vcardVersion, VCardEntryCounter counter,
+                VCardSourceDetector detector) throws IOException, VCardException {
+            mVCardParser = vcardVersion == VCARD_VERSION_V30
+                    ? new VCardParser_V30() : new VCardParser_V21();
+            if (mCanceled) {
+                mVCardParser.cancel();
+            }
+            mVCardParser.addInterpreter(counter);
+            mVCardParser.addInterpreter(detector);
+            mVCardParser.parse(is);
         }
 
         public Uri[] getSourceUris() {
@@ -497,21 +583,7 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
      */
     private String readUriToLocalFile(Uri sourceUri) {
         // Read the uri to local first.
-        int cache_index = 0;
-        String localFilename = null;
-        // Note: caches are removed by VCardService.
-        while (true) {
-            localFilename = VCardService.CACHE_FILE_PREFIX + cache_index + ".vcf";
-            final File file = getFileStreamPath(localFilename);
-            if (!file.exists()) {
-                break;
-            } else {
-                if (cache_index == Integer.MAX_VALUE) {
-                    throw new RuntimeException("Exceeded cache limit");
-                }
-                cache_index++;
-            }
-        }
+        final String localFilename = newCacheFileName();
         try {
             copyTo(sourceUri, localFilename);
         } catch (IOException|SecurityException e) {
@@ -529,12 +601,26 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
         return localFilename;
     }
 
-    private Uri readUriToLocalUri(Uri sourceUri) {
-        final String fileName = readUriToLocalFile(sourceUri);
-        if (fileName == null) {
-            return null;
+    /**
+     * Returns the name of a local file that doesn't exist yet, to cache a vCard in.
+     */
+    private String newCacheFileName() {
+        int cache_index = 0;
+        String localFilename = null;
+        // Note: caches are removed by VCardService.
+        while (true) {
+            localFilename = VCardService.CACHE_FILE_PREFIX + cache_index + ".vcf";
+            final File file = getFileStreamPath(localFilename);
+            if (!file.exists()) {
+                break;
+            } else {
+                if (cache_index == Integer.MAX_VALUE) {
+                    throw new RuntimeException("Exceeded cache limit");
+                }
+                cache_index++;
+            }
         }
-        return Uri.parse(getFileStreamPath(fileName).toURI().toString());
+        return localFilename;
     }
 
     // Returns true if uri is from Storage.
@@ -588,6 +674,10 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
         String dataSet = null;
         boolean isNullAccount = false;
         final Intent intent = getIntent();
+        if (intent != null) {
+            mSkipDuplicates = intent.getBooleanExtra(
+                    VCardCommonArguments.ARG_SKIP_DUPLICATES, false);
+        }
         if (intent != null
             && intent.hasExtra(SelectAccountActivity.ACCOUNT_NAME)
             && intent.hasExtra(SelectAccountActivity.ACCOUNT_TYPE)
@@ -692,12 +782,9 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
                         ClipData.Item item = clipData.getItemAt(i);
                         final Uri uri = item.getUri();
                         if (uri != null) {
-                            final Uri localUri = readUriToLocalUri(uri);
-                            if (localUri != null) {
-                                final String sourceDisplayName = getDisplayName(uri);
-                                uris.add(localUri);
-                                sourceDisplayNames.add(sourceDisplayName);
-                            }
+                            // The vCards are copied to local storage by VCardCacheThread.
+                            uris.add(uri);
+                            sourceDisplayNames.add(getDisplayName(uri));
                         }
                     }
                     if (uris.isEmpty()) {
@@ -712,14 +799,7 @@ public class ImportVCardActivity extends Activity implements ImportVCardDialogFr
                     final Uri uri = intent.getData();
                     if (uri != null) {
                         Log.i(LOG_TAG, "vCard selected for import: " + uri);
-                        final Uri localUri = readUriToLocalUri(uri);
-                        if (localUri != null) {
-                            final String sourceDisplayName = getDisplayName(uri);
-                            importVCard(localUri, sourceDisplayName);
-                        } else {
-                            Log.w(LOG_TAG, "No local URI for vCard import");
-                            finish();
-                        }
+                        importVCard(uri, getDisplayName(uri));
                     } else {
                         Log.w(LOG_TAG, "No vCard was selected for import");
                         finish();
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+
+import com.android.vcard.VCardConfig;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Selects what an {@link ExportRequest#EXPORT_MODE_INCREMENTAL} export writes: the contacts
+ * updated since the previous incremental export (the watermark), followed by one tombstone
+ * entry per contact deleted since then.
+ *
+ * <p>A tombstone is a vCard without any contact data, which importers ignore:</p>
+ * <pre>
+ * BEGIN:VCARD
+ * VERSION:3.0
+ * X-ANDROID-DELETED-CONTACT-ID:42
+ * X-ANDROID-DELETED-TIMESTAMP:1466000000000
+ * END:VCARD
+ * </pre>
+ */
+/* package */ class IncrementalExport {
+    /* package */ static final String PROPERTY_DELETED_CONTACT_ID = "X-ANDROID-DELETED-CONTACT-ID";
+    /* package */ static final String PROPERTY_DELETED_TIMESTAMP = "X-ANDROID-DELETED-TIMESTAMP";
+
+    private static final String END_OF_LINE = "\r\n";
+
+    private static final String[] DELETED_CONTACTS_PROJECTION = new String[] {
+            DeletedContacts.CONTACT_ID,
+            DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+    };
+
+    private final long mWatermark;
+
+    /**
+     * @param watermark the time at which the previous incremental export started, or 0 if
+     * there was none.
+     * @param now the time at which this export starts.
+     */
+    public IncrementalExport(long watermark, long now) {
+        // The provider forgets deleted contacts after a while. Past that, only a full export
+        // tells which contacts are gone.
+        mWatermark = isWatermarkUsable(watermark, now) ? watermark : 0;
+    }
+
+    /* package */ static boolean isWatermarkUsable(long watermark, long now) {
+        return watermark > 0 && watermark <= now
+                && now - watermark < DeletedContacts.DAYS_KEPT_MILLISECONDS;
+    }
+
+    /** Returns true if all contacts are exported, in which case there are no tombstones. */
+    public boolean isFullExport() {
+        return mWatermark == 0;
+    }
+
+    /** Selection of {@link Contacts#CONTENT_URI} for the contacts to export. */
+    public String getSelection() {
+        return isFullExport() ? null : Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">?";
+    }
+
+    public String[] getSelectionArgs() {
+        return isFullExport() ? null : new String[] { String.valueOf(mWatermark) };
+    }
+
+    /**
+     * Writes a tombstone for each contact deleted since the watermark.
+     *
+     * @return the number of tombstones written.
+     */
+    public int writeTombstones(ContentResolver resolver, Writer writer, int vcardType)
+            throws IOException {
+        if (isFullExport()) {
+            return 0;
+        }
+        final Cursor cursor = resolver.query(DeletedContacts.CONTENT_URI,
+                DELETED_CONTACTS_PROJECTION, DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">?",
+                new String[] { String.valueOf(mWatermark) },
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                writer.write(buildTombstone(cursor.getLong(0), cursor.getLong(1), vcardType));
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /* package */ static String buildTombstone(long contactId, long deletedTimestamp,
+            int vcardType) {
+        final String version;
+        if (VCardConfig.isVersion40(vcardType)) {
+            version = "4.0";
+        } else if (VCardConfig.isVersion30(vcardType)) {
+            version = "3.0";
+        } else {
+            version = "2.1";
+        }
+        return "BEGIN:VCARD" + END_OF_LINE
+                + "VERSION:" + version + END_OF_LINE
+                + PROPERTY_DELETED_CONTACT_ID + ":" + contactId + END_OF_LINE
+                + PROPERTY_DELETED_TIMESTAMP + ":" + deletedTimestamp + END_OF_LINE
+                + "END:VCARD" + END_OF_LINE;
+    }
+}
@@ -18,7 +18,6 @@ package com.android.contacts.vcard;
 
 import static android.app.PendingIntent.FLAG_IMMUTABLE;
 
-import android.app.Activity;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -52,12 +51,12 @@ public class NotificationImportExportListener implements VCardImportExportListen
     /* package */ static final String FAILURE_NOTIFICATION_TAG = "VCardServiceFailure";
 
     private final NotificationManager mNotificationManager;
-    private final Activity mContext;
+    private final Context mContext;
     private final Handler mHandler;
 
-    public NotificationImportExportListener(Activity activity) {
-        mContext = activity;
-        mNotificationManager = (NotificationManager) activity.getSystemService(
+    public NotificationImportExportListener(Context context) {
+        mContext = context;
+        mNotificationManager = (NotificationManager) context.getSystemService(
                 Context.NOTIFICATION_SERVICE);
         mHandler = new Handler(this);
     }
@@ -119,9 +118,14 @@ public class NotificationImportExportListener implements VCardImportExportListen
     }
 
     @Override
-    public void onImportFinished(ImportRequest request, int jobId, Uri createdUri) {
+    public void onImportFinished(ImportRequest request, int jobId, Uri createdUri,
+            int importedCount, int duplicateCount) {
         final String description = mContext.getString(R.string.importing_vcard_finished_title,
                 request.displayName);
+        final String matchStatistics = request.skipDuplicates
+                ? mContext.getString(R.string.importing_vcard_finished_duplicates_description,
+                        importedCount, duplicateCount)
+                : null;
         final Intent intent;
         if (createdUri != null) {
             final long rawContactId = ContentUris.parseId(createdUri);
@@ -136,7 +140,7 @@ public class NotificationImportExportListener implements VCardImportExportListen
         intent.setPackage(mContext.getPackageName());
         final Notification notification =
                 NotificationImportExportListener.constructFinishNotification(mContext,
-                description, null, intent);
+                description, matchStatistics, intent);
         mNotificationManager.notify(NotificationImportExportListener.DEFAULT_NOTIFICATION_TAG,
                 jobId, notification);
     }
@@ -240,6 +244,25 @@ public class NotificationImportExportListener implements VCardImportExportListen
         return builder.build();
     }
 
+    /**
+     * Constructs the Notification that keeps {@link VCardService} in the foreground while it
+     * has jobs. The progress of each job is shown in its own Notification.
+     *
+     * @param context
+     */
+    /* package */ static Notification constructForegroundNotification(Context context) {
+        ContactsNotificationChannelsUtil.createDefaultChannel(context);
+        return new NotificationCompat.Builder(context,
+                ContactsNotificationChannelsUtil.DEFAULT_CHANNEL)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setSmallIcon(android.R.drawable.stat_notify_sync)
+                .setColor(context.getResources().getColor(R.color.dialtacts_theme_color))
+                .setContentTitle(context.getString(R.string.vcard_import_export_in_progress))
+                .build();
+    }
+
     /**
      * Constructs a Notification telling users the process is canceled.
      *
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.android.contacts.database.AdaptiveBatchSizer;
+import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Commits the {@link VCardEntry}s created by the parser on a separate thread, so that parsing
+ * the next entries overlaps with writing the previous ones to the provider.
+ *
+ * <p>The parser thread hands entries over through a bounded queue, which blocks the parser
+ * when the provider can't keep up, so that memory use stays bounded. The committer thread
+ * groups the insert operations of the entries into batches, sized by an
+ * {@link AdaptiveBatchSizer}.</p>
+ *
+ * <p>Unlike {@link com.android.vcard.VCardEntryCommitter}, {@link #getCreatedUris()} returns
+ * the Uri of the raw contact created for each entry, not one Uri per batch.</p>
+ *
+ * <p>An interrupted import can be continued with {@link #resume(int, List)}, which skips the
+ * entries that were committed before.</p>
+ */
+/* package */ class PipelinedEntryCommitter implements VCardEntryHandler {
+    private static final String LOG_TAG = "VCardImport";
+
+    /** Number of parsed entries waiting to be committed before the parser has to wait. */
+    private static final int QUEUE_CAPACITY = 128;
+
+    /**
+     * Notified on the committer thread after each batch, so that the progress of the import can
+     * be saved.
+     */
+    public interface CommitListener {
+        /**
+         * @param committedEntryCount number of entries, from the start of the vCard, that have
+         * been committed or have failed to be.
+         * @param createdUris the Uris of the raw contacts created so far. Only valid during the
+         * call.
+         */
+        void onEntriesCommitted(int committedEntryCount, List<Uri> createdUris);
+    }
+
+    /**
+     * Decides, on the committer thread, which entries to commit.
+     */
+    public interface EntryFilter {
+        /** Returns false if the entry must not be committed. */
+        boolean accept(VCardEntry entry);
+    }
+
+    /** Marks the end of the entries in {@link #mQueue}. */
+    private static final VCardEntry END_OF_ENTRIES = new VCardEntry();
+
+    private final ContentResolver mResolver;
+    private final BlockingQueue<VCardEntry> mQueue =
+            new ArrayBlockingQueue<VCardEntry>(QUEUE_CAPACITY);
+    private final ArrayList<Uri> mCreatedUris = new ArrayList<Uri>();
+    private final Thread mCommitThread;
+    private CommitListener mListener;
+    private EntryFilter mFilter;
+
+    /** Number of entries at the start of the vCard that are already committed. */
+    private int mSkippedEntryCount;
+    // Only accessed from the parser thread.
+    private int mEntriesToSkip;
+
+    private volatile boolean mCanceled;
+    private boolean mStarted;
+    private boolean mFinished;
+
+    // Only accessed from the committer thread until it has finished.
+    private final AdaptiveBatchSizer mBatchSizer = AdaptiveBatchSizer.forOperations();
+    private int mBatchCount;
+    private int mFailedBatchCount;
+    private int mCommittedEntryCount;
+    /** Entries in the batch being built, including the ones without any operation. */
+    private int mPendingEntryCount;
+    /** Entries, from the start of the vCard, that were handled in batches applied so far. */
+    private int mHandledEntryCount;
+
+    public PipelinedEntryCommitter(ContentResolver resolver, String threadName) {
+        mResolver = resolver;
+        mCommitThread = new Thread(threadName) {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                commitEntries();
+            }
+        };
+    }
+
+    /**
+     * Skips the first entryCount entries of the vCard, which were committed by an earlier
+     * import and created the given raw contacts. Must be called before parsing starts.
+     */
+    public void resume(int entryCount, List<Uri> createdUris) {
+        mSkippedEntryCount = entryCount;
+        mEntriesToSkip = entryCount;
+        mHandledEntryCount = entryCount;
+        mCreatedUris.addAll(createdUris);
+    }
+
+    /** Must be called before parsing starts. */
+    public void setCommitListener(CommitListener listener) {
+        mListener = listener;
+    }
+
+    /** Must be called before parsing starts. */
+    public void setEntryFilter(EntryFilter filter) {
+        mFilter = filter;
+    }
+
+    @Override
+    public void onStart() {
+        // The parser may call this once per parsing attempt.
+        mEntriesToSkip = mSkippedEntryCount;
+        startIfNeeded();
+    }
+
+    @Override
+    public void onEntryCreated(VCardEntry entry) {
+        if (mCanceled) {
+            return;
+        }
+        if (mEntriesToSkip > 0) {
+            mEntriesToSkip--;
+            return;
+        }
+        startIfNeeded();
+        try {
+            mQueue.put(entry);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted while handing over a vCard entry");
+            cancel();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onEnd() {
+        // The entries are committed by finish(), as the parser may be started again with
+        // another vCard version.
+    }
+
+    /**
+     * Waits until all entries created so far are committed, and stops the committer thread.
+     * Must be called by the parser thread once parsing is over, whether it succeeded or not.
+     *
+     * @return false if some of the entries could not be committed.
+     */
+    public boolean finish() {
+        synchronized (this) {
+            if (mFinished) {
+                return mFailedBatchCount == 0;
+            }
+            mFinished = true;
+            if (!mStarted) {
+                return true;
+            }
+        }
+        boolean interrupted = false;
+        boolean endQueued = false;
+        while (true) {
+            try {
+                if (!endQueued) {
+                    mQueue.put(END_OF_ENTRIES);
+                    endQueued = true;
+                }
+                mCommitThread.join();
+                break;
+            } catch (InterruptedException e) {
+                // The committer thread drains the queue, so the wait is short. Stop committing
+                // to make it even shorter.
+                mCanceled = true;
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Log.i(LOG_TAG, String.format("Committed %d vCard entries in %d batches (%d failed)",
+                mCommittedEntryCount, mBatchCount, mFailedBatchCount));
+        return mFailedBatchCount == 0;
+    }
+
+    /**
+     * Stops committing entries. Entries already handed over but not committed yet are
+     * dropped.
+     */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    /**
+     * Returns the Uris of the raw contacts created so far. Only valid after {@link #finish()}.
+     */
+    public List<Uri> getCreatedUris() {
+        return mCreatedUris;
+    }
+
+    private synchronized void startIfNeeded() {
+        if (!mStarted && !mFinished) {
+            mStarted = true;
+            mCommitThread.start();
+        }
+    }
+
+    private void commitEntries() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        ArrayList<Integer> entryStarts = new ArrayList<Integer>();
+        while (true) {
+            final VCardEntry entry;
+            try {
+                entry = mQueue.take();
+            } catch (InterruptedException e) {
+                // Nobody interrupts this thread; keep draining so the parser never blocks.
+                continue;
+            }
+            if (entry == END_OF_ENTRIES) {
+                break;
+            }
+            if (mCanceled) {
+                // Keep draining the queue, so that the parser never blocks on it.
+                continue;
+            }
+            boolean counted = false;
+            try {
+                if (mFilter != null && !mFilter.accept(entry)) {
+                    mPendingEntryCount++;
+                    continue;
+                }
+                final int start = operations.size();
+                operations = entry.constructInsertOperations(mResolver, operations);
+                if (operations.size() > AdaptiveBatchSizer.MAX_BATCH_OPERATIONS
+                        && start > 0) {
+                    // This entry doesn't fit anymore. The operations refer back to each other
+                    // by index, so build them again at the start of the next batch.
+                    operations.subList(start, operations.size()).clear();
+                    applyBatch(operations, entryStarts);
+                    operations = entry.constructInsertOperations(mResolver,
+                            new ArrayList<ContentProviderOperation>());
+                    entryStarts.clear();
+                    if (!operations.isEmpty()) {
+                        entryStarts.add(0);
+                    }
+                } else if (operations.size() > start) {
+                    entryStarts.add(start);
+                }
+                mPendingEntryCount++;
+                counted = true;
+                if (operations.size() >= mBatchSizer.getBatchSize()) {
+                    applyBatch(operations, entryStarts);
+                    operations = new ArrayList<ContentProviderOperation>();
+                    entryStarts.clear();
+                }
+            } catch (Throwable e) {
+                // Even an error such as running out of memory must not stop this thread, or the
+                // parser would block on the queue forever. Give up on this batch and go on.
+                Log.e(LOG_TAG, "Failed to commit vCard entries", e);
+                mFailedBatchCount++;
+                operations = new ArrayList<ContentProviderOperation>();
+                entryStarts.clear();
+                // Don't try these entries again when resuming.
+                mHandledEntryCount += mPendingEntryCount + (counted ? 0 : 1);
+                mPendingEntryCount = 0;
+            }
+        }
+        if (!mCanceled && !operations.isEmpty()) {
+            try {
+                applyBatch(operations, entryStarts);
+            } catch (Throwable e) {
+                Log.e(LOG_TAG, "Failed to commit vCard entries", e);
+                mFailedBatchCount++;
+            }
+        }
+    }
+
+    private void applyBatch(ArrayList<ContentProviderOperation> operations,
+            List<Integer> entryStarts) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            final ContentProviderResult[] results =
+                    mBatchSizer.applyBatch(mResolver, operations);
+            mBatchCount++;
+            mCommittedEntryCount += entryStarts.size();
+            // The first operation of each entry inserts its raw contact. Do null checking for
+            // badly behaving ContentResolvers.
+            if (results != null) {
+                for (int entryStart : entryStarts) {
+                    if (entryStart < results.length && results[entryStart] != null
+                            && results[entryStart].uri != null) {
+                        mCreatedUris.add(results[entryStart].uri);
+                    }
+                }
+            }
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+            mFailedBatchCount++;
+        }
+        mHandledEntryCount += mPendingEntryCount;
+        mPendingEntryCount = 0;
+        if (mListener != null && !mCanceled) {
+            mListener.onEntriesCommitted(mHandledEntryCount, mCreatedUris);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Process;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.RawContactsEntity;
+import android.util.Log;
+
+import com.android.vcard.VCardComposer;
+import com.android.vcard.VCardConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Composes the vCards of many contacts on several threads.
+ *
+ * <p>The contacts are split into shards of consecutive contact ids. Each shard is composed and
+ * encoded by its own {@link VCardComposer} on a worker thread, and the shards are written to the
+ * destination in id order. At most {@link #getMaxInFlightShards()} shards are composed or
+ * waiting to be written at any time. Each shard is encoded into its buffer entry by entry, so
+ * that it is only held once.</p>
+ *
+ * <p>Since a contact with a photo can take far more room than one without, the buffered shards
+ * are also bounded by size: once {@link #MAX_BUFFERED_BYTES} are waiting to be written, only the
+ * shard that is written next keeps composing, and the others wait until it has been written.</p>
+ */
+/* package */ class ShardedVCardExporter {
+    private static final String LOG_TAG = "VCardExport";
+
+    /** Notified on the calling thread of {@link #export}. */
+    public interface Callback {
+        boolean isCancelled();
+
+        /** @param exportedCount number of contacts written so far. */
+        void onProgress(int exportedCount);
+    }
+
+    /** A composer failed for another reason than not finding any contact. */
+    public static class ComposerException extends Exception {
+        public final String errorReason;
+
+        public ComposerException(String errorReason) {
+            super(errorReason);
+            this.errorReason = errorReason;
+        }
+    }
+
+    /* package */ static final int SHARD_SIZE = 200;
+    private static final int MAX_THREADS = 4;
+    private static final int IN_FLIGHT_SHARDS_PER_THREAD = 2;
+    /* package */ static final long MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+
+    private static final String[] ID_PROJECTION = new String[] { Contacts._ID };
+
+    private final Context mContext;
+    private final int mVCardType;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final int mThreadCount;
+
+    /** Inclusive id ranges; a null range means all the selected contacts. */
+    private List<long[]> mShards;
+    private int mContactCount;
+    private volatile boolean mCanceled;
+
+    /** Guards {@link #mBufferedBytes} and {@link #mNextShardToWrite}. */
+    private final Object mBufferLock = new Object();
+    /** Size of the entries composed but not written yet. */
+    private long mBufferedBytes;
+    private int mNextShardToWrite;
+
+    public ShardedVCardExporter(Context context, int vcardType, String selection,
+            String[] selectionArgs) {
+        mContext = context;
+        mVCardType = vcardType;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mThreadCount = Math.max(1,
+                Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Finds the contacts to export and splits them into shards.
+     *
+     * @return the number of contacts to export.
+     */
+    public int prepare(ContentResolver resolver) throws ComposerException {
+        final Cursor cursor = resolver.query(Contacts.CONTENT_URI, ID_PROJECTION, mSelection,
+                mSelectionArgs, Contacts._ID);
+        if (cursor == null) {
+            throw new ComposerException(VCardComposer.FAILURE_REASON_FAILED_TO_GET_DATABASE_INFO);
+        }
+        final long[] ids;
+        try {
+            ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext() && i < ids.length) {
+                ids[i++] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        mContactCount = ids.length;
+        if (VCardConfig.isDoCoMo(mVCardType)) {
+            // DoCoMo vCards start with a special entry, which must be written only once.
+            mShards = new ArrayList<long[]>();
+            mShards.add(null);
+        } else {
+            mShards = splitIntoShards(ids, SHARD_SIZE);
+        }
+        return mContactCount;
+    }
+
+    /**
+     * Returns inclusive id ranges covering the given sorted ids, with at most shardSize ids
+     * each.
+     */
+    /* package */ static List<long[]> splitIntoShards(long[] sortedIds, int shardSize) {
+        final ArrayList<long[]> shards = new ArrayList<long[]>();
+        for (int start = 0; start < sortedIds.length; start += shardSize) {
+            final int end = Math.min(sortedIds.length, start + shardSize) - 1;
+            shards.add(new long[] { sortedIds[start], sortedIds[end] });
+        }
+        return shards;
+    }
+
+    public int getMaxInFlightShards() {
+        return mThreadCount * IN_FLIGHT_SHARDS_PER_THREAD;
+    }
+
+    /**
+     * Composes the contacts found by {@link #prepare} and writes them to out, in contact id
+     * order. Contacts that can't be composed are left out, and reported once the others are
+     * written.
+     *
+     * @return false if the export was canceled.
+     * @throws ComposerException if a composer failed, or some contacts couldn't be composed.
+     */
+    public boolean export(OutputStream out, Callback callback)
+            throws IOException, ComposerException {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(mThreadCount,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread("VCardComposer-" + threadNumber.incrementAndGet()) {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        };
+                    }
+                });
+        final ArrayDeque<Future<ShardResult>> inFlight = new ArrayDeque<Future<ShardResult>>();
+        final int maxInFlight = getMaxInFlightShards();
+        int nextShard = 0;
+        int exportedCount = 0;
+        int failedCount = 0;
+        String failureReason = null;
+        try {
+            while (nextShard < mShards.size() || !inFlight.isEmpty()) {
+                while (nextShard < mShards.size() && inFlight.size() < maxInFlight) {
+                    inFlight.add(executor.submit(new ShardTask(nextShard,
+                            mShards.get(nextShard))));
+                    nextShard++;
+                }
+                if (callback.isCancelled()) {
+                    mCanceled = true;
+                    return false;
+                }
+                final ShardResult result = getResult(inFlight.poll());
+                result.bytes.writeTo(out);
+                onShardWritten(result.bufferedBytes);
+                exportedCount += result.entryCount;
+                if (result.failedCount > 0) {
+                    failedCount += result.failedCount;
+                    if (failureReason == null) {
+                        failureReason = result.failureReason;
+                    }
+                }
+                callback.onProgress(exportedCount);
+            }
+            if (failedCount > 0) {
+                final String message = "Failed to compose " + failedCount + " contacts";
+                Log.w(LOG_TAG, message + ": " + failureReason);
+                throw new ComposerException(failureReason != null ? failureReason : message);
+            }
+            return !callback.isCancelled();
+        } finally {
+            mCanceled = true;
+            synchronized (mBufferLock) {
+                mBufferLock.notifyAll();
+            }
+            for (Future<ShardResult> future : inFlight) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    private void onShardWritten(long shardBytes) {
+        synchronized (mBufferLock) {
+            mBufferedBytes -= shardBytes;
+            mNextShardToWrite++;
+            mBufferLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until there is room for more composed entries, unless the given shard is the next to
+     * be written, which must never wait for the others.
+     */
+    private void awaitBufferSpace(int shardIndex) throws InterruptedException {
+        synchronized (mBufferLock) {
+            while (mBufferedBytes >= MAX_BUFFERED_BYTES && shardIndex != mNextShardToWrite
+                    && !mCanceled) {
+                mBufferLock.wait();
+            }
+        }
+    }
+
+    private void addBufferedBytes(long bytes) {
+        synchronized (mBufferLock) {
+            mBufferedBytes += bytes;
+        }
+    }
+
+    private static ShardResult getResult(Future<ShardResult> future)
+            throws IOException, ComposerException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // The shard will finish soon; don't lose what it composed.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ComposerException) {
+                throw (ComposerException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class ShardResult {
+        final ByteArrayOutputStream bytes;
+        /** What this shard added to the buffered bytes. */
+        final long bufferedBytes;
+        final int entryCount;
+        /** Number of the entries that couldn't be composed, and why the first one couldn't. */
+        final int failedCount;
+        final String failureReason;
+
+        ShardResult(ByteArrayOutputStream bytes, long bufferedBytes, int entryCount,
+                int failedCount, String failureReason) {
+            this.bytes = bytes;
+            this.bufferedBytes = bufferedBytes;
+            this.entryCount = entryCount;
+            this.failedCount = failedCount;
+            this.failureReason = failureReason;
+        }
+    }
+
+    private class ShardTask implements Callable<ShardResult> {
+        private final int mIndex;
+        private final long[] mRange;
+
+        ShardTask(int index, long[] range) {
+            mIndex = index;
+            mRange = range;
+        }
+
+        @Override
+        public ShardResult call() throws ComposerException, IOException, InterruptedException {
+            String selection = mSelection;
+            String[] selectionArgs = mSelectionArgs;
+            if (mRange != null) {
+                final String rangeSelection = Contacts._ID + " BETWEEN ? AND ?";
+                selection = selection == null
+                        ? rangeSelection : "(" + selection + ") AND " + rangeSelection;
+                final int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+                final String[] args = new String[argCount + 2];
+                if (argCount > 0) {
+                    System.arraycopy(selectionArgs, 0, args, 0, argCount);
+                }
+                args[argCount] = String.valueOf(mRange[0]);
+                args[argCount + 1] = String.valueOf(mRange[1]);
+                selectionArgs = args;
+            }
+
+            final VCardComposer composer = new VCardComposer(mContext, mVCardType, true);
+            try {
+                if (!composer.init(Contacts.CONTENT_URI, ID_PROJECTION, selection,
+                        selectionArgs, Contacts._ID, RawContactsEntity.CONTENT_URI)) {
+                    final String errorReason = composer.getErrorReason();
+                    if (VCardComposer.FAILURE_REASON_NO_ENTRY.equals(errorReason)) {
+                        // The contacts of this shard were deleted in the meantime.
+                        return new ShardResult(new ByteArrayOutputStream(0), 0, 0, 0, null);
+                    }
+                    throw new ComposerException(errorReason);
+                }
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+                long bufferedBytes = 0;
+                int entryCount = 0;
+                int failedCount = 0;
+                String failureReason = null;
+                while (!composer.isAfterLast() && !mCanceled) {
+                    awaitBufferSpace(mIndex);
+                    final String entry = composer.createOneEntry();
+                    if (entry != null) {
+                        writer.write(entry);
+                        // vCards are mostly ASCII, so the length is close enough to the size.
+                        bufferedBytes += entry.length();
+                        addBufferedBytes(entry.length());
+                    } else {
+                        failedCount++;
+                        if (failureReason == null) {
+                            failureReason = composer.getErrorReason();
+                        }
+                    }
+                    entryCount++;
+                }
+                writer.flush();
+                return new ShardResult(bytes, bufferedBytes, entryCount, failedCount,
+                        failureReason);
+            } finally {
+                composer.terminate();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An input stream that writes everything read from it to an output stream, so that a vCard can
+ * be copied to local storage while it is being parsed.
+ *
+ * <p>Marks are not supported, as the bytes read after a mark would be copied twice.</p>
+ */
+/* package */ class TeeInputStream extends FilterInputStream {
+    private final OutputStream mSink;
+
+    public TeeInputStream(InputStream in, OutputStream sink) {
+        super(in);
+        mSink = sink;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = in.read();
+        if (b != -1) {
+            mSink.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        final int count = in.read(buffer, offset, length);
+        if (count > 0) {
+            mSink.write(buffer, offset, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must be copied too.
+        final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Copies the rest of the input, which the parser did not read, to the output.
+     */
+    public void drain() throws IOException {
+        final byte[] buffer = new byte[8192];
+        while (read(buffer, 0, buffer.length) != -1) {
+            // Keep copying.
+        }
+    }
+
+    /** Closes both the input and the output. */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            mSink.close();
+        }
+    }
+}
@@ -24,4 +24,16 @@ public class VCardCommonArguments {
     // Argument used to pass calling activities to the target activity or service.
     // The value should be a string class name (e.g. com.android.contacts.vcard.VCardCommonArgs)
     public static final String ARG_CALLING_ACTIVITY = "CALLING_ACTIVITY";
+
+    // Argument used to pass the export mode to ExportVCardActivity. The value should be one of
+    // ExportRequest.EXPORT_MODE_FULL (the default) and ExportRequest.EXPORT_MODE_INCREMENTAL.
+    public static final String ARG_EXPORT_MODE = "EXPORT_MODE";
+
+    // Argument used to pass the backup that an incremental export belongs to. The value should
+    // be a string, ExportRequest.DEFAULT_BACKUP_ID by default.
+    public static final String ARG_BACKUP_ID = "BACKUP_ID";
+
+    // Argument used to ask ImportVCardActivity not to import the contacts already in the target
+    // account. The value should be a boolean, false by default.
+    public static final String ARG_SKIP_DUPLICATES = "SKIP_DUPLICATES";
 }
@@ -25,7 +25,13 @@ interface VCardImportExportListener {
     Notification onImportProcessed(ImportRequest request, int jobId, int sequence);
     Notification onImportParsed(ImportRequest request, int jobId, VCardEntry entry, int currentCount,
             int totalCount);
-    void onImportFinished(ImportRequest request, int jobId, Uri uri);
+    /**
+     * @param importedCount number of contacts created.
+     * @param duplicateCount number of entries not imported because they were already in the
+     * account. Always 0 unless {@link ImportRequest#skipDuplicates} is set.
+     */
+    void onImportFinished(ImportRequest request, int jobId, Uri uri, int importedCount,
+            int duplicateCount);
     void onImportFailed(ImportRequest request);
     void onImportCanceled(ImportRequest request, int jobId);
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs vCard jobs in lanes, e.g. one for imports and one for exports, so that a small export
+ * doesn't have to wait for a big import to finish.
+ *
+ * <p>At most one bulk job runs per lane at a time, so that the jobs of a lane run in the order
+ * in which they were submitted. Interactive jobs, like sharing contacts, may run next to the
+ * bulk job of their lane and are started before any pending bulk job. No more than
+ * {@code maxConcurrentJobs} jobs run at once in total.</p>
+ */
+/* package */ class VCardJobScheduler {
+    private static final String LOG_TAG = "VCardService";
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final class Job implements Comparable<Job> {
+        final Runnable runnable;
+        final int lane;
+        final boolean interactive;
+        final long sequence;
+
+        Job(Runnable runnable, int lane, boolean interactive, long sequence) {
+            this.runnable = runnable;
+            this.lane = lane;
+            this.interactive = interactive;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (interactive != other.interactive) {
+                return interactive ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final int mMaxConcurrentJobs;
+    private final ExecutorService mExecutor;
+
+    // All the following fields are guarded by "this".
+    private final PriorityQueue<Job> mPendingJobs = new PriorityQueue<Job>();
+    /** Number of running bulk jobs, by lane. */
+    private final SparseIntArray mRunningBulkJobs = new SparseIntArray();
+    private int mRunningJobCount;
+    private long mNextSequence;
+    private boolean mShutdown;
+
+    public VCardJobScheduler(int maxConcurrentJobs) {
+        mMaxConcurrentJobs = maxConcurrentJobs;
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "VCardJob-" + threadCount.incrementAndGet());
+            }
+        };
+        // Jobs are only handed over when a thread is available, so the queue stays empty.
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentJobs,
+                maxConcurrentJobs, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * Schedules the given job.
+     *
+     * @param lane jobs in different lanes don't wait for each other.
+     * @param interactive true if the user is waiting for the result of the job.
+     * @throws RejectedExecutionException if the scheduler has been shut down.
+     */
+    public synchronized void execute(Runnable runnable, int lane, boolean interactive) {
+        if (mShutdown) {
+            throw new RejectedExecutionException("VCardJobScheduler has been shut down");
+        }
+        mPendingJobs.add(new Job(runnable, lane, interactive, mNextSequence++));
+        startPendingJobs();
+    }
+
+    /**
+     * Removes the given job if it hasn't started yet.
+     *
+     * @return true if the job was removed, false if it has started or is unknown.
+     */
+    public synchronized boolean remove(Runnable runnable) {
+        final Iterator<Job> iterator = mPendingJobs.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().runnable == runnable) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the pending jobs and lets the running ones finish. No job can be scheduled after
+     * this call.
+     */
+    public synchronized void shutdown() {
+        mShutdown = true;
+        mPendingJobs.clear();
+        mExecutor.shutdown();
+    }
+
+    public synchronized boolean isShutdown() {
+        return mShutdown;
+    }
+
+    public synchronized int getRunningJobCount() {
+        return mRunningJobCount;
+    }
+
+    public synchronized int getPendingJobCount() {
+        return mPendingJobs.size();
+    }
+
+    private void startPendingJobs() {
+        if (mPendingJobs.isEmpty() || mRunningJobCount >= mMaxConcurrentJobs) {
+            return;
+        }
+        // Walk the jobs in priority order; a bulk job whose lane is busy must not hold back
+        // the jobs of other lanes.
+        final PriorityQueue<Job> waiting = new PriorityQueue<Job>(mPendingJobs);
+        while (!waiting.isEmpty() && mRunningJobCount < mMaxConcurrentJobs) {
+            final Job job = waiting.poll();
+            if (!job.interactive && mRunningBulkJobs.get(job.lane) > 0) {
+                continue;
+            }
+            mPendingJobs.remove(job);
+            start(job);
+        }
+    }
+
+    private void start(final Job job) {
+        mRunningJobCount++;
+        if (!job.interactive) {
+            mRunningBulkJobs.put(job.lane, mRunningBulkJobs.get(job.lane) + 1);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.runnable.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "vCard job failed", e);
+                } finally {
+                    onJobFinished(job);
+                }
+            }
+        });
+    }
+
+    private synchronized void onJobFinished(Job job) {
+        mRunningJobCount--;
+        if (!job.interactive) {
+            mRunningBulkJobs.put(job.lane, mRunningBulkJobs.get(job.lane) - 1);
+        }
+        if (!mShutdown) {
+            startPendingJobs();
+        }
+    }
+}
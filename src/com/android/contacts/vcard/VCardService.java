@@ -18,29 +18,35 @@ package com.android.contacts.vcard;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.media.MediaScannerConnection;
 import android.media.MediaScannerConnection.MediaScannerConnectionClient;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.IBinder;
+import android.service.notification.StatusBarNotification;
 import android.util.Log;
 import android.util.SparseArray;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The class responsible for handling vCard import/export requests.
  *
  * This Service creates one ImportRequest/ExportRequest object (as Runnable) per request and push
- * it to {@link ExecutorService} with single thread executor. The executor handles each request
- * one by one, and notifies users when needed.
+ * it to {@link VCardJobScheduler}. Imports and exports are handled in separate lanes, so an
+ * export doesn't wait for an import to finish. Within a lane requests are handled one by one,
+ * except for interactive ones like sharing contacts, which go before the others. Users are
+ * notified when needed.
+ *
+ * Imports interrupted by the process being killed are resumed from their last
+ * {@link ImportCheckpoint} when the Service is created again.
  */
 // TODO: Using IntentService looks simpler than using Service + ServiceConnection though this
 // works fine enough. Investigate the feasibility.
@@ -87,13 +93,28 @@ public class VCardService extends Service {
         }
     }
 
-    // Should be single thread, as we don't want to simultaneously handle import and export
-    // requests.
-    private final ExecutorService mExecutorService = Executors.newSingleThreadExecutor();
+    /**
+     * Maximum number of jobs running at once: a bulk import, a bulk export and an interactive
+     * job.
+     */
+    private static final int MAX_CONCURRENT_JOBS = 3;
+
+    private final VCardJobScheduler mScheduler = new VCardJobScheduler(MAX_CONCURRENT_JOBS);
+
+    /**
+     * Id of the Notification that keeps the service in the foreground while it has jobs. Jobs
+     * may run concurrently, so none of their Notifications can be the foreground one: starting
+     * the foreground with the Notification of one job would remove the one of another. Job
+     * Notifications use {@link NotificationImportExportListener#DEFAULT_NOTIFICATION_TAG}, so
+     * they don't clash with this untagged id.
+     */
+    private static final int FOREGROUND_NOTIFICATION_ID = 1;
 
     private int mCurrentJobId = 1;
+    private boolean mForeground;
 
-    // Stores all unfinished import/export jobs which will be executed by mExecutorService.
+    // Stores all unfinished import/export jobs which will be executed by mScheduler, whether
+    // they are running or still waiting for their turn.
     // Key is jobId.
     private final SparseArray<ProcessorBase> mRunningJobMap = new SparseArray<ProcessorBase>();
     // Stores ScannerConnectionClient objects until they finish scanning requested files.
@@ -121,6 +142,7 @@ public class VCardService extends Service {
         super.onCreate();
         mBinder = new MyBinder();
         if (DEBUG) Log.d(LOG_TAG, "vCard Service is being created.");
+        resumeInterruptedImports();
     }
 
     @Override
@@ -132,12 +154,31 @@ public class VCardService extends Service {
             mCallingActivity = null;
             // The intent will be null if the service is restarted after the app
             // is killed but the notification may still exist so remove it.
-            NotificationManager nm = getSystemService(NotificationManager.class);
-            nm.cancelAll();
+            cancelStaleNotifications();
         }
         return START_STICKY;
     }
 
+    /**
+     * Removes the notifications left by the jobs of a killed process, but not the ones of the
+     * jobs of this process, such as the imports resumed by {@link #onCreate}.
+     */
+    private synchronized void cancelStaleNotifications() {
+        final NotificationManager nm = getSystemService(NotificationManager.class);
+        for (StatusBarNotification notification : nm.getActiveNotifications()) {
+            final String tag = notification.getTag();
+            if (NotificationImportExportListener.DEFAULT_NOTIFICATION_TAG.equals(tag)
+                    && notification.getId() < mCurrentJobId) {
+                continue;
+            }
+            if (tag == null && notification.getId() == FOREGROUND_NOTIFICATION_ID
+                    && mForeground) {
+                continue;
+            }
+            nm.cancel(tag, notification.getId());
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return mBinder;
@@ -148,7 +189,8 @@ public class VCardService extends Service {
         if (DEBUG) Log.d(LOG_TAG, "VCardService is being destroyed.");
         cancelAllRequestsAndShutdown();
         clearCache();
-        stopForeground(/* removeNotification */ false);
+        stopForeground(/* removeNotification */ true);
+        mForeground = false;
         super.onDestroy();
     }
 
@@ -169,12 +211,13 @@ public class VCardService extends Service {
         for (int i = 0; i < size; i++) {
             ImportRequest request = requests.get(i);
 
-            if (tryExecute(new ImportProcessor(this, listener, request, mCurrentJobId))) {
+            if (tryExecute(new ImportProcessor(this, listener, request, mCurrentJobId),
+                    /* interactive */ false)) {
                 if (listener != null) {
                     final Notification notification =
                             listener.onImportProcessed(request, mCurrentJobId, i);
                     if (notification != null) {
-                        startForeground(mCurrentJobId, notification);
+                        notifyJobProgress(mCurrentJobId, notification);
                     }
                 }
                 mCurrentJobId++;
@@ -188,29 +231,58 @@ public class VCardService extends Service {
         }
     }
 
+    /**
+     * Schedules the imports that were still running when the process was killed, if any.
+     */
+    private synchronized void resumeInterruptedImports() {
+        final List<ImportCheckpoint> checkpoints = ImportCheckpoint.loadAll(this);
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+        final VCardImportExportListener listener = new NotificationImportExportListener(this);
+        for (ImportCheckpoint checkpoint : checkpoints) {
+            final ImportRequest request = checkpoint.getRequest();
+            Log.i(LOG_TAG, String.format("Resume the import of %s (id: %d)", request.uri,
+                    mCurrentJobId));
+            if (!tryExecute(new ImportProcessor(this, listener, checkpoint, mCurrentJobId),
+                    /* interactive */ false)) {
+                break;
+            }
+            final Notification notification =
+                    listener.onImportProcessed(request, mCurrentJobId, 0);
+            if (notification != null) {
+                notifyJobProgress(mCurrentJobId, notification);
+            }
+            mCurrentJobId++;
+        }
+    }
+
     public synchronized void handleExportRequest(ExportRequest request,
             VCardImportExportListener listener) {
-        if (tryExecute(new ExportProcessor(this, request, mCurrentJobId, mCallingActivity))) {
-            final String path = request.destUri.getEncodedPath();
-            if (DEBUG) Log.d(LOG_TAG, "Reserve the path " + path);
-            if (!mReservedDestination.add(path)) {
-                Log.w(LOG_TAG,
-                        String.format("The path %s is already reserved. Reject export request",
-                                path));
-                if (listener != null) {
-                    listener.onExportFailed(request);
-                }
-                return;
+        // Exports may run at the same time, so reserve the path before starting the job.
+        final String path = request.destUri.getEncodedPath();
+        if (DEBUG) Log.d(LOG_TAG, "Reserve the path " + path);
+        if (!mReservedDestination.add(path)) {
+            Log.w(LOG_TAG,
+                    String.format("The path %s is already reserved. Reject export request",
+                            path));
+            if (listener != null) {
+                listener.onExportFailed(request);
             }
+            return;
+        }
 
+        if (tryExecute(new ExportProcessor(this, request, mCurrentJobId, mCallingActivity),
+                request.isInteractive)) {
             if (listener != null) {
                 final Notification notification = listener.onExportProcessed(request,mCurrentJobId);
                 if (notification != null) {
-                    startForeground(mCurrentJobId, notification);
+                    notifyJobProgress(mCurrentJobId, notification);
                 }
             }
             mCurrentJobId++;
         } else {
+            mReservedDestination.remove(path);
             if (listener != null) {
                 listener.onExportFailed(request);
             }
@@ -218,17 +290,20 @@ public class VCardService extends Service {
     }
 
     /**
-     * Tries to call {@link ExecutorService#execute(Runnable)} toward a given processor.
+     * Tries to call {@link VCardJobScheduler#execute(Runnable, int, boolean)} toward a given
+     * processor.
      * @return true when successful.
      */
-    private synchronized boolean tryExecute(ProcessorBase processor) {
+    private synchronized boolean tryExecute(ProcessorBase processor, boolean interactive) {
         try {
             if (DEBUG) {
-                Log.d(LOG_TAG, "Executor service status: shutdown: " + mExecutorService.isShutdown()
-                        + ", terminated: " + mExecutorService.isTerminated());
+                Log.d(LOG_TAG, "Scheduler status: shutdown: " + mScheduler.isShutdown()
+                        + ", running: " + mScheduler.getRunningJobCount()
+                        + ", pending: " + mScheduler.getPendingJobCount());
             }
-            mExecutorService.execute(processor);
+            mScheduler.execute(processor, processor.getType(), interactive);
             mRunningJobMap.put(mCurrentJobId, processor);
+            updateForeground();
             return true;
         } catch (RejectedExecutionException e) {
             Log.w(LOG_TAG, "Failed to excetute a job.", e);
@@ -236,6 +311,30 @@ public class VCardService extends Service {
         }
     }
 
+    /**
+     * Shows the progress Notification of a job. May be called from any thread.
+     */
+    /* package */ void notifyJobProgress(int jobId, Notification notification) {
+        getSystemService(NotificationManager.class).notify(
+                NotificationImportExportListener.DEFAULT_NOTIFICATION_TAG, jobId, notification);
+    }
+
+    /**
+     * Keeps the service in the foreground while it has unfinished jobs. Only starts or stops
+     * the foreground when the first job is added or the last one is removed.
+     */
+    private synchronized void updateForeground() {
+        final boolean hasJobs = mRunningJobMap.size() > 0;
+        if (hasJobs && !mForeground) {
+            startForeground(FOREGROUND_NOTIFICATION_ID,
+                    NotificationImportExportListener.constructForegroundNotification(this));
+            mForeground = true;
+        } else if (!hasJobs && mForeground) {
+            stopForeground(/* removeNotification */ true);
+            mForeground = false;
+        }
+    }
+
     public synchronized void handleCancelRequest(CancelRequest request,
             VCardImportExportListener listener) {
         final int jobId = request.jobId;
@@ -245,6 +344,8 @@ public class VCardService extends Service {
         mRunningJobMap.remove(jobId);
 
         if (processor != null) {
+            // A job which hasn't started yet is simply dropped.
+            mScheduler.remove(processor);
             processor.cancel(true);
             final int type = processor.getType();
             if (listener != null) {
@@ -274,38 +375,21 @@ public class VCardService extends Service {
      * A new job (import/export) cannot be submitted any more after this call.
      */
     private synchronized void stopServiceIfAppropriate() {
-        if (mRunningJobMap.size() > 0) {
-            final int size = mRunningJobMap.size();
-
-            // Check if there are processors which aren't finished yet. If we still have ones to
-            // process, we cannot stop the service yet. Also clean up already finished processors
-            // here.
-
-            // Job-ids to be removed. At first all elements in the array are invalid and will
-            // be filled with real job-ids from the array's top. When we find a not-yet-finished
-            // processor, then we start removing those finished jobs. In that case latter half of
-            // this array will be invalid.
-            final int[] toBeRemoved = new int[size];
-            for (int i = 0; i < size; i++) {
-                final int jobId = mRunningJobMap.keyAt(i);
-                final ProcessorBase processor = mRunningJobMap.valueAt(i);
-                if (!processor.isDone()) {
-                    Log.i(LOG_TAG, String.format("Found unfinished job (id: %d)", jobId));
-
-                    // Remove processors which are already "done", all of which should be before
-                    // processors which aren't done yet.
-                    for (int j = 0; j < i; j++) {
-                        mRunningJobMap.remove(toBeRemoved[j]);
-                    }
-                    return;
-                }
-
-                // Remember the finished processor.
-                toBeRemoved[i] = jobId;
+        // Jobs in different lanes finish in any order, so clean up every finished processor
+        // and check whether any processor isn't finished yet. If we still have ones to
+        // process, we cannot stop the service yet.
+        int unfinishedJobCount = 0;
+        for (int i = mRunningJobMap.size() - 1; i >= 0; i--) {
+            if (mRunningJobMap.valueAt(i).isDone()) {
+                mRunningJobMap.removeAt(i);
+            } else {
+                unfinishedJobCount++;
             }
-
-            // We're sure we can remove all. Instead of removing one by one, just call clear().
-            mRunningJobMap.clear();
+        }
+        updateForeground();
+        if (unfinishedJobCount > 0) {
+            Log.i(LOG_TAG, String.format("Found %d unfinished job(s)", unfinishedJobCount));
+            return;
         }
 
         if (!mRemainingScannerConnections.isEmpty()) {
@@ -314,7 +398,7 @@ public class VCardService extends Service {
         }
 
         Log.i(LOG_TAG, "No unfinished job. Stop this service.");
-        mExecutorService.shutdown();
+        mScheduler.shutdown();
         stopSelf();
     }
 
@@ -323,8 +407,8 @@ public class VCardService extends Service {
             Log.d(LOG_TAG, "MediaScanner is being updated: " + path);
         }
 
-        if (mExecutorService.isShutdown()) {
-            Log.w(LOG_TAG, "MediaScanner update is requested after executor's being shut down. " +
+        if (mScheduler.isShutdown()) {
+            Log.w(LOG_TAG, "MediaScanner update is requested after scheduler's being shut down. " +
                     "Ignoring the update request");
             return;
         }
@@ -376,7 +460,7 @@ public class VCardService extends Service {
     }
 
     /**
-     * Cancels all the import/export requests and calls {@link ExecutorService#shutdown()}, which
+     * Cancels all the import/export requests and calls {@link VCardJobScheduler#shutdown()}, which
      * means this Service becomes no longer ready for import/export requests.
      *
      * Mainly called from onDestroy().
@@ -386,11 +470,24 @@ public class VCardService extends Service {
             mRunningJobMap.valueAt(i).cancel(true);
         }
         mRunningJobMap.clear();
-        mExecutorService.shutdown();
+        mScheduler.shutdown();
+    }
+
+    /**
+     * Returns true if the uri points to a vCard copied to app local storage for import, which
+     * is removed by this Service.
+     */
+    /* package */ static boolean isLocalCacheUri(Context context, Uri uri) {
+        if (!"file".equals(uri.getScheme()) || uri.getPath() == null) {
+            return false;
+        }
+        final File file = new File(uri.getPath());
+        return file.getName().startsWith(CACHE_FILE_PREFIX)
+                && context.getFilesDir().equals(file.getParentFile());
     }
 
     /**
-     * Removes import caches stored locally.
+     * Removes import caches stored locally, along with the checkpoints of the imports.
      */
     private void clearCache() {
         for (final String fileName : fileList()) {
@@ -400,5 +497,6 @@ public class VCardService extends Service {
                 deleteFile(fileName);
             }
         }
+        ImportCheckpoint.deleteAll(this);
     }
 }
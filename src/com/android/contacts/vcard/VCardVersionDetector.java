@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Detects the version of a vCard from the VERSION property of its first entry, so that it can be
+ * parsed with the right parser at the first attempt instead of trying each parser in turn.
+ */
+/* package */ class VCardVersionDetector {
+    /** How far into the stream the VERSION property is looked for. */
+    /* package */ static final int HEADER_LIMIT = 8 * 1024;
+
+    private static final String BEGIN_VCARD = "BEGIN:VCARD";
+    private static final String END_VCARD = "END:VCARD";
+    private static final String VERSION = "VERSION:";
+
+    private VCardVersionDetector() {}
+
+    /**
+     * Peeks at the beginning of the stream and returns
+     * {@link ImportVCardActivity#VCARD_VERSION_V21} or
+     * {@link ImportVCardActivity#VCARD_VERSION_V30}, or
+     * {@link ImportVCardActivity#VCARD_VERSION_AUTO_DETECT} if the version is unknown. The
+     * stream must support {@link InputStream#mark(int)}; it is reset to where it was.
+     */
+    public static int detectVersion(InputStream is) throws IOException {
+        if (!is.markSupported()) {
+            throw new IllegalArgumentException("The stream must support mark()");
+        }
+        final byte[] header = new byte[HEADER_LIMIT];
+        int length = 0;
+        is.mark(HEADER_LIMIT);
+        try {
+            int count;
+            while (length < header.length
+                    && (count = is.read(header, length, header.length - length)) != -1) {
+                length += count;
+            }
+        } finally {
+            is.reset();
+        }
+        // The property names are plain ASCII in every encoding supported by the parsers.
+        return detectVersion(new String(header, 0, length, "ISO-8859-1"));
+    }
+
+    /* package */ static int detectVersion(String header) {
+        boolean inVCard = false;
+        for (String line : header.split("\r\n|\r|\n")) {
+            line = line.trim();
+            if (!inVCard) {
+                inVCard = line.regionMatches(true, 0, BEGIN_VCARD, 0, BEGIN_VCARD.length());
+            } else if (line.regionMatches(true, 0, END_VCARD, 0, END_VCARD.length())) {
+                break;
+            } else if (line.regionMatches(true, 0, VERSION, 0, VERSION.length())) {
+                final String version = line.substring(VERSION.length()).trim();
+                if ("2.1".equals(version)) {
+                    return ImportVCardActivity.VCARD_VERSION_V21;
+                } else if ("3.0".equals(version)) {
+                    return ImportVCardActivity.VCARD_VERSION_V30;
+                }
+                break;
+            }
+        }
+        return ImportVCardActivity.VCARD_VERSION_AUTO_DETECT;
+    }
+}
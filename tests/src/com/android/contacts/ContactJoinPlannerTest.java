@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ContactJoinPlanner}.
+ */
+@SmallTest
+public class ContactJoinPlannerTest extends AndroidTestCase {
+    private static final List<long[]> NO_PAIRS = Collections.<long[]>emptyList();
+
+    public void testLinksEveryRawContactToTheFirst() {
+        final List<long[]> pairs = ContactJoinPlanner.getKeepTogetherPairs(
+                new long[] { 7, 3, 9 }, NO_PAIRS);
+
+        assertEquals(2, pairs.size());
+        assertPair(3, 7, pairs.get(0));
+        assertPair(7, 9, pairs.get(1));
+    }
+
+    public void testOperationCountIsLinear() {
+        final long[] ids = new long[40];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+
+        assertEquals(39, ContactJoinPlanner.getKeepTogetherPairs(ids, NO_PAIRS).size());
+    }
+
+    public void testOverridesKeepSeparateWithinTheSet() {
+        final List<long[]> pairs = ContactJoinPlanner.getKeepTogetherPairs(
+                new long[] { 1, 2, 3 },
+                Arrays.asList(new long[] { 3, 2 }, new long[] { 1, 3 }, new long[] { 2, 8 }));
+
+        // 1-3 is already part of the star, and 8 isn't joined.
+        assertEquals(3, pairs.size());
+        assertPair(2, 3, pairs.get(2));
+    }
+
+    public void testDuplicateRawContactIdsAreIgnored() {
+        final List<long[]> pairs = ContactJoinPlanner.getKeepTogetherPairs(
+                new long[] { 5, 5, 6 }, NO_PAIRS);
+
+        assertEquals(1, pairs.size());
+        assertPair(5, 6, pairs.get(0));
+    }
+
+    private static void assertPair(long id1, long id2, long[] pair) {
+        assertEquals(id1, pair[0]);
+        assertEquals(id2, pair[1]);
+    }
+}
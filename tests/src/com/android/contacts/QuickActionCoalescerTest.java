@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.List;
+
+/**
+ * Unit tests for {@link QuickActionCoalescer}.
+ */
+@SmallTest
+public class QuickActionCoalescerTest extends AndroidTestCase {
+    private static final Uri CONTACT_1 = ContentUris.withAppendedId(Contacts.CONTENT_URI, 1);
+    private static final Uri CONTACT_2 = ContentUris.withAppendedId(Contacts.CONTENT_URI, 2);
+
+    private QuickActionCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoalescer = new QuickActionCoalescer();
+    }
+
+    public void testOnlyQuickActionsAreCoalescable() {
+        assertTrue(QuickActionCoalescer.isCoalescable(
+                ContactSaveService.createSetStarredIntent(getContext(), CONTACT_1, true)));
+        assertTrue(QuickActionCoalescer.isCoalescable(
+                ContactSaveService.createClearPrimaryIntent(getContext(), 3)));
+        assertFalse(QuickActionCoalescer.isCoalescable(
+                ContactSaveService.createDeleteContactIntent(getContext(), CONTACT_1)));
+    }
+
+    public void testTogglingStarKeepsLastValue() {
+        mCoalescer.add(ContactSaveService.createSetStarredIntent(getContext(), CONTACT_1, true));
+        mCoalescer.add(ContactSaveService.createSetStarredIntent(getContext(), CONTACT_1, false));
+        mCoalescer.add(ContactSaveService.createSetStarredIntent(getContext(), CONTACT_1, true));
+
+        final List<QuickActionCoalescer.Write> writes = mCoalescer.getWrites();
+        assertEquals(1, writes.size());
+        assertEquals(CONTACT_1, writes.get(0).uri);
+        assertTrue(writes.get(0).values.getAsBoolean(Contacts.STARRED));
+        assertEquals(1, mCoalescer.getStarredContactUris().size());
+    }
+
+    public void testOptionsOfOneContactAreMerged() {
+        mCoalescer.add(ContactSaveService.createSetStarredIntent(getContext(), CONTACT_1, true));
+        mCoalescer.add(ContactSaveService.createSetRingtone(getContext(), CONTACT_1, "ring"));
+        mCoalescer.add(ContactSaveService.createSetSendToVoicemail(getContext(), CONTACT_1, true));
+        mCoalescer.add(ContactSaveService.createSetStarredIntent(getContext(), CONTACT_2, true));
+
+        final List<QuickActionCoalescer.Write> writes = mCoalescer.getWrites();
+        assertEquals(2, writes.size());
+        assertEquals(CONTACT_1, writes.get(0).uri);
+        assertEquals(3, writes.get(0).values.size());
+        assertEquals("ring", writes.get(0).values.getAsString(Contacts.CUSTOM_RINGTONE));
+        assertEquals(CONTACT_2, writes.get(1).uri);
+    }
+
+    public void testSetPrimaryOverridesPreviousWritesOfRow() {
+        mCoalescer.add(ContactSaveService.createSetSuperPrimaryIntent(getContext(), 5));
+        mCoalescer.add(ContactSaveService.createClearPrimaryIntent(getContext(), 5));
+        mCoalescer.add(ContactSaveService.createSetSuperPrimaryIntent(getContext(), 6));
+        mCoalescer.add(ContactSaveService.createSetSuperPrimaryIntent(getContext(), 5));
+
+        final List<QuickActionCoalescer.Write> writes = mCoalescer.getWrites();
+        assertEquals(2, writes.size());
+        assertDataWrite(6, 1, writes.get(0));
+        assertDataWrite(5, 1, writes.get(1));
+    }
+
+    public void testClearingKeepsPreviousSetPrimary() {
+        // Setting 5 primary clears the flags of the other rows, which clearing 5 doesn't undo.
+        mCoalescer.add(ContactSaveService.createSetSuperPrimaryIntent(getContext(), 5));
+        mCoalescer.add(ContactSaveService.createClearPrimaryIntent(getContext(), 5));
+        mCoalescer.add(ContactSaveService.createClearPrimaryIntent(getContext(), 5));
+
+        final List<QuickActionCoalescer.Write> writes = mCoalescer.getWrites();
+        assertEquals(2, writes.size());
+        assertDataWrite(5, 1, writes.get(0));
+        assertDataWrite(5, 0, writes.get(1));
+    }
+
+    private static void assertDataWrite(long dataId, int primary,
+            QuickActionCoalescer.Write write) {
+        assertEquals(ContentUris.withAppendedId(Data.CONTENT_URI, dataId), write.uri);
+        assertEquals(primary, (int) write.values.getAsInteger(Data.IS_SUPER_PRIMARY));
+    }
+}
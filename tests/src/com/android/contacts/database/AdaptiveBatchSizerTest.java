@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.database;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+/**
+ * Unit tests for {@link AdaptiveBatchSizer}.
+ */
+@SmallTest
+public class AdaptiveBatchSizerTest extends AndroidTestCase {
+    private static final long TARGET = AdaptiveBatchSizer.TARGET_BATCH_MILLIS;
+    private static final int MIN = 20;
+    private static final int MAX = AdaptiveBatchSizer.MAX_BATCH_OPERATIONS;
+
+    public void testFastBatchesGrow() {
+        assertEquals(200, nextBatchSize(100, 100, TARGET / 4));
+        assertEquals(150, nextBatchSize(100, 100, TARGET * 2 / 3));
+    }
+
+    public void testSlowBatchesShrink() {
+        assertEquals(50, nextBatchSize(100, 100, TARGET * 10));
+    }
+
+    public void testSizeIsBounded() {
+        assertEquals(MAX, nextBatchSize(400, 400, 1));
+        assertEquals(MIN, nextBatchSize(MIN, MIN, TARGET * 10));
+    }
+
+    public void testShortBatchDoesNotChangeSize() {
+        assertEquals(100, nextBatchSize(100, 10, 1));
+    }
+
+    public void testNoYieldPointsBeforeFirstBatch() {
+        final AdaptiveBatchSizer sizer = AdaptiveBatchSizer.forOperations();
+        for (int i = 0; i < MAX; i++) {
+            assertFalse(sizer.isYieldPoint(i));
+        }
+    }
+
+    public void testYieldPointsFollowOperationTime() {
+        final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, MIN, MAX);
+        // 1 ms per operation: yield every TARGET_YIELD_MILLIS operations.
+        sizer.onBatchApplied(100, 100, 100);
+
+        final int interval = (int) AdaptiveBatchSizer.TARGET_YIELD_MILLIS;
+        assertFalse(sizer.isYieldPoint(0));
+        assertFalse(sizer.isYieldPoint(interval - 1));
+        assertTrue(sizer.isYieldPoint(interval));
+        assertEquals(200, sizer.getBatchSize());
+    }
+
+    private static int nextBatchSize(int current, int lastSize, long lastMillis) {
+        return AdaptiveBatchSizer.nextBatchSize(current, lastSize, lastMillis, MIN, MAX);
+    }
+}
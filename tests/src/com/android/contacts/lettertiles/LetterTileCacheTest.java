@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.lettertiles;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+/**
+ * Tests for {@link LetterTileCache}.
+ */
+@SmallTest
+public class LetterTileCacheTest extends AndroidTestCase {
+
+    public void testKeysOfSameTileAreEqual() {
+        final LetterTileCache.TileKey key = new LetterTileCache.TileKey()
+                .set('A', Color.RED, 96, 96, true, LetterTileDrawable.TYPE_PERSON, 1f, 0f);
+
+        assertEquals(key, key.copy());
+        assertEquals(key.hashCode(), key.copy().hashCode());
+        assertFalse(key.equals(key.copy().set(
+                'B', Color.RED, 96, 96, true, LetterTileDrawable.TYPE_PERSON, 1f, 0f)));
+        assertFalse(key.equals(key.copy().set(
+                'A', Color.RED, 48, 48, true, LetterTileDrawable.TYPE_PERSON, 1f, 0f)));
+    }
+
+    public void testContactTypeOnlyMattersWithoutLetter() {
+        final LetterTileCache.TileKey person = new LetterTileCache.TileKey()
+                .set('A', Color.RED, 96, 96, true, LetterTileDrawable.TYPE_PERSON, 1f, 0f);
+        final LetterTileCache.TileKey business = new LetterTileCache.TileKey()
+                .set('A', Color.RED, 96, 96, true, LetterTileDrawable.TYPE_BUSINESS, 1f, 0f);
+        assertEquals(person, business);
+
+        person.set((char) 0, Color.RED, 96, 96, true, LetterTileDrawable.TYPE_PERSON, 1f, 0f);
+        business.set((char) 0, Color.RED, 96, 96, true, LetterTileDrawable.TYPE_BUSINESS, 1f, 0f);
+        assertFalse(person.equals(business));
+    }
+
+    public void testLargeTilesAreNotCacheable() {
+        final LetterTileCache cache = new LetterTileCache(1024 * 1024);
+
+        assertTrue(cache.isCacheable(96, 96));
+        assertFalse(cache.isCacheable(1080, 1080));
+        assertFalse(cache.isCacheable(0, 96));
+    }
+
+    public void testDrawableFillsCache() {
+        final LetterTileCache cache = new LetterTileCache(1024 * 1024);
+        final LetterTileDrawable drawable = new LetterTileDrawable(getContext().getResources())
+                .setLetterAndColorFromContactDetails("Alice", "alice@example.com")
+                .setTileCache(cache);
+        drawable.setBounds(new Rect(0, 0, 96, 96));
+        final Canvas canvas =
+                new Canvas(Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888));
+        drawable.draw(canvas);
+
+        assertNotNull(cache.get(new LetterTileCache.TileKey().set('A', drawable.getColor(),
+                96, 96, false, LetterTileDrawable.TYPE_DEFAULT, 1f, 0f)));
+    }
+}
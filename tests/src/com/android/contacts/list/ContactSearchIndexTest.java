@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.Directory;
+import android.provider.ContactsContract.SearchSnippets;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.contacts.test.mocks.ContactsMockContext;
+import com.android.contacts.test.mocks.MockContentProvider;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link ContactSearchIndex}.
+ */
+@SmallTest
+public class ContactSearchIndexTest extends AndroidTestCase {
+    private static final String[] PROJECTION = new String[] {
+        Contacts._ID, Contacts.DISPLAY_NAME_PRIMARY, SearchSnippets.SNIPPET
+    };
+
+    private ContactSearchIndex.Index mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final ContactSearchIndex.Index.Builder builder = new ContactSearchIndex.Index.Builder();
+        builder.addContact(contact(1, "Anne Müller", "Müller, Anne"));
+        final int john = builder.addContact(contact(2, "John Smith", "Smith, John"));
+        builder.addEmail(john, "jsmith@example.com");
+        builder.addPhoneNumber(john, "(650) 555-1234", "+16505551234");
+        final int mary = builder.addContact(contact(3, "Mary Jones", "Jones, Mary"));
+        builder.addNickname(mary, "Smithy");
+        mIndex = builder.build();
+    }
+
+    public void testGetWords() {
+        assertEquals(Arrays.asList("jean", "luc", "cote"),
+                ContactSearchIndex.getWords(" Jean-Luc  Côté"));
+    }
+
+    public void testMatchesWordPrefixesOfNames() {
+        assertResults("jo", 2, 3);
+        assertResults("smi joh", 2);
+        assertResults("johnsm", 2);
+        assertResults("mull", 1);
+        assertResults("ann smith");
+    }
+
+    public void testResultsKeepContactOrder() {
+        assertResults("smith", 2, 3);
+    }
+
+    public void testSnippetOnlyForNonNameMatches() {
+        final Cursor cursor = mIndex.query("smith", PROJECTION);
+        cursor.moveToFirst();
+        assertNull(cursor.getString(2));
+        cursor.moveToNext();
+        assertEquals("Smithy", cursor.getString(2));
+        cursor.close();
+    }
+
+    public void testMatchesEmailLocalPart() {
+        assertResults("jsmi", 2);
+        assertResults("example");
+    }
+
+    public void testMatchesPhoneNumberDigits() {
+        assertResults("650555", 2);
+        assertResults("+1 650", 2);
+        assertResults("5551234");
+    }
+
+    public void testUnknownColumnFallsBack() {
+        assertNull(mIndex.query("john", new String[] { Contacts.TIMES_CONTACTED }));
+    }
+
+    public void testOnlyIndexesDefaultDirectory() {
+        final ContactsMockContext context = new ContactsMockContext(getContext());
+        final MockContentProvider provider = context.getContactsProvider();
+        // Contact 2 is not in the default directory, e.g. it is invisible.
+        provider.expectQuery(getDefaultDirectoryUri(Contacts.CONTENT_URI))
+                .withAnyProjection().withAnySelection().withAnySortOrder()
+                .returnRow(contact(1, "John Smith", "Smith, John"));
+        provider.expectQuery(Contacts.CONTENT_URI)
+                .withAnyProjection().withAnySelection().withAnySortOrder()
+                .returnRow(contact(1, "John Smith", "Smith, John"))
+                .returnRow(contact(2, "John Jones", "Jones, John"))
+                .anyNumberOfTimes();
+        provider.expectQuery(getDefaultDirectoryUri(Data.CONTENT_URI))
+                .withAnyProjection().withAnySelection().withAnySortOrder()
+                .returnRow(1L, Phone.CONTENT_ITEM_TYPE, "(650) 555-1234", "+16505551234")
+                .returnRow(2L, Phone.CONTENT_ITEM_TYPE, "(650) 555-9876", "+16505559876");
+
+        mIndex = ContactSearchIndex.loadIndex(context.getContentResolver());
+
+        assertResults("john", 1);
+        assertResults("650555", 1);
+    }
+
+    private void assertResults(String query, long... contactIds) {
+        final Cursor cursor = mIndex.query(query, PROJECTION);
+        final long[] ids = new long[cursor.getCount()];
+        while (cursor.moveToNext()) {
+            ids[cursor.getPosition()] = cursor.getLong(0);
+        }
+        cursor.close();
+        assertTrue(query + ": " + Arrays.toString(ids), Arrays.equals(contactIds, ids));
+    }
+
+    private static Uri getDefaultDirectoryUri(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY,
+                String.valueOf(Directory.DEFAULT)).build();
+    }
+
+    private static Object[] contact(long id, String name, String alternativeName) {
+        final Object[] row = new Object[ContactSearchIndex.CONTACT_COLUMNS.length];
+        row[0] = id;
+        row[1] = name;
+        row[2] = alternativeName;
+        return row;
+    }
+}
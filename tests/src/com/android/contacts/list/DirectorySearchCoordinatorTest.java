@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.Contacts;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link DirectorySearchCoordinator}.
+ */
+@SmallTest
+public class DirectorySearchCoordinatorTest extends AndroidTestCase {
+    private DirectorySearchCoordinator mCoordinator;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoordinator = new DirectorySearchCoordinator();
+        mCoordinator.onSearchStarted(0, 0, 0);
+        mCoordinator.onSearchStarted(1, 10, 0);
+        mCoordinator.onSearchStarted(2, 20, 0);
+    }
+
+    public void testResultsAreShownInOrder() {
+        final Cursor second = cursor();
+        final Cursor third = cursor();
+        assertEquals(Collections.emptyList(), mCoordinator.onSearchFinished(2, third, 50));
+        assertEquals(Collections.emptyList(), mCoordinator.onSearchFinished(1, second, 80));
+        assertTrue(mCoordinator.isPending(0));
+
+        assertEquals(Arrays.asList(0, 1, 2), mCoordinator.onSearchFinished(0, cursor(), 100));
+        assertFalse(mCoordinator.isPending(0));
+        mCoordinator.takeResult(0);
+        assertSame(second, mCoordinator.takeResult(1));
+        assertSame(third, mCoordinator.takeResult(2));
+    }
+
+    public void testDeadlineReleasesLaterPartitions() {
+        final Cursor third = cursor();
+        assertEquals(Collections.singletonList(0),
+                mCoordinator.onSearchFinished(0, cursor(), 10));
+        mCoordinator.takeResult(0);
+        assertEquals(Collections.emptyList(), mCoordinator.onSearchFinished(2, third, 20));
+
+        assertEquals(Arrays.asList(1, 2), mCoordinator.onDeadline(1));
+        assertNull(mCoordinator.takeResult(1));
+        assertSame(third, mCoordinator.takeResult(2));
+        assertEquals(Collections.emptyList(), mCoordinator.onDeadline(1));
+    }
+
+    public void testLateResultsAreShownRightAway() {
+        mCoordinator.onDeadline(0);
+        mCoordinator.takeResult(0);
+
+        assertEquals(Collections.singletonList(0),
+                mCoordinator.onSearchFinished(0, cursor(), 9000));
+    }
+
+    public void testStats() {
+        mCoordinator.onSearchFinished(1, cursor(), 100);
+        mCoordinator.onDeadline(2);
+        mCoordinator.reset();
+        mCoordinator.onSearchStarted(1, 10, 1000);
+        mCoordinator.onSearchFinished(1, cursor(), 1300);
+
+        final DirectorySearchCoordinator.DirectoryStats stats = mCoordinator.getStats(10);
+        assertEquals(2, stats.searchCount);
+        assertEquals(0, stats.timeoutCount);
+        assertEquals(300, stats.maxLatencyMillis);
+        assertEquals(200, stats.getAverageLatencyMillis());
+        assertEquals(1, mCoordinator.getStats(20).timeoutCount);
+        assertEquals(-1, mCoordinator.getStats(20).getAverageLatencyMillis());
+    }
+
+    public void testResetDropsPendingSearches() {
+        mCoordinator.reset();
+
+        assertFalse(mCoordinator.isPending(0));
+        assertEquals(Collections.singletonList(2), mCoordinator.onSearchFinished(2, cursor(), 0));
+    }
+
+    private static Cursor cursor() {
+        return new MatrixCursor(new String[] { Contacts._ID });
+    }
+}
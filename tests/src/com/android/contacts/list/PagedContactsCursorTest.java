@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.provider.ContactsContract.Contacts;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.contacts.test.mocks.ContactsMockContext;
+import com.android.contacts.test.mocks.MockContentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for {@link PagedContactsCursor}.
+ */
+@SmallTest
+public class PagedContactsCursorTest extends AndroidTestCase {
+    private static final String[] PROJECTION = new String[] {
+        Contacts._ID, Contacts.DISPLAY_NAME_PRIMARY
+    };
+
+    /** Runs the background page loads right away. */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ContactsMockContext mContext;
+    private MockContentProvider mContactsProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContactsMockContext(getContext());
+        mContactsProvider = mContext.getContactsProvider();
+    }
+
+    public void testRowsAreLoadedInListOrder() {
+        mContactsProvider.expectQuery(Contacts.CONTENT_URI)
+                .withProjection(PROJECTION)
+                .withSelection("_id IN (5,3)", (String[]) null)
+                .withAnySortOrder()
+                .returnRow(3L, "Bob")
+                .returnRow(5L, "Alice");
+        // Moving to the end of the first page loads the second page in the background.
+        mContactsProvider.expectQuery(Contacts.CONTENT_URI)
+                .withProjection(PROJECTION)
+                .withSelection("_id IN (1,4)", (String[]) null)
+                .withAnySortOrder()
+                .returnRow(1L, "Carol")
+                .returnRow(4L, "Dave");
+        mContactsProvider.expectQuery(Contacts.CONTENT_URI)
+                .withProjection(PROJECTION)
+                .withSelection("_id IN (2)", (String[]) null)
+                .withAnySortOrder()
+                .returnRow(2L, "Erin");
+
+        final PagedContactsCursor cursor = newCursor();
+        assertEquals(5, cursor.getCount());
+        assertRow(cursor, 0, 5, "Alice");
+        assertRow(cursor, 1, 3, "Bob");
+        assertRow(cursor, 3, 4, "Dave");
+        assertRow(cursor, 2, 1, "Carol");
+        assertRow(cursor, 4, 2, "Erin");
+        mContactsProvider.verify();
+    }
+
+    public void testDeletedContactsKeepTheirPosition() {
+        mContactsProvider.expectQuery(Contacts.CONTENT_URI)
+                .withProjection(PROJECTION)
+                .withSelection("_id IN (5,3)", (String[]) null)
+                .withAnySortOrder()
+                .returnRow(5L, "Alice");
+        mContactsProvider.expectQuery(Contacts.CONTENT_URI)
+                .withProjection(PROJECTION)
+                .withSelection("_id IN (1,4)", (String[]) null)
+                .withAnySortOrder()
+                .returnEmptyCursor();
+
+        final PagedContactsCursor cursor = newCursor();
+        assertRow(cursor, 0, 5, "Alice");
+        assertTrue(cursor.moveToPosition(1));
+        assertEquals(3, cursor.getLong(0));
+        assertTrue(cursor.isNull(1));
+    }
+
+    public void testPagesAreNotLoadedOnTheCallingThread() {
+        mContactsProvider.expectQuery(Contacts.CONTENT_URI)
+                .withProjection(PROJECTION)
+                .withSelection("_id IN (1,4)", (String[]) null)
+                .withAnySortOrder()
+                .returnRow(1L, "Carol")
+                .returnRow(4L, "Dave");
+        final List<Runnable> tasks = new ArrayList<>();
+        final PagedContactsCursor cursor = newCursor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        assertTrue(cursor.moveToPosition(2));
+        assertEquals(1, cursor.getLong(0));
+        assertTrue(cursor.isNull(1));
+        // The page of the row, and the previous page as the row is at the start of its page.
+        assertEquals(2, tasks.size());
+
+        tasks.get(0).run();
+        assertRow(cursor, 3, 4, "Dave");
+        mContactsProvider.verify();
+    }
+
+    private PagedContactsCursor newCursor() {
+        return newCursor(DIRECT_EXECUTOR);
+    }
+
+    private PagedContactsCursor newCursor(Executor executor) {
+        return new PagedContactsCursor(mContext.getContentResolver(), Contacts.CONTENT_URI,
+                PROJECTION, new long[] { 5, 3, 1, 4, 2 }, 2, executor);
+    }
+
+    private static void assertRow(PagedContactsCursor cursor, int position, long id,
+            String name) {
+        assertTrue(cursor.moveToPosition(position));
+        assertEquals(id, cursor.getLong(0));
+        assertEquals(name, cursor.getString(1));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+/**
+ * Unit tests for {@link PhotoPrefetchPredictor}.
+ */
+@SmallTest
+public class PhotoPrefetchPredictorTest extends AndroidTestCase {
+
+    public void testIdleListPrefetchesOneScreenEachWay() {
+        final PhotoPrefetchPredictor predictor = new PhotoPrefetchPredictor();
+
+        assertTrue(predictor.onScroll(100, 10, 1000, 0));
+        assertEquals(90, predictor.getWindowStart());
+        assertEquals(120, predictor.getWindowEnd());
+    }
+
+    public void testScrollingDownPrefetchesBelowVisibleRows() {
+        final PhotoPrefetchPredictor predictor = new PhotoPrefetchPredictor();
+        predictor.onScroll(100, 10, 1000, 0);
+        // 10 rows in 50ms.
+        predictor.onScroll(110, 10, 1000, 50);
+
+        assertTrue(predictor.getVelocity() > 0);
+        assertEquals(120, predictor.getWindowStart());
+        assertTrue(predictor.getWindowEnd() > 130);
+    }
+
+    public void testScrollingUpPrefetchesAboveVisibleRows() {
+        final PhotoPrefetchPredictor predictor = new PhotoPrefetchPredictor();
+        predictor.onScroll(100, 10, 1000, 0);
+        predictor.onScroll(90, 10, 1000, 50);
+
+        assertTrue(predictor.getVelocity() < 0);
+        assertEquals(90, predictor.getWindowEnd());
+        assertTrue(predictor.getWindowStart() < 80);
+    }
+
+    public void testWindowIsBoundedByMaxScreensAhead() {
+        final PhotoPrefetchPredictor predictor = new PhotoPrefetchPredictor();
+        predictor.onScroll(0, 10, 10000, 0);
+        // A very fast fling.
+        predictor.onScroll(500, 10, 10000, 10);
+
+        assertEquals(510, predictor.getWindowStart());
+        assertEquals(510 + 10 * PhotoPrefetchPredictor.MAX_SCREENS_AHEAD,
+                predictor.getWindowEnd());
+    }
+
+    public void testWindowIsClampedToList() {
+        final PhotoPrefetchPredictor predictor = new PhotoPrefetchPredictor();
+
+        predictor.onScroll(0, 10, 15, 0);
+        assertEquals(0, predictor.getWindowStart());
+        assertEquals(15, predictor.getWindowEnd());
+    }
+
+    public void testSmallMovementDoesNotChangePrediction() {
+        final PhotoPrefetchPredictor predictor = new PhotoPrefetchPredictor();
+        predictor.onScroll(100, 10, 1000, 0);
+
+        assertFalse(predictor.onScroll(100, 10, 1000, 1000));
+    }
+}
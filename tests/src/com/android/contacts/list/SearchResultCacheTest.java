@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.SearchSnippets;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for {@link SearchResultCache}.
+ */
+@SmallTest
+public class SearchResultCacheTest extends AndroidTestCase {
+    private static final String[] COLUMNS = new String[] {
+        Contacts._ID, Contacts.DISPLAY_NAME_PRIMARY, SearchSnippets.SNIPPET
+    };
+
+    private SearchResultCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        mCache = new SearchResultCache(directExecutor, directExecutor);
+    }
+
+    public void testRefinesLongerQuery() {
+        mCache.put("jo", results(), true);
+
+        final Cursor cursor = refine("joh");
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(1, cursor.getLong(0));
+        cursor.moveToNext();
+        assertEquals(3, cursor.getLong(0));
+        assertEquals("joh", cursor.getExtras().getString(
+                ContactsContract.DEFERRED_SNIPPETING_QUERY));
+    }
+
+    public void testMatchesSnippetNumbers() {
+        mCache.put("5", results(), true);
+
+        final Cursor cursor = refine("555 12");
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(2, cursor.getLong(0));
+    }
+
+    public void testSameQueryKeepsAllRows() {
+        mCache.put("jo", results(), true);
+
+        assertEquals(3, refine("jo").getCount());
+    }
+
+    public void testUsesLongestCachedQuery() {
+        mCache.put("j", results(), true);
+        final MatrixCursor fewer = new MatrixCursor(COLUMNS);
+        fewer.addRow(new Object[] { 1L, "John Smith", null });
+        mCache.put("jo", fewer, true);
+
+        assertEquals(1, refine("joh").getCount());
+    }
+
+    public void testIncompleteResultsAreNotRefined() {
+        mCache.put("jo", results(), false);
+
+        assertNull(refine("joh"));
+        assertNull(refine("x"));
+    }
+
+    public void testResultsOutliveTheirCursor() {
+        final Cursor results = results();
+        mCache.put("jo", results, true);
+        // The adapter closes the results when they are replaced.
+        results.close();
+
+        assertEquals(2, refine("joh").getCount());
+    }
+
+    public void testRefinedResultsCanBeRefined() {
+        mCache.put("jo", results(), true);
+        final Cursor refined = refine("joh");
+        refined.close();
+
+        assertTrue(mCache.contains("joh"));
+        assertEquals(1, refine("john s").getCount());
+    }
+
+    public void testPutKeepsPosition() {
+        final Cursor results = results();
+        results.moveToPosition(1);
+        mCache.put("jo", results, true);
+
+        assertEquals(1, results.getPosition());
+    }
+
+    public void testClear() {
+        mCache.put("jo", results(), true);
+        mCache.clear();
+
+        assertNull(refine("joh"));
+    }
+
+    public void testClearDropsPendingResults() {
+        final ArrayList<Runnable> uiTasks = new ArrayList<>();
+        final SearchResultCache cache = new SearchResultCache(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                uiTasks.add(command);
+            }
+        });
+        cache.put("jo", results(), true);
+        final Cursor[] refined = new Cursor[1];
+        assertTrue(cache.refine("joh", new SearchResultCache.Listener() {
+            @Override
+            public void onRefined(String query, Cursor cursor) {
+                refined[0] = cursor;
+            }
+        }));
+
+        cache.clear();
+        for (Runnable task : uiTasks) {
+            task.run();
+        }
+        assertNull(refined[0]);
+        assertFalse(cache.contains("joh"));
+    }
+
+    /** Returns the refined results of the query, or null if it can't be refined. */
+    private Cursor refine(String query) {
+        final Cursor[] refined = new Cursor[1];
+        final boolean refinable = mCache.refine(query, new SearchResultCache.Listener() {
+            @Override
+            public void onRefined(String refinedQuery, Cursor cursor) {
+                refined[0] = cursor;
+            }
+        });
+        assertEquals(refinable, refined[0] != null);
+        return refined[0];
+    }
+
+    private static Cursor results() {
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[] { 1L, "John Smith", null });
+        cursor.addRow(new Object[] { 2L, "Jo Ellis", "(650) 555-1234" });
+        cursor.addRow(new Object[] { 3L, "Mary Jones", "johnny@example.com" });
+        final Bundle extras = new Bundle();
+        extras.putBoolean(ContactsContract.DEFERRED_SNIPPETING, true);
+        extras.putString(ContactsContract.DEFERRED_SNIPPETING_QUERY, "jo");
+        cursor.setExtras(extras);
+        return cursor;
+    }
+}
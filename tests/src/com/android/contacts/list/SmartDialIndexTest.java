@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.database.Cursor;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link SmartDialIndex}.
+ */
+@SmallTest
+public class SmartDialIndexTest extends AndroidTestCase {
+    private static final String[] PROJECTION = new String[] { Phone._ID };
+
+    private SmartDialIndex.Index mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = SmartDialIndex.Index.EMPTY.update(Collections.<Long>emptyList(), Arrays.asList(
+                phone(1, 10, "John Smith", "650-555-0100"),
+                phone(2, 20, "Jon Ellis", "650-555-5646"),
+                phone(3, 30, "Mary Johnson", "+1 212 555 0199"),
+                phone(4, 40, "Zoë Jones", "415-555-0123")));
+    }
+
+    public void testGetKeypadDigits() {
+        assertEquals("5646", SmartDialIndex.getKeypadDigits("John"));
+        assertEquals("963", SmartDialIndex.getKeypadDigits("Zoë"));
+        assertEquals("6505550100", SmartDialIndex.getKeypadDigits("(650) 555-0100"));
+    }
+
+    public void testRanksNameStartBeforeOtherMatches() {
+        // "56" starts the names John and Jon, and the last names Johnson and Jones.
+        assertResults("56", 1, 2, 3, 4);
+        // The number of Jon ends with "5646".
+        assertResults("5646", 1, 3, 2);
+    }
+
+    public void testMatchesInitials() {
+        assertResults("57", 1);
+        assertResults("95", 4);
+    }
+
+    public void testMatchesAcrossWords() {
+        assertResults("5646764", 1);
+    }
+
+    public void testMatchesNumberSubstrings() {
+        assertResults("212", 3);
+        assertResults("5550199", 3);
+        assertResults("0123", 4);
+    }
+
+    public void testLettersMatchAsTheirKeys() {
+        assertResults("jon", 2, 4);
+    }
+
+    public void testUpdateReplacesChangedContacts() {
+        final SmartDialIndex.Index index = mIndex.update(Arrays.asList(10L, 30L),
+                Collections.singletonList(phone(5, 10, "Bob Smith", "650-555-0100")));
+
+        assertEquals(3, index.size());
+        assertResults(index, "5646", 2);
+        assertResults(index, "262", 5);
+        assertResults(index, "76484", 5);
+    }
+
+    public void testCollapsesDuplicateNumbersOfAContact() {
+        final SmartDialIndex.Index index = SmartDialIndex.Index.EMPTY.update(
+                Collections.<Long>emptyList(), Arrays.asList(
+                        phone(1, 10, "John Smith", "650-555-0100"),
+                        phone(2, 10, "John Smith", "(650) 555-0100"),
+                        phone(3, 10, "John Smith", "650-555-0101"),
+                        phone(4, 20, "Jon Ellis", "650-555-0100")));
+
+        assertEquals(3, index.size());
+        assertResults(index, "6505550100", 1, 4);
+    }
+
+    public void testUnknownColumnFallsBack() {
+        assertNull(mIndex.query("56", new String[] { Phone.TIMES_CONTACTED }));
+    }
+
+    private void assertResults(String query, long... dataIds) {
+        assertResults(mIndex, query, dataIds);
+    }
+
+    private static void assertResults(SmartDialIndex.Index index, String query,
+            long... dataIds) {
+        final Cursor cursor = index.query(query, PROJECTION);
+        final List<Long> ids = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        final List<Long> expected = new ArrayList<>();
+        for (long id : dataIds) {
+            expected.add(id);
+        }
+        assertEquals(query, expected, ids);
+    }
+
+    private static Object[] phone(long dataId, long contactId, String name, String number) {
+        final Object[] row = new Object[SmartDialIndex.PHONE_COLUMNS.length];
+        row[0] = dataId;
+        row[3] = number;
+        row[4] = contactId;
+        row[7] = name;
+        return row;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+/**
+ * Tests for {@link BitmapPool}.
+ */
+@SmallTest
+public class BitmapPoolTest extends AndroidTestCase {
+
+    public void testGetReturnsPooledBitmapOfSufficientSize() {
+        final BitmapPool pool = new BitmapPool(Integer.MAX_VALUE);
+        final Bitmap bitmap = Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888);
+        pool.put(bitmap);
+
+        assertSame(bitmap, pool.get(90, 90, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(90, 90, Bitmap.Config.ARGB_8888));
+        assertEquals(2, pool.requestCount());
+        assertEquals(1, pool.hitCount());
+        assertEquals(0, pool.size());
+    }
+
+    public void testGetDoesNotReturnTooSmallOrTooLargeBitmaps() {
+        final BitmapPool pool = new BitmapPool(Integer.MAX_VALUE);
+        pool.put(Bitmap.createBitmap(48, 48, Bitmap.Config.ARGB_8888));
+        pool.put(Bitmap.createBitmap(400, 400, Bitmap.Config.ARGB_8888));
+
+        assertNull(pool.get(96, 96, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testGetMatchesConfig() {
+        final BitmapPool pool = new BitmapPool(Integer.MAX_VALUE);
+        pool.put(Bitmap.createBitmap(96, 96, Bitmap.Config.RGB_565));
+
+        assertNull(pool.get(96, 96, Bitmap.Config.ARGB_8888));
+        assertNotNull(pool.get(96, 96, Bitmap.Config.RGB_565));
+    }
+
+    public void testPutRejectsImmutableBitmaps() {
+        final BitmapPool pool = new BitmapPool(Integer.MAX_VALUE);
+        final Bitmap bitmap = Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888);
+        pool.put(bitmap.copy(Bitmap.Config.ARGB_8888, /* isMutable */ false));
+
+        assertEquals(1, pool.rejectCount());
+        assertEquals(0, pool.size());
+    }
+
+    public void testEvictsOldestBitmapsWhenFull() {
+        final Bitmap first = Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888);
+        final Bitmap second = Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888);
+        final BitmapPool pool = new BitmapPool(first.getAllocationByteCount());
+        pool.put(first);
+        pool.put(second);
+
+        assertEquals(1, pool.evictionCount());
+        assertSame(second, pool.get(32, 32, Bitmap.Config.ARGB_8888));
+    }
+}
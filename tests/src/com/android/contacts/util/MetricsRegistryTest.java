@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link MetricsRegistry}.
+ */
+@SmallTest
+public class MetricsRegistryTest extends AndroidTestCase {
+
+    public void testCounterIsCreatedOnce() {
+        final MetricsRegistry registry = new MetricsRegistry("test");
+        registry.counter("hits").increment();
+        registry.counter("hits").add(2);
+
+        assertEquals(3, registry.counter("hits").get());
+    }
+
+    public void testHistogramPercentiles() {
+        final MetricsRegistry.Histogram histogram = new MetricsRegistry("test").histogram("h");
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getPercentileMillis(50));
+        assertEquals(1, histogram.getPercentileMillis(90));
+        assertEquals(128, histogram.getPercentileMillis(99));
+        assertEquals(100, histogram.getMaxMillis());
+    }
+
+    public void testHistogramOverflow() {
+        final MetricsRegistry.Histogram histogram = new MetricsRegistry("test").histogram("h");
+        histogram.record(TimeUnit.SECONDS.toNanos(60));
+
+        assertEquals(-1, histogram.getPercentileMillis(50));
+    }
+
+    public void testPercent() {
+        final MetricsRegistry registry = new MetricsRegistry("test");
+        final MetricsRegistry.Counter hits = registry.counter("hits");
+        final MetricsRegistry.Counter misses = registry.counter("misses");
+        assertEquals(-1, MetricsRegistry.percent(hits, misses));
+
+        hits.add(3);
+        misses.increment();
+        assertEquals(75, MetricsRegistry.percent(hits, misses));
+    }
+
+    public void testResetKeepsGauges() {
+        final MetricsRegistry registry = new MetricsRegistry("test");
+        registry.counter("hits").increment();
+        registry.histogram("latency").record(1);
+        registry.registerGauge("size", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return 42;
+            }
+        });
+        registry.reset();
+
+        final StringWriter out = new StringWriter();
+        registry.dump(new PrintWriter(out), "");
+        final String dump = out.toString();
+        assertTrue(dump.contains("hits: 0"));
+        assertTrue(dump.contains("size: 42"));
+        assertEquals(0, registry.histogram("latency").getCount());
+    }
+}
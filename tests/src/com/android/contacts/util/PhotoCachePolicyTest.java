@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.ComponentCallbacks2;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+/**
+ * Tests for {@link PhotoCachePolicy}.
+ */
+@SmallTest
+public class PhotoCachePolicyTest extends AndroidTestCase {
+    private static final int MB = 1024 * 1024;
+
+    public void testHolderCacheGrowsWithMemoryClass() {
+        assertEquals(1 * MB, new PhotoCachePolicy(32, false, 96).getHolderCacheSize());
+        assertEquals(4 * MB, new PhotoCachePolicy(256, false, 96).getHolderCacheSize());
+        assertEquals(8 * MB, new PhotoCachePolicy(4096, false, 96).getHolderCacheSize());
+    }
+
+    public void testBitmapCacheScalesWithThumbnailSize() {
+        final PhotoCachePolicy small = new PhotoCachePolicy(128, false, 96);
+        final PhotoCachePolicy large = new PhotoCachePolicy(128, false, 192);
+
+        assertEquals(48 * 96 * 96 * 4, small.getBitmapCacheSize());
+        assertEquals(4 * small.getBitmapCacheSize(), large.getBitmapCacheSize());
+        assertEquals(small.getBitmapCacheSize() / 4, small.getBitmapPoolSize());
+    }
+
+    public void testBitmapCacheIsClamped() {
+        assertEquals(24 * 96 * 96 * 4, new PhotoCachePolicy(16, false, 96).getBitmapCacheSize());
+        assertEquals(96 * 96 * 96 * 4, new PhotoCachePolicy(4096, false, 96).getBitmapCacheSize());
+    }
+
+    public void testBitmapCacheIsCappedByMemoryClass() {
+        // 24 thumbnails of 400x400 would take 15MB of a 32MB heap.
+        assertEquals(32 * MB / 8, new PhotoCachePolicy(32, false, 400).getBitmapCacheSize());
+    }
+
+    public void testLowRamDeviceHalvesCaches() {
+        final PhotoCachePolicy normal = new PhotoCachePolicy(256, false, 96);
+        final PhotoCachePolicy lowRam = new PhotoCachePolicy(256, true, 96);
+
+        assertEquals(normal.getHolderCacheSize() / 2, lowRam.getHolderCacheSize());
+        assertEquals(normal.getBitmapCacheSize() / 2, lowRam.getBitmapCacheSize());
+        assertEquals(normal.getDiskCacheSize() / 2, lowRam.getDiskCacheSize());
+    }
+
+    public void testTrimFractions() {
+        final PhotoCachePolicy policy = new PhotoCachePolicy(256, false, 96);
+
+        assertEquals(0.5f, policy.getHolderCacheTrimFraction(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(0.5f, policy.getBitmapCacheTrimFraction(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+
+        // Hidden: decoded bitmaps go, the bytes stay.
+        assertEquals(1f, policy.getHolderCacheTrimFraction(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(0f, policy.getBitmapCacheTrimFraction(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+
+        assertEquals(0f, policy.getHolderCacheTrimFraction(
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        assertEquals(0f, policy.getBitmapCacheTrimFraction(
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link PhotoDiskCache}.
+ */
+@SmallTest
+public class PhotoDiskCacheTest extends AndroidTestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "PhotoDiskCacheTest");
+        new PhotoDiskCache(mDirectory, Long.MAX_VALUE).clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new PhotoDiskCache(mDirectory, Long.MAX_VALUE).clear();
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testGetReturnsStoredBytes() {
+        final PhotoDiskCache cache = new PhotoDiskCache(mDirectory, Long.MAX_VALUE);
+        cache.put("id:1", 3, bytes(100, 1));
+
+        assertTrue(Arrays.equals(bytes(100, 1), cache.get("id:1", 3)));
+        assertNull(cache.get("id:2", 3));
+    }
+
+    public void testGetWithDifferentVersionInvalidatesEntry() {
+        final PhotoDiskCache cache = new PhotoDiskCache(mDirectory, Long.MAX_VALUE);
+        cache.put("id:1", 3, bytes(100, 1));
+
+        assertNull(cache.get("id:1", 4));
+        assertNull(cache.get("id:1", 3));
+        assertTrue(cache.isEmpty());
+    }
+
+    public void testEntriesSurviveNewInstance() {
+        new PhotoDiskCache(mDirectory, Long.MAX_VALUE).put("content://photo/1", 0, bytes(10, 7));
+
+        final PhotoDiskCache cache = new PhotoDiskCache(mDirectory, Long.MAX_VALUE);
+        assertTrue(Arrays.equals(bytes(10, 7), cache.get("content://photo/1", 0)));
+    }
+
+    public void testEvictsLeastRecentlyUsedEntries() {
+        final PhotoDiskCache cache = new PhotoDiskCache(mDirectory, 2500);
+        cache.put("id:1", 0, bytes(1000, 1));
+        cache.put("id:2", 0, bytes(1000, 2));
+        // Touch the first entry so that the second one becomes the eldest.
+        assertNotNull(cache.get("id:1", 0));
+        cache.put("id:3", 0, bytes(1000, 3));
+
+        assertNotNull(cache.get("id:1", 0));
+        assertNull(cache.get("id:2", 0));
+        assertNotNull(cache.get("id:3", 0));
+        assertTrue(cache.size() <= 2500);
+    }
+
+    private static byte[] bytes(int length, int value) {
+        final byte[] result = new byte[length];
+        Arrays.fill(result, (byte) value);
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ContactMatchIndex}.
+ */
+@SmallTest
+public class ContactMatchIndexTest extends AndroidTestCase {
+    private static final List<String> NONE = Collections.<String>emptyList();
+
+    private ContactMatchIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = new ContactMatchIndex();
+        mIndex.add("Jane Doe", Arrays.asList("+1 650-555-0100"), Arrays.asList("jane@example.com"));
+        mIndex.add("John Roe", NONE, NONE);
+    }
+
+    public void testSameNameAndPhoneMatches() {
+        assertTrue(mIndex.matches("jane  doe", Arrays.asList("(650) 555-0100"), NONE));
+    }
+
+    public void testSameNameAndEmailMatches() {
+        assertTrue(mIndex.matches("Jane Doe", NONE, Arrays.asList("JANE@example.com ")));
+    }
+
+    public void testSameNameWithOtherPhoneDoesNotMatch() {
+        assertFalse(mIndex.matches("Jane Doe", Arrays.asList("650-555-0199"), NONE));
+    }
+
+    public void testSamePhoneWithOtherNameDoesNotMatch() {
+        assertFalse(mIndex.matches("Jane Smith", Arrays.asList("650-555-0100"), NONE));
+    }
+
+    public void testNameOnlyDoesNotMatch() {
+        assertFalse(mIndex.matches("John Roe", NONE, NONE));
+        assertFalse(mIndex.matches("Jane Doe", NONE, NONE));
+    }
+
+    public void testEntryWithoutNameDoesNotMatch() {
+        assertFalse(mIndex.matches(null, Arrays.asList("6505550100"), NONE));
+        assertFalse(mIndex.matches(null, NONE, NONE));
+    }
+
+    public void testSameDigitsInOtherAreaDoNotMatch() {
+        assertFalse(mIndex.matches("Jane Doe", Arrays.asList("415-555-0100"), NONE));
+    }
+
+    public void testAddedEntriesAreMatched() {
+        assertFalse(mIndex.matches("Max Mustermann", NONE, Arrays.asList("max@example.com")));
+        mIndex.add("Max Mustermann", NONE, Arrays.asList("max@example.com"));
+        assertTrue(mIndex.matches("Max Mustermann", NONE, Arrays.asList("max@example.com")));
+    }
+
+    public void testPhoneNumbersMatchWithCountryCode() {
+        mIndex.add("Ann Other", Arrays.asList("+44 20 7946 0958"), NONE);
+        assertTrue(mIndex.matches("Ann Other", Arrays.asList("020 7946 0958"), NONE));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.ContactsContract.RawContacts;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.contacts.model.account.AccountWithDataSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ImportCheckpoint}.
+ */
+@SmallTest
+public class ImportCheckpointTest extends AndroidTestCase {
+
+    private ImportRequest createRequest(Uri uri) {
+        return new ImportRequest(new AccountWithDataSet("user@example.com", "com.example", null),
+                null, uri, "contacts.vcf", 1, "UTF-8",
+                ImportVCardActivity.VCARD_VERSION_V30, 1200);
+    }
+
+    private Uri getCacheUri(String fileName) {
+        return Uri.fromFile(getContext().getFileStreamPath(fileName));
+    }
+
+    public void testJsonRoundTrip() throws Exception {
+        final ImportCheckpoint checkpoint = new ImportCheckpoint(
+                createRequest(getCacheUri(VCardService.CACHE_FILE_PREFIX + "0.vcf")));
+        final List<Uri> created = Arrays.asList(
+                ContentUris.withAppendedId(RawContacts.CONTENT_URI, 10),
+                ContentUris.withAppendedId(RawContacts.CONTENT_URI, 11));
+        checkpoint.update(500, 42, created);
+
+        final ImportCheckpoint restored = ImportCheckpoint.fromJson(checkpoint.toJson());
+        final ImportRequest request = restored.getRequest();
+        assertEquals(checkpoint.getRequest().uri, request.uri);
+        assertEquals("contacts.vcf", request.displayName);
+        assertEquals("user@example.com", request.account.name);
+        assertEquals("com.example", request.account.type);
+        assertEquals("UTF-8", request.estimatedCharset);
+        assertEquals(ImportVCardActivity.VCARD_VERSION_V30, request.vcardVersion);
+        assertEquals(1200, request.entryCount);
+        assertEquals(500, restored.getCommittedEntryCount());
+        assertEquals(42, restored.getDuplicateCount());
+    }
+
+    public void testCreatedUrisAreAppended() throws Exception {
+        final String vcard = VCardService.CACHE_FILE_PREFIX + "checkpoint_test_2.vcf";
+        getContext().openFileOutput(vcard, 0).close();
+        try {
+            final ImportCheckpoint checkpoint =
+                    new ImportCheckpoint(createRequest(getCacheUri(vcard)));
+            final List<Uri> created = new ArrayList<Uri>();
+            created.add(ContentUris.withAppendedId(RawContacts.CONTENT_URI, 10));
+            checkpoint.update(500, 0, created);
+            checkpoint.save(getContext());
+            created.add(ContentUris.withAppendedId(RawContacts.CONTENT_URI, 11));
+            created.add(ContentUris.withAppendedId(RawContacts.CONTENT_URI, 12));
+            checkpoint.update(1000, 0, created);
+            checkpoint.save(getContext());
+
+            final List<ImportCheckpoint> loaded = ImportCheckpoint.loadAll(getContext());
+            assertEquals(1, loaded.size());
+            assertEquals(1000, loaded.get(0).getCommittedEntryCount());
+            assertEquals(created, loaded.get(0).getCreatedUris());
+        } finally {
+            ImportCheckpoint.deleteAll(getContext());
+            getContext().deleteFile(vcard);
+        }
+    }
+
+    public void testOnlyLocalCopiesAreResumable() {
+        assertTrue(ImportCheckpoint.isResumable(getContext(),
+                createRequest(getCacheUri(VCardService.CACHE_FILE_PREFIX + "0.vcf"))));
+        assertFalse(ImportCheckpoint.isResumable(getContext(),
+                createRequest(Uri.parse("content://com.example/contacts.vcf"))));
+        assertFalse(ImportCheckpoint.isResumable(getContext(),
+                createRequest(getCacheUri("other.vcf"))));
+    }
+
+    public void testLoadSkipsCheckpointsWithoutVCard() throws Exception {
+        final String present = VCardService.CACHE_FILE_PREFIX + "checkpoint_test_0.vcf";
+        final String missing = VCardService.CACHE_FILE_PREFIX + "checkpoint_test_1.vcf";
+        getContext().openFileOutput(present, 0).close();
+        getContext().deleteFile(missing);
+        try {
+            final ImportCheckpoint presentCheckpoint =
+                    new ImportCheckpoint(createRequest(getCacheUri(present)));
+            presentCheckpoint.update(1000, 0, Arrays.<Uri>asList());
+            presentCheckpoint.save(getContext());
+            new ImportCheckpoint(createRequest(getCacheUri(missing))).save(getContext());
+
+            final List<ImportCheckpoint> loaded = ImportCheckpoint.loadAll(getContext());
+            assertEquals(1, loaded.size());
+            assertEquals(getCacheUri(present), loaded.get(0).getRequest().uri);
+            assertEquals(1000, loaded.get(0).getCommittedEntryCount());
+        } finally {
+            ImportCheckpoint.deleteAll(getContext());
+            getContext().deleteFile(present);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard;
+
+import android.provider.ContactsContract.DeletedContacts;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.vcard.VCardConfig;
+
+/**
+ * Unit tests for {@link IncrementalExport}.
+ */
+@SmallTest
+public class IncrementalExportTest extends AndroidTestCase {
+    private static final long NOW = 1500000000000L;
+
+    public void testRecentWatermarkSelectsChangedContacts() {
+        final IncrementalExport delta = new IncrementalExport(NOW - 1000, NOW);
+
+        assertFalse(delta.isFullExport());
+        assertNotNull(delta.getSelection());
+        assertEquals(String.valueOf(NOW - 1000), delta.getSelectionArgs()[0]);
+    }
+
+    public void testMissingWatermarkExportsEverything() {
+        final IncrementalExport delta = new IncrementalExport(0, NOW);
+
+        assertTrue(delta.isFullExport());
+        assertNull(delta.getSelection());
+        assertNull(delta.getSelectionArgs());
+    }
+
+    public void testWatermarkOlderThanDeletedContactsIsNotUsable() {
+        assertTrue(IncrementalExport.isWatermarkUsable(
+                NOW - DeletedContacts.DAYS_KEPT_MILLISECONDS + 1, NOW));
+        assertFalse(IncrementalExport.isWatermarkUsable(
+                NOW - DeletedContacts.DAYS_KEPT_MILLISECONDS, NOW));
+    }
+
+    public void testWatermarkInTheFutureIsNotUsable() {
+        // E.g. the clock was set back.
+        assertFalse(IncrementalExport.isWatermarkUsable(NOW + 1, NOW));
+    }
+
+    public void testTombstone() {
+        assertEquals("BEGIN:VCARD\r\n"
+                + "VERSION:3.0\r\n"
+                + "X-ANDROID-DELETED-CONTACT-ID:42\r\n"
+                + "X-ANDROID-DELETED-TIMESTAMP:1234\r\n"
+                + "END:VCARD\r\n",
+                IncrementalExport.buildTombstone(42, 1234, VCardConfig.VCARD_TYPE_V30_GENERIC));
+        assertTrue(IncrementalExport.buildTombstone(42, 1234, VCardConfig.VCARD_TYPE_V21_GENERIC)
+                .contains("VERSION:2.1\r\n"));
+    }
+}
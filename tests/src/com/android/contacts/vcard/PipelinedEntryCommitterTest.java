@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.contacts.database.AdaptiveBatchSizer;
+import com.android.vcard.VCardConfig;
+import com.android.vcard.VCardEntryConstructor;
+import com.android.vcard.VCardParser_V21;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link PipelinedEntryCommitter}, against a provider that records the batches.
+ */
+@SmallTest
+public class PipelinedEntryCommitterTest extends AndroidTestCase {
+    private BatchRecordingProvider mProvider;
+    private MockContentResolver mResolver;
+    private int mLastCommittedEntryCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new BatchRecordingProvider();
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(ContactsContract.AUTHORITY, mProvider);
+        mLastCommittedEntryCount = 0;
+    }
+
+    public void testResumeSkipsCommittedEntries() throws Exception {
+        final PipelinedEntryCommitter committer = createCommitter();
+        final List<Uri> committedBefore = Arrays.asList(
+                ContentUris.withAppendedId(RawContacts.CONTENT_URI, 1000),
+                ContentUris.withAppendedId(RawContacts.CONTENT_URI, 1001));
+        committer.resume(2, committedBefore);
+
+        assertTrue(importVCard(committer, createVCard(5, 1)));
+
+        assertEquals(3, mProvider.getRawContactInsertCount());
+        assertEquals(5, committer.getCreatedUris().size());
+        assertEquals(committedBefore, committer.getCreatedUris().subList(0, 2));
+        assertEquals(5, mLastCommittedEntryCount);
+    }
+
+    public void testEntryThatDoesNotFitStartsNextBatch() throws Exception {
+        final PipelinedEntryCommitter committer = createCommitter();
+        // A small entry, then one that fits in a batch by itself but not after the first one.
+        final String vcard = createVCard(1, 50)
+                + createVCard(1, AdaptiveBatchSizer.MAX_BATCH_OPERATIONS - 40);
+
+        assertTrue(importVCard(committer, vcard));
+
+        assertEquals(2, mProvider.mBatches.size());
+        for (ArrayList<ContentProviderOperation> batch : mProvider.mBatches) {
+            assertTrue(batch.size() <= AdaptiveBatchSizer.MAX_BATCH_OPERATIONS);
+            // The operations of an entry refer back to its raw contact, which must be in the
+            // same batch.
+            assertTrue(isRawContactInsert(batch.get(0)));
+        }
+        assertEquals(2, committer.getCreatedUris().size());
+        assertEquals(2, mLastCommittedEntryCount);
+    }
+
+    public void testFailedBatchIsReported() throws Exception {
+        mProvider.mFailure = new OperationApplicationException("Failed for the test");
+        final PipelinedEntryCommitter committer = createCommitter();
+
+        assertFalse(importVCard(committer, createVCard(5, 1)));
+
+        assertTrue(committer.getCreatedUris().isEmpty());
+        // The failed entries are not tried again when resuming.
+        assertEquals(5, mLastCommittedEntryCount);
+    }
+
+    public void testErrorDoesNotStopCommitting() throws Exception {
+        mProvider.mFailure = new OutOfMemoryError("Failed for the test");
+        final PipelinedEntryCommitter committer = createCommitter();
+        // The first entry fills a batch by itself, so that the others are committed after it.
+        final String vcard = createVCard(1, AdaptiveBatchSizer.MAX_BATCH_OPERATIONS - 10)
+                + createVCard(3, 1);
+
+        assertFalse(importVCard(committer, vcard));
+
+        assertEquals(3, committer.getCreatedUris().size());
+        assertEquals(4, mLastCommittedEntryCount);
+    }
+
+    private PipelinedEntryCommitter createCommitter() {
+        final PipelinedEntryCommitter committer =
+                new PipelinedEntryCommitter(mResolver, "PipelinedEntryCommitterTest");
+        committer.setCommitListener(new PipelinedEntryCommitter.CommitListener() {
+            @Override
+            public void onEntriesCommitted(int committedEntryCount, List<Uri> createdUris) {
+                mLastCommittedEntryCount = committedEntryCount;
+            }
+        });
+        return committer;
+    }
+
+    /** Parses the vCard into the committer, the way ImportProcessor does. */
+    private static boolean importVCard(PipelinedEntryCommitter committer, String vcard)
+            throws Exception {
+        final int vcardType = VCardConfig.VCARD_TYPE_V21_GENERIC;
+        final VCardEntryConstructor constructor =
+                new VCardEntryConstructor(vcardType, null, "UTF-8");
+        constructor.addEntryHandler(committer);
+        final boolean committed;
+        try {
+            new VCardParser_V21(vcardType).parse(
+                    new ByteArrayInputStream(vcard.getBytes(StandardCharsets.UTF_8)),
+                    constructor);
+        } finally {
+            committed = committer.finish();
+        }
+        return committed;
+    }
+
+    /** Returns entryCount vCards with a name and phoneCount phone numbers each. */
+    private static String createVCard(int entryCount, int phoneCount) {
+        final StringBuilder vcard = new StringBuilder();
+        for (int i = 0; i < entryCount; i++) {
+            vcard.append("BEGIN:VCARD\r\nVERSION:2.1\r\n");
+            vcard.append("N:Contact").append(i).append(";Test;;;\r\n");
+            for (int j = 0; j < phoneCount; j++) {
+                vcard.append("TEL;CELL:").append(5550000 + j).append("\r\n");
+            }
+            vcard.append("END:VCARD\r\n");
+        }
+        return vcard.toString();
+    }
+
+    private static boolean isRawContactInsert(ContentProviderOperation operation) {
+        return operation.isInsert() && RawContacts.CONTENT_URI.equals(operation.getUri());
+    }
+
+    /** Records the batches it is given, and fails the first one if asked to. */
+    private static class BatchRecordingProvider extends MockContentProvider {
+        // Only accessed from the committer thread until it has finished.
+        private final ArrayList<ArrayList<ContentProviderOperation>> mBatches =
+                new ArrayList<ArrayList<ContentProviderOperation>>();
+        private Throwable mFailure;
+        private long mNextRawContactId = 1;
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            mBatches.add(new ArrayList<ContentProviderOperation>(operations));
+            if (mFailure != null) {
+                final Throwable failure = mFailure;
+                mFailure = null;
+                if (failure instanceof OperationApplicationException) {
+                    throw (OperationApplicationException) failure;
+                }
+                throw (Error) failure;
+            }
+            final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = isRawContactInsert(operations.get(i))
+                        ? new ContentProviderResult(ContentUris.withAppendedId(
+                                RawContacts.CONTENT_URI, mNextRawContactId++))
+                        : new ContentProviderResult(1);
+            }
+            return results;
+        }
+
+        public int getRawContactInsertCount() {
+            int count = 0;
+            for (ArrayList<ContentProviderOperation> batch : mBatches) {
+                for (ContentProviderOperation operation : batch) {
+                    if (isRawContactInsert(operation)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.List;
+
+/**
+ * Unit tests for the sharding of {@link ShardedVCardExporter}.
+ */
+@SmallTest
+public class ShardedVCardExporterTest extends AndroidTestCase {
+
+    public void testNoContactsMeansNoShards() {
+        assertTrue(ShardedVCardExporter.splitIntoShards(new long[0], 3).isEmpty());
+    }
+
+    public void testShardsCoverIdsInOrder() {
+        final List<long[]> shards = ShardedVCardExporter.splitIntoShards(
+                new long[] { 1, 2, 5, 9, 10, 11, 40 }, 3);
+
+        assertEquals(3, shards.size());
+        assertRange(1, 5, shards.get(0));
+        assertRange(9, 11, shards.get(1));
+        assertRange(40, 40, shards.get(2));
+    }
+
+    public void testExactMultipleOfShardSize() {
+        final List<long[]> shards = ShardedVCardExporter.splitIntoShards(
+                new long[] { 3, 4, 7, 8 }, 2);
+
+        assertEquals(2, shards.size());
+        assertRange(3, 4, shards.get(0));
+        assertRange(7, 8, shards.get(1));
+    }
+
+    private static void assertRange(long first, long last, long[] range) {
+        assertEquals(first, range[0]);
+        assertEquals(last, range[1]);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link VCardJobScheduler}.
+ */
+@SmallTest
+public class VCardJobSchedulerTest extends AndroidTestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private static final int LANE_IMPORT = VCardService.TYPE_IMPORT;
+    private static final int LANE_EXPORT = VCardService.TYPE_EXPORT;
+
+    private final List<String> mStarted = Collections.synchronizedList(new ArrayList<String>());
+
+    /** A job that blocks until it is released. */
+    private class BlockingJob implements Runnable {
+        final String name;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        BlockingJob(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            mStarted.add(name);
+            started.countDown();
+            try {
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue(name + " didn't start", started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        void finish() throws InterruptedException {
+            release.countDown();
+            assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testExportDoesNotWaitForImport() throws Exception {
+        final VCardJobScheduler scheduler = new VCardJobScheduler(3);
+        final BlockingJob importJob = new BlockingJob("import");
+        final BlockingJob exportJob = new BlockingJob("export");
+
+        scheduler.execute(importJob, LANE_IMPORT, false);
+        scheduler.execute(exportJob, LANE_EXPORT, false);
+
+        importJob.awaitStarted();
+        exportJob.awaitStarted();
+        importJob.finish();
+        exportJob.finish();
+        scheduler.shutdown();
+    }
+
+    public void testBulkJobsOfALaneRunInOrder() throws Exception {
+        final VCardJobScheduler scheduler = new VCardJobScheduler(3);
+        final BlockingJob first = new BlockingJob("first");
+        final BlockingJob second = new BlockingJob("second");
+
+        scheduler.execute(first, LANE_IMPORT, false);
+        scheduler.execute(second, LANE_IMPORT, false);
+        first.awaitStarted();
+        assertEquals(1, scheduler.getPendingJobCount());
+
+        first.finish();
+        second.awaitStarted();
+        second.finish();
+        assertEquals("first", mStarted.get(0));
+        scheduler.shutdown();
+    }
+
+    public void testInteractiveJobRunsNextToBulkJob() throws Exception {
+        final VCardJobScheduler scheduler = new VCardJobScheduler(3);
+        final BlockingJob bulk = new BlockingJob("bulk");
+        final BlockingJob share = new BlockingJob("share");
+
+        scheduler.execute(bulk, LANE_EXPORT, false);
+        bulk.awaitStarted();
+        scheduler.execute(share, LANE_EXPORT, true);
+
+        share.awaitStarted();
+        share.finish();
+        bulk.finish();
+        scheduler.shutdown();
+    }
+
+    public void testInteractiveJobGoesBeforePendingBulkJobs() throws Exception {
+        final VCardJobScheduler scheduler = new VCardJobScheduler(1);
+        final BlockingJob running = new BlockingJob("running");
+        final BlockingJob bulk = new BlockingJob("bulk");
+        final BlockingJob share = new BlockingJob("share");
+
+        scheduler.execute(running, LANE_IMPORT, false);
+        running.awaitStarted();
+        scheduler.execute(bulk, LANE_EXPORT, false);
+        scheduler.execute(share, LANE_EXPORT, true);
+        assertEquals(2, scheduler.getPendingJobCount());
+
+        running.finish();
+        share.awaitStarted();
+        share.finish();
+        bulk.awaitStarted();
+        bulk.finish();
+        assertEquals("share", mStarted.get(1));
+        scheduler.shutdown();
+    }
+
+    public void testConcurrencyIsCapped() throws Exception {
+        final VCardJobScheduler scheduler = new VCardJobScheduler(2);
+        final BlockingJob importJob = new BlockingJob("import");
+        final BlockingJob exportJob = new BlockingJob("export");
+        final BlockingJob share = new BlockingJob("share");
+
+        scheduler.execute(importJob, LANE_IMPORT, false);
+        scheduler.execute(exportJob, LANE_EXPORT, false);
+        scheduler.execute(share, LANE_EXPORT, true);
+        importJob.awaitStarted();
+        exportJob.awaitStarted();
+        assertEquals(2, scheduler.getRunningJobCount());
+        assertEquals(1, scheduler.getPendingJobCount());
+
+        importJob.finish();
+        share.awaitStarted();
+        share.finish();
+        exportJob.finish();
+        scheduler.shutdown();
+    }
+
+    public void testRemovePendingJob() throws Exception {
+        final VCardJobScheduler scheduler = new VCardJobScheduler(3);
+        final BlockingJob first = new BlockingJob("first");
+        final BlockingJob second = new BlockingJob("second");
+
+        scheduler.execute(first, LANE_IMPORT, false);
+        first.awaitStarted();
+        scheduler.execute(second, LANE_IMPORT, false);
+
+        assertFalse(scheduler.remove(first));
+        assertTrue(scheduler.remove(second));
+        assertEquals(0, scheduler.getPendingJobCount());
+        first.finish();
+        scheduler.shutdown();
+    }
+
+    public void testExecuteAfterShutdownIsRejected() {
+        final VCardJobScheduler scheduler = new VCardJobScheduler(3);
+        scheduler.shutdown();
+        try {
+            scheduler.execute(new BlockingJob("late"), LANE_IMPORT, false);
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+}
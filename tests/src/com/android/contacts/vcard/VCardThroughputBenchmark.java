@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.RawContacts;
+import android.test.InstrumentationTestCase;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+
+import com.android.contacts.model.account.AccountWithDataSet;
+import com.android.contacts.tests.AccountsTestHelper;
+import com.android.contacts.vcard.benchmark.BenchmarkReport;
+import com.android.contacts.vcard.benchmark.SyntheticVCardGenerator;
+import com.android.vcard.VCardConfig;
+import com.android.vcard.VCardEntryConstructor;
+import com.android.vcard.VCardParser;
+import com.android.vcard.VCardParser_V21;
+import com.android.vcard.VCardParser_V30;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Measures the throughput of vCard import and export against the contacts provider, using
+ * synthetic vCards.
+ *
+ * <p>The contacts are imported into a test account, which is removed afterwards. The number of
+ * entries can be changed with the {@code vcardBenchmarkEntries} instrumentation argument. The
+ * results are logged, written as JSON to {@code vcard_benchmark.json} in the external files
+ * directory of Contacts, and reported in the instrumentation status under
+ * {@code vcardBenchmark}.</p>
+ */
+@LargeTest
+public class VCardThroughputBenchmark extends InstrumentationTestCase {
+    private static final String ARG_ENTRY_COUNT = "vcardBenchmarkEntries";
+    private static final String RESULT_FILE_NAME = "vcard_benchmark.json";
+    private static final String STATUS_KEY = "vcardBenchmark";
+
+    private static final int DEFAULT_ENTRY_COUNT = 1000;
+
+    /** Shared by the test methods, so that the file holds the results of the whole run. */
+    private static BenchmarkReport sReport;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private AccountsTestHelper mAccountsHelper;
+    private AccountWithDataSet mAccount;
+    private int mEntryCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mAccountsHelper = new AccountsTestHelper();
+        mAccount = mAccountsHelper.addTestAccount(
+                mAccountsHelper.generateAccountName("vcardBenchmark"));
+        final String entryCount = InstrumentationRegistry.getArguments().getString(
+                ARG_ENTRY_COUNT);
+        mEntryCount = entryCount != null ? Integer.parseInt(entryCount) : DEFAULT_ENTRY_COUNT;
+        if (sReport == null) {
+            sReport = new BenchmarkReport("vcard");
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mAccountsHelper.removeContactsForAccount(mAccount);
+        mAccountsHelper.cleanup();
+        final File dir = mContext.getExternalFilesDir(null);
+        if (dir != null) {
+            sReport.writeTo(new File(dir, RESULT_FILE_NAME));
+        }
+        final Bundle status = new Bundle();
+        status.putString(STATUS_KEY, sReport.toJson());
+        getInstrumentation().sendStatus(0, status);
+        super.tearDown();
+    }
+
+    public void testImportV30Utf8() throws Exception {
+        runImport(new SyntheticVCardGenerator()
+                .setEntryCount(mEntryCount)
+                .setVersion(SyntheticVCardGenerator.VERSION_30));
+    }
+
+    public void testImportV21Utf8() throws Exception {
+        runImport(new SyntheticVCardGenerator()
+                .setEntryCount(mEntryCount)
+                .setVersion(SyntheticVCardGenerator.VERSION_21));
+    }
+
+    public void testImportV21ShiftJis() throws Exception {
+        runImport(new SyntheticVCardGenerator()
+                .setEntryCount(mEntryCount)
+                .setVersion(SyntheticVCardGenerator.VERSION_21)
+                .setCharset(Charset.forName("Shift_JIS")));
+    }
+
+    public void testImportManyFields() throws Exception {
+        runImport(new SyntheticVCardGenerator()
+                .setEntryCount(mEntryCount)
+                .setFieldMix(4, 3, 2, true, true));
+    }
+
+    public void testImportWithPhotos() throws Exception {
+        runImport(new SyntheticVCardGenerator()
+                .setEntryCount(mEntryCount)
+                .setPhotos(4, 96));
+    }
+
+    public void testExport() throws Exception {
+        final SyntheticVCardGenerator generator = new SyntheticVCardGenerator()
+                .setEntryCount(mEntryCount);
+        importVCard(generator, generator.generate(), new BatchCounter());
+
+        final ShardedVCardExporter exporter = new ShardedVCardExporter(mContext,
+                VCardConfig.VCARD_TYPE_V30_GENERIC, getAccountContactsSelection(), null);
+        final BenchmarkReport.Measurement measurement = new BenchmarkReport.Measurement();
+        final int count = exporter.prepare(mResolver);
+        final CountingOutputStream out = new CountingOutputStream();
+        final boolean exported = exporter.export(out, new ShardedVCardExporter.Callback() {
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public void onProgress(int exportedCount) {
+            }
+        });
+        measurement.stop();
+
+        assertTrue(exported);
+        assertTrue(out.getCount() > 0);
+        // Exporting only queries the provider, it doesn't apply any batch.
+        sReport.addRun("export", generator.describe(), count, measurement, 0);
+    }
+
+    private void runImport(SyntheticVCardGenerator generator) throws Exception {
+        // Only the import is measured, not generating its input.
+        final byte[] vcard = generator.generate();
+        final BatchCounter batchCounter = new BatchCounter();
+        final BenchmarkReport.Measurement measurement = new BenchmarkReport.Measurement();
+        final PipelinedEntryCommitter committer = importVCard(generator, vcard, batchCounter);
+        measurement.stop();
+
+        assertEquals(generator.getEntryCount(), committer.getCreatedUris().size());
+        sReport.addRun("import", generator.describe(), generator.getEntryCount(),
+                measurement, batchCounter.getBatchCount());
+    }
+
+    /** Imports the vCard of the generator into the test account, the way ImportProcessor does. */
+    private PipelinedEntryCommitter importVCard(SyntheticVCardGenerator generator, byte[] vcard,
+            BatchCounter batchCounter) throws Exception {
+        final boolean v30 = SyntheticVCardGenerator.VERSION_30.equals(generator.getVersion());
+        final int vcardType = v30
+                ? VCardConfig.VCARD_TYPE_V30_GENERIC : VCardConfig.VCARD_TYPE_V21_GENERIC;
+        final VCardEntryConstructor constructor = new VCardEntryConstructor(vcardType,
+                mAccount.getAccountOrNull(), generator.getCharset().name());
+        final PipelinedEntryCommitter committer =
+                new PipelinedEntryCommitter(mResolver, "VCardBenchmarkCommitter");
+        committer.setCommitListener(batchCounter);
+        constructor.addEntryHandler(committer);
+        final VCardParser parser = v30
+                ? new VCardParser_V30(vcardType) : new VCardParser_V21(vcardType);
+        try {
+            parser.parse(new ByteArrayInputStream(vcard), constructor);
+        } finally {
+            assertTrue(committer.finish());
+        }
+        return committer;
+    }
+
+    /** Selects the contacts of the raw contacts of the test account. */
+    private String getAccountContactsSelection() {
+        final TreeSet<Long> contactIds = new TreeSet<Long>();
+        final Cursor cursor = mResolver.query(RawContacts.CONTENT_URI,
+                new String[] { RawContacts.CONTACT_ID },
+                RawContacts.ACCOUNT_NAME + "=? AND " + RawContacts.ACCOUNT_TYPE + "=?",
+                new String[] { mAccount.name, mAccount.type }, null);
+        try {
+            while (cursor.moveToNext()) {
+                contactIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        final StringBuilder selection = new StringBuilder(Contacts._ID).append(" IN (");
+        boolean first = true;
+        for (Long id : contactIds) {
+            if (!first) {
+                selection.append(',');
+            }
+            selection.append(id);
+            first = false;
+        }
+        return selection.append(')').toString();
+    }
+
+    /** Counts the batches applied by the committer, which reports each of them. */
+    private static class BatchCounter implements PipelinedEntryCommitter.CommitListener {
+        // Written by the committer thread, read once it has finished.
+        private int mBatchCount;
+
+        @Override
+        public void onEntriesCommitted(int committedEntryCount, List<Uri> createdUris) {
+            mBatchCount++;
+        }
+
+        public int getBatchCount() {
+            return mBatchCount;
+        }
+    }
+
+    /** Drops the exported vCard, so that only composing it is measured. */
+    private static class CountingOutputStream extends OutputStream {
+        private long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+    }
+}
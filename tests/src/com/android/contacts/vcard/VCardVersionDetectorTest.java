@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.vcard;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link VCardVersionDetector} and {@link TeeInputStream}.
+ */
+@SmallTest
+public class VCardVersionDetectorTest extends AndroidTestCase {
+
+    public void testDetectsVersionFromHeader() {
+        assertEquals(ImportVCardActivity.VCARD_VERSION_V21, VCardVersionDetector.detectVersion(
+                "BEGIN:VCARD\r\nVERSION:2.1\r\nN:Doe;John\r\nEND:VCARD\r\n"));
+        assertEquals(ImportVCardActivity.VCARD_VERSION_V30, VCardVersionDetector.detectVersion(
+                "begin:vcard\nN:Doe;John\nversion: 3.0\nend:vcard\n"));
+    }
+
+    public void testUnknownVersion() {
+        assertEquals(ImportVCardActivity.VCARD_VERSION_AUTO_DETECT,
+                VCardVersionDetector.detectVersion(
+                        "BEGIN:VCARD\r\nVERSION:4.0\r\nEND:VCARD\r\n"));
+        // The version of the second entry doesn't count.
+        assertEquals(ImportVCardActivity.VCARD_VERSION_AUTO_DETECT,
+                VCardVersionDetector.detectVersion("BEGIN:VCARD\r\nN:Doe\r\nEND:VCARD\r\n"
+                        + "BEGIN:VCARD\r\nVERSION:3.0\r\nEND:VCARD\r\n"));
+        assertEquals(ImportVCardActivity.VCARD_VERSION_AUTO_DETECT,
+                VCardVersionDetector.detectVersion("not a vcard"));
+    }
+
+    public void testDetectionDoesNotConsumeStream() throws IOException {
+        final byte[] vcard = "BEGIN:VCARD\r\nVERSION:3.0\r\nEND:VCARD\r\n".getBytes("UTF-8");
+        final InputStream is = new BufferedInputStream(new ByteArrayInputStream(vcard));
+
+        assertEquals(ImportVCardActivity.VCARD_VERSION_V30,
+                VCardVersionDetector.detectVersion(is));
+        assertEquals('B', is.read());
+    }
+
+    public void testTeeCopiesEverythingRead() throws IOException {
+        final byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        final TeeInputStream tee = new TeeInputStream(new ByteArrayInputStream(data), copy);
+        tee.read();
+        tee.read(new byte[100], 0, 100);
+        tee.skip(1000);
+        tee.drain();
+        tee.close();
+
+        assertTrue(Arrays.equals(data, copy.toByteArray()));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard.benchmark;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collects the results of benchmark runs and writes them as JSON, so that they can be compared
+ * by scripts.
+ */
+public class BenchmarkReport {
+    private static final String TAG = "VCardBenchmark";
+
+    private final JSONObject mReport = new JSONObject();
+    private final JSONArray mRuns = new JSONArray();
+
+    public BenchmarkReport(String name) {
+        try {
+            mReport.put("benchmark", name);
+            mReport.put("device", Build.MODEL);
+            mReport.put("sdk", Build.VERSION.SDK_INT);
+            mReport.put("build", Build.FINGERPRINT);
+            mReport.put("cores", Runtime.getRuntime().availableProcessors());
+            mReport.put("runs", mRuns);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Measures the time and peak Java heap of a run.
+     */
+    public static class Measurement {
+        private static final long SAMPLE_INTERVAL_MILLIS = 10;
+
+        private final Thread mSampler;
+        private final long mStartMillis;
+        private volatile boolean mStopped;
+        private volatile long mPeakHeapBytes;
+        private long mElapsedMillis;
+
+        public Measurement() {
+            // Start from a clean heap, so that the garbage of previous runs isn't counted.
+            Runtime.getRuntime().gc();
+            mPeakHeapBytes = usedHeapBytes();
+            mSampler = new Thread("VCardBenchmarkHeapSampler") {
+                @Override
+                public void run() {
+                    while (!mStopped) {
+                        mPeakHeapBytes = Math.max(mPeakHeapBytes, usedHeapBytes());
+                        SystemClock.sleep(SAMPLE_INTERVAL_MILLIS);
+                    }
+                }
+            };
+            mSampler.start();
+            mStartMillis = SystemClock.elapsedRealtime();
+        }
+
+        public void stop() {
+            mElapsedMillis = SystemClock.elapsedRealtime() - mStartMillis;
+            mStopped = true;
+            try {
+                mSampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mPeakHeapBytes = Math.max(mPeakHeapBytes, usedHeapBytes());
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        public long getPeakHeapBytes() {
+            return mPeakHeapBytes;
+        }
+
+        private static long usedHeapBytes() {
+            final Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+
+    /**
+     * Adds the result of a run.
+     *
+     * @param batchCount number of provider batches or queries made by the run.
+     */
+    public void addRun(String operation, String configuration, int entryCount,
+            Measurement measurement, int batchCount) {
+        final long millis = Math.max(1, measurement.getElapsedMillis());
+        try {
+            final JSONObject run = new JSONObject();
+            run.put("operation", operation);
+            run.put("configuration", configuration);
+            run.put("entries", entryCount);
+            run.put("millis", measurement.getElapsedMillis());
+            run.put("entriesPerSecond", entryCount * 1000.0 / millis);
+            run.put("peakHeapBytes", measurement.getPeakHeapBytes());
+            run.put("providerBatches", batchCount);
+            mRuns.put(run);
+            Log.i(TAG, run.toString());
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String toJson() {
+        try {
+            return mReport.toString(2);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Writes the report to the given file, replacing it. */
+    public void writeTo(File file) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toJson().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        Log.i(TAG, "Wrote the benchmark results to " + file);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.vcard.benchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates vCards of made up contacts. The same configuration and seed always give the same
+ * bytes, so that benchmark results can be compared over time.
+ */
+public class SyntheticVCardGenerator {
+    public static final String VERSION_21 = "2.1";
+    public static final String VERSION_30 = "3.0";
+
+    private static final String END_OF_LINE = "\r\n";
+    private static final int MAX_LINE_LENGTH = 75;
+
+    private static final String[] GIVEN_NAMES = {
+            "Ada", "Bruno", "Chiara", "Dmitri", "Élodie", "Farid", "Grace", "Hiroshi", "Ingrid",
+            "José", "Kwame", "Lena", "Mateo", "Nadia", "Oskar", "Priya", "Quentin", "Rosa",
+            "Søren", "Tomás", "Uma", "Viktor", "Wen", "Ximena", "Yusuf", "Zoë",
+    };
+    private static final String[] FAMILY_NAMES = {
+            "Abara", "Bianchi", "Costa", "Dubois", "Eriksen", "Fischer", "García", "Haddad",
+            "Ivanova", "Jensen", "Kowalski", "Lindqvist", "Müller", "Nakamura", "O'Brien",
+            "Petrov", "Quispe", "Rossi", "Schmidt", "Tanaka", "Umarov", "Virtanen", "Wójcik",
+    };
+    private static final String[] JAPANESE_GIVEN_NAMES = {
+            "太郎", "花子", "健", "さくら", "翔太", "美咲",
+    };
+    private static final String[] JAPANESE_FAMILY_NAMES = {
+            "佐藤", "鈴木", "高橋", "田中", "伊藤", "渡辺",
+    };
+    private static final String[] COMPANIES = {
+            "Acme", "Globex", "Initech", "Umbrella", "Hooli", "Vandelay Industries",
+    };
+    private static final String[] STREETS = {
+            "Main St", "Church Rd", "Station Ave", "Mill Ln", "Park Blvd",
+    };
+    private static final String[] CITIES = {
+            "Springfield", "Riverton", "Lakeside", "Fairview", "Georgetown",
+    };
+
+    private int mEntryCount = 1000;
+    private long mSeed = 1;
+    private String mVersion = VERSION_30;
+    private Charset mCharset = Charset.forName("UTF-8");
+    private int mPhonesPerEntry = 2;
+    private int mEmailsPerEntry = 1;
+    private int mAddressesPerEntry = 1;
+    private boolean mWithOrganization = true;
+    private boolean mWithNote = false;
+    /** One in this many entries has a photo; 0 for none. */
+    private int mPhotoInterval = 0;
+    private int mPhotoSize = 96;
+
+    public SyntheticVCardGenerator setEntryCount(int entryCount) {
+        mEntryCount = entryCount;
+        return this;
+    }
+
+    public SyntheticVCardGenerator setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    /** {@link #VERSION_21} or {@link #VERSION_30}. */
+    public SyntheticVCardGenerator setVersion(String version) {
+        mVersion = version;
+        return this;
+    }
+
+    /** UTF-8, or Shift_JIS for Japanese names. */
+    public SyntheticVCardGenerator setCharset(Charset charset) {
+        mCharset = charset;
+        return this;
+    }
+
+    /**
+     * Sets the number of each kind of data of an entry. Entries get between 0 and twice this
+     * many, so the averages are the given numbers.
+     */
+    public SyntheticVCardGenerator setFieldMix(int phones, int emails, int addresses,
+            boolean organization, boolean note) {
+        mPhonesPerEntry = phones;
+        mEmailsPerEntry = emails;
+        mAddressesPerEntry = addresses;
+        mWithOrganization = organization;
+        mWithNote = note;
+        return this;
+    }
+
+    /**
+     * @param interval one in this many entries gets a photo; 0 for no photos.
+     * @param size width and height of the photos in pixels.
+     */
+    public SyntheticVCardGenerator setPhotos(int interval, int size) {
+        mPhotoInterval = interval;
+        mPhotoSize = size;
+        return this;
+    }
+
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    public String getVersion() {
+        return mVersion;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    public byte[] generate() {
+        final Random random = new Random(mSeed);
+        final boolean japanese = !mCharset.name().toUpperCase(Locale.ROOT).startsWith("UTF");
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mEntryCount; i++) {
+            appendEntry(builder, random, i, japanese);
+        }
+        return builder.toString().getBytes(mCharset);
+    }
+
+    /** Describes the configuration, for the benchmark results. */
+    public String describe() {
+        return String.format(Locale.US, "v%s %s, %d entries, seed %d, phones %d, emails %d, "
+                + "addresses %d, organization %b, note %b, photo every %d (%dpx)",
+                mVersion, mCharset.name(), mEntryCount, mSeed, mPhonesPerEntry, mEmailsPerEntry,
+                mAddressesPerEntry, mWithOrganization, mWithNote, mPhotoInterval, mPhotoSize);
+    }
+
+    private void appendEntry(StringBuilder builder, Random random, int index, boolean japanese) {
+        final String given = japanese
+                ? pick(random, JAPANESE_GIVEN_NAMES) : pick(random, GIVEN_NAMES);
+        final String family = japanese
+                ? pick(random, JAPANESE_FAMILY_NAMES) : pick(random, FAMILY_NAMES);
+        final String charsetParam = ";CHARSET=" + mCharset.name();
+
+        appendLine(builder, "BEGIN:VCARD");
+        appendLine(builder, "VERSION:" + mVersion);
+        appendLine(builder, "N" + charsetParam + ":" + family + ";" + given + ";;;");
+        appendLine(builder, "FN" + charsetParam + ":" + given + " " + family);
+
+        final int phones = count(random, mPhonesPerEntry);
+        for (int i = 0; i < phones; i++) {
+            appendLine(builder, "TEL;" + type(i % 3 == 0 ? "CELL" : i % 3 == 1 ? "HOME" : "WORK")
+                    + ":+1 " + digits(random, 3) + "-555-" + digits(random, 4));
+        }
+        final int emails = count(random, mEmailsPerEntry);
+        for (int i = 0; i < emails; i++) {
+            appendLine(builder, "EMAIL;" + type(i % 2 == 0 ? "HOME" : "WORK") + ":user" + index
+                    + "." + i + "@example.com");
+        }
+        final int addresses = count(random, mAddressesPerEntry);
+        for (int i = 0; i < addresses; i++) {
+            appendLine(builder, "ADR;" + type("HOME") + ":;;" + (1 + random.nextInt(999)) + " "
+                    + pick(random, STREETS) + ";" + pick(random, CITIES) + ";;"
+                    + digits(random, 5) + ";");
+        }
+        if (mWithOrganization) {
+            appendLine(builder, "ORG:" + pick(random, COMPANIES));
+            appendLine(builder, "TITLE:Engineer");
+        }
+        if (mWithNote) {
+            appendLine(builder, "NOTE:Synthetic contact " + index + " for benchmarking");
+        }
+        if (mPhotoInterval > 0 && index % mPhotoInterval == 0) {
+            appendPhoto(builder, random);
+        }
+        appendLine(builder, "END:VCARD");
+    }
+
+    private void appendPhoto(StringBuilder builder, Random random) {
+        final String encoded = Base64.encodeToString(createPhoto(random), Base64.NO_WRAP);
+        final String header = VERSION_21.equals(mVersion)
+                ? "PHOTO;ENCODING=BASE64;JPEG:" : "PHOTO;ENCODING=b;TYPE=JPEG:";
+        builder.append(header);
+        int position = 0;
+        int lineLength = MAX_LINE_LENGTH - header.length();
+        while (position < encoded.length()) {
+            final int end = Math.min(encoded.length(), position + lineLength);
+            builder.append(encoded, position, end).append(END_OF_LINE);
+            position = end;
+            if (position < encoded.length()) {
+                // Folded line.
+                builder.append(' ');
+                lineLength = MAX_LINE_LENGTH - 1;
+            }
+        }
+        if (VERSION_21.equals(mVersion)) {
+            // vCard 2.1 ends Base64 values with an empty line.
+            builder.append(END_OF_LINE);
+        }
+    }
+
+    private byte[] createPhoto(Random random) {
+        final Bitmap bitmap = Bitmap.createBitmap(mPhotoSize, mPhotoSize, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawColor(Color.rgb(
+                random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private String type(String type) {
+        return VERSION_21.equals(mVersion) ? type : "TYPE=" + type;
+    }
+
+    private static void appendLine(StringBuilder builder, String line) {
+        builder.append(line).append(END_OF_LINE);
+    }
+
+    private static int count(Random random, int average) {
+        return average <= 0 ? 0 : random.nextInt(2 * average + 1);
+    }
+
+    private static String digits(Random random, int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append((char) ('0' + random.nextInt(10)));
+        }
+        return builder.toString();
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}